@@ -0,0 +1,51 @@
+package com.example.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+// entry point of target/benchmarks.jar: takes the usual JMH arguments (benchmark regexps, -p,
+// -f, -wi, ...) and runs them once per thread count, writing each run's results as JSON
+//
+//   java -jar src/benchmarks/target/benchmarks.jar FrontendCache -p skew=zipf
+//   java -Dthreads=1,2,4,8 -Dresults=results/2025-05-01 -jar src/benchmarks/target/benchmarks.jar
+//
+// -Dthreads lists the thread counts (default 1 and every core), -Dresults the directory that
+// gets one jmh-<threads>t.json per thread count (default jmh-results); -t in the arguments runs
+// that count only. the JSON files are JMH's own format, compare runs with any JMH result viewer
+public final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp() || options.shouldList() || options.shouldListWithParams()
+                || options.shouldListProfilers() || options.shouldListResultFormats()) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        File results = new File(System.getProperty("results", "jmh-results"));
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + results);
+        }
+        String threads = options.getThreads().hasValue() ? String.valueOf(options.getThreads().get())
+                : System.getProperty("threads", "1," + Runtime.getRuntime().availableProcessors());
+        for (String count : threads.split(",")) {
+            int t = Integer.parseInt(count.trim());
+            File result = new File(results, "jmh-" + t + "t.json");
+            ChainedOptionsBuilder run = new OptionsBuilder()
+                    .parent(options)
+                    .threads(t)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result(result.getPath());
+            new Runner(run.build()).run();
+            System.out.println("Results of " + t + " thread(s) in " + result);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.benchmark;
+
+import java.util.Random;
+
+// which symbol each benchmark operation touches
+// skew "uniform" spreads accesses evenly over the symbols, "zipf" draws them from a Zipf
+// distribution (exponent 0.99, as YCSB) so a few popular stocks take most of the traffic.
+// draws are precomputed so picking a key in a benchmark costs an array read
+public final class Keys {
+
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    private Keys() {
+    }
+
+    // count symbol indices in [0, symbols), reproducible for a seed
+    public static int[] draw(int symbols, String skew, int count, long seed) {
+        Random random = new Random(seed);
+        int[] keys = new int[count];
+        if ("uniform".equals(skew)) {
+            for (int i = 0; i < count; i++) {
+                keys[i] = random.nextInt(symbols);
+            }
+            return keys;
+        }
+        if (!"zipf".equals(skew)) {
+            throw new IllegalArgumentException("Unknown skew: " + skew);
+        }
+        // cumulative weights of 1 / rank^s, searched for a uniform draw
+        double[] cumulative = new double[symbols];
+        double total = 0;
+        for (int rank = 1; rank <= symbols; rank++) {
+            total += 1 / Math.pow(rank, ZIPF_EXPONENT);
+            cumulative[rank - 1] = total;
+        }
+        // popular ranks land on scattered symbols, not on the first ones
+        int[] symbolOfRank = shuffled(symbols, random);
+        for (int i = 0; i < count; i++) {
+            double target = random.nextDouble() * total;
+            int low = 0;
+            int high = symbols - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] < target) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            keys[i] = symbolOfRank[low];
+        }
+        return keys;
+    }
+
+    // stock names as in the catalog, "Stock0" .. "Stock<symbols - 1>"
+    public static String[] names(int symbols) {
+        String[] names = new String[symbols];
+        for (int i = 0; i < symbols; i++) {
+            names[i] = "Stock" + i;
+        }
+        return names;
+    }
+
+    private static int[] shuffled(int size, Random random) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = values[i];
+            values[i] = values[j];
+            values[j] = swap;
+        }
+        return values;
+    }
+
+    // a thread's position in the precomputed draws, each thread starts somewhere else
+    public static final class Cursor {
+
+        private final int mask;
+        private int next;
+
+        // count must be a power of two
+        public Cursor(int count, long seed) {
+            this.mask = count - 1;
+            this.next = new Random(seed).nextInt(count);
+        }
+
+        public int next() {
+            return next++ & mask;
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.benchmark;
+
+import com.example.order.Order;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// JSON bodies on the hot paths, with Jackson as the services use it: a stock response as the
+// catalog builds it, an order response as a replica builds it, and a new order parsed from its
+// request body at the leader
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ResponseJsonBenchmark {
+
+    private static final int DRAWS = 1 << 16;
+
+    @Param({"10", "10000"})
+    public int symbols;
+
+    @Param({"uniform", "zipf"})
+    public String skew;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private String[] names;
+    private byte[][] requests;
+    private int[] keys;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        Keys.Cursor cursor;
+
+        @Setup
+        public void setup() {
+            cursor = new Keys.Cursor(DRAWS, Thread.currentThread().getId());
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        names = Keys.names(symbols);
+        keys = Keys.draw(symbols, skew, DRAWS, 42);
+        requests = new byte[symbols][];
+        for (int i = 0; i < symbols; i++) {
+            requests[i] = mapper.writeValueAsBytes(new Order(0, names[i], i % 2 == 0 ? "buy" : "sell", 1 + i % 100));
+        }
+    }
+
+    @Benchmark
+    public byte[] stockResponse(ThreadKeys thread) throws Exception {
+        int key = keys[thread.cursor.next()];
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", names[key]);
+        data.put("volume", 100L + key);
+        return mapper.writeValueAsBytes(data);
+    }
+
+    @Benchmark
+    public byte[] orderResponse(ThreadKeys thread) throws Exception {
+        int key = keys[thread.cursor.next()];
+        Map<String, Object> response = new HashMap<>();
+        response.put("data", new Order(key + 1, names[key], key % 2 == 0 ? "buy" : "sell", 1 + key % 100));
+        return mapper.writeValueAsBytes(response);
+    }
+
+    @Benchmark
+    public Order orderRequest(ThreadKeys thread) throws Exception {
+        return mapper.readValue(requests[keys[thread.cursor.next()]], Order.class);
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.catalog;
+
+import com.example.benchmark.Keys;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+// the catalog trade path without HTTP: a stock name is resolved to its id and bought or sold
+// (every other trade of a thread sells, so volumes stay put), and a batch of 10 trades is
+// applied at once. under zipf skew most threads trade the same few stocks; run with -t N
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TradeEngineBenchmark {
+
+    private static final int DRAWS = 1 << 20;
+    private static final int BATCH = 10;
+
+    @Param({"10", "1000", "100000"})
+    public int symbols;
+
+    @Param({"uniform", "zipf"})
+    public String skew;
+
+    private TradeEngine engine;
+    private String[] names;
+    private int[] keys;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        Keys.Cursor cursor;
+        boolean sell;
+        final int[] ids = new int[BATCH];
+        final boolean[] buys = new boolean[BATCH];
+        final int[] quantities = new int[BATCH];
+        final long[] volumes = new long[BATCH];
+
+        @Setup
+        public void setup() {
+            cursor = new Keys.Cursor(DRAWS, Thread.currentThread().getId());
+            Arrays.fill(quantities, 1);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        names = Keys.names(symbols);
+        long[] volumes = new long[symbols];
+        Arrays.fill(volumes, 1_000_000);
+        engine = new TradeEngine();
+        engine.load(Arrays.asList(names), volumes);
+        keys = Keys.draw(symbols, skew, DRAWS, 42);
+    }
+
+    @Benchmark
+    public long trade(ThreadKeys thread) {
+        int id = engine.idOf(names[keys[thread.cursor.next()]]);
+        thread.sell = !thread.sell;
+        return thread.sell ? engine.sell(id, 1) : engine.buy(id, 1);
+    }
+
+    @Benchmark
+    public int tradeBatch(ThreadKeys thread) {
+        thread.sell = !thread.sell;
+        for (int i = 0; i < BATCH; i++) {
+            thread.ids[i] = engine.idOf(names[keys[thread.cursor.next()]]);
+            thread.buys[i] = !thread.sell;
+        }
+        return engine.tradeAll(thread.ids, thread.buys, thread.quantities, thread.volumes);
+    }
+}
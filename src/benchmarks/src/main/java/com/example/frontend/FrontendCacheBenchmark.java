@@ -0,0 +1,92 @@
+package com.example.frontend;
+
+import com.example.benchmark.Keys;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+// the frontend stock cache: lookups (a miss inserts, as FrontendCacheController does), inserts,
+// and lookups while a trade thread invalidates stocks. the cache holds a tenth of the symbols;
+// run with -t N for N threads, the group benchmark runs three readers per invalidating thread
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FrontendCacheBenchmark {
+
+    private static final int DRAWS = 1 << 20;
+
+    @Param({"tinylfu", "lru"})
+    public String policy;
+
+    @Param({"100", "10000"})
+    public int symbols;
+
+    @Param({"uniform", "zipf"})
+    public String skew;
+
+    private FrontendCache<String, String> cache;
+    private String[] names;
+    private String[] bodies;
+    private int[] keys;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        Keys.Cursor cursor;
+
+        @Setup
+        public void setup() {
+            cursor = new Keys.Cursor(DRAWS, Thread.currentThread().getId());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        cache = CacheConfiguration.newCache(policy, Math.max(1, symbols / 10), 0);
+        names = Keys.names(symbols);
+        bodies = new String[symbols];
+        for (int i = 0; i < symbols; i++) {
+            bodies[i] = "{\"name\":\"" + names[i] + "\",\"volume\":" + (100 + i) + "}";
+        }
+        keys = Keys.draw(symbols, skew, DRAWS, 42);
+        // start from the steady state the policy reaches, not from an empty cache
+        for (int key : keys) {
+            lookup(key);
+        }
+    }
+
+    @Benchmark
+    public String lookup(ThreadKeys thread) {
+        return lookup(keys[thread.cursor.next()]);
+    }
+
+    @Benchmark
+    public void insert(ThreadKeys thread) {
+        int key = keys[thread.cursor.next()];
+        cache.put(names[key], bodies[key]);
+    }
+
+    @Benchmark
+    @Group("invalidations")
+    @GroupThreads(3)
+    public String lookupWhileInvalidating(ThreadKeys thread) {
+        return lookup(keys[thread.cursor.next()]);
+    }
+
+    @Benchmark
+    @Group("invalidations")
+    @GroupThreads(1)
+    public void invalidate(ThreadKeys thread) {
+        cache.invalidate(names[keys[thread.cursor.next()]]);
+    }
+
+    private String lookup(int key) {
+        String body = cache.get(names[key]);
+        if (body == null) {
+            cache.put(names[key], bodies[key]);
+        }
+        return body;
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.order;
+
+import com.example.benchmark.Keys;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+// order store reads and writes on a store holding a million orders, whose stock names come from
+// symbols stocks; get reads order numbers under the given skew, put stores an order again under
+// its number (as a follower applying a batch does) so the store does not grow. append numbers a
+// new order through OrderLog as the leader does, into a store emptied every iteration; run with -t N
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class OrderStoreBenchmark {
+
+    private static final int ORDERS = 1 << 20;
+
+    @Param({"memory", "columnar"})
+    public String store;
+
+    @Param({"10", "10000"})
+    public int symbols;
+
+    @Param({"uniform", "zipf"})
+    public String skew;
+
+    private OrderStore orderStore;
+    private Order[] orders;
+    private int[] numbers;
+
+    @State(Scope.Thread)
+    public static class ThreadKeys {
+        Keys.Cursor cursor;
+
+        @Setup
+        public void setup() {
+            cursor = new Keys.Cursor(ORDERS, Thread.currentThread().getId());
+        }
+    }
+
+    // the log append writes to, fresh for every iteration so it does not fill the heap
+    @State(Scope.Benchmark)
+    public static class AppendLog {
+        OrderLog log;
+
+        @Setup(Level.Iteration)
+        public void setup(OrderStoreBenchmark benchmark) {
+            log = new OrderLog(benchmark.newStore());
+        }
+    }
+
+    @Setup
+    public void setup() {
+        orderStore = newStore();
+        String[] names = Keys.names(symbols);
+        int[] stocks = Keys.draw(symbols, skew, ORDERS, 7);
+        orders = new Order[ORDERS];
+        for (int i = 0; i < ORDERS; i++) {
+            orders[i] = new Order(i + 1, names[stocks[i]], i % 2 == 0 ? "buy" : "sell", 1 + i % 100);
+        }
+        orderStore.write(Arrays.asList(orders), ORDERS);
+        // which orders are read and written, popular ones more often under zipf
+        numbers = Keys.draw(ORDERS, skew, ORDERS, 42);
+    }
+
+    @Benchmark
+    public Order get(ThreadKeys thread) {
+        return orderStore.get(numbers[thread.cursor.next()] + 1);
+    }
+
+    @Benchmark
+    public long put(ThreadKeys thread) {
+        return orderStore.write(Collections.singletonList(orders[numbers[thread.cursor.next()]]), ORDERS);
+    }
+
+    @Benchmark
+    public long append(ThreadKeys thread, AppendLog append) {
+        Order order = orders[numbers[thread.cursor.next()]];
+        return append.log.append(new Order(0, order.getName(), order.getType(), order.getQuantity()), 1);
+    }
+
+    OrderStore newStore() {
+        if ("memory".equals(store)) {
+            return new InMemoryOrderStore();
+        }
+        if ("columnar".equals(store)) {
+            return new ColumnarOrderStore();
+        }
+        throw new IllegalArgumentException("Unknown store: " + store);
+    }
+}
@@ -0,0 +1,27 @@
+package com.example.catalog;
+
+import java.util.List;
+
+// body of POST /stocks/trade/batch
+// when atomic is true either every trade in the batch is applied or none of them is
+public class BatchTradeRequest {
+
+    private List<TradeRequest> trades;
+    private boolean atomic;
+
+    public List<TradeRequest> getTrades() {
+        return trades;
+    }
+
+    public void setTrades(List<TradeRequest> trades) {
+        this.trades = trades;
+    }
+
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    public void setAtomic(boolean atomic) {
+        this.atomic = atomic;
+    }
+}
@@ -1,17 +1,22 @@
 package com.example.catalog;
 
+import com.example.common.LogSampler;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
-import jakarta.annotation.PostConstruct;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -19,57 +24,112 @@ import org.slf4j.LoggerFactory;
 @RequestMapping("/stocks")
 public class CatalogController {
 
-    // thread-safe map to store stock names and the volumes
-    private final Map<String, Integer> stockVolume = new ConcurrentHashMap<>();
+    // lock-free engine that owns the stock volumes
+    private final TradeEngine tradeEngine;
 
-    // used to make REST calls, eg. for cache invalidation
-    private final RestTemplate restTemplate = new RestTemplate();
+    // sends frontend cache invalidations in the background
+    private final InvalidationDispatcher invalidationDispatcher;
+
+    // stock lookup bodies, serialized once per version of a stock
+    private final StockResponses stockResponses;
+
+    // volume changes pushed to frontends and other subscribers
+    private final StockUpdateStream updateStream;
 
     // logger support to print logs in a structured manner
     private static final Logger logger = LoggerFactory.getLogger(CatalogController.class);
 
-    // initialize the stockVolume map by reading from stocks.csv
-    // this method is called after the controller is constructed
-    @PostConstruct
-    public void init() throws IOException {
-        InputStream is = getClass().getClassLoader().getResourceAsStream("stocks.csv");
-        if (is == null) {
-            System.err.println("stocks.csv not found in resources!");
-            return;
-        }
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
-
-        // skip header line
-        reader.readLine();
-        while ((line = reader.readLine()) != null) {
-            String[] parts = line.split(",");
-            if (parts.length >= 2) {
-                stockVolume.put(parts[0], Integer.parseInt(parts[1]));
-            }
-            logger.info("Loaded stock: {} with volume: {}", parts[0], parts[1]);
-        }
+    // per-trade debug lines are only written for a sample of the trades
+    private final LogSampler sampler;
+
+    // catalog.trades by type and outcome, single trades and those of batches alike
+    private final Counter boughtTrades;
+    private final Counter soldTrades;
+    private final Counter insufficientVolume;
+    private final Counter unknownStock;
+    private final Counter invalidTrades;
+    private final Counter notApplied;
+    private final DistributionSummary batchSizes;
+
+    public CatalogController(TradeEngine tradeEngine, InvalidationDispatcher invalidationDispatcher,
+                             StockResponses stockResponses, StockUpdateStream updateStream,
+                             MeterRegistry registry, LogSampler sampler) {
+        this.tradeEngine = tradeEngine;
+        this.invalidationDispatcher = invalidationDispatcher;
+        this.stockResponses = stockResponses;
+        this.updateStream = updateStream;
+        this.sampler = sampler;
+        this.boughtTrades = trades(registry, "buy", "ok");
+        this.soldTrades = trades(registry, "sell", "ok");
+        this.insufficientVolume = trades(registry, "buy", "insufficient_volume");
+        this.unknownStock = trades(registry, "none", "unknown_stock");
+        this.invalidTrades = trades(registry, "none", "invalid");
+        this.notApplied = trades(registry, "none", "not_applied");
+        this.batchSizes = DistributionSummary.builder("catalog.trade.batch.size")
+                .description("Trades per batch request")
+                .register(registry);
     }
 
     // return volume for a given stock name, API endpoint is GET /stocks/<stockname>
+    // the ETag names the stock's version, a request whose If-None-Match still names it gets an
+    // empty 304 instead of the body
     @GetMapping("/{stockName}")
-    public ResponseEntity<?> getStock(@PathVariable("stockName") String stockName) {
-        if (!stockVolume.containsKey(stockName)) {
-            Map<String, Object> error = new HashMap<>();
-            error.put("code", 404);
-            error.put("message", "Stock not found");
+    public ResponseEntity<?> getStock(@PathVariable("stockName") String stockName, WebRequest request)
+            throws JsonProcessingException {
+        int id = tradeEngine.idOf(stockName);
+        if (id == TradeEngine.UNKNOWN_STOCK) {
+            return ResponseEntity.status(404).body(errorBody(404, "Stock not found"));
+        }
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("error", error);
+        // if stock found, return name and current volume
+        StockResponses.Body body = stockResponses.current(id);
+        if (request.checkNotModified(body.getEtag())) {
+            // 304 with the ETag already set on the response
+            return null;
+        }
+        return ResponseEntity.ok()
+                .eTag(body.getEtag())
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(body.getBytes());
+    }
 
-            return ResponseEntity.status(404).body(response);
+    // several stocks in one call, API endpoint is GET /stocks?names=Stock1,Stock2 or, for every stock
+    // whose name starts with a prefix, GET /stocks?prefix=Stock (at most limit of them, default 100)
+    // answers a JSON array with each known stock in its versioned form, as the update stream sends
+    // it: {"name":..,"version":..,"etag":..,"stock":<the GET /stocks/<stockname> body>}; unknown
+    // names are left out and a name asked for twice is sent once
+    @GetMapping
+    public ResponseEntity<?> getStocks(@RequestParam(value = "names", required = false) List<String> names,
+                                       @RequestParam(value = "prefix", required = false) String prefix,
+                                       @RequestParam(value = "limit", defaultValue = "100") int limit)
+            throws JsonProcessingException {
+        if (names == null && prefix == null) {
+            return ResponseEntity.status(400).body(errorBody(400, "Stock names or a name prefix required"));
         }
 
-        // if stock found, return name and current volume
-        Map<String, Object> data = new HashMap<>();
-        data.put("name", stockName);
-        data.put("volume", stockVolume.get(stockName));
-        return ResponseEntity.ok(data);
+        Set<Integer> ids = new LinkedHashSet<>();
+        if (names != null) {
+            for (String name : names) {
+                int id = tradeEngine.idOf(name);
+                if (id != TradeEngine.UNKNOWN_STOCK) {
+                    ids.add(id);
+                }
+            }
+        } else {
+            for (int id = 0; id < tradeEngine.size() && ids.size() < limit; id++) {
+                if (tradeEngine.nameOf(id).startsWith(prefix)) {
+                    ids.add(id);
+                }
+            }
+        }
+
+        StringBuilder json = new StringBuilder("[");
+        for (int id : ids) {
+            json.append(json.length() > 1 ? "," : "").append(stockResponses.versioned(id));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(json.append(']').toString());
     }
 
     // handle stock trade requests like buy/sell, API endpoint is POST /stocks/trade
@@ -77,66 +137,235 @@ public class CatalogController {
     public ResponseEntity<?> tradeStock(@RequestBody Map<String, Object> request) {
         String stockName = (String) request.get("name");
         String type = (String) request.get("type");
-        int quantity = (int) request.get("quantity");
+        Object requested = request.get("quantity");
+        int quantity = requested instanceof Integer ? (Integer) requested : 0;
 
-        if (!stockVolume.containsKey(stockName)) {
+        int id = tradeEngine.idOf(stockName);
+        if (id == TradeEngine.UNKNOWN_STOCK) {
             // stock not found
-            Map<String, Object> error = new HashMap<>();
-            error.put("code", 404);
-            error.put("message", "Stock not found");
-
-            Map<String, Object> response = new HashMap<>();
-            response.put("error", error);
             logger.warn("Trade failed, Stock {} not found", stockName);
+            unknownStock.increment();
+            return ResponseEntity.status(404).body(errorBody(404, "Stock not found"));
+        }
 
-            return ResponseEntity.status(404).body(response);
+        if (quantity <= 0) {
+            // a negative buy would add volume and a negative sell take it without any check
+            logger.warn("Invalid trade quantity: {}", requested);
+            invalidTrades.increment();
+            return ResponseEntity.status(400).body(errorBody(400, "Invalid quantity"));
         }
 
-        int currentVolume = stockVolume.get(stockName);
         if ("buy".equalsIgnoreCase(type)) {
-            // because buying decreases volume
-            if (quantity > currentVolume) {
+            // because buying decreases volume, check and decrement happen atomically in the engine
+            long remaining = tradeEngine.buy(id, quantity);
+            if (remaining == TradeEngine.INSUFFICIENT_VOLUME) {
                 // not enough stock available for the request
-                logger.warn("BUY failed! insufficient stock: {} (requested = {}, available = {})", stockName, quantity, currentVolume);
-                Map<String, Object> error = new HashMap<>();
-                error.put("code", 400);
-                error.put("message", "Not enough stock available");
-
-                Map<String, Object> response = new HashMap<>();
-                response.put("error", error);
-
-                return ResponseEntity.status(400).body(response);
+                logger.warn("BUY failed! insufficient stock: {} (requested = {}, available = {})", stockName, quantity, tradeEngine.volume(id));
+                insufficientVolume.increment();
+                return ResponseEntity.status(400).body(errorBody(400, "Not enough stock available"));
+            }
+            boughtTrades.increment();
+            if (logger.isDebugEnabled() && sampler.sample()) {
+                logger.debug("BUY: {} of {}; remaining volume = {}", quantity, stockName, remaining);
             }
-            stockVolume.put(stockName, currentVolume - quantity);
-            logger.info("BUY: {} of {}; remaining volume = {}", quantity, stockName, stockVolume.get(stockName));
         } else if ("sell".equalsIgnoreCase(type)) {
             // because selling increases volume
-            stockVolume.put(stockName, currentVolume + quantity);
-            logger.info("SELL: {} of {}; new total = {}", quantity, stockName, stockVolume.get(stockName));
+            long total = tradeEngine.sell(id, quantity);
+            soldTrades.increment();
+            if (logger.isDebugEnabled() && sampler.sample()) {
+                logger.debug("SELL: {} of {}; new total = {}", quantity, stockName, total);
+            }
         } else {
             // invalid trade type (not buy or sell)
             logger.error("Invalid trade type: {}", type);
-            Map<String, Object> error = new HashMap<>();
-            error.put("code", 400);
-            error.put("message", "Invalid trade type");
+            invalidTrades.increment();
+            return ResponseEntity.status(400).body(errorBody(400, "Invalid trade type"));
+        }
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("error", error);
+        // publish the new volume to stream subscribers and tell a frontend that does not subscribe
+        // to invalidate cache for this stock, both delivered asynchronously
+        updateStream.changed(id);
+        invalidationDispatcher.invalidate(stockName);
+        // if trade is successful
+        Map<String, Object> response = new HashMap<>();
+        response.put("message", "Trade successful");
+        return ResponseEntity.ok(response);
+    }
 
-            return ResponseEntity.status(400).body(response);
+    // apply a basket of trades in one request, API endpoint is POST /stocks/trade/batch
+    // every trade gets its own result; with "atomic": true the batch is applied all-or-nothing
+    // the frontend gets one invalidation call for all stocks touched by the batch
+    @PostMapping("/trade/batch")
+    public ResponseEntity<?> tradeBatch(@RequestBody BatchTradeRequest request) {
+        List<TradeRequest> trades = request.getTrades();
+        if (trades == null || trades.isEmpty()) {
+            return ResponseEntity.status(400).body(errorBody(400, "No trades in batch"));
         }
 
-        // tell frontend to invalidate cache for this stock
-        try {
-            String frontendUrl = System.getenv().getOrDefault("FRONTEND_URL", "http://localhost:7070");
-            restTemplate.postForEntity(frontendUrl + "/stocks/invalidate/" + stockName, null, String.class);
-            logger.info("Cache invalidation triggered for {}", stockName);
-        } catch (Exception e) {
-            logger.error("Cache invalidation failed for {}: {}", stockName, e.getMessage());
+        int n = trades.size();
+        batchSizes.record(n);
+        int[] ids = new int[n];
+        boolean[] buys = new boolean[n];
+        int[] quantities = new int[n];
+        long[] volumes = new long[n];
+        List<Map<String, Object>> results = new ArrayList<>(n);
+        boolean allValid = true;
+
+        // resolve stock ids and trade types up front so invalid trades are never applied
+        for (int i = 0; i < n; i++) {
+            TradeRequest trade = trades.get(i);
+            ids[i] = trade.getName() == null ? TradeEngine.UNKNOWN_STOCK : tradeEngine.idOf(trade.getName());
+            buys[i] = "buy".equalsIgnoreCase(trade.getType());
+            quantities[i] = trade.getQuantity() == null ? 0 : trade.getQuantity();
+            if (ids[i] == TradeEngine.UNKNOWN_STOCK) {
+                results.add(itemResult(trade, 404, "Stock not found"));
+                allValid = false;
+            } else if (!buys[i] && !"sell".equalsIgnoreCase(trade.getType())) {
+                results.add(itemResult(trade, 400, "Invalid trade type"));
+                allValid = false;
+            } else if (trade.getQuantity() == null || trade.getQuantity() <= 0) {
+                results.add(itemResult(trade, 400, "Invalid quantity"));
+                allValid = false;
+            } else {
+                results.add(null);
+            }
         }
-        // if trade is successful
+
+        Set<String> traded = new LinkedHashSet<>();
+        int applied = 0;
+        if (request.isAtomic()) {
+            int failed = allValid ? tradeEngine.tradeAll(ids, buys, quantities, volumes) : -2;
+            if (failed != -1) {
+                // nothing was applied, report why for the failing trade and mark the rest
+                for (int i = 0; i < n; i++) {
+                    if (i == failed) {
+                        results.set(i, itemResult(trades.get(i), 400, "Not enough stock available"));
+                    } else if (results.get(i) == null) {
+                        results.set(i, itemResult(trades.get(i), 409, "Batch not applied"));
+                    }
+                }
+                logger.warn("Atomic batch of {} trades rejected", n);
+                count(results, buys);
+                Map<String, Object> response = errorBody(400, "Batch trade not applied");
+                response.put("results", results);
+                return ResponseEntity.status(400).body(response);
+            }
+            for (int i = 0; i < n; i++) {
+                results.set(i, tradedResult(trades.get(i), volumes[i]));
+                traded.add(trades.get(i).getName());
+                updateStream.changed(ids[i]);
+            }
+            applied = n;
+        } else {
+            for (int i = 0; i < n; i++) {
+                if (results.get(i) != null) {
+                    continue;
+                }
+                long volume = buys[i] ? tradeEngine.buy(ids[i], quantities[i]) : tradeEngine.sell(ids[i], quantities[i]);
+                if (volume == TradeEngine.INSUFFICIENT_VOLUME) {
+                    results.set(i, itemResult(trades.get(i), 400, "Not enough stock available"));
+                } else {
+                    results.set(i, tradedResult(trades.get(i), volume));
+                    traded.add(trades.get(i).getName());
+                    updateStream.changed(ids[i]);
+                    applied++;
+                }
+            }
+        }
+        count(results, buys);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Batch: {} of {} trades applied to {} stocks", applied, n, traded.size());
+        }
+
+        if (!traded.isEmpty()) {
+            // one invalidation for every stock the batch touched
+            invalidationDispatcher.invalidateAll(traded);
+        }
+
         Map<String, Object> response = new HashMap<>();
-        response.put("message", "Trade successful");
+        response.put("applied", applied);
+        response.put("results", results);
         return ResponseEntity.ok(response);
     }
+
+    // live volume changes as server-sent events, API endpoint is GET /stocks/stream?names=Stock1,Stock2
+    // a "snapshot" event with every requested stock (all of them without names, unknown names are
+    // left out) is followed by a "volume" event per change, each with the stock's version and the
+    // GET /stocks/<stockname> body of that version; a client reconnecting with the Last-Event-ID
+    // header (or ?from=) of the last event it got is sent only the changes it missed
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@RequestParam(value = "names", required = false) List<String> names,
+                                             @RequestParam(value = "from", required = false) String from,
+                                             @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId) {
+        int[] ids = null;
+        if (names != null) {
+            ids = names.stream().mapToInt(tradeEngine::idOf).filter(id -> id != TradeEngine.UNKNOWN_STOCK).toArray();
+        }
+        SseEmitter emitter = updateStream.subscribe(ids, lastEventId != null ? lastEventId : from);
+        if (emitter == null) {
+            logger.warn("Stock stream subscription refused, too many subscribers");
+            return ResponseEntity.status(503).build();
+        }
+        return ResponseEntity.ok(emitter);
+    }
+
+    // queue depth, lag and delivery counters of the invalidation dispatcher
+    // API endpoint is GET /stocks/invalidation/metrics
+    @GetMapping("/invalidation/metrics")
+    public ResponseEntity<?> invalidationMetrics() {
+        return ResponseEntity.ok(invalidationDispatcher.metrics());
+    }
+
+    private static Map<String, Object> tradedResult(TradeRequest trade, long volume) {
+        Map<String, Object> result = itemResult(trade, 200, "Trade successful");
+        result.put("volume", volume);
+        return result;
+    }
+
+    // counts every trade of a batch by its result
+    private void count(List<Map<String, Object>> results, boolean[] buys) {
+        for (int i = 0; i < results.size(); i++) {
+            Map<String, Object> result = results.get(i);
+            int code = (int) result.get("code");
+            if (code == 200) {
+                (buys[i] ? boughtTrades : soldTrades).increment();
+            } else if (code == 404) {
+                unknownStock.increment();
+            } else if (code == 409) {
+                notApplied.increment();
+            } else if ("Not enough stock available".equals(result.get("message"))) {
+                insufficientVolume.increment();
+            } else {
+                invalidTrades.increment();
+            }
+        }
+    }
+
+    private static Counter trades(MeterRegistry registry, String type, String outcome) {
+        return Counter.builder("catalog.trades")
+                .description("Trades by type and outcome")
+                .tag("type", type)
+                .tag("outcome", outcome)
+                .register(registry);
+    }
+
+    private static Map<String, Object> itemResult(TradeRequest trade, int code, String message) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("name", trade.getName());
+        result.put("type", trade.getType());
+        result.put("quantity", trade.getQuantity());
+        result.put("code", code);
+        result.put("message", message);
+        return result;
+    }
+
+    private static Map<String, Object> errorBody(int code, String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", code);
+        error.put("message", message);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
+        return response;
+    }
 }
@@ -0,0 +1,49 @@
+package com.example.catalog;
+
+import com.example.common.HashRing;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+// which stocks of stocks.csv this catalog trades when the catalog runs as several shards: the ones
+// the hash ring over shard.members puts on shard.id, the same ring the frontend routes lookups by
+// (catalog.shards there, with the same ids). without members the catalog trades every stock
+@Component
+public class CatalogShard {
+
+    private final String id;
+    // null when not sharded
+    private final HashRing<String> ring;
+
+    public CatalogShard(@Value("${shard.id:}") String id,
+                        @Value("${shard.members:}") List<String> members,
+                        @Value("${shard.virtual-nodes:100}") int virtualNodes) {
+        List<String> ids = new ArrayList<>();
+        for (String member : members) {
+            if (!member.trim().isEmpty()) {
+                ids.add(member.trim());
+            }
+        }
+        if (!ids.isEmpty() && !ids.contains(id)) {
+            throw new IllegalArgumentException("shard.id " + id + " is not one of shard.members " + ids);
+        }
+        this.id = id;
+        this.ring = ids.isEmpty() ? null : new HashRing<>(ids, Function.identity(), virtualNodes);
+    }
+
+    // whether this catalog trades the stock
+    public boolean owns(String stockName) {
+        return ring == null || ring.nodeFor(stockName).equals(id);
+    }
+
+    public boolean isSharded() {
+        return ring != null;
+    }
+
+    public String getId() {
+        return id;
+    }
+}
@@ -0,0 +1,284 @@
+package com.example.catalog;
+
+import com.example.common.ServiceHttpClient;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestTemplate;
+
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// sends frontend cache invalidations in the background so trades never wait on the frontend
+// invalidations for the same stock within one window are coalesced, and everything pending
+// is sent as one batched POST /stocks/invalidate call, retried with exponential backoff.
+// an invalidation of a new stock while invalidation.capacity stocks are pending is counted as
+// overflowed and turns the next flush into one POST /stocks/invalidate-all that drops the
+// frontend's whole stock cache, the trade's thread never waits for the frontend
+// only needed by a frontend at FRONTEND_URL that does not follow GET /stocks/stream, otherwise
+// disabled with invalidation.enabled: false
+@Component
+public class InvalidationDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(InvalidationDispatcher.class);
+
+    private final boolean enabled;
+    private final String frontendUrl;
+    private final long windowMs;
+    private final int capacity;
+    private final int maxAttempts;
+    private final long backoffMs;
+    private final RestTemplate restTemplate;
+
+    // stock name -> System.nanoTime() of its oldest pending invalidation, bounded by capacity
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+    // System.nanoTime() of the first overflow since the last flush-all was sent, 0 if none
+    private final AtomicLong overflowedAt = new AtomicLong();
+
+    // true while a flush is scheduled, so a burst of trades schedules only one flush
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "invalidation-dispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // counters exposed through metrics()
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder flushAllsSent = new LongAdder();
+    private final LongAdder invalidationsSent = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final AtomicLong lastLagMicros = new AtomicLong();
+    private final AtomicLong maxLagMicros = new AtomicLong();
+
+    public InvalidationDispatcher(String frontendUrl, long windowMs, int capacity, int maxAttempts, long backoffMs,
+                                  ServiceHttpClient httpClient) {
+        this(true, frontendUrl, windowMs, capacity, maxAttempts, backoffMs, httpClient);
+    }
+
+    @Autowired
+    public InvalidationDispatcher(@Value("${invalidation.enabled:true}") boolean enabled,
+                                  @Value("${FRONTEND_URL:http://localhost:7070}") String frontendUrl,
+                                  @Value("${invalidation.window-ms:5}") long windowMs,
+                                  @Value("${invalidation.capacity:10000}") int capacity,
+                                  @Value("${invalidation.max-attempts:5}") int maxAttempts,
+                                  @Value("${invalidation.backoff-ms:50}") long backoffMs,
+                                  ServiceHttpClient httpClient) {
+        this.enabled = enabled;
+        this.frontendUrl = frontendUrl;
+        this.windowMs = windowMs;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.backoffMs = backoffMs;
+
+        // a slow frontend can only hold the dispatcher for the frontend route's read timeout
+        this.restTemplate = httpClient.restTemplate("frontend");
+    }
+
+    // queue an invalidation for one stock
+    public void invalidate(String stockName) {
+        if (!enabled) {
+            return;
+        }
+        if (!offer(stockName, System.nanoTime())) {
+            dropped(1, stockName);
+        }
+        scheduleFlush(windowMs);
+    }
+
+    // queue invalidations for several stocks, eg. everything touched by a batch trade
+    public void invalidateAll(Collection<String> stockNames) {
+        if (!enabled) {
+            return;
+        }
+        int rejected = 0;
+        long now = System.nanoTime();
+        for (String stockName : stockNames) {
+            if (!offer(stockName, now)) {
+                rejected++;
+            }
+        }
+        if (rejected > 0) {
+            dropped(rejected, stockNames);
+        }
+        scheduleFlush(windowMs);
+    }
+
+    // current queue depth, lag and delivery counters
+    public Map<String, Object> metrics() {
+        long oldest = Long.MAX_VALUE;
+        for (Long enqueuedAt : pending.values()) {
+            oldest = Math.min(oldest, enqueuedAt);
+        }
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("queueDepth", pending.size());
+        metrics.put("flushAllPending", overflowedAt.get() != 0);
+        metrics.put("oldestPendingMs", oldest == Long.MAX_VALUE ? 0 : (System.nanoTime() - oldest) / 1_000_000);
+        metrics.put("lastLagMs", lastLagMicros.get() / 1000.0);
+        metrics.put("maxLagMs", maxLagMicros.get() / 1000.0);
+        metrics.put("enqueued", enqueued.sum());
+        metrics.put("coalesced", coalesced.sum());
+        metrics.put("overflowed", overflowed.sum());
+        metrics.put("batchesSent", batchesSent.sum());
+        metrics.put("flushAllsSent", flushAllsSent.sum());
+        metrics.put("invalidationsSent", invalidationsSent.sum());
+        metrics.put("retries", retries.sum());
+        metrics.put("failures", failures.sum());
+        return metrics;
+    }
+
+    // deliver whatever is still pending before the service stops
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+        flush();
+    }
+
+    // the queue is full of other stocks: sending on the caller's thread would hold the trade for
+    // as long as the frontend takes, retries included, so the invalidation is coalesced into a
+    // flush of the whole frontend cache instead
+    private void dropped(int count, Object stocks) {
+        // warned once, metrics() counts them all
+        if (overflowed.sum() == 0 || logger.isDebugEnabled()) {
+            logger.warn("Invalidation queue full, invalidating the whole frontend cache for {}", stocks);
+        }
+        overflowed.add(count);
+        overflowedAt.compareAndSet(0, System.nanoTime());
+    }
+
+    private boolean offer(String stockName, long now) {
+        enqueued.increment();
+        if (pending.containsKey(stockName)) {
+            coalesced.increment();
+            return true;
+        }
+        if (pending.size() >= capacity) {
+            return false;
+        }
+        if (pending.putIfAbsent(stockName, now) != null) {
+            coalesced.increment();
+        }
+        return true;
+    }
+
+    private void scheduleFlush(long delayMs) {
+        if (flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flush, delayMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                // executor already shut down
+                flushScheduled.set(false);
+            }
+        }
+    }
+
+    // runs on the dispatcher thread, sends everything pending as one batch
+    private void flush() {
+        flushScheduled.set(false);
+        long flushAllSince = overflowedAt.getAndSet(0);
+        if (flushAllSince != 0) {
+            flushAll(flushAllSince);
+            return;
+        }
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<String, Long> batch = new LinkedHashMap<>();
+        Iterator<Map.Entry<String, Long>> it = pending.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            batch.put(entry.getKey(), entry.getValue());
+            it.remove();
+        }
+
+        if (send("/stocks/invalidate", new ArrayList<>(batch.keySet()))) {
+            long oldest = Long.MAX_VALUE;
+            for (Long enqueuedAt : batch.values()) {
+                oldest = Math.min(oldest, enqueuedAt);
+            }
+            recordLag(oldest);
+        } else {
+            // put the batch back, keeping the original enqueue times, and try again later
+            for (Map.Entry<String, Long> entry : batch.entrySet()) {
+                pending.putIfAbsent(entry.getKey(), entry.getValue());
+            }
+            scheduleFlush(backoffMs << Math.min(maxAttempts, 10));
+        }
+    }
+
+    // the whole frontend cache at once, which covers every stock pending as well; if it fails the
+    // next flush tries it again, stocks queued meanwhile wait for a batch of their own after it
+    private void flushAll(long since) {
+        long oldest = since;
+        for (Long enqueuedAt : pending.values()) {
+            oldest = Math.min(oldest, enqueuedAt);
+        }
+        pending.clear();
+        if (send("/stocks/invalidate-all", null)) {
+            flushAllsSent.increment();
+            recordLag(oldest);
+        } else {
+            overflowedAt.compareAndSet(0, oldest);
+            scheduleFlush(backoffMs << Math.min(maxAttempts, 10));
+        }
+    }
+
+    private void recordLag(long oldest) {
+        long lag = (System.nanoTime() - oldest) / 1000;
+        lastLagMicros.set(lag);
+        maxLagMicros.accumulateAndGet(lag, Math::max);
+    }
+
+    // posts one batch to the frontend, retrying with exponential backoff; no stock names invalidate
+    // every stock
+    private boolean send(String path, List<String> stockNames) {
+        long delay = backoffMs;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            try {
+                restTemplate.postForEntity(frontendUrl + path, stockNames, String.class);
+                if (stockNames != null) {
+                    batchesSent.increment();
+                    invalidationsSent.add(stockNames.size());
+                }
+                logger.info("Cache invalidation triggered for {}", stockNames == null ? "all stocks" : stockNames);
+                return true;
+            } catch (Exception e) {
+                logger.warn("Cache invalidation attempt {} failed for {}: {}", attempt,
+                        stockNames == null ? "all stocks" : stockNames, e.getMessage());
+            }
+            if (attempt < maxAttempts) {
+                retries.increment();
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                delay *= 2;
+            }
+        }
+        failures.increment();
+        logger.error("Cache invalidation failed for {}", stockNames == null ? "all stocks" : stockNames);
+        return false;
+    }
+}
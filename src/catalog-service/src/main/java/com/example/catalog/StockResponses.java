@@ -0,0 +1,103 @@
+package com.example.catalog;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// serialized GET /stocks/<stockName> bodies, at most one per stock, each for the version of the
+// stock it was built at. a lookup rebuilds the body only when a trade has moved the stock's
+// version on since, so repeated lookups of a stock nobody trades serialize nothing
+@Component
+public class StockResponses {
+
+    // body of one version of a stock, with the ETag naming that version
+    public static final class Body {
+        private final long epoch;
+        private final long version;
+        private final String etag;
+        private final byte[] bytes;
+        // the versioned form, built by the first caller that needs it
+        private volatile String versioned;
+
+        Body(long epoch, long version, byte[] bytes) {
+            this.epoch = epoch;
+            this.version = version;
+            this.etag = "\"" + Long.toHexString(epoch) + "-" + version + "\"";
+            this.bytes = bytes;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+
+        // {"name":..,"version":..,"etag":..,"stock":<the body>}, how bulk lookups and the update
+        // stream send a stock
+        public String getVersioned() {
+            return versioned;
+        }
+    }
+
+    private final TradeEngine tradeEngine;
+    private final ObjectMapper mapper;
+
+    // dense stock id -> body of its last version looked up, replaced when the engine reloads
+    private volatile AtomicReferenceArray<Body> bodies = new AtomicReferenceArray<>(0);
+
+    public StockResponses(TradeEngine tradeEngine, ObjectMapper mapper) {
+        this.tradeEngine = tradeEngine;
+        this.mapper = mapper;
+    }
+
+    // body of the stock's current version, serialized only if no earlier lookup did it already
+    public Body current(int id) throws JsonProcessingException {
+        long[] version = new long[1];
+        long volume = tradeEngine.versionedVolume(id, version);
+        long epoch = tradeEngine.epoch();
+        AtomicReferenceArray<Body> b = bodies;
+        if (b.length() != tradeEngine.size()) {
+            b = new AtomicReferenceArray<>(tradeEngine.size());
+            bodies = b;
+        }
+        Body body = b.get(id);
+        if (body != null && body.version == version[0] && body.epoch == epoch) {
+            return body;
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put("name", tradeEngine.nameOf(id));
+        data.put("volume", volume);
+        Body built = new Body(epoch, version[0], mapper.writeValueAsBytes(data));
+        // a lookup that read a newer version meanwhile keeps its body
+        if (body == null || body.epoch != epoch || body.version < built.version) {
+            b.compareAndSet(id, body, built);
+        }
+        return built;
+    }
+
+    // versioned form of the stock's current version, built once per version like the body
+    public String versioned(int id) throws JsonProcessingException {
+        Body body = current(id);
+        String versioned = body.versioned;
+        if (versioned == null) {
+            versioned = "{\"name\":" + mapper.writeValueAsString(tradeEngine.nameOf(id))
+                    + ",\"version\":" + body.version
+                    + ",\"etag\":" + mapper.writeValueAsString(body.etag)
+                    + ",\"stock\":" + new String(body.bytes, StandardCharsets.UTF_8) + "}";
+            body.versioned = versioned;
+        }
+        return versioned;
+    }
+}
@@ -0,0 +1,448 @@
+package com.example.catalog;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// pushes stock volume changes to subscribers as server-sent events, GET /stocks/stream
+// trades only mark their stock as changed; every window the publisher thread turns the stocks
+// changed since into one "volume" event each, carrying the stock's current version and lookup
+// body, and keeps the last `history` events so a subscriber reconnecting with the id of the last
+// event it got is sent only what it missed (a full "snapshot" event when that is no longer kept)
+// every subscriber is written to by its own sender task from a queue holding at most one event
+// per stock: while it is slow to read, a newer event for a stock replaces the one waiting, so a
+// slow subscriber costs memory bounded by the number of stocks and only ever skips versions, and
+// it never holds up the publisher or the other subscribers. one whose writes fail is dropped
+@Component
+public class StockUpdateStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(StockUpdateStream.class);
+
+    // most events written to a subscriber in one flush
+    private static final int MAX_WRITE = 256;
+
+    // one published change, the same for every subscriber
+    static final class Event {
+        final long seq;
+        final int stock;
+        final String id;
+        final String data;
+
+        Event(long seq, int stock, String id, String data) {
+            this.seq = seq;
+            this.stock = stock;
+            this.id = id;
+            this.data = data;
+        }
+    }
+
+    private final TradeEngine tradeEngine;
+    private final StockResponses stockResponses;
+    private final long windowMs;
+    private final int history;
+    private final long heartbeatMs;
+    private final int maxSubscribers;
+
+    // stocks traded since the last publish
+    private final Set<Integer> changed = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean publishScheduled = new AtomicBoolean();
+
+    // guards the history ring, lastSeq and subscribers; publishing and subscribing take it, so a
+    // new subscriber sees every event either in its replay or in its queue, never in both
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Event[] ring;
+    private long lastSeq;
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    private final ScheduledExecutorService publisher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "stock-stream-publisher");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger senderThreads = new AtomicInteger();
+    private final ExecutorService senders = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "stock-stream-sender-" + senderThreads.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Counter published;
+    private final Counter conflated;
+    private final Counter snapshots;
+
+    public StockUpdateStream(TradeEngine tradeEngine, StockResponses stockResponses,
+                             @Value("${stream.window-ms:5}") long windowMs,
+                             @Value("${stream.history:10000}") int history,
+                             @Value("${stream.heartbeat-ms:15000}") long heartbeatMs,
+                             @Value("${stream.max-subscribers:100}") int maxSubscribers,
+                             MeterRegistry registry) {
+        this.tradeEngine = tradeEngine;
+        this.stockResponses = stockResponses;
+        this.windowMs = windowMs;
+        this.history = history;
+        this.heartbeatMs = heartbeatMs;
+        this.maxSubscribers = maxSubscribers;
+        this.ring = new Event[history];
+        this.published = Counter.builder("catalog.stream.events")
+                .description("Volume changes published to the stream")
+                .register(registry);
+        this.conflated = Counter.builder("catalog.stream.conflated")
+                .description("Events replaced by a newer one for the same stock before a slow subscriber got them")
+                .register(registry);
+        this.snapshots = Counter.builder("catalog.stream.snapshots")
+                .description("Subscriptions that started from a snapshot instead of the history")
+                .register(registry);
+        Gauge.builder("catalog.stream.subscribers", this, StockUpdateStream::subscriberCount)
+                .description("Open stream subscriptions")
+                .register(registry);
+        publisher.scheduleAtFixedRate(this::heartbeat, heartbeatMs, heartbeatMs, TimeUnit.MILLISECONDS);
+    }
+
+    // called after a trade on the stock was applied
+    public void changed(int id) {
+        changed.add(id);
+        if (publishScheduled.compareAndSet(false, true)) {
+            try {
+                publisher.schedule(this::publish, windowMs, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                // publisher already shut down
+                publishScheduled.set(false);
+            }
+        }
+    }
+
+    // opens a subscription to the given stocks (every stock when null), resuming after
+    // lastEventId when the history still holds every event since; null when there are already
+    // max-subscribers subscriptions
+    public SseEmitter subscribe(int[] ids, String lastEventId) {
+        SseEmitter emitter = new SseEmitter(0L);
+        Subscriber subscriber = new Subscriber(emitter, ids);
+        lock.lock();
+        try {
+            if (subscribers.size() >= maxSubscribers) {
+                return null;
+            }
+            long from = resumePoint(lastEventId);
+            if (from >= 0) {
+                for (long seq = from + 1; seq <= lastSeq; seq++) {
+                    subscriber.offer(ring[(int) (seq % history)]);
+                }
+            } else {
+                snapshots.increment();
+                subscriber.snapshot(snapshot(subscriber), eventId(lastSeq));
+            }
+            subscribers.add(subscriber);
+        } finally {
+            lock.unlock();
+        }
+        emitter.onCompletion(() -> remove(subscriber));
+        emitter.onTimeout(() -> remove(subscriber));
+        emitter.onError(e -> remove(subscriber));
+        subscriber.scheduleDrain();
+        return emitter;
+    }
+
+    public int subscriberCount() {
+        lock.lock();
+        try {
+            return subscribers.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ends every subscription as the catalog starts shutting down, before the web server waits
+    // for open requests to finish (which a subscription never does by itself)
+    @EventListener(ContextClosedEvent.class)
+    public void shutdown() {
+        publisher.shutdownNow();
+        List<Subscriber> open;
+        lock.lock();
+        try {
+            open = new ArrayList<>(subscribers);
+            subscribers.clear();
+        } finally {
+            lock.unlock();
+        }
+        for (Subscriber subscriber : open) {
+            subscriber.closed = true;
+            subscriber.emitter.complete();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        shutdown();
+        senders.shutdownNow();
+    }
+
+    // runs on the publisher thread: one event per changed stock, in the order they were drained
+    private void publish() {
+        publishScheduled.set(false);
+        List<Integer> ids = new ArrayList<>();
+        Iterator<Integer> it = changed.iterator();
+        while (it.hasNext()) {
+            ids.add(it.next());
+            it.remove();
+        }
+        // the bodies are read after the ids were taken, so no trade is left unpublished
+        List<String> data = new ArrayList<>(ids.size());
+        for (int id : ids) {
+            data.add(data(id));
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                if (data.get(i) == null) {
+                    continue;
+                }
+                long seq = ++lastSeq;
+                Event event = new Event(seq, ids.get(i), eventId(seq), data.get(i));
+                ring[(int) (seq % history)] = event;
+                for (Subscriber subscriber : subscribers) {
+                    subscriber.offer(event);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        published.increment(ids.size());
+    }
+
+    // keeps idle connections from being closed by proxies and finds subscribers that went away
+    private void heartbeat() {
+        List<Subscriber> open;
+        lock.lock();
+        try {
+            open = new ArrayList<>(subscribers);
+        } finally {
+            lock.unlock();
+        }
+        long idleSince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(heartbeatMs);
+        for (Subscriber subscriber : open) {
+            subscriber.heartbeat(idleSince);
+        }
+    }
+
+    // sequence number after which a subscriber with this last event id resumes, -1 for a snapshot
+    // ids are <epoch>-<seq>, so ids handed out before the catalog restarted never resume
+    private long resumePoint(String lastEventId) {
+        if (lastEventId == null) {
+            return -1;
+        }
+        int dash = lastEventId.indexOf('-');
+        if (dash < 0) {
+            return -1;
+        }
+        try {
+            long epoch = Long.parseLong(lastEventId.substring(0, dash), 16);
+            long seq = Long.parseLong(lastEventId.substring(dash + 1));
+            if (epoch != tradeEngine.epoch() || seq > lastSeq || seq < lastSeq - history) {
+                return -1;
+            }
+            return seq;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // current state of the subscriber's stocks as one JSON array of volume event bodies
+    private String snapshot(Subscriber subscriber) {
+        StringBuilder json = new StringBuilder("[");
+        for (int id = 0; id < tradeEngine.size(); id++) {
+            if (!subscriber.wants(id)) {
+                continue;
+            }
+            String data = data(id);
+            if (data != null) {
+                json.append(json.length() > 1 ? "," : "").append(data);
+            }
+        }
+        return json.append(']').toString();
+    }
+
+    // the stock's versioned form, the GET /stocks/<name> body of its current version wrapped
+    // with its name, version and ETag
+    private String data(int id) {
+        try {
+            return stockResponses.versioned(id);
+        } catch (JsonProcessingException e) {
+            logger.error("Could not serialize update of {}: {}", tradeEngine.nameOf(id), e.getMessage());
+            return null;
+        }
+    }
+
+    private String eventId(long seq) {
+        return Long.toHexString(tradeEngine.epoch()) + "-" + seq;
+    }
+
+    private void remove(Subscriber subscriber) {
+        subscriber.closed = true;
+        lock.lock();
+        try {
+            subscribers.remove(subscriber);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // one subscription: what it still has to be sent, written by at most one sender task at a time
+    private final class Subscriber {
+        final SseEmitter emitter;
+        final boolean[] wanted;
+        final ReentrantLock queueLock = new ReentrantLock();
+        // stock id -> newest event not yet written, oldest first
+        final LinkedHashMap<Integer, Event> pending = new LinkedHashMap<>();
+        String snapshotData;
+        String snapshotId;
+        boolean heartbeatDue;
+        boolean draining;
+        volatile long lastWriteAt = System.nanoTime();
+        volatile boolean closed;
+
+        Subscriber(SseEmitter emitter, int[] ids) {
+            this.emitter = emitter;
+            if (ids == null) {
+                this.wanted = null;
+            } else {
+                this.wanted = new boolean[tradeEngine.size()];
+                for (int id : ids) {
+                    wanted[id] = true;
+                }
+            }
+        }
+
+        boolean wants(int id) {
+            return wanted == null || (id < wanted.length && wanted[id]);
+        }
+
+        void snapshot(String data, String id) {
+            queueLock.lock();
+            try {
+                snapshotData = data;
+                snapshotId = id;
+            } finally {
+                queueLock.unlock();
+            }
+        }
+
+        void offer(Event event) {
+            if (closed || !wants(event.stock)) {
+                return;
+            }
+            queueLock.lock();
+            try {
+                // the newer event takes the place of the waiting one at the back, so the queue
+                // stays in sequence order and the id last written is always safe to resume after
+                if (pending.remove(event.stock) != null) {
+                    conflated.increment();
+                }
+                pending.put(event.stock, event);
+            } finally {
+                queueLock.unlock();
+            }
+            scheduleDrain();
+        }
+
+        void heartbeat(long idleSince) {
+            if (lastWriteAt - idleSince > 0) {
+                return;
+            }
+            queueLock.lock();
+            try {
+                heartbeatDue = true;
+            } finally {
+                queueLock.unlock();
+            }
+            scheduleDrain();
+        }
+
+        void scheduleDrain() {
+            queueLock.lock();
+            try {
+                if (draining || closed || (pending.isEmpty() && snapshotData == null && !heartbeatDue)) {
+                    return;
+                }
+                draining = true;
+            } finally {
+                queueLock.unlock();
+            }
+            try {
+                senders.execute(this::drain);
+            } catch (Exception e) {
+                // shutting down
+                closed = true;
+            }
+        }
+
+        // writes everything queued, MAX_WRITE events and one flush at a time
+        private void drain() {
+            while (true) {
+                Set<ResponseBodyEmitter.DataWithMediaType> write = new LinkedHashSet<>();
+                queueLock.lock();
+                try {
+                    if (closed || (pending.isEmpty() && snapshotData == null && !heartbeatDue)) {
+                        draining = false;
+                        return;
+                    }
+                    if (snapshotData != null) {
+                        write.addAll(SseEmitter.event().id(snapshotId).name("snapshot").data(snapshotData).build());
+                        snapshotData = null;
+                    }
+                    Iterator<Event> it = pending.values().iterator();
+                    for (int n = 0; n < MAX_WRITE && it.hasNext(); n++) {
+                        Event event = it.next();
+                        it.remove();
+                        write.addAll(SseEmitter.event().id(event.id).name("volume").data(event.data).build());
+                    }
+                    if (write.isEmpty()) {
+                        write.addAll(SseEmitter.event().comment("").build());
+                    }
+                    heartbeatDue = false;
+                } finally {
+                    queueLock.unlock();
+                }
+                try {
+                    emitter.send(write);
+                    lastWriteAt = System.nanoTime();
+                } catch (IOException | IllegalStateException e) {
+                    logger.info("Stock stream subscriber gone: {}", e.getMessage());
+                    remove(this);
+                    queueLock.lock();
+                    try {
+                        draining = false;
+                    } finally {
+                        queueLock.unlock();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
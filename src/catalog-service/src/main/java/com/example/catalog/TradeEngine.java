@@ -0,0 +1,396 @@
+package com.example.catalog;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// lock-free trade engine that owns the stock volumes
+// every stock name is interned to a dense int id when stocks.csv is loaded,
+// volumes live in primitive atomic slots and each trade is a compare-and-set on one slot
+// next to every volume two counters give it a version: a trade counts itself as started before
+// it touches the volume and as finished after, the finished count is the version, and a reader
+// that sees no trade start while it reads the volume knows the version the volume belongs to.
+// a trade that fails (a buy the volume cannot cover, a basket rolled back) takes its start back
+// instead, so the version and the ETag only move when the volume did
+// with the journal enabled a trade holds its shared trade lock from the compare-and-set to the
+// append of its record, concurrent trades only wait for each other to place their records
+@Component
+public class TradeEngine {
+
+    // returned by idOf() when the stock name is not in the catalog
+    public static final int UNKNOWN_STOCK = -1;
+
+    // returned by buy() when the requested quantity is larger than the available volume
+    public static final long INSUFFICIENT_VOLUME = -1;
+
+    // each slot is spaced one cache line (8 longs) apart so trades on neighbouring stocks
+    // do not invalidate each other's cache line (false sharing)
+    private static final int PAD = 8;
+
+    private static final Logger logger = LoggerFactory.getLogger(TradeEngine.class);
+
+    // stock name -> dense id, never modified after load so plain HashMap reads are safe
+    private volatile Map<String, Integer> ids = Map.of();
+
+    // dense id -> stock name
+    private volatile String[] names = new String[0];
+
+    // volume of stock id i is kept at index (i + 1) * PAD, trades started and finished on it
+    // in the two slots after, on the same cache line
+    private volatile AtomicLongArray volumes = new AtomicLongArray(PAD);
+
+    private static final int STARTED = 1;
+    private static final int FINISHED = 2;
+
+    // tells the versions of this load apart from those of an earlier process or load, which
+    // start from 0 again
+    private volatile long epoch;
+
+    // durable trade journal, null when journaling is disabled
+    private final TradeJournal journal;
+
+    // the slice of stocks.csv this catalog trades when it is one of several shards, null for all
+    private final CatalogShard shard;
+
+    public TradeEngine() {
+        this(null, null);
+    }
+
+    public TradeEngine(TradeJournal journal) {
+        this(journal, null);
+    }
+
+    @Autowired
+    public TradeEngine(TradeJournal journal, CatalogShard shard) {
+        this.journal = journal != null && journal.isEnabled() ? journal : null;
+        this.shard = shard != null && shard.isSharded() ? shard : null;
+    }
+
+    // initialize the engine by reading stocks.csv from the classpath, only the stocks this shard
+    // owns when the catalog is sharded
+    @PostConstruct
+    public void init() throws IOException {
+        InputStream is = getClass().getClassLoader().getResourceAsStream("stocks.csv");
+        if (is == null) {
+            logger.error("stocks.csv not found in resources!");
+            return;
+        }
+        List<String> stockNames = new ArrayList<>();
+        List<Long> stockVolumes = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is))) {
+            // skip header line
+            reader.readLine();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(",");
+                if (parts.length >= 2 && (shard == null || shard.owns(parts[0]))) {
+                    stockNames.add(parts[0]);
+                    stockVolumes.add(Long.parseLong(parts[1].trim()));
+                }
+            }
+        }
+        long[] initial = new long[stockVolumes.size()];
+        for (int i = 0; i < initial.length; i++) {
+            initial[i] = stockVolumes.get(i);
+        }
+        load(stockNames, initial);
+        if (shard != null) {
+            logger.info("Loaded {} stocks of shard {} into trade engine", stockNames.size(), shard.getId());
+        } else {
+            logger.info("Loaded {} stocks into trade engine", stockNames.size());
+        }
+        if (journal != null) {
+            // bring volumes up to date from the last snapshot and the journal tail
+            journal.open(this);
+        }
+    }
+
+    // interns the given stocks in order, replacing any previously loaded state
+    void load(List<String> stockNames, long[] initialVolumes) {
+        Map<String, Integer> newIds = new HashMap<>();
+        String[] newNames = new String[stockNames.size()];
+        AtomicLongArray newVolumes = new AtomicLongArray((stockNames.size() + 2) * PAD);
+        for (int i = 0; i < newNames.length; i++) {
+            String name = stockNames.get(i);
+            if (newIds.putIfAbsent(name, i) != null) {
+                throw new IllegalArgumentException("Duplicate stock in catalog: " + name);
+            }
+            newNames[i] = name;
+            newVolumes.set(slot(i), initialVolumes[i]);
+        }
+        names = newNames;
+        volumes = newVolumes;
+        ids = newIds;
+        epoch = System.currentTimeMillis();
+    }
+
+    // returns the dense id of a stock, or UNKNOWN_STOCK
+    public int idOf(String stockName) {
+        Integer id = ids.get(stockName);
+        return id == null ? UNKNOWN_STOCK : id;
+    }
+
+    // returns the stock name for a dense id
+    public String nameOf(int id) {
+        return names[id];
+    }
+
+    // number of stocks in the catalog
+    public int size() {
+        return names.length;
+    }
+
+    // current volume of a stock
+    public long volume(int id) {
+        return volumes.get(slot(id));
+    }
+
+    // number of trades finished on a stock since it was loaded, every trade that changed the
+    // volume moves it on by one
+    public long version(int id) {
+        return volumes.get(slot(id) + FINISHED);
+    }
+
+    public long epoch() {
+        return epoch;
+    }
+
+    // current volume of a stock with the version it belongs to, written to versionOut[0]
+    // retried while a trade on the stock is under way, so the pair is never torn
+    public long versionedVolume(int id, long[] versionOut) {
+        AtomicLongArray v = volumes;
+        int slot = slot(id);
+        for (int spins = 0; ; spins++) {
+            long finished = v.get(slot + FINISHED);
+            long volume = v.get(slot);
+            if (v.get(slot + STARTED) == finished) {
+                versionOut[0] = finished;
+                return volume;
+            }
+            if (spins < 100) {
+                Thread.onSpinWait();
+            } else {
+                // the trade's thread may be descheduled between its two counts
+                Thread.yield();
+            }
+        }
+    }
+
+    // buying decreases volume, check-and-decrement is done in one CAS so concurrent
+    // buyers can never oversell; returns the remaining volume or INSUFFICIENT_VOLUME
+    public long buy(int id, int quantity) {
+        TradeJournal j = journal;
+        if (j == null) {
+            return versionedBuy(id, quantity);
+        }
+        long remaining;
+        long position;
+        j.tradeLock().lock();
+        try {
+            remaining = versionedBuy(id, quantity);
+            if (remaining == INSUFFICIENT_VOLUME) {
+                return remaining;
+            }
+            position = j.append(id, -quantity);
+        } finally {
+            j.tradeLock().unlock();
+        }
+        journaled(j, position);
+        return remaining;
+    }
+
+    // selling increases volume; returns the new volume
+    public long sell(int id, int quantity) {
+        TradeJournal j = journal;
+        if (j == null) {
+            return versionedSell(id, quantity);
+        }
+        long total;
+        long position;
+        j.tradeLock().lock();
+        try {
+            total = versionedSell(id, quantity);
+            position = j.append(id, quantity);
+        } finally {
+            j.tradeLock().unlock();
+        }
+        journaled(j, position);
+        return total;
+    }
+
+    // applies a basket of trades all-or-nothing and writes each resulting volume to volumesOut
+    // buys are applied first because only they can fail; if one fails the buys already applied
+    // are sold back and its index is returned, otherwise the sells are applied and -1 is returned
+    // with the journal enabled the whole basket is journaled together once it has been applied.
+    // all-or-nothing but not isolated: no stock is locked, so a buy on a stock of the basket can
+    // find its volume taken by a basket that is rolled back right after. a basket whose buys the
+    // volumes cannot cover is turned away before it takes anything, which leaves only baskets
+    // that lost a race on a volume in between
+    public int tradeAll(int[] ids, boolean[] buys, int[] quantities, long[] volumesOut) {
+        TradeJournal j = journal;
+        if (j == null) {
+            return versionedTradeAll(ids, buys, quantities, volumesOut);
+        }
+        long position;
+        j.tradeLock().lock();
+        try {
+            int failed = versionedTradeAll(ids, buys, quantities, volumesOut);
+            if (failed != -1) {
+                return failed;
+            }
+            int[] deltas = new int[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                deltas[i] = buys[i] ? -quantities[i] : quantities[i];
+            }
+            position = j.append(ids, deltas);
+        } finally {
+            j.tradeLock().unlock();
+        }
+        journaled(j, position);
+        return -1;
+    }
+
+    // waits for the trade's records to be on disk, or for the snapshot that holds the trade if
+    // they did not fit in the journal
+    private static void journaled(TradeJournal j, long position) {
+        if (position < 0) {
+            j.snapshotFull();
+        } else {
+            j.awaitDurable(position);
+        }
+    }
+
+    // overwrites a volume while recovering from a snapshot
+    void restoreVolume(int id, long volume) {
+        volumes.set(slot(id), volume);
+    }
+
+    // applies a journaled trade while recovering
+    void applyDelta(int id, long delta) {
+        volumes.addAndGet(slot(id), delta);
+    }
+
+    private long versionedBuy(int id, int quantity) {
+        AtomicLongArray v = volumes;
+        int slot = slot(id);
+        v.incrementAndGet(slot + STARTED);
+        long remaining = 0;
+        try {
+            remaining = casBuy(id, quantity);
+            return remaining;
+        } finally {
+            if (remaining == INSUFFICIENT_VOLUME) {
+                v.decrementAndGet(slot + STARTED);
+            } else {
+                v.incrementAndGet(slot + FINISHED);
+            }
+        }
+    }
+
+    private long versionedSell(int id, int quantity) {
+        AtomicLongArray v = volumes;
+        int slot = slot(id);
+        v.incrementAndGet(slot + STARTED);
+        try {
+            return v.addAndGet(slot, quantity);
+        } finally {
+            v.incrementAndGet(slot + FINISHED);
+        }
+    }
+
+    // every stock of the basket counts the basket as started until all of it is applied or rolled back
+    private int versionedTradeAll(int[] ids, boolean[] buys, int[] quantities, long[] volumesOut) {
+        AtomicLongArray v = volumes;
+        for (int id : ids) {
+            v.incrementAndGet(slot(id) + STARTED);
+        }
+        int failed = -1;
+        try {
+            failed = casTradeAll(ids, buys, quantities, volumesOut);
+            return failed;
+        } finally {
+            // a basket turned away or rolled back left every volume as it found it
+            for (int id : ids) {
+                if (failed == -1) {
+                    v.incrementAndGet(slot(id) + FINISHED);
+                } else {
+                    v.decrementAndGet(slot(id) + STARTED);
+                }
+            }
+        }
+    }
+
+    private long casBuy(int id, int quantity) {
+        AtomicLongArray v = volumes;
+        int slot = slot(id);
+        while (true) {
+            long current = v.get(slot);
+            if (quantity > current) {
+                return INSUFFICIENT_VOLUME;
+            }
+            long updated = current - quantity;
+            if (v.compareAndSet(slot, current, updated)) {
+                return updated;
+            }
+        }
+    }
+
+    private int casTradeAll(int[] ids, boolean[] buys, int[] quantities, long[] volumesOut) {
+        AtomicLongArray v = volumes;
+        int uncovered = uncovered(ids, buys, quantities);
+        if (uncovered != -1) {
+            return uncovered;
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (buys[i]) {
+                long remaining = casBuy(ids[i], quantities[i]);
+                if (remaining == INSUFFICIENT_VOLUME) {
+                    for (int j = 0; j < i; j++) {
+                        if (buys[j]) {
+                            v.addAndGet(slot(ids[j]), quantities[j]);
+                        }
+                    }
+                    return i;
+                }
+                volumesOut[i] = remaining;
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            if (!buys[i]) {
+                volumesOut[i] = v.addAndGet(slot(ids[i]), quantities[i]);
+            }
+        }
+        return -1;
+    }
+
+    // index of the first buy that the current volume of its stock cannot cover, counting the
+    // buys of the same stock before it in the basket, or -1
+    private int uncovered(int[] ids, boolean[] buys, int[] quantities) {
+        Map<Integer, Long> needed = ids.length > 1 ? new HashMap<>() : null;
+        for (int i = 0; i < ids.length; i++) {
+            if (buys[i]) {
+                long quantity = needed != null ? needed.merge(ids[i], (long) quantities[i], Long::sum) : quantities[i];
+                if (quantity > volume(ids[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static int slot(int id) {
+        return (id + 1) * PAD;
+    }
+}
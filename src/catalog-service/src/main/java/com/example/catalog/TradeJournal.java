@@ -0,0 +1,376 @@
+package com.example.catalog;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// append-only, memory-mapped journal of trades so stock volumes survive a restart
+// every trade is one 12 byte record (stock id, volume delta, checksum); concurrent trades share
+// one fsync through group commit, and a compact binary snapshot of all volumes is written
+// periodically (or when the journal region is full) after which the journal starts over.
+// trades update their volumes concurrently and only serialize to place their records, so the
+// journal order can differ from the order of the updates; records are deltas, replaying them in
+// any order ends at the same volumes
+//
+// journal.bin layout: header [magic, version, epoch, symbol fingerprint] then records
+// snapshot.bin layout: [magic, version, epoch, stock count, (name, volume)...]
+// the snapshot stores the epoch of the journal that continues after it, so a crash between
+// writing the snapshot and resetting the journal never replays the same trades twice
+@Component
+public class TradeJournal {
+
+    private static final int MAGIC = 0x544A4E4C; // "TJNL"
+    private static final int SNAPSHOT_MAGIC = 0x54534E50; // "TSNP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 32;
+    private static final int RECORD_BYTES = 12;
+
+    private static final Logger logger = LoggerFactory.getLogger(TradeJournal.class);
+
+    private final boolean enabled;
+    private final Path journalFile;
+    private final Path snapshotFile;
+    private final long regionBytes;
+    private final boolean fsync;
+    private final long snapshotIntervalMs;
+
+    // shared by the trades from updating a volume until its record is appended, taken exclusively
+    // by a snapshot, so a snapshot never holds an update whose record then goes into the next journal
+    private final ReentrantReadWriteLock tradeLock = new ReentrantReadWriteLock();
+
+    // held only to place records in the region, for as long as a few writes to the buffer
+    private final ReentrantLock appendLock = new ReentrantLock();
+
+    // held by the thread currently forcing the journal to disk
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private TradeEngine engine;
+    private long epoch;
+    private int fingerprint;
+    private ScheduledExecutorService snapshotter;
+
+    // bytes appended over the lifetime of this process, and how many of them are known durable
+    // these keep growing across journal resets so group commit waiters can compare them;
+    // durable is moved on by syncs and by snapshots, which hold different locks, so only ever
+    // raised atomically
+    private volatile long appended;
+    private final AtomicLong durable = new AtomicLong();
+
+    // records appended since the last snapshot, and whether a trade found no room for its
+    // records since; guarded by appendLock
+    private long recordsSinceSnapshot;
+    private boolean full;
+
+    public TradeJournal(@Value("${journal.enabled:false}") boolean enabled,
+                        @Value("${journal.dir:data/catalog}") String dir,
+                        @Value("${journal.region-mb:64}") int regionMb,
+                        @Value("${journal.fsync:true}") boolean fsync,
+                        @Value("${journal.snapshot-interval-ms:60000}") long snapshotIntervalMs) {
+        this.enabled = enabled;
+        this.journalFile = Paths.get(dir, "journal.bin");
+        this.snapshotFile = Paths.get(dir, "snapshot.bin");
+        this.regionBytes = (long) regionMb * 1024 * 1024;
+        this.fsync = fsync;
+        this.snapshotIntervalMs = snapshotIntervalMs;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // loads the latest snapshot into the engine, replays the journal tail on top of it and
+    // opens the journal for appending; called by the engine once stocks.csv is loaded
+    void open(TradeEngine engine) throws IOException {
+        this.engine = engine;
+        this.fingerprint = fingerprint(engine);
+        Files.createDirectories(journalFile.getParent());
+
+        long start = System.nanoTime();
+        long snapshotEpoch = loadSnapshot();
+
+        channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, regionBytes);
+
+        long replayed = 0;
+        if (buffer.getInt(0) == MAGIC) {
+            long journalEpoch = buffer.getLong(8);
+            if (journalEpoch == snapshotEpoch) {
+                if (buffer.getInt(16) != fingerprint) {
+                    throw new IllegalStateException("stocks.csv changed since " + journalFile + " was written");
+                }
+                epoch = journalEpoch;
+                replayed = replay();
+            } else if (journalEpoch > snapshotEpoch) {
+                throw new IllegalStateException("Journal epoch " + journalEpoch + " is newer than snapshot epoch " + snapshotEpoch);
+            } else {
+                // crashed after the snapshot was written but before the journal was reset,
+                // everything in this journal is already part of the snapshot
+                logger.info("Journal epoch {} is covered by snapshot epoch {}, discarding it", journalEpoch, snapshotEpoch);
+                resetTo(snapshotEpoch);
+            }
+        } else {
+            resetTo(snapshotEpoch);
+        }
+        recordsSinceSnapshot = replayed;
+        logger.info("Recovered trade journal: snapshot epoch {}, replayed {} trades in {} ms",
+                snapshotEpoch, replayed, (System.nanoTime() - start) / 1_000_000);
+
+        if (snapshotIntervalMs > 0) {
+            snapshotter = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "trade-journal-snapshot");
+                t.setDaemon(true);
+                return t;
+            });
+            snapshotter.scheduleWithFixedDelay(this::scheduledSnapshot, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // shared lock that the engine holds from a volume update until its append()
+    Lock tradeLock() {
+        return tradeLock.readLock();
+    }
+
+    // appends the records of one trade together, caller must hold tradeLock(); returns the
+    // position to pass to awaitDurable(), or -1 if the region has no room left for them, then
+    // the caller releases tradeLock() and calls snapshotFull(), whose snapshot holds the trade
+    long append(int[] ids, int[] deltas) {
+        appendLock.lock();
+        try {
+            int position = buffer.position();
+            if (position + (long) ids.length * RECORD_BYTES > regionBytes) {
+                full = true;
+                return -1;
+            }
+            for (int i = 0; i < ids.length; i++) {
+                buffer.putInt(position, ids[i] + 1);
+                buffer.putInt(position + 4, deltas[i]);
+                buffer.putInt(position + 8, checksum(ids[i] + 1, deltas[i], epoch));
+                position += RECORD_BYTES;
+            }
+            buffer.position(position);
+            recordsSinceSnapshot += ids.length;
+            long end = appended + (long) ids.length * RECORD_BYTES;
+            appended = end;
+            return end;
+        } finally {
+            appendLock.unlock();
+        }
+    }
+
+    long append(int id, int delta) {
+        return append(new int[]{id}, new int[]{delta});
+    }
+
+    // folds everything into a snapshot and starts the journal over once the region is full; the
+    // trades that found it full made their updates before, so any snapshot from here on holds
+    // them and only the first of them writes one
+    void snapshotFull() {
+        tradeLock.writeLock().lock();
+        try {
+            if (full) {
+                snapshot();
+            }
+        } finally {
+            tradeLock.writeLock().unlock();
+        }
+    }
+
+    // group commit: blocks until the journal is on disk up to position
+    // the first waiter forces the file for everyone who appended before it started, the
+    // others wait for that force to finish and only force again if it did not cover them
+    void awaitDurable(long position) {
+        if (!fsync) {
+            return;
+        }
+        while (durable.get() < position) {
+            if (syncLock.tryLock()) {
+                try {
+                    if (durable.get() < position) {
+                        long target = appended;
+                        buffer.force();
+                        durable.accumulateAndGet(target, Math::max);
+                    }
+                } finally {
+                    syncLock.unlock();
+                }
+            } else {
+                syncLock.lock();
+                syncLock.unlock();
+            }
+        }
+    }
+
+    // writes a snapshot of all volumes and resets the journal
+    public void snapshot() {
+        tradeLock.writeLock().lock();
+        appendLock.lock();
+        try {
+            int n = engine.size();
+            String[] names = new String[n];
+            long[] volumes = new long[n];
+            for (int i = 0; i < n; i++) {
+                names[i] = engine.nameOf(i);
+                volumes[i] = engine.volume(i);
+            }
+            long nextEpoch = epoch + 1;
+            writeSnapshot(nextEpoch, names, volumes);
+            resetTo(nextEpoch);
+            // everything appended so far is covered by the snapshot, which is already on disk
+            durable.accumulateAndGet(appended, Math::max);
+            logger.info("Wrote snapshot epoch {} covering {} journaled trades", nextEpoch, recordsSinceSnapshot);
+            recordsSinceSnapshot = 0;
+            full = false;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to write snapshot " + snapshotFile, e);
+        } finally {
+            appendLock.unlock();
+            tradeLock.writeLock().unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (channel == null) {
+            return;
+        }
+        if (snapshotter != null) {
+            snapshotter.shutdownNow();
+        }
+        tradeLock.writeLock().lock();
+        try {
+            buffer.force();
+            channel.close();
+            channel = null;
+        } finally {
+            tradeLock.writeLock().unlock();
+        }
+    }
+
+    private void scheduledSnapshot() {
+        // the write lock is reentrant, snapshot() takes it again
+        tradeLock.writeLock().lock();
+        try {
+            if (recordsSinceSnapshot > 0) {
+                snapshot();
+            }
+        } catch (Exception e) {
+            logger.error("Periodic snapshot failed: {}", e.getMessage());
+        } finally {
+            tradeLock.writeLock().unlock();
+        }
+    }
+
+    // replays valid records from the start of the journal, returns how many were applied
+    private long replay() {
+        int position = HEADER_BYTES;
+        long count = 0;
+        int stocks = engine.size();
+        while (position + RECORD_BYTES <= regionBytes) {
+            int idPlusOne = buffer.getInt(position);
+            int delta = buffer.getInt(position + 4);
+            if (idPlusOne <= 0 || idPlusOne > stocks || buffer.getInt(position + 8) != checksum(idPlusOne, delta, epoch)) {
+                // end of the journal, or a record torn by a crash
+                break;
+            }
+            engine.applyDelta(idPlusOne - 1, delta);
+            position += RECORD_BYTES;
+            count++;
+        }
+        buffer.position(position);
+        return count;
+    }
+
+    // starts an empty journal for the given epoch, records of older epochs fail their checksum
+    private void resetTo(long newEpoch) {
+        epoch = newEpoch;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putLong(8, newEpoch);
+        buffer.putInt(16, fingerprint);
+        buffer.putInt(HEADER_BYTES, 0);
+        buffer.position(HEADER_BYTES);
+        buffer.force();
+    }
+
+    // reads snapshot.bin into the engine, returns its epoch or 0 when there is none
+    private long loadSnapshot() throws IOException {
+        if (!Files.exists(snapshotFile)) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(snapshotFile))) {
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException("Unrecognised snapshot file " + snapshotFile);
+            }
+            long snapshotEpoch = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                long volume = in.readLong();
+                int id = engine.idOf(name);
+                if (id == TradeEngine.UNKNOWN_STOCK) {
+                    logger.warn("Snapshot stock {} is no longer in the catalog, skipping it", name);
+                } else {
+                    engine.restoreVolume(id, volume);
+                }
+            }
+            return snapshotEpoch;
+        }
+    }
+
+    // writes the snapshot to a temporary file and atomically moves it into place
+    private void writeSnapshot(long snapshotEpoch, String[] names, long[] volumes) throws IOException {
+        Path tmp = snapshotFile.resolveSibling("snapshot.bin.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream data = new DataOutputStream(Channels.newOutputStream(out))) {
+            data.writeInt(SNAPSHOT_MAGIC);
+            data.writeInt(VERSION);
+            data.writeLong(snapshotEpoch);
+            data.writeInt(names.length);
+            for (int i = 0; i < names.length; i++) {
+                data.writeUTF(names[i]);
+                data.writeLong(volumes[i]);
+            }
+            data.flush();
+            out.force(true);
+        }
+        Files.move(tmp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // journal records refer to stocks by id, so ids must mean the same stocks on replay
+    private static int fingerprint(TradeEngine engine) {
+        int hash = 1;
+        for (int i = 0; i < engine.size(); i++) {
+            hash = 31 * hash + engine.nameOf(i).hashCode();
+        }
+        return hash;
+    }
+
+    private static int checksum(int idPlusOne, int delta, long epoch) {
+        int h = idPlusOne * 0x9E3779B1 ^ delta * 0x85EBCA77 ^ (int) (epoch ^ (epoch >>> 32)) * 0xC2B2AE3D;
+        return h ^ (h >>> 15) ^ MAGIC;
+    }
+}
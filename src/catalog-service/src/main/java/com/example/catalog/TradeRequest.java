@@ -0,0 +1,42 @@
+package com.example.catalog;
+
+// one trade inside a batch request, eg. {"name": "Stock1", "type": "buy", "quantity": 5}
+public class TradeRequest {
+
+    private String name;
+    private String type;
+    private Integer quantity;
+
+    public TradeRequest() {
+    }
+
+    public TradeRequest(String name, String type, Integer quantity) {
+        this.name = name;
+        this.type = type;
+        this.quantity = quantity;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public Integer getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(Integer quantity) {
+        this.quantity = quantity;
+    }
+}
@@ -0,0 +1,209 @@
+package com.example.catalog;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogControllerTests {
+
+	private ConfigurableApplicationContext catalog;
+	private String url;
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	@BeforeEach
+	void start() {
+		catalog = new SpringApplicationBuilder(CatalogServiceApplication.class).run("--server.port=0");
+		url = "http://localhost:" + ((WebServerApplicationContext) catalog).getWebServer().getPort();
+	}
+
+	@AfterEach
+	void stop() {
+		catalog.close();
+	}
+
+	// a lookup naming the current version gets an empty 304, a trade moves the version on
+	@Test
+	void lookupsRevalidateWithTheirEtag() throws Exception {
+		HttpResponse<String> first = get("/stocks/Stock1", null);
+		assertEquals(200, first.statusCode());
+		assertEquals("{\"volume\":100,\"name\":\"Stock1\"}", first.body());
+		String etag = first.headers().firstValue("ETag").orElse(null);
+		assertNotNull(etag);
+
+		HttpResponse<String> unchanged = get("/stocks/Stock1", etag);
+		assertEquals(304, unchanged.statusCode());
+		assertEquals("", unchanged.body());
+		assertEquals(etag, unchanged.headers().firstValue("ETag").orElse(null));
+
+		trade("Stock1", "buy", 10);
+
+		HttpResponse<String> traded = get("/stocks/Stock1", etag);
+		assertEquals(200, traded.statusCode());
+		assertEquals("{\"volume\":90,\"name\":\"Stock1\"}", traded.body());
+		assertNotEquals(etag, traded.headers().firstValue("ETag").orElse(null));
+		assertEquals(404, get("/stocks/Unknown", etag).statusCode());
+	}
+
+	// bulk lookups send each known stock once, in its versioned form, in the order asked
+	@Test
+	void bulkLookupsSendVersionedStocks() throws Exception {
+		trade("Stock2", "buy", 10);
+		HttpResponse<String> stocks = get("/stocks?names=Stock2,Unknown,Stock1,Stock2", null);
+		assertEquals(200, stocks.statusCode());
+		JsonNode found = new ObjectMapper().readTree(stocks.body());
+		assertEquals(2, found.size());
+		assertEquals("Stock2", found.get(0).get("name").asText());
+		assertEquals(1, found.get(0).get("version").asLong());
+		assertEquals(get("/stocks/Stock2", null).headers().firstValue("ETag").orElse(null), found.get(0).get("etag").asText());
+		assertEquals("{\"volume\":140,\"name\":\"Stock2\"}", found.get(0).get("stock").toString());
+		assertEquals("Stock1", found.get(1).get("name").asText());
+		assertEquals(0, found.get(1).get("version").asLong());
+
+		HttpResponse<String> prefixed = get("/stocks?prefix=Stock&limit=3", null);
+		assertEquals(3, new ObjectMapper().readTree(prefixed.body()).size());
+		assertEquals("[]", get("/stocks?prefix=Bond", null).body());
+		assertEquals(400, get("/stocks", null).statusCode());
+	}
+
+	// the body of a version is serialized once and served from then on
+	@Test
+	void bodiesAreSerializedOncePerVersion() throws Exception {
+		StockResponses responses = catalog.getBean(StockResponses.class);
+		TradeEngine engine = catalog.getBean(TradeEngine.class);
+		int id = engine.idOf("Stock2");
+
+		StockResponses.Body body = responses.current(id);
+		assertSame(body, responses.current(id));
+		engine.sell(id, 1);
+		StockResponses.Body sold = responses.current(id);
+		assertEquals(body.getVersion() + 1, sold.getVersion());
+		assertTrue(new String(sold.getBytes()).contains("\"volume\":" + (engine.volume(id))));
+	}
+
+	// subscribers get a snapshot, then every change with its version; a reconnect with the last
+	// event id is sent only what it missed, one with an id it cannot resume from a snapshot again
+	@Test
+	void streamPushesVersionsAndResumes() throws Exception {
+		BufferedReader stream = subscribe("?names=Stock1,Unknown", null);
+		String[] snapshot = nextEvent(stream);
+		assertEquals("snapshot", snapshot[1]);
+		assertTrue(snapshot[2].startsWith("[{\"name\":\"Stock1\",\"version\":0,"), snapshot[2]);
+		assertTrue(snapshot[2].endsWith(",\"stock\":{\"volume\":100,\"name\":\"Stock1\"}}]"), snapshot[2]);
+
+		trade("Stock2", "buy", 1);
+		trade("Stock1", "buy", 5);
+		String[] volume = nextEvent(stream);
+		assertEquals("volume", volume[1]);
+		assertTrue(volume[2].startsWith("{\"name\":\"Stock1\",\"version\":1,"), volume[2]);
+		assertTrue(volume[2].endsWith(",\"stock\":{\"volume\":95,\"name\":\"Stock1\"}}"), volume[2]);
+		String etag = get("/stocks/Stock1", null).headers().firstValue("ETag").orElse(null);
+		assertTrue(volume[2].contains(",\"etag\":" + new ObjectMapper().writeValueAsString(etag) + ","), volume[2]);
+		stream.close();
+
+		// missed while disconnected
+		trade("Stock1", "sell", 5);
+		Thread.sleep(100);
+		BufferedReader resumed = subscribe("?names=Stock1", volume[0]);
+		String[] missed = nextEvent(resumed);
+		assertEquals("volume", missed[1]);
+		assertTrue(missed[2].contains("\"stock\":{\"volume\":100,"), missed[2]);
+		resumed.close();
+
+		String restarted = "1-" + volume[0].substring(volume[0].indexOf('-') + 1);
+		BufferedReader fresh = subscribe("?names=Stock1", restarted);
+		assertEquals("snapshot", nextEvent(fresh)[1]);
+		fresh.close();
+	}
+
+	// a quantity of 0 or less is turned away, a negative buy would otherwise add volume
+	@Test
+	void tradesNeedAPositiveQuantity() throws Exception {
+		TradeEngine engine = catalog.getBean(TradeEngine.class);
+		long volume = engine.volume(engine.idOf("Stock1"));
+
+		for (String quantity : new String[]{"0", "-5"}) {
+			HttpResponse<String> single = post("/stocks/trade",
+					"{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":" + quantity + "}");
+			assertEquals(400, single.statusCode());
+			assertEquals("Invalid quantity", new ObjectMapper().readTree(single.body()).at("/error/message").asText());
+
+			// the trade gets its own 400 in a batch, and an atomic batch is not applied at all
+			for (String atomic : new String[]{"false", "true"}) {
+				HttpResponse<String> batch = post("/stocks/trade/batch", "{\"atomic\":" + atomic + ",\"trades\":["
+						+ "{\"name\":\"Stock1\",\"type\":\"sell\",\"quantity\":" + quantity + "}]}");
+				assertEquals(atomic.equals("true") ? 400 : 200, batch.statusCode());
+				assertEquals(400, new ObjectMapper().readTree(batch.body()).at("/results/0/code").asInt(), batch.body());
+			}
+		}
+		assertEquals(volume, engine.volume(engine.idOf("Stock1")));
+	}
+
+	private BufferedReader subscribe(String query, String lastEventId) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + "/stocks/stream" + query));
+		if (lastEventId != null) {
+			request.header("Last-Event-ID", lastEventId);
+		}
+		HttpResponse<InputStream> response = client.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+		assertEquals(200, response.statusCode());
+		return new BufferedReader(new InputStreamReader(response.body(), StandardCharsets.UTF_8));
+	}
+
+	// id, event name and data of the next event
+	private static String[] nextEvent(BufferedReader stream) throws Exception {
+		String[] event = new String[3];
+		String line;
+		while ((line = stream.readLine()) != null) {
+			if (line.isEmpty() && event[2] != null) {
+				return event;
+			} else if (line.startsWith("id:")) {
+				event[0] = line.substring(3);
+			} else if (line.startsWith("event:")) {
+				event[1] = line.substring(6);
+			} else if (line.startsWith("data:")) {
+				event[2] = line.substring(5);
+			}
+		}
+		throw new AssertionError("stream ended");
+	}
+
+	private void trade(String name, String type, int quantity) throws Exception {
+		HttpResponse<String> trade = post("/stocks/trade", "{\"name\":\"" + name + "\",\"type\":\"" + type
+				+ "\",\"quantity\":" + quantity + "}");
+		assertEquals(200, trade.statusCode());
+	}
+
+	private HttpResponse<String> post(String path, String json) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(url + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json))
+				.build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> get(String path, String etag) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url + path));
+		if (etag != null) {
+			request.header("If-None-Match", etag);
+		}
+		return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+	}
+}
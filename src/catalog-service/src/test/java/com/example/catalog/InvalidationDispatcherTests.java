@@ -0,0 +1,141 @@
+package com.example.catalog;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InvalidationDispatcherTests {
+
+	private HttpServer frontend;
+	private final List<String> bodies = new CopyOnWriteArrayList<>();
+	private final AtomicInteger failuresLeft = new AtomicInteger();
+
+	// stub frontend that records every multi-key invalidation it receives, and a flush of the
+	// whole cache as "*"
+	@BeforeEach
+	void startFrontend() throws IOException {
+		frontend = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		frontend.createContext("/stocks/invalidate", exchange -> {
+			String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+			int status = failuresLeft.getAndDecrement() > 0 ? 500 : 200;
+			if (status == 200) {
+				bodies.add(exchange.getRequestURI().getPath().endsWith("/invalidate-all") ? "*" : body);
+			}
+			exchange.sendResponseHeaders(status, -1);
+			exchange.close();
+		});
+		frontend.start();
+	}
+
+	@AfterEach
+	void stopFrontend() {
+		frontend.stop(0);
+	}
+
+	@Test
+	void repeatedInvalidationsAreCoalescedIntoOneBatch() throws Exception {
+		InvalidationDispatcher dispatcher = dispatcher(50);
+		for (int i = 0; i < 100; i++) {
+			dispatcher.invalidate("Stock1");
+		}
+		dispatcher.invalidateAll(List.of("Stock2", "Stock1"));
+
+		awaitBatches(1);
+		Thread.sleep(100);
+		assertEquals(1, bodies.size());
+		assertEquals("[\"Stock1\",\"Stock2\"]", bodies.get(0));
+		assertEquals(100L, dispatcher.metrics().get("coalesced"));
+		assertEquals(0, dispatcher.metrics().get("queueDepth"));
+		dispatcher.shutdown();
+	}
+
+	@Test
+	void failedBatchIsRetried() throws Exception {
+		failuresLeft.set(2);
+		InvalidationDispatcher dispatcher = dispatcher(1);
+		dispatcher.invalidate("Stock3");
+
+		awaitBatches(1);
+		assertEquals("[\"Stock3\"]", bodies.get(0));
+		assertEquals(2L, dispatcher.metrics().get("retries"));
+		dispatcher.shutdown();
+	}
+
+	// with the queue full of other stocks, an invalidation is counted and left to a flush of the
+	// whole frontend cache rather than sent on the trade's thread
+	@Test
+	void overflowDoesNotBlockTheCaller() throws Exception {
+		failuresLeft.set(Integer.MAX_VALUE);
+		String url = "http://localhost:" + frontend.getAddress().getPort();
+		InvalidationDispatcher dispatcher = new InvalidationDispatcher(url, 60_000, 2, 5, 1000,
+				new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper()));
+		dispatcher.invalidate("Stock1");
+		dispatcher.invalidate("Stock2");
+
+		long started = System.nanoTime();
+		dispatcher.invalidate("Stock3");
+		dispatcher.invalidateAll(List.of("Stock1", "Stock4", "Stock5"));
+
+		assertTrue(System.nanoTime() - started < 500_000_000L, "caller waited for the frontend");
+		assertEquals(3L, dispatcher.metrics().get("overflowed"));
+		assertEquals(2, dispatcher.metrics().get("queueDepth"));
+		assertEquals(true, dispatcher.metrics().get("flushAllPending"));
+		assertEquals(0L, dispatcher.metrics().get("batchesSent"));
+	}
+
+	// an overflowed invalidation is not lost: the next flush drops the whole frontend cache, which
+	// covers the stocks that were queued too
+	@Test
+	void overflowFlushesTheWholeCache() throws Exception {
+		String url = "http://localhost:" + frontend.getAddress().getPort();
+		InvalidationDispatcher dispatcher = new InvalidationDispatcher(url, 50, 2, 5, 10,
+				new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper()));
+		dispatcher.invalidateAll(List.of("Stock1", "Stock2", "Stock3"));
+
+		awaitBatches(1);
+		assertEquals("*", bodies.get(0));
+		// counted once the frontend has answered, which may be after the stub recorded it
+		long deadline = System.currentTimeMillis() + 5000;
+		while (!Long.valueOf(1).equals(dispatcher.metrics().get("flushAllsSent")) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertEquals(1L, dispatcher.metrics().get("flushAllsSent"));
+		assertEquals(0, dispatcher.metrics().get("queueDepth"));
+		assertEquals(false, dispatcher.metrics().get("flushAllPending"));
+
+		// back to batches of stocks once the cache was flushed
+		dispatcher.invalidate("Stock4");
+		awaitBatches(2);
+		assertEquals("[\"Stock4\"]", bodies.get(1));
+		dispatcher.shutdown();
+	}
+
+	private InvalidationDispatcher dispatcher(long windowMs) {
+		String url = "http://localhost:" + frontend.getAddress().getPort();
+		HttpClientProperties properties = new HttpClientProperties();
+		properties.setReadTimeoutMs(1000);
+		return new InvalidationDispatcher(url, windowMs, 100, 5, 10, new ServiceHttpClient(properties, new ObjectMapper()));
+	}
+
+	private void awaitBatches(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (bodies.size() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue(bodies.size() >= count, "expected " + count + " invalidation batches");
+	}
+}
@@ -0,0 +1,257 @@
+package com.example.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TradeEngineTests {
+
+	private static final int THREADS = 16;
+
+	@Test
+	void unknownStockHasNoId() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1"), new long[]{100});
+
+		assertEquals(0, engine.idOf("Stock1"));
+		assertEquals(TradeEngine.UNKNOWN_STOCK, engine.idOf("Stock9"));
+	}
+
+	// two shards split stocks.csv between them, every stock traded by exactly one
+	@Test
+	void shardsLoadOnlyTheStocksTheyOwn() throws Exception {
+		List<String> members = List.of("catalog-1", "catalog-2");
+		TradeEngine first = new TradeEngine(null, new CatalogShard("catalog-1", members, 100));
+		TradeEngine second = new TradeEngine(null, new CatalogShard("catalog-2", members, 100));
+		first.init();
+		second.init();
+
+		assertEquals(4, first.size() + second.size());
+		for (String stock : List.of("Stock1", "Stock2", "Stock3", "Stock4")) {
+			boolean inFirst = first.idOf(stock) != TradeEngine.UNKNOWN_STOCK;
+			boolean inSecond = second.idOf(stock) != TradeEngine.UNKNOWN_STOCK;
+			assertTrue(inFirst != inSecond, stock);
+			assertEquals(inFirst, new CatalogShard("catalog-1", members, 100).owns(stock));
+		}
+	}
+
+	@Test
+	void buyRejectsMoreThanAvailable() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1"), new long[]{10});
+
+		assertEquals(TradeEngine.INSUFFICIENT_VOLUME, engine.buy(0, 11));
+		assertEquals(0, engine.buy(0, 10));
+		assertEquals(5, engine.sell(0, 5));
+	}
+
+	@Test
+	void tradeAllRollsBackWhenOneBuyFails() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2", "Stock3"), new long[]{10, 10, 10});
+		long[] volumes = new long[3];
+
+		int failed = engine.tradeAll(new int[]{0, 2, 1}, new boolean[]{true, false, true}, new int[]{5, 7, 11}, volumes);
+
+		assertEquals(2, failed);
+		assertEquals(10, engine.volume(0));
+		assertEquals(10, engine.volume(1));
+		assertEquals(10, engine.volume(2));
+	}
+
+	// buys of one stock in a basket are counted together, and a basket they cannot cover takes
+	// nothing, not even for a moment
+	@Test
+	void tradeAllTurnsAwayABasketTheVolumesCannotCover() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2"), new long[]{10, 10});
+
+		int failed = engine.tradeAll(new int[]{0, 1, 0}, new boolean[]{true, true, true}, new int[]{6, 1, 6}, new long[3]);
+
+		assertEquals(2, failed);
+		assertEquals(10, engine.volume(0));
+		assertEquals(10, engine.volume(1));
+	}
+
+	@Test
+	void tradeAllAppliesEveryTrade() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2"), new long[]{10, 10});
+		long[] volumes = new long[3];
+
+		int failed = engine.tradeAll(new int[]{0, 1, 0}, new boolean[]{true, false, true}, new int[]{4, 3, 6}, volumes);
+
+		assertEquals(-1, failed);
+		assertEquals(0, engine.volume(0));
+		assertEquals(13, engine.volume(1));
+		assertEquals(13, volumes[1]);
+	}
+
+	// many threads buying one hot stock must sell exactly the initial volume, never more
+	@Test
+	void concurrentBuysNeverOversell() throws Exception {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2"), new long[]{10_000, 0});
+		AtomicLong bought = new AtomicLong();
+
+		runConcurrently(() -> {
+			for (int i = 0; i < 2_000; i++) {
+				if (engine.buy(0, 1) != TradeEngine.INSUFFICIENT_VOLUME) {
+					bought.incrementAndGet();
+				}
+			}
+		});
+
+		assertEquals(10_000, bought.get());
+		assertEquals(0, engine.volume(0));
+		assertEquals(0, engine.volume(1));
+	}
+
+	// an equal number of buys and sells on the same stock must leave the volume unchanged
+	@Test
+	void concurrentBuysAndSellsLoseNoUpdates() throws Exception {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1"), new long[]{1_000_000});
+
+		runConcurrently(() -> {
+			for (int i = 0; i < 50_000; i++) {
+				engine.buy(0, 3);
+				engine.sell(0, 3);
+			}
+		});
+
+		assertEquals(1_000_000, engine.volume(0));
+	}
+
+	@Test
+	void everyTradeMovesTheVersionOn() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2"), new long[]{10, 10});
+		long[] version = new long[1];
+
+		assertEquals(10, engine.versionedVolume(0, version));
+		assertEquals(0, version[0]);
+		engine.buy(0, 4);
+		engine.sell(0, 1);
+		engine.tradeAll(new int[]{0, 1}, new boolean[]{true, false}, new int[]{2, 2}, new long[2]);
+
+		assertEquals(5, engine.versionedVolume(0, version));
+		assertEquals(3, version[0]);
+		assertEquals(1, engine.version(1));
+	}
+
+	// a buy the volume cannot cover and a basket rolled back leave the volume, so its version and
+	// ETag stay where they were
+	@Test
+	void failedTradesKeepTheVersion() {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1", "Stock2"), new long[]{10, 10});
+		long[] version = new long[1];
+
+		assertEquals(TradeEngine.INSUFFICIENT_VOLUME, engine.buy(0, 11));
+		assertEquals(1, engine.tradeAll(new int[]{0, 1}, new boolean[]{true, true}, new int[]{5, 11}, new long[2]));
+		assertEquals(0, engine.tradeAll(new int[]{0, 1}, new boolean[]{true, false}, new int[]{11, 1}, new long[2]));
+
+		assertEquals(10, engine.versionedVolume(0, version));
+		assertEquals(0, version[0]);
+		assertEquals(10, engine.versionedVolume(1, version));
+		assertEquals(0, version[0]);
+		engine.buy(0, 1);
+		assertEquals(9, engine.versionedVolume(0, version));
+		assertEquals(1, version[0]);
+	}
+
+	// with only sells of 1 every volume read must be the initial volume plus its version
+	@Test
+	void versionedVolumeIsNeverTorn() throws Exception {
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1"), new long[]{1_000});
+		AtomicLong torn = new AtomicLong();
+		Thread reader = new Thread(() -> {
+			long[] version = new long[1];
+			while (!Thread.currentThread().isInterrupted()) {
+				if (engine.versionedVolume(0, version) != 1_000 + version[0]) {
+					torn.incrementAndGet();
+				}
+			}
+		});
+		reader.start();
+
+		runConcurrently(() -> {
+			for (int i = 0; i < 20_000; i++) {
+				engine.sell(0, 1);
+			}
+		});
+		reader.interrupt();
+		reader.join();
+
+		assertEquals(0, torn.get());
+		assertEquals(THREADS * 20_000, engine.version(0));
+	}
+
+	// compares trades/sec of the engine with the previous get-then-put map update,
+	// run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkAgainstMapUpdate() throws Exception {
+		int tradesPerThread = 1_000_000;
+		long expected = (long) THREADS * tradesPerThread;
+
+		Map<String, Integer> stockVolume = new ConcurrentHashMap<>();
+		stockVolume.put("Stock1", 0);
+		long start = System.nanoTime();
+		runConcurrently(() -> {
+			for (int i = 0; i < tradesPerThread; i++) {
+				int current = stockVolume.get("Stock1");
+				stockVolume.put("Stock1", current + 1);
+			}
+		});
+		double mapSeconds = (System.nanoTime() - start) / 1e9;
+
+		TradeEngine engine = new TradeEngine();
+		engine.load(List.of("Stock1"), new long[]{0});
+		start = System.nanoTime();
+		runConcurrently(() -> {
+			for (int i = 0; i < tradesPerThread; i++) {
+				engine.sell(engine.idOf("Stock1"), 1);
+			}
+		});
+		double engineSeconds = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf("map get/put: %.0f trades/sec, lost updates = %d%n",
+				expected / mapSeconds, expected - stockVolume.get("Stock1"));
+		System.out.printf("trade engine: %.0f trades/sec, lost updates = %d%n",
+				expected / engineSeconds, expected - engine.volume(0));
+		assertEquals(expected, engine.volume(0));
+	}
+
+	private static void runConcurrently(Runnable task) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < THREADS; t++) {
+			pool.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				task.run();
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(60, TimeUnit.SECONDS));
+	}
+}
@@ -0,0 +1,167 @@
+package com.example.catalog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TradeJournalTests {
+
+	private static final List<String> STOCKS = List.of("Stock1", "Stock2", "Stock3");
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void tradesSurviveRestart() throws IOException {
+		TradeJournal journal = journal(true, 1);
+		TradeEngine engine = engine(journal);
+		engine.buy(0, 10);
+		engine.sell(1, 5);
+		engine.buy(2, 1_000);
+		engine.tradeAll(new int[]{0, 2}, new boolean[]{true, false}, new int[]{20, 7}, new long[2]);
+		journal.close();
+
+		TradeEngine recovered = engine(journal(true, 1));
+		assertEquals(70, recovered.volume(0));
+		assertEquals(105, recovered.volume(1));
+		assertEquals(107, recovered.volume(2));
+	}
+
+	@Test
+	void recoveryReplaysOnlyTheTailAfterASnapshot() throws IOException {
+		TradeJournal journal = journal(true, 1);
+		TradeEngine engine = engine(journal);
+		engine.buy(0, 10);
+		journal.snapshot();
+		engine.buy(0, 5);
+		engine.sell(1, 1);
+		journal.close();
+
+		TradeEngine recovered = engine(journal(true, 1));
+		assertEquals(85, recovered.volume(0));
+		assertEquals(101, recovered.volume(1));
+	}
+
+	// a full journal region is folded into a snapshot without losing or repeating trades
+	@Test
+	void fullRegionTriggersSnapshot() throws IOException {
+		TradeJournal journal = journal(false, 1);
+		TradeEngine engine = engine(journal);
+		int trades = 200_000;
+		for (int i = 0; i < trades; i++) {
+			engine.sell(i % 3, 1);
+		}
+		journal.close();
+
+		TradeEngine recovered = engine(journal(false, 1));
+		for (int id = 0; id < 3; id++) {
+			assertEquals(engine.volume(id), recovered.volume(id));
+		}
+		assertEquals(300 + trades, recovered.volume(0) + recovered.volume(1) + recovered.volume(2));
+	}
+
+	// trades update their volumes concurrently, the snapshots of the region filling up meanwhile
+	// hold each trade either in the snapshot or in the journal after it, never both
+	@Test
+	void concurrentTradesAcrossSnapshots() throws Exception {
+		TradeJournal journal = journal(false, 1);
+		TradeEngine engine = engine(journal);
+		int threads = 8;
+		int tradesPerThread = 40_000;
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		for (int t = 0; t < threads; t++) {
+			int stock = t % 3;
+			pool.execute(() -> {
+				for (int i = 0; i < tradesPerThread; i++) {
+					if (i % 4 == 3) {
+						engine.tradeAll(new int[]{stock, (stock + 1) % 3}, new boolean[]{false, false},
+								new int[]{1, 1}, new long[2]);
+					} else {
+						engine.sell(stock, 1);
+					}
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(1, TimeUnit.MINUTES));
+		journal.close();
+
+		TradeEngine recovered = engine(journal(false, 1));
+		for (int id = 0; id < 3; id++) {
+			assertEquals(engine.volume(id), recovered.volume(id));
+		}
+		assertEquals(300 + threads * tradesPerThread * 5 / 4, recovered.volume(0) + recovered.volume(1) + recovered.volume(2));
+	}
+
+	// trades/sec with the journal off, on without fsync and on with group-committed fsync,
+	// then recovery time for 1M journaled trades; run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkJournal() throws Exception {
+		int threads = 16;
+		int tradesPerThread = 20_000;
+		TradeEngine off = new TradeEngine();
+		off.load(STOCKS, new long[]{100, 100, 100});
+		System.out.printf("journal off: %.0f trades/sec%n", tradesPerSecond(off, threads, tradesPerThread));
+
+		TradeJournal noSync = journal(false, 64, dir.resolve("nosync"));
+		System.out.printf("journal on, no fsync: %.0f trades/sec%n", tradesPerSecond(engine(noSync), threads, tradesPerThread));
+		noSync.close();
+
+		TradeJournal groupCommit = journal(true, 64, dir.resolve("fsync"));
+		System.out.printf("journal on, group commit: %.0f trades/sec%n", tradesPerSecond(engine(groupCommit), threads, tradesPerThread));
+		groupCommit.close();
+
+		TradeJournal bulk = journal(false, 64, dir.resolve("recovery"));
+		TradeEngine engine = engine(bulk);
+		for (int i = 0; i < 1_000_000; i++) {
+			engine.sell(i % 3, 1);
+		}
+		bulk.close();
+		long start = System.nanoTime();
+		TradeEngine recovered = engine(journal(false, 64, dir.resolve("recovery")));
+		System.out.printf("recovered 1M journaled trades in %.1f ms%n", (System.nanoTime() - start) / 1e6);
+		assertEquals(engine.volume(0), recovered.volume(0));
+	}
+
+	private double tradesPerSecond(TradeEngine engine, int threads, int tradesPerThread) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			int stock = t % 3;
+			pool.execute(() -> {
+				for (int i = 0; i < tradesPerThread; i++) {
+					engine.sell(stock, 1);
+				}
+			});
+		}
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.MINUTES));
+		return (double) threads * tradesPerThread / ((System.nanoTime() - start) / 1e9);
+	}
+
+	private TradeJournal journal(boolean fsync, int regionMb) {
+		return journal(fsync, regionMb, dir);
+	}
+
+	private static TradeJournal journal(boolean fsync, int regionMb, Path dir) {
+		return new TradeJournal(true, dir.toString(), regionMb, fsync, 0);
+	}
+
+	private static TradeEngine engine(TradeJournal journal) throws IOException {
+		TradeEngine engine = new TradeEngine(journal);
+		engine.load(STOCKS, new long[]{100, 100, 100});
+		journal.open(engine);
+		return engine;
+	}
+}
@@ -0,0 +1,35 @@
+package com.example.frontend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// builds the frontend stock cache from application.yml
+// cache.policy selects the eviction policy (tinylfu or lru), cache.size the number of
+// entries and cache.ttl-ms an optional expiry after write (0 keeps entries until evicted)
+@Configuration
+public class CacheConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(CacheConfiguration.class);
+
+    @Bean
+    public FrontendCache<String, CachedStock> stockCache(@Value("${cache.policy:tinylfu}") String policy,
+                                                    @Value("${cache.size:10}") int size,
+                                                    @Value("${cache.ttl-ms:0}") long ttlMs) {
+        logger.info("Stock cache: policy = {}, size = {}, ttl = {} ms", policy, size, ttlMs);
+        return newCache(policy, size, ttlMs);
+    }
+
+    static <K, V> FrontendCache<K, V> newCache(String policy, int size, long ttlMs) {
+        if ("lru".equalsIgnoreCase(policy)) {
+            return new LruCache<>(size, ttlMs);
+        }
+        if ("tinylfu".equalsIgnoreCase(policy)) {
+            return new TinyLfuCache<>(size, ttlMs);
+        }
+        throw new IllegalArgumentException("Unknown cache policy: " + policy);
+    }
+}
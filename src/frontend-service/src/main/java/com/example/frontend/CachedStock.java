@@ -0,0 +1,70 @@
+package com.example.frontend;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+
+// a stock body held by the frontend cache, with the catalog's ETag for the stock version it
+// shows and when the catalog last confirmed it (System.nanoTime())
+public final class CachedStock {
+
+    private final String body;
+    private final String etag;
+    private final long validatedAt;
+
+    // parsed from the catalog's "<epoch>-<version>" ETag, version -1 for any other ETag
+    private final String epoch;
+    private final long version;
+
+    public CachedStock(String body, String etag, long validatedAt) {
+        this.body = body;
+        this.etag = etag;
+        this.validatedAt = validatedAt;
+        int dash = etag == null ? -1 : etag.lastIndexOf('-');
+        long parsed = -1;
+        if (dash > 0 && etag.endsWith("\"")) {
+            try {
+                parsed = Long.parseLong(etag.substring(dash + 1, etag.length() - 1));
+            } catch (NumberFormatException e) {
+                // not one of the catalog's
+            }
+        }
+        this.epoch = parsed >= 0 ? etag.substring(0, dash) : null;
+        this.version = parsed;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    // null when the catalog sent none
+    public String getEtag() {
+        return etag;
+    }
+
+    // the stock as the catalog's bulk lookups send it, {"name":..,"version":..,"etag":..,"stock":<body>},
+    // without the version (and ETag) when the catalog sent no ETag of its own
+    public String toVersioned(String stockName) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        StringBuilder json = new StringBuilder("{\"name\":\"").append(encoder.quoteAsString(stockName)).append('"');
+        if (version >= 0) {
+            json.append(",\"version\":").append(version);
+        }
+        if (etag != null) {
+            json.append(",\"etag\":\"").append(encoder.quoteAsString(etag)).append('"');
+        }
+        return json.append(",\"stock\":").append(body).append('}').toString();
+    }
+
+    // whether the entry is older than revalidateAfterNanos and can be revalidated; 0 never revalidates
+    public boolean needsRevalidation(long now, long revalidateAfterNanos) {
+        return revalidateAfterNanos > 0 && etag != null && now - validatedAt >= revalidateAfterNanos;
+    }
+
+    // whether this should replace current in the cache: unless current shows a later version of
+    // the stock, as far as the two can be told apart (versions of another catalog run cannot)
+    public boolean supersedes(CachedStock current) {
+        if (current == null || version < 0 || current.version < 0 || !epoch.equals(current.epoch)) {
+            return true;
+        }
+        return version >= current.version;
+    }
+}
@@ -0,0 +1,207 @@
+package com.example.frontend;
+
+import com.example.common.LogSampler;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLEncoder;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// fetches stock information from the catalog service
+@Component
+public class CatalogClient {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogClient.class);
+
+    // names per bulk lookup call, keeps the query within the catalog's request line limit
+    static final int MAX_NAMES_PER_CALL = 200;
+
+    private final ServiceHttpClient httpClient;
+    // the catalog shard of every stock
+    private final CatalogShards shards;
+    private final LogSampler sampler;
+
+    @Autowired
+    public CatalogClient(ServiceHttpClient httpClient, CatalogShards shards, LogSampler sampler) {
+        this.httpClient = httpClient;
+        this.shards = shards;
+        this.sampler = sampler;
+    }
+
+    // the one catalog at catalogUrl
+    public CatalogClient(ServiceHttpClient httpClient, String catalogUrl, LogSampler sampler) {
+        this(httpClient, new CatalogShards(catalogUrl), sampler);
+    }
+
+    // status code, raw JSON body and ETag returned by the catalog
+    public static class CatalogResponse {
+        private final int status;
+        private final String body;
+        private final String etag;
+
+        public CatalogResponse(int status, String body) {
+            this(status, body, null);
+        }
+
+        public CatalogResponse(int status, String body, String etag) {
+            this.status = status;
+            this.body = body;
+            this.etag = etag;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getBody() {
+            return body;
+        }
+
+        // version of the stock the body shows, null if the catalog sent none
+        public String getEtag() {
+            return etag;
+        }
+    }
+
+    // GET /stocks/<stockName> on the stock's catalog shard over a pooled keep-alive connection,
+    // fails with HttpTimeoutException once the catalog route's read timeout passes
+    public CatalogResponse fetchStock(String stockName) throws Exception {
+        return fetchStock(stockName, null);
+    }
+
+    // with the ETag of a cached body the catalog answers an empty 304 while the stock is
+    // still at that version
+    public CatalogResponse fetchStock(String stockName, String etag) throws Exception {
+        String catalogUrl = shards.urlFor(stockName);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Fetching {} from catalog at {}", stockName, catalogUrl);
+        }
+        String url = catalogUrl + "/stocks/" + stockName;
+        HttpResponse<String> response = etag == null ? httpClient.get("catalog", url)
+                : httpClient.get("catalog", url, "If-None-Match", etag);
+        return toResponse(response);
+    }
+
+    // fetchStock() without blocking the caller, for the reactive gateway
+    public CompletableFuture<CatalogResponse> fetchStockAsync(String stockName, String etag) {
+        String catalogUrl = shards.urlFor(stockName);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Fetching {} from catalog at {}", stockName, catalogUrl);
+        }
+        String url = catalogUrl + "/stocks/" + stockName;
+        return (etag == null ? httpClient.getAsync("catalog", url)
+                : httpClient.getAsync("catalog", url, "If-None-Match", etag))
+                .thenApply(CatalogClient::toResponse);
+    }
+
+    // GET /stocks?names=.. on the catalog shards, many stocks in one call per shard (split into calls
+    // of at most MAX_NAMES_PER_CALL names), the shards asked at once; found stocks by name, each as
+    // a 200 response with its ETag, names no shard knows are left out. fails on any answer but 200
+    public Map<String, CatalogResponse> fetchStocks(List<String> stockNames) throws Exception {
+        return await(fetchStocksAsync(stockNames));
+    }
+
+    // fetchStocks() without blocking the caller, for the reactive gateway
+    public CompletableFuture<Map<String, CatalogResponse>> fetchStocksAsync(List<String> stockNames) {
+        List<CompletableFuture<Map<String, CatalogResponse>>> calls = new ArrayList<>();
+        for (Map.Entry<String, List<String>> shard : shards.byShard(stockNames).entrySet()) {
+            List<String> shardNames = shard.getValue();
+            for (int from = 0; from < shardNames.size(); from += MAX_NAMES_PER_CALL) {
+                List<String> names = shardNames.subList(from, Math.min(from + MAX_NAMES_PER_CALL, shardNames.size()));
+                calls.add(httpClient.getAsync("catalog", namesUrl(shard.getKey(), names)).thenApply(this::toStocksUnchecked));
+            }
+        }
+        return merge(calls, Integer.MAX_VALUE);
+    }
+
+    // GET /stocks?prefix=.. on every catalog shard, the stocks whose name starts with prefix,
+    // shard by shard and at most limit of them
+    public Map<String, CatalogResponse> fetchStocksByPrefix(String prefix, int limit) throws Exception {
+        return await(fetchStocksByPrefixAsync(prefix, limit));
+    }
+
+    public CompletableFuture<Map<String, CatalogResponse>> fetchStocksByPrefixAsync(String prefix, int limit) {
+        List<CompletableFuture<Map<String, CatalogResponse>>> calls = new ArrayList<>();
+        for (String catalogUrl : shards.urls()) {
+            String url = catalogUrl + "/stocks?prefix=" + URLEncoder.encode(prefix, StandardCharsets.UTF_8) + "&limit=" + limit;
+            calls.add(httpClient.getAsync("catalog", url).thenApply(this::toStocksUnchecked));
+        }
+        return merge(calls, limit);
+    }
+
+    private static String namesUrl(String catalogUrl, List<String> names) {
+        StringBuilder url = new StringBuilder(catalogUrl).append("/stocks?names=");
+        for (int i = 0; i < names.size(); i++) {
+            url.append(i > 0 ? "," : "").append(URLEncoder.encode(names.get(i), StandardCharsets.UTF_8));
+        }
+        return url.toString();
+    }
+
+    // the stocks of all the calls, in call order and at most limit of them
+    private static CompletableFuture<Map<String, CatalogResponse>> merge(
+            List<CompletableFuture<Map<String, CatalogResponse>>> calls, int limit) {
+        return CompletableFuture.allOf(calls.toArray(new CompletableFuture<?>[0])).thenApply(done -> {
+            Map<String, CatalogResponse> stocks = new LinkedHashMap<>();
+            for (CompletableFuture<Map<String, CatalogResponse>> call : calls) {
+                for (Map.Entry<String, CatalogResponse> stock : call.join().entrySet()) {
+                    if (stocks.size() < limit) {
+                        stocks.put(stock.getKey(), stock.getValue());
+                    }
+                }
+            }
+            return stocks;
+        });
+    }
+
+    private static <T> T await(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof UncheckedIOException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    // the catalog's JSON array of {"name":..,"version":..,"etag":..,"stock":<lookup body>}
+    private Map<String, CatalogResponse> toStocks(HttpResponse<String> response) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException("catalog answered " + response.statusCode() + ": " + response.body());
+        }
+        Map<String, CatalogResponse> stocks = new LinkedHashMap<>();
+        for (JsonNode stock : httpClient.readJson(response.body(), JsonNode.class)) {
+            String name = stock.path("name").asText(null);
+            JsonNode body = stock.get("stock");
+            if (name != null && body != null) {
+                stocks.put(name, new CatalogResponse(200, body.toString(), stock.path("etag").asText(null)));
+            }
+        }
+        return stocks;
+    }
+
+    private Map<String, CatalogResponse> toStocksUnchecked(HttpResponse<String> response) {
+        try {
+            return toStocks(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static CatalogResponse toResponse(HttpResponse<String> response) {
+        return new CatalogResponse(response.statusCode(), response.body(),
+                response.headers().firstValue("ETag").orElse(null));
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.frontend;
+
+import com.example.common.HashRing;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+// the catalog shards and which one has each stock: catalog.shards lists them as id=url, and a
+// stock belongs to the shard the hash ring over their ids puts it on, the ring every shard loads
+// its slice of stocks.csv by (shard.members there). adding or removing a shard moves only the
+// stocks it takes or gives up. without catalog.shards the one catalog at CATALOG_URL has them all
+@Component
+public class CatalogShards {
+
+    // ring of shard ids
+    private final HashRing<String> ring;
+    private final Map<String, String> urlsById;
+    // shard urls in the order listed
+    private final List<String> urls;
+
+    @Autowired
+    public CatalogShards(@Value("${catalog.shards:}") List<String> shards,
+                         @Value("${CATALOG_URL:http://localhost:8081}") String catalogUrl,
+                         @Value("${catalog.virtual-nodes:100}") int virtualNodes) {
+        Map<String, String> urlsById = new LinkedHashMap<>();
+        for (String shard : shards) {
+            if (shard.trim().isEmpty()) {
+                continue;
+            }
+            int eq = shard.indexOf('=');
+            if (eq <= 0) {
+                throw new IllegalArgumentException("catalog.shards entry " + shard + " is not id=url");
+            }
+            urlsById.put(shard.substring(0, eq).trim(), shard.substring(eq + 1).trim());
+        }
+        if (urlsById.isEmpty()) {
+            urlsById.put("catalog", catalogUrl);
+        }
+        this.urlsById = urlsById;
+        this.urls = Collections.unmodifiableList(new ArrayList<>(urlsById.values()));
+        this.ring = new HashRing<>(new ArrayList<>(urlsById.keySet()), Function.identity(), virtualNodes);
+    }
+
+    // the one catalog at catalogUrl
+    public CatalogShards(String catalogUrl) {
+        this(Collections.emptyList(), catalogUrl, 1);
+    }
+
+    // url of the shard with the stock
+    public String urlFor(String stockName) {
+        return urlsById.get(ring.nodeFor(stockName));
+    }
+
+    // the names grouped by the url of their shard, in the order given within each
+    public Map<String, List<String>> byShard(List<String> stockNames) {
+        Map<String, List<String>> byShard = new LinkedHashMap<>();
+        for (String name : stockNames) {
+            byShard.computeIfAbsent(urlFor(name), url -> new ArrayList<>()).add(name);
+        }
+        return byShard;
+    }
+
+    public List<String> urls() {
+        return urls;
+    }
+}
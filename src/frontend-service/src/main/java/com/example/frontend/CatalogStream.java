@@ -0,0 +1,239 @@
+package com.example.frontend;
+
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// follows the catalog's GET /stocks/stream and hands every stock version pushed to the stock
+// controller, so a trade replaces the cached entry with the new volume instead of evicting it
+// for the next lookup to fetch again. after a disconnect it resumes with the id of the last event
+// it got (the catalog sends a snapshot of every stock when it no longer has what was missed),
+// retrying with backoff while the catalog is unreachable. a sharded catalog is followed shard by
+// shard, each on a thread of its own. catalog.stream.enabled: false leaves the cache to the
+// catalog's invalidation calls and revalidation
+@Component
+public class CatalogStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatalogStream.class);
+
+    private final ServiceHttpClient httpClient;
+    private final CatalogShards shards;
+    private final ObjectMapper mapper;
+    private final ObjectProvider<StockUpdateListener> listeners;
+    private final boolean enabled;
+    private final long retryMs;
+    private final long maxRetryMs;
+
+    private final Counter volumeEvents;
+    private final Counter snapshotEvents;
+    private final Counter reconnects;
+
+    private volatile boolean running;
+    private final List<Follower> followers = new ArrayList<>();
+
+    public CatalogStream(ServiceHttpClient httpClient, CatalogShards shards, ObjectMapper mapper, ObjectProvider<StockUpdateListener> listeners,
+                         @Value("${catalog.stream.enabled:true}") boolean enabled,
+                         @Value("${catalog.stream.retry-ms:500}") long retryMs,
+                         @Value("${catalog.stream.max-retry-ms:10000}") long maxRetryMs,
+                         MeterRegistry registry) {
+        this.httpClient = httpClient;
+        this.shards = shards;
+        this.mapper = mapper;
+        this.listeners = listeners;
+        this.enabled = enabled;
+        this.retryMs = retryMs;
+        this.maxRetryMs = maxRetryMs;
+        this.volumeEvents = events(registry, "volume");
+        this.snapshotEvents = events(registry, "snapshot");
+        this.reconnects = Counter.builder("frontend.catalog.stream.reconnects")
+                .description("Times the stock stream was connected again after it ended or failed")
+                .register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            logger.info("Catalog stock stream disabled");
+            return;
+        }
+        running = true;
+        List<String> urls = shards.urls();
+        for (int i = 0; i < urls.size(); i++) {
+            Follower follower = new Follower(urls.get(i));
+            follower.thread = new Thread(follower::run, urls.size() == 1 ? "catalog-stream" : "catalog-stream-" + (i + 1));
+            follower.thread.setDaemon(true);
+            followers.add(follower);
+            follower.thread.start();
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        for (Follower follower : followers) {
+            follower.thread.interrupt();
+            close(follower.current);
+        }
+    }
+
+    // the stream of one catalog shard
+    private final class Follower {
+        final String catalogUrl;
+        Thread thread;
+        volatile InputStream current;
+        // id of the last event applied, null before the first
+        volatile String lastEventId;
+
+        Follower(String catalogUrl) {
+            this.catalogUrl = catalogUrl;
+        }
+
+        void run() {
+            long delay = retryMs;
+            boolean first = true;
+            while (running) {
+                if (!first) {
+                    reconnects.increment();
+                }
+                first = false;
+                try {
+                    if (follow()) {
+                        delay = retryMs;
+                    }
+                } catch (IOException e) {
+                    logger.warn("Catalog stock stream at {} failed: {}, reconnecting in {} ms", catalogUrl, e.getMessage(), delay);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (RuntimeException e) {
+                    logger.error("Catalog stock stream at {} stopped by an error, reconnecting in {} ms", catalogUrl, delay, e);
+                }
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                delay = Math.min(delay * 2, maxRetryMs);
+            }
+        }
+
+        // reads one connection until it ends; true if it delivered any event
+        boolean follow() throws IOException, InterruptedException {
+            String url = catalogUrl + "/stocks/stream";
+            String resumeFrom = lastEventId;
+            HttpResponse<InputStream> response = resumeFrom == null ? httpClient.stream("catalog", url)
+                    : httpClient.stream("catalog", url, "Last-Event-ID", resumeFrom);
+            InputStream body = response.body();
+            current = body;
+            if (response.statusCode() != 200) {
+                close(body);
+                throw new IOException("catalog answered " + response.statusCode());
+            }
+            logger.info("Following catalog stock stream at {}{}", url, resumeFrom == null ? "" : " after " + resumeFrom);
+            boolean received = false;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+                String id = null;
+                String event = null;
+                StringBuilder data = new StringBuilder();
+                String line;
+                while (running && (line = reader.readLine()) != null) {
+                    if (line.isEmpty()) {
+                        // a blank line ends the event
+                        if (data.length() > 0) {
+                            apply(event, data.toString());
+                            received = true;
+                            if (id != null) {
+                                lastEventId = id;
+                            }
+                        }
+                        id = null;
+                        event = null;
+                        data.setLength(0);
+                    } else if (line.startsWith(":")) {
+                        // heartbeat comment
+                    } else {
+                        int colon = line.indexOf(':');
+                        String field = colon < 0 ? line : line.substring(0, colon);
+                        String value = colon < 0 ? "" : line.substring(line.startsWith(": ", colon) ? colon + 2 : colon + 1);
+                        if (field.equals("id")) {
+                            id = value;
+                        } else if (field.equals("event")) {
+                            event = value;
+                        } else if (field.equals("data")) {
+                            data.append(data.length() > 0 ? "\n" : "").append(value);
+                        }
+                    }
+                }
+            } finally {
+                current = null;
+            }
+            if (running) {
+                logger.warn("Catalog stock stream at {} ended, reconnecting", catalogUrl);
+            }
+            return received;
+        }
+    }
+
+    private void apply(String event, String data) throws IOException {
+        JsonNode json = mapper.readTree(data);
+        if ("snapshot".equals(event)) {
+            snapshotEvents.increment();
+            for (JsonNode stock : json) {
+                update(stock);
+            }
+        } else if ("volume".equals(event)) {
+            volumeEvents.increment();
+            update(json);
+        }
+    }
+
+    // {"name":..,"version":..,"etag":..,"stock":<the catalog's lookup body>}
+    private void update(JsonNode update) throws IOException {
+        String name = update.path("name").asText(null);
+        JsonNode stock = update.get("stock");
+        if (name == null || stock == null) {
+            return;
+        }
+        CachedStock cached = new CachedStock(mapper.writeValueAsString(stock), update.path("etag").asText(null),
+                System.nanoTime());
+        for (StockUpdateListener listener : listeners) {
+            listener.stockUpdated(name, cached);
+        }
+    }
+
+    private static Counter events(MeterRegistry registry, String type) {
+        return Counter.builder("frontend.catalog.stream.events")
+                .description("Events received on the catalog's stock stream")
+                .tag("type", type)
+                .register(registry);
+    }
+
+    private static void close(InputStream stream) {
+        if (stream == null) {
+            return;
+        }
+        try {
+            stream.close();
+        } catch (IOException e) {
+            // closing anyway
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.frontend;
+
+// count-min sketch of 4-bit counters estimating how often each key was accessed recently
+// used by TinyLfuCache to decide whether a new entry is worth evicting an existing one;
+// all counters are halved every sampleSize increments so old popularity fades out
+// not thread-safe, the cache only touches it while holding its eviction lock
+final class FrequencySketch<K> {
+
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+
+    // each long holds sixteen 4-bit counters
+    private final long[] table;
+    private final int counterMask;
+    private final int sampleSize;
+    private int additions;
+
+    FrequencySketch(int maximumSize) {
+        int counters = ceilingPowerOfTwo(Math.max(maximumSize, 16) * 16);
+        table = new long[counters / 16];
+        counterMask = counters - 1;
+        sampleSize = Math.max(maximumSize, 16) * 10;
+    }
+
+    // estimated number of recent accesses of key, 0 to 15
+    int frequency(K key) {
+        int hash = spread(key.hashCode());
+        int frequency = 15;
+        for (int i = 0; i < 4; i++) {
+            int counter = indexOf(hash, i);
+            int count = (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+        return frequency;
+    }
+
+    // records one access of key
+    void increment(K key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int i = 0; i < 4; i++) {
+            added |= incrementAt(indexOf(hash, i));
+        }
+        if (added && ++additions >= sampleSize) {
+            reset();
+        }
+    }
+
+    private boolean incrementAt(int counter) {
+        int index = counter >>> 4;
+        int offset = (counter & 15) << 2;
+        long mask = 0xfL << offset;
+        if ((table[index] & mask) != mask) {
+            table[index] += 1L << offset;
+            return true;
+        }
+        return false;
+    }
+
+    // halves every counter so the sketch keeps following the current popularity
+    private void reset() {
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+        }
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return (int) h & counterMask;
+    }
+
+    private static int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+    }
+}
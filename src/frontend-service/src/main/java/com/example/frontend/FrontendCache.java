@@ -0,0 +1,40 @@
+package com.example.frontend;
+
+import java.util.List;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+// bounded in-memory cache used by the frontend, implementations decide what gets evicted
+// every implementation is safe for concurrent use without external locking
+public interface FrontendCache<K, V> {
+
+    // returns the cached value, or null on a miss (absent or expired)
+    V get(K key);
+
+    // inserts or replaces a value, may evict other entries
+    void put(K key, V value);
+
+    // get() of every key in one call, values in the order of keys (null for a miss); counted as
+    // the gets would be
+    List<V> getAll(List<K> keys);
+
+    // replaces a cached value with update(value) in one step, restarting its ttl; update returning
+    // the value it was given leaves the entry alone. not counted as a hit or a miss, and a key
+    // that is not cached stays so. returns false if the key was not cached
+    boolean update(K key, UnaryOperator<V> update);
+
+    // removes a value if present
+    void invalidate(K key);
+
+    // removes every value, eg. once invalidations of some keys were lost
+    void clear();
+
+    // number of entries currently cached
+    int size();
+
+    // snapshot of the cached keys, for logging and debugging only
+    Set<K> keys();
+
+    // hit, miss and eviction counters since startup
+    CacheStats stats();
+}
@@ -1,12 +1,23 @@
 package com.example.frontend;
 
+import com.example.common.LogSampler;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
-import jakarta.annotation.PostConstruct;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,92 +25,308 @@ import org.slf4j.LoggerFactory;
 // RestController handles frontend-side stock queries along with caching
 // also supports cache invalidation (to be manually triggered)
 @RestController
+@Profile("!reactive")
 @RequestMapping("/stocks")
-public class FrontendCacheController {
+public class FrontendCacheController implements StockUpdateListener, ApplicationRunner {
 
-    // cache size which can be configured through application.properties (default is 10)
-    @Value("${cache.size:10}")
-    private int cacheSize;
+    // stock cache, policy and size are configured in application.yml (see CacheConfiguration)
+    private final FrontendCache<String, CachedStock> cache;
 
-    // LRU-style cache, implemented using LinkedHashMap with access-order
-    private Map<String, String> cache;
+    // fetches stocks from the catalog on a cache miss
+    private final CatalogClient catalogClient;
 
-    // logger to monitor stock requests and cache behavior
+    // concurrent misses for the same stock share one catalog fetch
+    private final SingleFlight<String, CatalogClient.CatalogResponse> stockLoads = new SingleFlight<>();
+
+    // how long a request waits for a catalog fetch started by another request
+    private final long loadTimeoutMs;
+
+    // entries older than this are revalidated with the catalog before they are served, 0 = never
+    private final long revalidateAfterNanos;
+
+    // logger to monitor stock requests and cache behavior, per-request lines only for a sample
     private static final Logger logger = LoggerFactory.getLogger(FrontendCacheController.class);
+    private final LogSampler sampler;
 
-    // initializes the LRU cache after the controller is constructed
-    @PostConstruct
-    public void init() {
-        cache = new LinkedHashMap<String, String>(cacheSize, 0.75f, true) {
-            @Override
-            protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
-                return size() > cacheSize;
-            }
-        };
+    // catalog fetches on a miss, timed by outcome
+    private final LoadMetrics loadMetrics;
+
+    // lookups counted per stock, the hottest are loaded into the cache at startup
+    private final HotStocks hotStocks;
+
+    public FrontendCacheController(FrontendCache<String, CachedStock> stockCache, CatalogClient catalogClient,
+                                   @Value("${cache.load-timeout-ms:2000}") long loadTimeoutMs,
+                                   @Value("${cache.revalidate-after-ms:0}") long revalidateAfterMs,
+                                   MeterRegistry registry, LogSampler sampler, HotStocks hotStocks) {
+        this.cache = stockCache;
+        this.catalogClient = catalogClient;
+        this.loadTimeoutMs = loadTimeoutMs;
+        this.revalidateAfterNanos = TimeUnit.MILLISECONDS.toNanos(revalidateAfterMs);
+        this.sampler = sampler;
+        this.loadMetrics = new LoadMetrics(registry, stockLoads);
+        this.hotStocks = hotStocks;
+    }
+
+    // loads the stocks that were hottest in the last run into the cache, in one catalog call; the
+    // frontend only reports ready (readiness probe) once the application runners are done
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> hot = hotStocks.load();
+        if (hot.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, CachedStock> warmed = fetchAndCacheAll(hot);
+            logger.info("Prewarmed cache with {} of {} hot stocks in {} ms", warmed.size(), hot.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (Exception e) {
+            logger.warn("Could not prewarm cache with {} hot stocks: {}", hot.size(), e.getMessage());
+        }
     }
 
     // this handles GET requests to get stock information by stock name
     // it checks the frontend cache first, if not found it fetches from catalog and stores in cache
+    // when many requests miss on the same stock at once only one of them calls the catalog
+    // an entry due for revalidation is sent to the catalog with its ETag and, while the stock is
+    // still at that version, kept without the catalog sending the body again
+    // the ETag is passed on, so clients revalidating with If-None-Match get an empty 304 as well
     @GetMapping("/{stockName}")
     public ResponseEntity<String> getStock(@PathVariable("stockName") String stockName) {
-        logger.info("Stock lookup request received: {}", stockName);
-
         // check for cache hit
-        synchronized (cache) {
-            if (cache.containsKey(stockName)) {
-//                System.out.println("CACHE HIT for " + stockName);
-                logger.info("CACHE HIT: {}", stockName);
-                logger.info("Cache state: {}", cache.keySet());
-                return ResponseEntity.ok(cache.get(stockName));
-            }
-            else {
-                logger.info("CACHE MISS: {}", stockName);
+        CachedStock cached = cache.get(stockName);
+        boolean sampled = logger.isDebugEnabled() && sampler.sample();
+        if (cached != null && !cached.needsRevalidation(System.nanoTime(), revalidateAfterNanos)) {
+            if (sampled) {
+                logger.debug("CACHE HIT: {}", stockName);
             }
+            hotStocks.record(stockName);
+            return ok(cached.getBody(), cached.getEtag());
+        }
+        if (sampled) {
+            logger.debug(cached == null ? "CACHE MISS: {}" : "CACHE REVALIDATE: {}", stockName);
         }
 
-        // if cache miss, fetch from catalog service
+        // if cache miss, fetch from catalog service (or wait for a fetch already running)
         try {
-            String catalogUrl = System.getenv().getOrDefault("CATALOG_URL", "http://localhost:8081");
-            logger.info("Fetching {} from catalog at {}", stockName, catalogUrl);
-
-            java.net.URL url = new java.net.URL(catalogUrl + "/stocks/" + stockName);
-            java.net.HttpURLConnection conn = (java.net.HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-
-            int status = conn.getResponseCode();
-            java.io.InputStream in = (status == 200) ? conn.getInputStream() : conn.getErrorStream();
-            // read response body
-            java.util.Scanner scanner = new java.util.Scanner(in).useDelimiter("\\A");
-            String response = scanner.hasNext() ? scanner.next() : "";
-            in.close();
-
-            // if success, cache the result and return it
-            if (status == 200) {
-                synchronized (cache) {
-                    cache.put(stockName, response);
-                    logger.info("Caching new stock: {}", stockName);
-                    logger.info("Cache state: {}", cache.keySet());
-                }
-                logger.info("Caching result for {}", stockName);
-                return ResponseEntity.ok(response);
-            } else {
-                logger.warn("Catalog returned error {} for {}", status, stockName);
-                return ResponseEntity.status(status).body(response);
+            CatalogClient.CatalogResponse response = stockLoads.load(stockName, () -> fetchAndCache(stockName, cached),
+                    loadTimeoutMs);
+            if (response.getStatus() == 200) {
+                hotStocks.record(stockName);
+                return ok(response.getBody(), response.getEtag());
             }
+            logger.warn("Catalog returned error {} for {}", response.getStatus(), stockName);
+            return ResponseEntity.status(response.getStatus()).body(response.getBody());
+        } catch (TimeoutException e) {
+            logger.error("Timed out waiting for catalog fetch of {}", stockName);
+            return ResponseEntity.status(504).body("Timed out waiting for catalog");
         } catch (Exception e) {
             logger.error("Error fetching stock {} from catalog: {}", stockName, e.getMessage());
             return ResponseEntity.status(500).body("Internal Server Error: " + e.getMessage());
         }
     }
 
+    // runs on the one request that actually calls the catalog, stale is the entry to revalidate
+    private CatalogClient.CatalogResponse fetchAndCache(String stockName, CachedStock stale) throws Exception {
+        long generation = stockLoads.generation(stockName);
+        long start = System.nanoTime();
+        CatalogClient.CatalogResponse response;
+        try {
+            response = catalogClient.fetchStock(stockName, stale == null ? null : stale.getEtag());
+        } catch (Exception e) {
+            loadMetrics.failed(start);
+            throw e;
+        }
+        loadMetrics.loaded(start, response.getStatus());
+        if (response.getStatus() == 304 && stale != null) {
+            // unchanged since cached, only the validation time moves on
+            response = new CatalogClient.CatalogResponse(200, stale.getBody(), stale.getEtag());
+        }
+        // if success, cache the result
+        if (response.getStatus() == 200) {
+            cacheFetched(stockName, response, generation, start);
+        }
+        return response;
+    }
+
+    // several stocks in one call, API endpoint is GET /stocks?names=Stock1,Stock2 or, for every stock
+    // whose name starts with a prefix, GET /stocks?prefix=Stock (at most limit, default 100)
+    // answers a JSON array of the stocks found as the catalog's bulk lookup does, each
+    // {"name":..,"version":..,"etag":..,"stock":<the GET /stocks/<stockName> body>}
+    // cached stocks are read from the cache in one pass and every other name is fetched from the
+    // catalog in a single call; a prefix always asks the catalog, the only one that knows every stock,
+    // and its answer refreshes the stocks already cached without caching the rest
+    @GetMapping
+    public ResponseEntity<String> getStocks(@RequestParam(value = "names", required = false) List<String> stockNames,
+                                            @RequestParam(value = "prefix", required = false) String prefix,
+                                            @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (stockNames == null && prefix == null) {
+            return ResponseEntity.badRequest().body("Stock names or a name prefix required");
+        }
+        try {
+            Map<String, CachedStock> stocks = stockNames != null ? lookupAll(stockNames) : fetchByPrefix(prefix, limit);
+            StringBuilder json = new StringBuilder("[");
+            for (Map.Entry<String, CachedStock> stock : stocks.entrySet()) {
+                hotStocks.record(stock.getKey());
+                json.append(json.length() > 1 ? "," : "").append(stock.getValue().toVersioned(stock.getKey()));
+            }
+            return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json.append(']').toString());
+        } catch (Exception e) {
+            logger.error("Error fetching stocks {} from catalog: {}", stockNames != null ? stockNames : prefix + "*",
+                    e.getMessage());
+            return ResponseEntity.status(500).body("Internal Server Error: " + e.getMessage());
+        }
+    }
+
+    // the stocks found by name, in the order asked; names not cached or due for revalidation are
+    // fetched together
+    private Map<String, CachedStock> lookupAll(List<String> stockNames) throws Exception {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(stockNames));
+        List<CachedStock> cached = cache.getAll(names);
+        Map<String, CachedStock> stocks = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < names.size(); i++) {
+            CachedStock stock = cached.get(i);
+            if (stock == null || stock.needsRevalidation(now, revalidateAfterNanos)) {
+                missing.add(names.get(i));
+                stock = null;
+            }
+            // a fetched stock takes the place of its name
+            stocks.put(names.get(i), stock);
+        }
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("BULK LOOKUP: {} stocks, {} from the catalog", names.size(), missing.size());
+        }
+        if (!missing.isEmpty()) {
+            stocks.putAll(fetchAndCacheAll(missing));
+        }
+        stocks.values().removeIf(Objects::isNull);
+        return stocks;
+    }
+
+    // one catalog call for all the names, each stock found is cached as a single fetch caches it
+    private Map<String, CachedStock> fetchAndCacheAll(List<String> stockNames) throws Exception {
+        long[] generations = new long[stockNames.size()];
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = stockLoads.generation(stockNames.get(i));
+        }
+        long start = System.nanoTime();
+        Map<String, CatalogClient.CatalogResponse> responses;
+        try {
+            responses = catalogClient.fetchStocks(stockNames);
+        } catch (Exception e) {
+            loadMetrics.failed(start);
+            throw e;
+        }
+        loadMetrics.loadedAll(start);
+        Map<String, CachedStock> fetched = new LinkedHashMap<>();
+        for (int i = 0; i < generations.length; i++) {
+            CatalogClient.CatalogResponse response = responses.get(stockNames.get(i));
+            if (response != null) {
+                fetched.put(stockNames.get(i), cacheFetched(stockNames.get(i), response, generations[i], start));
+            }
+        }
+        return fetched;
+    }
+
+    // the catalog's stocks starting with prefix; what changed since the cache got it is updated, but
+    // a stock not cached is not cached, a fetch whose generations were never taken could be stale
+    private Map<String, CachedStock> fetchByPrefix(String prefix, int limit) throws Exception {
+        long start = System.nanoTime();
+        Map<String, CatalogClient.CatalogResponse> responses;
+        try {
+            responses = catalogClient.fetchStocksByPrefix(prefix, limit);
+        } catch (Exception e) {
+            loadMetrics.failed(start);
+            throw e;
+        }
+        loadMetrics.loadedAll(start);
+        Map<String, CachedStock> fetched = new LinkedHashMap<>();
+        for (Map.Entry<String, CatalogClient.CatalogResponse> response : responses.entrySet()) {
+            CachedStock stock = new CachedStock(response.getValue().getBody(), response.getValue().getEtag(), start);
+            cache.update(response.getKey(), current -> stock.supersedes(current) ? stock : current);
+            fetched.put(response.getKey(), stock);
+        }
+        return fetched;
+    }
+
+    // caches a stock fetched with the catalog, unless it was invalidated (generation moved on) since
+    private CachedStock cacheFetched(String stockName, CatalogClient.CatalogResponse response, long generation,
+                                     long start) {
+        CachedStock fetched = new CachedStock(response.getBody(), response.getEtag(), start);
+        cacheNewer(stockName, fetched);
+        if (stockLoads.generation(stockName) != generation) {
+            // a trade invalidated this stock while we were fetching, the body may be stale
+            cache.invalidate(stockName);
+            logger.info("Stock {} invalidated during fetch, not caching", stockName);
+        } else if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Caching new stock: {}", stockName);
+        }
+        return fetched;
+    }
+
+    // applies a version of the stock pushed by the catalog to the cached entry; with nothing
+    // cached, a fetch in flight may have read an older version and must not cache it
+    @Override
+    public void stockUpdated(String stockName, CachedStock stock) {
+        if (!cache.update(stockName, current -> stock.supersedes(current) ? stock : current)) {
+            stockLoads.invalidate(stockName);
+        }
+    }
+
+    // caches a fetched stock unless the entry already shows a later version of it
+    private void cacheNewer(String stockName, CachedStock fetched) {
+        if (!cache.update(stockName, current -> fetched.supersedes(current) ? fetched : current)) {
+            cache.put(stockName, fetched);
+        }
+    }
+
+    private static ResponseEntity<String> ok(String body, String etag) {
+        return etag == null ? ResponseEntity.ok(body) : ResponseEntity.ok().eTag(etag).body(body);
+    }
+
     // this handles POST requests to invalidate a cached stock manually
     @PostMapping("/invalidate/{stockName}")
     public ResponseEntity<String> invalidate(@PathVariable("stockName") String stockName) {
-        synchronized (cache) {
-            cache.remove(stockName);
+        stockLoads.invalidate(stockName);
+        cache.invalidate(stockName);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Cache invalidated for {}", stockName);
         }
-        System.out.println("Cache invalidated for " + stockName);
-        logger.info("Cache invalidated for {}", stockName);
         return ResponseEntity.ok("Cache invalidated for stock: " + stockName);
     }
+
+    // this handles POST requests to invalidate several cached stocks in one call
+    // body is a JSON array of stock names, eg. ["Stock1", "Stock2"]
+    @PostMapping("/invalidate")
+    public ResponseEntity<String> invalidateAll(@RequestBody List<String> stockNames) {
+        for (String stockName : stockNames) {
+            stockLoads.invalidate(stockName);
+            cache.invalidate(stockName);
+        }
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Cache invalidated for {}", stockNames);
+        }
+        return ResponseEntity.ok("Cache invalidated for " + stockNames.size() + " stocks");
+    }
+
+    // this handles POST requests to drop every cached stock, sent by a catalog that could not
+    // queue some invalidations and no longer knows which stocks changed
+    @PostMapping("/invalidate-all")
+    public ResponseEntity<String> invalidateEverything() {
+        stockLoads.invalidateAll();
+        cache.clear();
+        logger.info("Cache invalidated for all stocks");
+        return ResponseEntity.ok("Cache invalidated for all stocks");
+    }
+
+    // hit, miss and eviction counters of the stock cache, API endpoint is GET /stocks/cache/stats
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> response = cache.stats().toMap();
+        response.put("size", cache.size());
+        response.put("loads", stockLoads.stats());
+        return ResponseEntity.ok(response);
+    }
 }
@@ -0,0 +1,73 @@
+package com.example.frontend;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+// publishes the counters the stock cache and the order router already keep: cache hits, misses,
+// evictions and expirations with the cache's size, the same for the order cache with its bytes,
+// and the order leader failovers with how long each partition was without a leader. read when
+// scraped, nothing is added to the request path
+@Component
+public class FrontendMetrics implements MeterBinder {
+
+    private final FrontendCache<String, CachedStock> cache;
+    private final OrderCache orderCache;
+    private final OrderRouter router;
+
+    public FrontendMetrics(FrontendCache<String, CachedStock> stockCache, OrderCache orderCache, OrderRouter router) {
+        this.cache = stockCache;
+        this.orderCache = orderCache;
+        this.router = router;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("frontend.cache.requests", cache, c -> c.stats().hits())
+                .description("Stock lookups answered by the cache or not")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("frontend.cache.requests", cache, c -> c.stats().misses())
+                .description("Stock lookups answered by the cache or not")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("frontend.cache.evictions", cache, c -> c.stats().evictions())
+                .description("Entries evicted to make room")
+                .register(registry);
+        FunctionCounter.builder("frontend.cache.expirations", cache, c -> c.stats().expirations())
+                .description("Entries dropped once their ttl passed")
+                .register(registry);
+        Gauge.builder("frontend.cache.size", cache, FrontendCache::size)
+                .description("Entries in the stock cache")
+                .register(registry);
+
+        FunctionCounter.builder("frontend.order.cache.requests", orderCache, c -> c.stats().hits())
+                .description("Order lookups answered by the order cache or not")
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("frontend.order.cache.requests", orderCache, c -> c.stats().misses())
+                .description("Order lookups answered by the order cache or not")
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("frontend.order.cache.evictions", orderCache, c -> c.stats().evictions())
+                .description("Orders evicted to stay within order.cache.size and order.cache.max-kb")
+                .register(registry);
+        Gauge.builder("frontend.order.cache.size", orderCache, OrderCache::size)
+                .description("Orders in the order cache")
+                .register(registry);
+        Gauge.builder("frontend.order.cache.bytes", orderCache, OrderCache::bytes)
+                .description("Estimated heap taken by the cached orders")
+                .baseUnit("bytes")
+                .register(registry);
+
+        FunctionTimer.builder("frontend.order.failovers", router, OrderRouter::failovers,
+                        OrderRouter::totalFailoverMs, TimeUnit.MILLISECONDS)
+                .description("Order leader failovers and how long the old leader had been silent")
+                .register(registry);
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.frontend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// counts the lookups of each stock and keeps the hottest in a file, so that a restarted frontend
+// loads them into its cache before it reports ready instead of letting the first wave of requests
+// miss (cache.prewarm). counts are halved on every save, so stocks that were hot long ago give way
+// to the ones hot now; with prewarm disabled nothing is counted
+@Component
+public class HotStocks {
+
+    private static final Logger logger = LoggerFactory.getLogger(HotStocks.class);
+
+    private final boolean enabled;
+    // stocks loaded at startup and written to the file, at most the cache size
+    private final int count;
+    // stocks counted at once, lookups of others are not counted until some have cooled off
+    private final int maxTracked;
+    private final Path file;
+    private final long saveIntervalMs;
+
+    private final Map<String, LongAdder> lookups = new ConcurrentHashMap<>();
+    // read from the file at startup, saved again behind the stocks looked up since
+    private volatile List<String> loaded = Collections.emptyList();
+
+    private ScheduledExecutorService saver;
+
+    public HotStocks(@Value("${cache.prewarm.enabled:false}") boolean enabled,
+                     @Value("${cache.prewarm.count:100}") int count,
+                     @Value("${cache.size:100}") int cacheSize,
+                     @Value("${cache.prewarm.file:data/frontend/hot-stocks.txt}") String file,
+                     @Value("${cache.prewarm.save-interval-ms:60000}") long saveIntervalMs) {
+        this.enabled = enabled;
+        this.count = Math.min(count, cacheSize);
+        this.maxTracked = Math.max(this.count * 10, 1000);
+        this.file = Paths.get(file);
+        this.saveIntervalMs = saveIntervalMs;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled || saveIntervalMs <= 0) {
+            return;
+        }
+        saver = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "hot-stocks-save");
+            t.setDaemon(true);
+            return t;
+        });
+        saver.scheduleWithFixedDelay(this::save, saveIntervalMs, saveIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (saver != null) {
+            saver.shutdownNow();
+        }
+        if (enabled) {
+            save();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    // counts a lookup that found the stock
+    public void record(String stockName) {
+        if (!enabled) {
+            return;
+        }
+        LongAdder adder = lookups.get(stockName);
+        if (adder == null) {
+            if (lookups.size() >= maxTracked) {
+                return;
+            }
+            adder = lookups.computeIfAbsent(stockName, k -> new LongAdder());
+        }
+        adder.increment();
+    }
+
+    // the hottest stocks saved by the last run, hottest first; empty when disabled or never saved
+    public List<String> load() {
+        if (!enabled || !Files.exists(file)) {
+            return Collections.emptyList();
+        }
+        try {
+            List<String> names = new ArrayList<>();
+            for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                if (!line.isEmpty() && names.size() < count) {
+                    names.add(line);
+                }
+            }
+            loaded = names;
+            return names;
+        } catch (IOException e) {
+            logger.warn("Could not read hot stocks from {}: {}", file, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    // the hottest stocks right now, hottest first
+    public List<String> top() {
+        List<Map.Entry<String, Long>> counted = new ArrayList<>();
+        for (Map.Entry<String, LongAdder> entry : lookups.entrySet()) {
+            counted.add(new AbstractMap.SimpleEntry<>(entry.getKey(), entry.getValue().sum()));
+        }
+        counted.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < counted.size() && i < count; i++) {
+            names.add(counted.get(i).getKey());
+        }
+        return names;
+    }
+
+    // writes the hottest stocks to the file (through a temporary file moved into place), topped up
+    // with those loaded at startup, and halves every count
+    public void save() {
+        List<String> names = top();
+        age();
+        for (String name : loaded) {
+            if (names.size() < count && !names.contains(name)) {
+                names.add(name);
+            }
+        }
+        if (names.isEmpty()) {
+            return;
+        }
+        try {
+            if (file.getParent() != null) {
+                Files.createDirectories(file.getParent());
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.write(tmp, names, StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not save hot stocks to {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void age() {
+        for (Map.Entry<String, LongAdder> entry : lookups.entrySet()) {
+            LongAdder adder = entry.getValue();
+            long sum = adder.sumThenReset();
+            if (sum / 2 == 0) {
+                lookups.remove(entry.getKey(), adder);
+            } else {
+                adder.add(sum / 2);
+            }
+        }
+    }
+}
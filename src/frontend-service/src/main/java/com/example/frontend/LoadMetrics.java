@@ -0,0 +1,56 @@
+package com.example.frontend;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.TimeUnit;
+
+// catalog fetches of the stock cache: frontend.cache.load timed by outcome (not_modified for a
+// revalidation the catalog answered with 304, bulk for one call fetching many stocks), and how
+// many misses shared a fetch another request started or gave up waiting for it
+class LoadMetrics {
+
+    private final Timer found;
+    private final Timer notFound;
+    private final Timer notModified;
+    private final Timer failed;
+    private final Timer bulk;
+    private final MeterRegistry registry;
+
+    LoadMetrics(MeterRegistry registry, SingleFlight<?, ?> loads) {
+        this.registry = registry;
+        this.found = timer("found");
+        this.notFound = timer("not_found");
+        this.notModified = timer("not_modified");
+        this.failed = timer("error");
+        this.bulk = timer("bulk");
+        FunctionCounter.builder("frontend.cache.loads.coalesced", loads, SingleFlight::coalesced)
+                .description("Cache misses that waited for a catalog fetch already running")
+                .register(registry);
+        FunctionCounter.builder("frontend.cache.loads.timeouts", loads, SingleFlight::timeouts)
+                .description("Cache misses that gave up waiting for a catalog fetch")
+                .register(registry);
+    }
+
+    void loaded(long startNanos, int status) {
+        (status == 200 ? found : status == 304 ? notModified : status == 404 ? notFound : failed).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    // one catalog call for many stocks
+    void loadedAll(long startNanos) {
+        bulk.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    void failed(long startNanos) {
+        failed.record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String outcome) {
+        return Timer.builder("frontend.cache.load")
+                .description("Catalog fetches on a cache miss or revalidation")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+}
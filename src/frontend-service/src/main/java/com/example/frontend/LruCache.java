@@ -0,0 +1,175 @@
+package com.example.frontend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+// LRU cache, implemented using LinkedHashMap with access-order behind a single lock
+// kept as the simple reference policy, every lookup (including hits) takes the lock
+public class LruCache<K, V> implements FrontendCache<K, V> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CacheStats stats = new CacheStats();
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+    private final Map<K, Entry<V>> map;
+
+    public LruCache(int maximumSize, long ttlMs) {
+        this(maximumSize, ttlMs, System::nanoTime);
+    }
+
+    LruCache(int maximumSize, long ttlMs, LongSupplier ticker) {
+        this.ttlNanos = ttlMs * 1_000_000;
+        this.ticker = ticker;
+        this.map = new LinkedHashMap<K, Entry<V>>(maximumSize, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > maximumSize) {
+                    stats.recordEviction();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public V get(K key) {
+        lock.lock();
+        try {
+            Entry<V> entry = map.get(key);
+            if (entry == null) {
+                stats.recordMiss();
+                return null;
+            }
+            if (ttlNanos > 0 && ticker.getAsLong() - entry.writeTime > ttlNanos) {
+                map.remove(key);
+                stats.recordExpiration();
+                stats.recordMiss();
+                return null;
+            }
+            stats.recordHit();
+            return entry.value;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the lock is taken once for all the keys
+    @Override
+    public List<V> getAll(List<K> keys) {
+        List<V> values = new ArrayList<>(keys.size());
+        lock.lock();
+        try {
+            long now = ttlNanos > 0 ? ticker.getAsLong() : 0;
+            for (K key : keys) {
+                Entry<V> entry = map.get(key);
+                if (entry != null && ttlNanos > 0 && now - entry.writeTime > ttlNanos) {
+                    map.remove(key);
+                    stats.recordExpiration();
+                    entry = null;
+                }
+                if (entry == null) {
+                    stats.recordMiss();
+                    values.add(null);
+                } else {
+                    stats.recordHit();
+                    values.add(entry.value);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return values;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        lock.lock();
+        try {
+            map.put(key, new Entry<>(value, ticker.getAsLong()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean update(K key, UnaryOperator<V> update) {
+        lock.lock();
+        try {
+            Entry<V> entry = map.get(key);
+            if (entry == null) {
+                return false;
+            }
+            V value = update.apply(entry.value);
+            if (value != entry.value) {
+                entry.value = value;
+                entry.writeTime = ticker.getAsLong();
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        lock.lock();
+        try {
+            map.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            map.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<K> keys() {
+        lock.lock();
+        try {
+            return new LinkedHashSet<>(map.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats;
+    }
+
+    private static final class Entry<V> {
+        V value;
+        long writeTime;
+
+        Entry(V value, long writeTime) {
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.example.frontend;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// answers of order lookups, by order number: an order never changes once it is committed, so a
+// cached answer is served without asking a replica. LRU behind a single lock like LruCache,
+// bounded by order.cache.size entries and by order.cache.max-kb of answer bodies, whichever is
+// reached first.
+// only the leader's answers to creates are cached, it acknowledges an order once a quorum holds
+// it. what a replica answers to a lookup is not: it may not be committed yet, and this frontend
+// cannot tell from the answer
+@Component
+public class OrderCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderCache.class);
+
+    // a String's header and array header, on top of its characters
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final OrderRouter router;
+    private final boolean enabled;
+    private final int maximumSize;
+    private final long maximumBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final CacheStats stats = new CacheStats();
+    // guarded by lock
+    private final LinkedHashMap<Long, String> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    public OrderCache(OrderRouter router,
+                      @Value("${order.cache.enabled:true}") boolean enabled,
+                      @Value("${order.cache.size:10000}") int maximumSize,
+                      @Value("${order.cache.max-kb:4096}") long maximumKb) {
+        this.router = router;
+        this.enabled = enabled && maximumSize > 0 && maximumKb > 0;
+        this.maximumSize = maximumSize;
+        this.maximumBytes = maximumKb * 1024;
+        logger.info("Order cache: enabled = {}, size = {}, max = {} KB", this.enabled, maximumSize, maximumKb);
+    }
+
+    // the cached answer to a lookup of the order, or null
+    public String get(long number) {
+        if (!enabled) {
+            return null;
+        }
+        lock.lock();
+        try {
+            String body = map.get(number);
+            if (body == null) {
+                stats.recordMiss();
+            } else {
+                stats.recordHit();
+            }
+            return body;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // the leader acknowledged the order, so it is committed
+    public void created(long number, String body) {
+        if (enabled) {
+            put(number, body);
+        }
+    }
+
+    // X-Order-Seq of a cached answer: the order's number, as every replica serving it had applied
+    // the partition that far, or the client's token of the same partition when that is further on,
+    // so that the client's reads never go back in time
+    public long token(long number, Long token) {
+        return token != null && token > number && router.partitionOfNumber(token) == router.partitionOfNumber(number)
+                ? token : number;
+    }
+
+    private void put(long number, String body) {
+        long weight = weight(body);
+        if (weight > maximumBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            String previous = map.put(number, body);
+            bytes += weight - (previous != null ? weight(previous) : 0);
+            Iterator<Map.Entry<Long, String>> eldest = map.entrySet().iterator();
+            while (map.size() > maximumSize || bytes > maximumBytes) {
+                bytes -= weight(eldest.next().getValue());
+                eldest.remove();
+                stats.recordEviction();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return map.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // estimated heap taken by the cached answers
+    public long bytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public CacheStats stats() {
+        return stats;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    private static long weight(String body) {
+        return ENTRY_OVERHEAD + 2L * body.length();
+    }
+}
@@ -1,8 +1,17 @@
 package com.example.frontend;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import com.example.common.LogSampler;
+import com.example.common.ServiceHttpClient;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.RestTemplate;
 
 import java.util.HashMap;
@@ -12,35 +21,70 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // handles order-related API endpoints on the frontend
-// forwards order requests to the current leader replica of the order service
-// in case of failure, retries using OrderLeaderSelector
+// forwards new orders to the replica leading the partition of their stock and spreads order
+// lookups over all live replicas; in case of failure, retries using OrderRouter
+// a new order is answered with its number as X-Order-Seq token, a lookup sending it back is only
+// served by a replica that has applied the order's partition up to it
+// committed orders are answered from the OrderCache without asking a replica
 
 @RestController
+@Profile("!reactive")
 @RequestMapping("/orders")
 public class OrderController {
 
-    @Autowired
-    private OrderLeaderSelector leaderSelector;
+    private final OrderRouter router;
+    private final OrderCache orderCache;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final RestTemplate restTemplate;
     private static final Logger logger = LoggerFactory.getLogger(OrderController.class);
+    private final LogSampler sampler;
 
-    // handle order creation requests, forwards the request to current leader replica
-    // if leader is unreachable, it resets the leader and retries with next available replica
+    private static final String SEQ_HEADER = "X-Order-Seq";
+
+    public OrderController(OrderRouter router, OrderCache orderCache, ServiceHttpClient httpClient, LogSampler sampler) {
+        this.router = router;
+        this.orderCache = orderCache;
+        this.restTemplate = httpClient.restTemplate("order");
+        this.sampler = sampler;
+    }
+
+    // handle order creation requests, forwards the request to current leader replica of the
+    // partition of the stock; if leader is unreachable, it resets the leader and retries with next
+    // available replica, if the replica answers that it is not the leader, it retries at the leader
+    // the replica named
     @PostMapping
     public ResponseEntity<?> createOrder(@RequestBody Map<String, Object> order) {
-        logger.info("Forwarding order to order service: {}", order);
-        String leaderUrl = leaderSelector.getLeader();
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Forwarding order to order service: {}", order);
+        }
+        Object name = order.get("name");
+        int partition = router.partitionOf(name != null ? name.toString() : null);
+        String leaderUrl = router.getLeader(partition);
 
         try {
             // try to send the order to current leader
-            ResponseEntity<Map> response = restTemplate.postForEntity(leaderUrl + "/orders", order, Map.class);
-            return ResponseEntity.ok(response.getBody());
+            ResponseEntity<String> response = restTemplate.postForEntity(leaderUrl + "/orders", order, String.class);
+            return created(response);
+        } catch (HttpServerErrorException.ServiceUnavailable e) {
+            // the leader took the order but could not replicate it to a quorum, retrying
+            // elsewhere could create it twice
+            logger.error("Order not replicated by leader {}", leaderUrl);
+            return ResponseEntity.status(503).body(e.getResponseBodyAs(Map.class));
         } catch (Exception e) {
-            // when leader fails, try to reset and retry with a new leader
-            logger.error("Leader unreachable, resetting");
-            leaderSelector.resetLeader();
-            String newLeader = leaderSelector.getLeader();
+            String newLeader;
+            String hint = e instanceof HttpClientErrorException.Conflict
+                    ? ((HttpClientErrorException) e).getResponseHeaders().getFirst("X-Leader") : null;
+            if (hint != null) {
+                // the replica is up but no longer leads, retry at the leader it named
+                logger.info("{} is not the leader, following hint {}", leaderUrl, hint);
+                router.followLeader(partition, hint);
+                newLeader = hint;
+            } else {
+                // when leader fails, try to reset and retry with a new leader
+                logger.error("Leader unreachable, resetting");
+                router.resetLeader(partition);
+                newLeader = router.getLeader(partition);
+            }
             if (newLeader == null) {
                 logger.error("No reachable leader after retry.");
                 Map<String, Object> error = new HashMap<>();
@@ -54,8 +98,8 @@ public class OrderController {
 
             try {
                 logger.info("Retrying order with new leader: {}", newLeader);
-                ResponseEntity<Map> retryResponse = restTemplate.postForEntity(newLeader + "/orders", order, Map.class);
-                return ResponseEntity.ok(retryResponse.getBody());
+                ResponseEntity<String> retryResponse = restTemplate.postForEntity(newLeader + "/orders", order, String.class);
+                return created(retryResponse);
             } catch (Exception retryEx) {
                 // final failure after retry
                 logger.error("Retry with new leader {} failed: {}", newLeader, retryEx.getMessage());
@@ -70,25 +114,89 @@ public class OrderController {
         }
     }
 
-    // retrieves order by its ID from current order service leader
+    // current leader of every partition, their leases and the liveness of every replica as
+    // tracked by the heartbeat
+    // API endpoint is GET /orders/leader
+    @GetMapping("/leader")
+    public ResponseEntity<?> getLeaderStatus() {
+        return ResponseEntity.ok(router.status());
+    }
+
+    // hit, miss and eviction counters of the order cache, API endpoint is GET /orders/cache/stats
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> response = orderCache.stats().toMap();
+        response.put("size", orderCache.size());
+        response.put("bytes", orderCache.bytes());
+        return ResponseEntity.ok(response);
+    }
+
+    // retrieves order by its ID from one of the live order replicas, trying the next one if a
+    // replica cannot be reached; the client's X-Order-Seq token goes along, and the answer carries
+    // the serving replica's. a token of another partition than the order's says nothing about it
+    // a committed order in the cache is answered without asking any replica
     // API endpoint is GET /orders/<orderId>
     @GetMapping("/{orderId}")
-    public ResponseEntity<?> getOrder(@PathVariable("orderId") int orderId) {
-        String leaderUrl = leaderSelector.getLeader();
-        logger.info("Requesting order #{} from order service", orderId);
-        try {
-            return restTemplate.getForEntity(leaderUrl + "/orders/" + orderId, Object.class);
-        } catch (Exception e) {
-            // failed to reach the leader for order retrieval
-            logger.error("Failed to get order #{}: {}", orderId, e.getMessage());
-            Map<String, Object> error = new HashMap<>();
-            error.put("code", 500);
-            error.put("message", "Order service leader unreachable");
+    public ResponseEntity<?> getOrder(@PathVariable("orderId") int orderId,
+                                      @RequestHeader(value = SEQ_HEADER, required = false) Long token) {
+        String cached = orderCache.get(orderId);
+        if (cached != null) {
+            return json(ResponseEntity.ok().header(SEQ_HEADER, Long.toString(orderCache.token(orderId, token))))
+                    .body(cached);
+        }
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Requesting order #{} from order service", orderId);
+        }
+        HttpHeaders headers = new HttpHeaders();
+        if (token != null) {
+            headers.set(SEQ_HEADER, Long.toString(token));
+        }
+        int partition = router.partitionOfNumber(orderId);
+        long seq = token != null && router.partitionOfNumber(token) == partition ? router.sequenceOf(token) : 0;
+        for (String replicaUrl : router.readReplicas(partition, seq)) {
+            try {
+                ResponseEntity<String> response = restTemplate.exchange(replicaUrl + "/orders/" + orderId, HttpMethod.GET,
+                        new HttpEntity<>(headers), String.class);
+                return json(withToken(ResponseEntity.status(response.getStatusCode()), response.getHeaders()))
+                        .body(response.getBody());
+            } catch (HttpStatusCodeException e) {
+                // the replica answered, eg. 404 for an unknown order
+                return withToken(ResponseEntity.status(e.getStatusCode()), e.getResponseHeaders())
+                        .body(e.getResponseBodyAs(Map.class));
+            } catch (Exception e) {
+                logger.warn("Failed to get order #{} from {}: {}", orderId, replicaUrl, e.getMessage());
+            }
+        }
+        // no replica could be reached for order retrieval
+        logger.error("Failed to get order #{}, no order replica reachable", orderId);
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 500);
+        error.put("message", "Order service replicas unreachable");
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
 
-            Map<String, Object> response = new HashMap<>();
-            response.put("error", error);
+        return ResponseEntity.status(500).body(response);
+    }
+
+    // the leader's answer to a new order, with its token; the order is committed, so cached
+    private ResponseEntity<?> created(ResponseEntity<String> response) {
+        String number = response.getHeaders().getFirst(SEQ_HEADER);
+        if (number != null && response.getBody() != null) {
+            orderCache.created(Long.parseLong(number), response.getBody());
+        }
+        return json(withToken(ResponseEntity.ok(), response.getHeaders())).body(response.getBody());
+    }
+
+    private static ResponseEntity.BodyBuilder json(ResponseEntity.BodyBuilder builder) {
+        return builder.contentType(MediaType.APPLICATION_JSON);
+    }
 
-            return ResponseEntity.status(500).body(response);
+    private static ResponseEntity.BodyBuilder withToken(ResponseEntity.BodyBuilder builder, HttpHeaders headers) {
+        String seq = headers != null ? headers.getFirst(SEQ_HEADER) : null;
+        if (seq != null) {
+            builder.header(SEQ_HEADER, seq);
         }
+        return builder;
     }
 }
@@ -0,0 +1,501 @@
+package com.example.frontend;
+
+import com.example.common.OrderPartitioning;
+import com.example.common.ServiceHttpClient;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// routes order requests to the order replicas
+// orders are partitioned by stock symbol (see OrderPartitioning), each partition with its own
+// leader among the replicas: a new order goes to the leader of its stock's partition, a lookup to
+// a replica holding the partition the order number belongs to
+// follows the leader of every partition the order replicas elected among themselves (falling back
+// to the live replica with the highest replicaID while they have none)
+// a background heartbeat pings all replicas in parallel every heartbeatIntervalMs and renews the
+// leases of the leaders while they answer, so getLeader() just reads the cached leader; once a
+// leader misses failureThreshold heartbeats in a row (or its lease runs out) a new one is elected
+// from a parallel probe of all replicas
+// reads may go to any live replica: readReplicas() spreads them round-robin, putting first the
+// replicas the last heartbeat saw at or beyond the sequence the read needs
+@Component
+@ConfigurationProperties(prefix = "order")
+public class OrderRouter {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderRouter.class);
+
+    // static leader url
+    private String leaderUrl;
+
+    // list of replica URLs (like http://localhost:9091)
+    private List<String> replicas;
+
+    // partitions of the order keyspace, as partitions.count of the order service
+    private int partitions = 1;
+
+    // time between two heartbeat rounds
+    private long heartbeatIntervalMs = 500;
+
+    // missed heartbeats after which the leader is considered down
+    private int failureThreshold = 3;
+
+    // pooled client for pinging replicas, pings use the short "heartbeat" route timeout
+    private final ServiceHttpClient httpClient;
+
+    // current leader of every partition and until when it may be used without hearing from it again
+    private AtomicReferenceArray<Lease> leases;
+
+    // liveness of every replica as seen by the last heartbeat or probe
+    private final Map<String, ReplicaState> states = new ConcurrentHashMap<>();
+
+    // where the next read starts going round the replicas
+    private final AtomicInteger nextRead = new AtomicInteger();
+
+    // only one election at a time, requests arriving meanwhile wait for its result
+    private final ReentrantLock electionLock = new ReentrantLock();
+
+    // last leader elected for every partition, guarded by electionLock
+    private String[] elected;
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "order-heartbeat");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // failover metrics: how long the last leader was down before a new one was elected
+    private final AtomicLong failovers = new AtomicLong();
+    private final AtomicLong lastFailoverMs = new AtomicLong(-1);
+    private final AtomicLong maxFailoverMs = new AtomicLong(-1);
+    private final AtomicLong totalFailoverMs = new AtomicLong();
+
+    static final class Lease {
+        final String url;
+        final long expiresAt;
+
+        Lease(String url, long expiresAt) {
+            this.url = url;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    static final class ReplicaState {
+        volatile int replicaId = -1;
+        // per partition: leader this replica follows and in which term, -1 if it does not say,
+        // and the order sequence it had applied when it last answered
+        volatile long[] term;
+        volatile int[] leaderId;
+        volatile long[] appliedSeq;
+        volatile boolean alive;
+        volatile int consecutiveFailures;
+        volatile long lastSeenNanos;
+
+        ReplicaState(int partitions) {
+            term = filled(partitions, -1);
+            appliedSeq = filled(partitions, -1);
+            leaderId = new int[partitions];
+            Arrays.fill(leaderId, -1);
+        }
+    }
+
+    public OrderRouter(ServiceHttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    // getter and setter for leader url, replicas and partitions
+    public String getLeaderUrl() {
+        return leaderUrl;
+    }
+
+    public void setLeaderUrl(String leaderUrl) {
+        this.leaderUrl = leaderUrl;
+    }
+
+    public List<String> getReplicas() {
+        return replicas;
+    }
+
+    public void setReplicas(List<String> replicas) {
+        this.replicas = replicas;
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(int partitions) {
+        this.partitions = partitions;
+    }
+
+    public long getHeartbeatIntervalMs() {
+        return heartbeatIntervalMs;
+    }
+
+    public void setHeartbeatIntervalMs(long heartbeatIntervalMs) {
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+    }
+
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+    public void setFailureThreshold(int failureThreshold) {
+        this.failureThreshold = failureThreshold;
+    }
+
+    // elects the first leaders and starts the heartbeat
+    @PostConstruct
+    public void start() {
+        leases = new AtomicReferenceArray<>(partitions);
+        elected = new String[partitions];
+        electionLock.lock();
+        try {
+            if (replicas != null && !replicas.isEmpty()) {
+                probeAll();
+                for (int partition = 0; partition < partitions; partition++) {
+                    elect(partition);
+                }
+            }
+        } finally {
+            electionLock.unlock();
+        }
+        heartbeat.scheduleWithFixedDelay(this::heartbeatRound, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+    }
+
+    // partition taking the orders for a stock
+    public int partitionOf(String symbol) {
+        return OrderPartitioning.partitionOf(symbol, partitions);
+    }
+
+    // partition that numbered an order
+    public int partitionOfNumber(long number) {
+        return OrderPartitioning.partitionOfNumber(number, partitions);
+    }
+
+    // sequence of an order number in the log of its partition
+    public long sequenceOf(long number) {
+        return OrderPartitioning.sequenceOf(number, partitions);
+    }
+
+    // returns current leader of the partition from the lease, without any network call while the
+    // lease holds; if there is no leader or its lease ran out, elects a new one
+    public String getLeader(int partition) {
+        String leased = leasedLeader(partition);
+        return leased != null ? leased : findLeader(partition);
+    }
+
+    // leader of the partition while its lease holds, null when getLeader() would have to elect one
+    public String leasedLeader(int partition) {
+        Lease current = leases.get(partition);
+        if (current != null && System.nanoTime() - current.expiresAt < 0) {
+            return current.url;
+        }
+        return null;
+    }
+
+    // forces current leader of the partition to be reset and triggers re-election
+    // called when a request to the leader failed, so there is no need to wait for the heartbeat
+    public void resetLeader(int partition) {
+        Lease current = leases.get(partition);
+        logger.warn("Resetting current leader {} of partition {}", current != null ? current.url : null, partition);
+        if (current != null) {
+            ReplicaState state = states.get(current.url);
+            if (state != null) {
+                state.alive = false;
+            }
+            leases.compareAndSet(partition, current, null);
+        }
+        findLeader(partition);
+    }
+
+    // elects new leader of the partition by pinging all replicas in parallel, following the leader
+    // they report for the newest term or else selecting the one with highest replicaID
+    public String findLeader(int partition) {
+        if (replicas == null || replicas.isEmpty()) {
+            logger.error("No replicas configured, cannot select leader!");
+            return null;
+        }
+        Lease before = leases.get(partition);
+        electionLock.lock();
+        try {
+            // someone else elected a leader while we were waiting
+            Lease current = leases.get(partition);
+            if (current != before && current != null && System.nanoTime() - current.expiresAt < 0) {
+                return current.url;
+            }
+            probeAll();
+            return elect(partition);
+        } finally {
+            electionLock.unlock();
+        }
+    }
+
+    // switches to the leader a replica named when it turned down an order of the partition
+    public void followLeader(int partition, String url) {
+        if (replicas == null || !replicas.contains(url)) {
+            return;
+        }
+        electionLock.lock();
+        try {
+            logger.info("Following leader hint {} for partition {}", url, partition);
+            renew(partition, url);
+            elected[partition] = url;
+        } finally {
+            electionLock.unlock();
+        }
+    }
+
+    // replicas to try for a read of the partition that must see at least its sequence minSeq
+    // (0 for any), in order: live replicas known to have applied minSeq, then the partition's
+    // leader, which has everything it acknowledged, then the other live ones, which wait for
+    // minSeq or forward the read to the leader themselves
+    public List<String> readReplicas(int partition, long minSeq) {
+        List<String> ordered = new ArrayList<>();
+        if (replicas == null || replicas.isEmpty()) {
+            return ordered;
+        }
+        List<String> behind = new ArrayList<>();
+        int start = Math.floorMod(nextRead.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            String url = replicas.get((start + i) % replicas.size());
+            ReplicaState state = states.get(url);
+            if (state != null && state.alive) {
+                (state.appliedSeq[partition] >= minSeq ? ordered : behind).add(url);
+            }
+        }
+        Lease current = leases.get(partition);
+        if (current != null && !ordered.contains(current.url)) {
+            behind.remove(current.url);
+            ordered.add(current.url);
+        }
+        ordered.addAll(behind);
+        return ordered;
+    }
+
+    // leaders, leases and replica liveness, for GET /orders/leader
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        List<String> leaders = new ArrayList<>();
+        List<Long> leaseRemainingMs = new ArrayList<>();
+        for (int partition = 0; partition < partitions; partition++) {
+            Lease current = leases.get(partition);
+            leaders.add(current != null ? current.url : null);
+            leaseRemainingMs.add(current != null ? Math.max(0, (current.expiresAt - System.nanoTime()) / 1_000_000) : 0);
+        }
+        status.put("partitions", partitions);
+        status.put("leaders", leaders);
+        status.put("leaseRemainingMs", leaseRemainingMs);
+        status.put("heartbeatIntervalMs", heartbeatIntervalMs);
+        status.put("failureThreshold", failureThreshold);
+        status.put("failovers", failovers.get());
+        status.put("lastFailoverMs", lastFailoverMs.get());
+        status.put("maxFailoverMs", maxFailoverMs.get());
+        Map<String, Object> replicaStates = new LinkedHashMap<>();
+        for (String url : replicas != null ? replicas : new ArrayList<String>()) {
+            ReplicaState state = states.get(url);
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("replicaId", state != null ? state.replicaId : -1);
+            entry.put("alive", state != null && state.alive);
+            entry.put("consecutiveFailures", state != null ? state.consecutiveFailures : 0);
+            List<Map<String, Object>> perPartition = new ArrayList<>();
+            for (int partition = 0; partition < partitions; partition++) {
+                Map<String, Object> progress = new HashMap<>();
+                progress.put("term", state != null ? state.term[partition] : -1);
+                progress.put("appliedSeq", state != null ? state.appliedSeq[partition] : -1);
+                perPartition.add(progress);
+            }
+            entry.put("partitions", perPartition);
+            replicaStates.put(url, entry);
+        }
+        status.put("replicas", replicaStates);
+        return status;
+    }
+
+    // one heartbeat: ping everybody, renew the leaders' leases or fail over once one missed too many
+    private void heartbeatRound() {
+        try {
+            probeAll();
+            for (int partition = 0; partition < partitions; partition++) {
+                Lease current = leases.get(partition);
+                ReplicaState leader = current != null ? states.get(current.url) : null;
+                String agreed = agreedLeader(partition);
+                if (leader != null && leader.alive && (agreed == null || agreed.equals(current.url))) {
+                    renew(partition, current.url);
+                } else if (current == null || leader == null || leader.consecutiveFailures >= failureThreshold
+                        || (agreed != null && !agreed.equals(current.url))) {
+                    electionLock.lock();
+                    try {
+                        if (leases.get(partition) == current) {
+                            elect(partition);
+                        }
+                    } finally {
+                        electionLock.unlock();
+                    }
+                }
+            }
+        } catch (Exception e) {
+            logger.warn("Heartbeat round failed: {}", e.getMessage());
+        }
+    }
+
+    // pings all replicas at once and waits for every answer or timeout
+    private void probeAll() {
+        List<CompletableFuture<Void>> pings = new ArrayList<>(replicas.size());
+        for (String url : replicas) {
+            ReplicaState state = states.computeIfAbsent(url, u -> new ReplicaState(partitions));
+            pings.add(httpClient.getAsync("heartbeat", url + "/orders/ping")
+                    .handle((response, error) -> {
+                        record(url, state, response, error);
+                        return null;
+                    }));
+        }
+        CompletableFuture.allOf(pings.toArray(new CompletableFuture[0])).join();
+    }
+
+    private void record(String url, ReplicaState state, HttpResponse<String> response, Throwable error) {
+        if (error == null && response.statusCode() == 200) {
+            try {
+                Map<?, ?> body = httpClient.readJson(response.body(), Map.class);
+                // a replica without partitions reports its only one at the top
+                List<?> reported = body.get("partitions") instanceof List ? (List<?>) body.get("partitions")
+                        : Collections.singletonList(body);
+                if (reported.size() != partitions) {
+                    throw new IllegalStateException("replica has " + reported.size() + " partitions, not " + partitions);
+                }
+                long[] term = new long[partitions];
+                int[] leaderId = new int[partitions];
+                long[] appliedSeq = new long[partitions];
+                for (int partition = 0; partition < partitions; partition++) {
+                    Map<?, ?> partitionState = (Map<?, ?>) reported.get(partition);
+                    term[partition] = number(partitionState.get("term"));
+                    leaderId[partition] = (int) number(partitionState.get("leaderId"));
+                    appliedSeq[partition] = number(partitionState.get("lastOrder"));
+                }
+                state.replicaId = ((Number) body.get("replicaId")).intValue();
+                state.term = term;
+                state.leaderId = leaderId;
+                state.appliedSeq = appliedSeq;
+                state.alive = true;
+                state.consecutiveFailures = 0;
+                state.lastSeenNanos = System.nanoTime();
+                return;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        if (state.alive) {
+            logger.warn("Could not reach replica at {}: {}", url, error != null ? error.getMessage() : response.statusCode());
+        }
+        state.alive = false;
+        state.consecutiveFailures++;
+    }
+
+    // leader of the newest term the replicas report for the partition, if it is alive and claims
+    // that term itself
+    private String agreedLeader(int partition) {
+        long newestTerm = -1;
+        int leaderId = -1;
+        for (ReplicaState state : states.values()) {
+            if (state.alive && state.term[partition] > newestTerm) {
+                newestTerm = state.term[partition];
+                leaderId = state.leaderId[partition];
+            }
+        }
+        for (String url : replicas) {
+            ReplicaState state = states.get(url);
+            if (leaderId != -1 && state != null && state.alive && state.replicaId == leaderId
+                    && state.leaderId[partition] == leaderId) {
+                return url;
+            }
+        }
+        return null;
+    }
+
+    // follows the leader the replicas elected for the partition, or picks the live replica with
+    // the highest id while they have not agreed on one yet; must hold electionLock
+    private String elect(int partition) {
+        String selectedLeader = agreedLeader(partition);
+        if (selectedLeader == null) {
+            int maxId = -1;
+            for (String url : replicas) {
+                ReplicaState state = states.get(url);
+                if (state != null && state.alive && state.replicaId > maxId) {
+                    maxId = state.replicaId;
+                    selectedLeader = url;
+                }
+            }
+        }
+        if (selectedLeader == null) {
+            leases.set(partition, null);
+            logger.error("No available replicas responded, leader of partition {} not selected!", partition);
+            return null;
+        }
+        renew(partition, selectedLeader);
+        String previous = elected[partition];
+        if (previous != null && !previous.equals(selectedLeader)) {
+            // failover time is counted from the last heartbeat the old leader answered
+            ReplicaState old = states.get(previous);
+            long downMs = old != null ? (System.nanoTime() - old.lastSeenNanos) / 1_000_000 : 0;
+            failovers.incrementAndGet();
+            lastFailoverMs.set(downMs);
+            maxFailoverMs.accumulateAndGet(downMs, Math::max);
+            totalFailoverMs.addAndGet(downMs);
+            logger.info("Leader of partition {} failed over from {} to {} after {} ms", partition, previous,
+                    selectedLeader, downMs);
+        } else if (previous == null) {
+            logger.info("Leader of partition {} selected: {}", partition, selectedLeader);
+        }
+        elected[partition] = selectedLeader;
+        return selectedLeader;
+    }
+
+    long failovers() {
+        return failovers.get();
+    }
+
+    long totalFailoverMs() {
+        return totalFailoverMs.get();
+    }
+
+    // the leader may be used without checking for failureThreshold heartbeat intervals
+    private void renew(int partition, String url) {
+        leases.set(partition, new Lease(url, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(heartbeatIntervalMs * failureThreshold)));
+    }
+
+    private static long number(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : -1;
+    }
+
+    private static long[] filled(int length, long value) {
+        long[] array = new long[length];
+        Arrays.fill(array, value);
+        return array;
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.frontend;
+
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+
+// the reactive profile runs the frontend on WebFlux (see application-reactive.yml) with
+// ReactiveStockController and ReactiveOrderController in place of the servlet controllers.
+// Tomcat is on the classpath for the servlet mode and would be picked first, so Netty is asked
+// for here
+@Configuration
+@Profile("reactive")
+public class ReactiveGatewayConfiguration {
+
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+}
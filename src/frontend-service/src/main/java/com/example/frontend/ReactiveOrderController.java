@@ -0,0 +1,179 @@
+package com.example.frontend;
+
+import com.example.common.ServiceHttpClient;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the order API of OrderController for the reactive profile, with the same routing, leader
+// failover and X-Order-Seq tokens; calls to the replicas go through the shared client's async API
+// and replica bodies are relayed as they are. electing a leader probes every replica and blocks,
+// so it runs on the bounded elastic scheduler; it is only needed when the leader's lease ran out.
+// committed orders are answered from the OrderCache as in OrderController
+@RestController
+@Profile("reactive")
+@RequestMapping("/orders")
+public class ReactiveOrderController {
+
+    private final OrderRouter router;
+    private final OrderCache orderCache;
+    private final ServiceHttpClient httpClient;
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveOrderController.class);
+
+    private static final String SEQ_HEADER = "X-Order-Seq";
+
+    public ReactiveOrderController(OrderRouter router, OrderCache orderCache, ServiceHttpClient httpClient) {
+        this.router = router;
+        this.orderCache = orderCache;
+        this.httpClient = httpClient;
+    }
+
+    // forwards the order to the leader of its stock's partition, retrying once at the leader a
+    // replica named or, if the leader is unreachable, at a newly elected one
+    @PostMapping
+    public Mono<ResponseEntity<Object>> createOrder(@RequestBody Map<String, Object> order) {
+        Object name = order.get("name");
+        int partition = router.partitionOf(name != null ? name.toString() : null);
+        return leader(partition).flatMap(leaderUrl -> post(leaderUrl, order)
+                .flatMap(response -> {
+                    if (response.statusCode() == 200) {
+                        return Mono.just(created(response));
+                    }
+                    if (response.statusCode() == 503) {
+                        // the leader took the order but could not replicate it to a quorum, retrying
+                        // elsewhere could create it twice
+                        logger.error("Order not replicated by leader {}", leaderUrl);
+                        return Mono.just(relay(response));
+                    }
+                    String hint = response.statusCode() == 409
+                            ? response.headers().firstValue("X-Leader").orElse(null) : null;
+                    if (hint != null) {
+                        logger.info("{} is not the leader, following hint {}", leaderUrl, hint);
+                        router.followLeader(partition, hint);
+                        return retry(hint, order);
+                    }
+                    return failover(partition, order);
+                })
+                .onErrorResume(e -> failover(partition, order)))
+                .switchIfEmpty(Mono.fromSupplier(() -> error("All order replicas are unreachable")));
+    }
+
+    // current leader of every partition, their leases and the liveness of every replica
+    @GetMapping("/leader")
+    public ResponseEntity<?> getLeaderStatus() {
+        return ResponseEntity.ok(router.status());
+    }
+
+    // hit, miss and eviction counters of the order cache, API endpoint is GET /orders/cache/stats
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> response = orderCache.stats().toMap();
+        response.put("size", orderCache.size());
+        response.put("bytes", orderCache.bytes());
+        return ResponseEntity.ok(response);
+    }
+
+    // retrieves the order from one of the live replicas, trying the next one if a replica cannot
+    // be reached; the token goes along as in OrderController
+    @GetMapping("/{orderId}")
+    public Mono<ResponseEntity<Object>> getOrder(@PathVariable("orderId") int orderId,
+                                                 @RequestHeader(value = SEQ_HEADER, required = false) Long token) {
+        String cached = orderCache.get(orderId);
+        if (cached != null) {
+            return Mono.just(ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON)
+                    .header(SEQ_HEADER, Long.toString(orderCache.token(orderId, token))).body(cached));
+        }
+        int partition = router.partitionOfNumber(orderId);
+        long seq = token != null && router.partitionOfNumber(token) == partition ? router.sequenceOf(token) : 0;
+        String[] headers = token != null ? new String[]{SEQ_HEADER, Long.toString(token)} : new String[0];
+        return read(router.readReplicas(partition, seq), 0, orderId, headers);
+    }
+
+    private Mono<ResponseEntity<Object>> read(List<String> replicas, int index, int orderId, String[] headers) {
+        if (index == replicas.size()) {
+            logger.error("Failed to get order #{}, no order replica reachable", orderId);
+            return Mono.just(error("Order service replicas unreachable"));
+        }
+        String replicaUrl = replicas.get(index);
+        // any answer, eg. 404 for an unknown order, is the answer
+        return Mono.fromFuture(() -> httpClient.getAsync("order", replicaUrl + "/orders/" + orderId, headers))
+                .map(this::relay)
+                .onErrorResume(e -> {
+                    logger.warn("Failed to get order #{} from {}: {}", orderId, replicaUrl, e.getMessage());
+                    return read(replicas, index + 1, orderId, headers);
+                });
+    }
+
+    // the leader is unreachable or failed the order, elect a new one and retry there
+    private Mono<ResponseEntity<Object>> failover(int partition, Map<String, Object> order) {
+        logger.error("Leader unreachable, resetting");
+        return Mono.fromCallable(() -> {
+                    router.resetLeader(partition);
+                    return router.getLeader(partition);
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(newLeader -> retry(newLeader, order))
+                .switchIfEmpty(Mono.fromSupplier(() -> error("All order replicas are unreachable")))
+                .onErrorResume(e -> Mono.just(error("All order replicas are unreachable")));
+    }
+
+    private Mono<ResponseEntity<Object>> retry(String leaderUrl, Map<String, Object> order) {
+        logger.info("Retrying order with new leader: {}", leaderUrl);
+        return post(leaderUrl, order)
+                .map(response -> response.statusCode() == 200 ? created(response)
+                        : error("Order failed after retrying to switch the leader"))
+                .onErrorResume(e -> {
+                    logger.error("Retry with new leader {} failed: {}", leaderUrl, e.getMessage());
+                    return Mono.just(error("Order failed after retrying to switch the leader"));
+                });
+    }
+
+    // leader from its lease, or elected off the event loop; empty if no replica answers
+    private Mono<String> leader(int partition) {
+        String leased = router.leasedLeader(partition);
+        if (leased != null) {
+            return Mono.just(leased);
+        }
+        return Mono.fromCallable(() -> router.getLeader(partition)).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Mono<HttpResponse<String>> post(String leaderUrl, Map<String, Object> order) {
+        return Mono.fromFuture(() -> httpClient.postJsonAsync("order", leaderUrl + "/orders", order));
+    }
+
+    // the leader's answer to a new order; the order is committed, so cached
+    private ResponseEntity<Object> created(HttpResponse<String> response) {
+        response.headers().firstValue(SEQ_HEADER)
+                .ifPresent(number -> orderCache.created(Long.parseLong(number), response.body()));
+        return relay(response);
+    }
+
+    // a replica's answer with its status, JSON body and token
+    private ResponseEntity<Object> relay(HttpResponse<String> response) {
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.statusCode())
+                .contentType(MediaType.APPLICATION_JSON);
+        response.headers().firstValue(SEQ_HEADER).ifPresent(seq -> builder.header(SEQ_HEADER, seq));
+        return builder.body(response.body());
+    }
+
+    private static ResponseEntity<Object> error(String message) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 500);
+        error.put("message", message);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
+        return ResponseEntity.status(500).body(response);
+    }
+}
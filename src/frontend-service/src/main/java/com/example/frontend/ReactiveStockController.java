@@ -0,0 +1,314 @@
+package com.example.frontend;
+
+import com.example.common.LogSampler;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the stock API of FrontendCacheController for the reactive profile, with the same cache,
+// single-flight misses and invalidation; no request ever blocks a thread, a miss waits on the
+// catalog through the shared client's async API
+@RestController
+@Profile("reactive")
+@RequestMapping("/stocks")
+public class ReactiveStockController implements StockUpdateListener, ApplicationRunner {
+
+    private final FrontendCache<String, CachedStock> cache;
+    private final CatalogClient catalogClient;
+
+    // concurrent misses for the same stock share one catalog fetch
+    private final SingleFlight<String, CatalogClient.CatalogResponse> stockLoads = new SingleFlight<>();
+
+    // how long a request waits for a catalog fetch started by another request
+    private final long loadTimeoutMs;
+
+    // entries older than this are revalidated with the catalog before they are served, 0 = never
+    private final long revalidateAfterNanos;
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveStockController.class);
+    private final LogSampler sampler;
+
+    private final LoadMetrics loadMetrics;
+
+    private final HotStocks hotStocks;
+
+    public ReactiveStockController(FrontendCache<String, CachedStock> stockCache, CatalogClient catalogClient,
+                                   @Value("${cache.load-timeout-ms:2000}") long loadTimeoutMs,
+                                   @Value("${cache.revalidate-after-ms:0}") long revalidateAfterMs,
+                                   MeterRegistry registry, LogSampler sampler, HotStocks hotStocks) {
+        this.cache = stockCache;
+        this.catalogClient = catalogClient;
+        this.loadTimeoutMs = loadTimeoutMs;
+        this.revalidateAfterNanos = TimeUnit.MILLISECONDS.toNanos(revalidateAfterMs);
+        this.sampler = sampler;
+        this.loadMetrics = new LoadMetrics(registry, stockLoads);
+        this.hotStocks = hotStocks;
+    }
+
+    // prewarms the cache before the frontend reports ready, as FrontendCacheController does; startup
+    // is the one place this waits for the catalog
+    @Override
+    public void run(ApplicationArguments args) {
+        List<String> hot = hotStocks.load();
+        if (hot.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        try {
+            Map<String, CachedStock> warmed = fetchAndCacheAll(hot).join();
+            logger.info("Prewarmed cache with {} of {} hot stocks in {} ms", warmed.size(), hot.size(),
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (CompletionException e) {
+            logger.warn("Could not prewarm cache with {} hot stocks: {}", hot.size(), e.getCause().getMessage());
+        }
+    }
+
+    // GET /stocks/<stockName>, from the cache or else from the catalog, revalidated and with the
+    // ETag passed on as FrontendCacheController does
+    @GetMapping("/{stockName}")
+    public Mono<ResponseEntity<String>> getStock(@PathVariable("stockName") String stockName) {
+        CachedStock cached = cache.get(stockName);
+        boolean sampled = logger.isDebugEnabled() && sampler.sample();
+        if (cached != null && !cached.needsRevalidation(System.nanoTime(), revalidateAfterNanos)) {
+            if (sampled) {
+                logger.debug("CACHE HIT: {}", stockName);
+            }
+            hotStocks.record(stockName);
+            return Mono.just(ok(cached.getBody(), cached.getEtag()));
+        }
+        if (sampled) {
+            logger.debug(cached == null ? "CACHE MISS: {}" : "CACHE REVALIDATE: {}", stockName);
+        }
+
+        // a client going away must not cancel a load other requests share
+        return Mono.fromFuture(() -> stockLoads.loadAsync(stockName, () -> fetchAndCache(stockName, cached),
+                        loadTimeoutMs), true)
+                .map(response -> {
+                    if (response.getStatus() == 200) {
+                        hotStocks.record(stockName);
+                        return ok(response.getBody(), response.getEtag());
+                    }
+                    logger.warn("Catalog returned error {} for {}", response.getStatus(), stockName);
+                    return ResponseEntity.status(response.getStatus()).body(response.getBody());
+                })
+                .onErrorResume(TimeoutException.class, e -> {
+                    logger.error("Timed out waiting for catalog fetch of {}", stockName);
+                    return Mono.just(ResponseEntity.status(504).body("Timed out waiting for catalog"));
+                })
+                .onErrorResume(e -> {
+                    logger.error("Error fetching stock {} from catalog: {}", stockName, e.getMessage());
+                    return Mono.just(ResponseEntity.status(500).body("Internal Server Error: " + e.getMessage()));
+                });
+    }
+
+    // runs for the one request that actually calls the catalog, stale is the entry to revalidate
+    private CompletableFuture<CatalogClient.CatalogResponse> fetchAndCache(String stockName, CachedStock stale) {
+        long generation = stockLoads.generation(stockName);
+        long start = System.nanoTime();
+        return catalogClient.fetchStockAsync(stockName, stale == null ? null : stale.getEtag()).whenComplete((response, e) -> {
+            if (e != null) {
+                loadMetrics.failed(start);
+            } else {
+                loadMetrics.loaded(start, response.getStatus());
+            }
+        }).thenApply(response -> {
+            if (response.getStatus() == 304 && stale != null) {
+                response = new CatalogClient.CatalogResponse(200, stale.getBody(), stale.getEtag());
+            }
+            if (response.getStatus() == 200) {
+                cacheFetched(stockName, response, generation, start);
+            }
+            return response;
+        });
+    }
+
+    // GET /stocks?names=Stock1,Stock2 or GET /stocks?prefix=Stock, served as FrontendCacheController
+    // does: cached stocks from the cache in one pass, all the other names in one catalog call
+    @GetMapping
+    public Mono<ResponseEntity<String>> getStocks(@RequestParam(value = "names", required = false) List<String> stockNames,
+                                                  @RequestParam(value = "prefix", required = false) String prefix,
+                                                  @RequestParam(value = "limit", defaultValue = "100") int limit) {
+        if (stockNames == null && prefix == null) {
+            return Mono.just(ResponseEntity.badRequest().body("Stock names or a name prefix required"));
+        }
+        return Mono.fromFuture(() -> stockNames != null ? lookupAll(stockNames) : fetchByPrefix(prefix, limit))
+                .map(stocks -> {
+                    StringBuilder json = new StringBuilder("[");
+                    for (Map.Entry<String, CachedStock> stock : stocks.entrySet()) {
+                        hotStocks.record(stock.getKey());
+                        json.append(json.length() > 1 ? "," : "").append(stock.getValue().toVersioned(stock.getKey()));
+                    }
+                    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(json.append(']').toString());
+                })
+                .onErrorResume(e -> {
+                    logger.error("Error fetching stocks {} from catalog: {}", stockNames != null ? stockNames : prefix + "*",
+                            e.getMessage());
+                    return Mono.just(ResponseEntity.status(500).body("Internal Server Error: " + e.getMessage()));
+                });
+    }
+
+    private CompletableFuture<Map<String, CachedStock>> lookupAll(List<String> stockNames) {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(stockNames));
+        List<CachedStock> cached = cache.getAll(names);
+        Map<String, CachedStock> stocks = new LinkedHashMap<>();
+        List<String> missing = new ArrayList<>();
+        long now = System.nanoTime();
+        for (int i = 0; i < names.size(); i++) {
+            CachedStock stock = cached.get(i);
+            if (stock == null || stock.needsRevalidation(now, revalidateAfterNanos)) {
+                missing.add(names.get(i));
+                stock = null;
+            }
+            // a fetched stock takes the place of its name
+            stocks.put(names.get(i), stock);
+        }
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("BULK LOOKUP: {} stocks, {} from the catalog", names.size(), missing.size());
+        }
+        CompletableFuture<Map<String, CachedStock>> fetched = missing.isEmpty()
+                ? CompletableFuture.completedFuture(Collections.emptyMap()) : fetchAndCacheAll(missing);
+        return fetched.thenApply(found -> {
+            stocks.putAll(found);
+            stocks.values().removeIf(Objects::isNull);
+            return stocks;
+        });
+    }
+
+    private CompletableFuture<Map<String, CachedStock>> fetchAndCacheAll(List<String> stockNames) {
+        long[] generations = new long[stockNames.size()];
+        for (int i = 0; i < generations.length; i++) {
+            generations[i] = stockLoads.generation(stockNames.get(i));
+        }
+        long start = System.nanoTime();
+        return catalogClient.fetchStocksAsync(stockNames).whenComplete((responses, e) -> {
+            if (e != null) {
+                loadMetrics.failed(start);
+            } else {
+                loadMetrics.loadedAll(start);
+            }
+        }).thenApply(responses -> {
+            Map<String, CachedStock> fetched = new LinkedHashMap<>();
+            for (int i = 0; i < generations.length; i++) {
+                CatalogClient.CatalogResponse response = responses.get(stockNames.get(i));
+                if (response != null) {
+                    fetched.put(stockNames.get(i), cacheFetched(stockNames.get(i), response, generations[i], start));
+                }
+            }
+            return fetched;
+        });
+    }
+
+    // updates the stocks already cached, caches no others (see FrontendCacheController)
+    private CompletableFuture<Map<String, CachedStock>> fetchByPrefix(String prefix, int limit) {
+        long start = System.nanoTime();
+        return catalogClient.fetchStocksByPrefixAsync(prefix, limit).whenComplete((responses, e) -> {
+            if (e != null) {
+                loadMetrics.failed(start);
+            } else {
+                loadMetrics.loadedAll(start);
+            }
+        }).thenApply(responses -> {
+            Map<String, CachedStock> fetched = new LinkedHashMap<>();
+            for (Map.Entry<String, CatalogClient.CatalogResponse> response : responses.entrySet()) {
+                CachedStock stock = new CachedStock(response.getValue().getBody(), response.getValue().getEtag(), start);
+                cache.update(response.getKey(), current -> stock.supersedes(current) ? stock : current);
+                fetched.put(response.getKey(), stock);
+            }
+            return fetched;
+        });
+    }
+
+    // caches a stock fetched with the catalog, unless it was invalidated (generation moved on) since
+    private CachedStock cacheFetched(String stockName, CatalogClient.CatalogResponse response, long generation,
+                                     long start) {
+        CachedStock fetched = new CachedStock(response.getBody(), response.getEtag(), start);
+        cacheNewer(stockName, fetched);
+        if (stockLoads.generation(stockName) != generation) {
+            // a trade invalidated this stock while we were fetching, the body may be stale
+            cache.invalidate(stockName);
+            logger.info("Stock {} invalidated during fetch, not caching", stockName);
+        }
+        return fetched;
+    }
+
+    // applies a version of the stock pushed by the catalog to the cached entry; with nothing
+    // cached, a fetch in flight may have read an older version and must not cache it
+    @Override
+    public void stockUpdated(String stockName, CachedStock stock) {
+        if (!cache.update(stockName, current -> stock.supersedes(current) ? stock : current)) {
+            stockLoads.invalidate(stockName);
+        }
+    }
+
+    // caches a fetched stock unless the entry already shows a later version of it
+    private void cacheNewer(String stockName, CachedStock fetched) {
+        if (!cache.update(stockName, current -> fetched.supersedes(current) ? fetched : current)) {
+            cache.put(stockName, fetched);
+        }
+    }
+
+    private static ResponseEntity<String> ok(String body, String etag) {
+        return etag == null ? ResponseEntity.ok(body) : ResponseEntity.ok().eTag(etag).body(body);
+    }
+
+    @PostMapping("/invalidate/{stockName}")
+    public ResponseEntity<String> invalidate(@PathVariable("stockName") String stockName) {
+        stockLoads.invalidate(stockName);
+        cache.invalidate(stockName);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Cache invalidated for {}", stockName);
+        }
+        return ResponseEntity.ok("Cache invalidated for stock: " + stockName);
+    }
+
+    // body is a JSON array of stock names, eg. ["Stock1", "Stock2"]
+    @PostMapping("/invalidate")
+    public ResponseEntity<String> invalidateAll(@RequestBody List<String> stockNames) {
+        for (String stockName : stockNames) {
+            stockLoads.invalidate(stockName);
+            cache.invalidate(stockName);
+        }
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Cache invalidated for {}", stockNames);
+        }
+        return ResponseEntity.ok("Cache invalidated for " + stockNames.size() + " stocks");
+    }
+
+    // sent by a catalog that could not queue some invalidations
+    @PostMapping("/invalidate-all")
+    public ResponseEntity<String> invalidateEverything() {
+        stockLoads.invalidateAll();
+        cache.clear();
+        logger.info("Cache invalidated for all stocks");
+        return ResponseEntity.ok("Cache invalidated for all stocks");
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> response = cache.stats().toMap();
+        response.put("size", cache.size());
+        response.put("loads", stockLoads.stats());
+        return ResponseEntity.ok(response);
+    }
+}
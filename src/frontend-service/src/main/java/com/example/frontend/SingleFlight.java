@@ -0,0 +1,136 @@
+package com.example.frontend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// runs at most one load per key at a time: the first caller runs the loader and every caller
+// that arrives while it is running waits (bounded) for the same result
+//
+// invalidate() detaches the running load so later callers start a fresh one, and bumps the key's
+// generation; a loader that publishes its result somewhere (eg. a cache) compares the generation
+// before loading and after publishing, and retracts the result if the key was invalidated
+public class SingleFlight<K, R> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<R>> inFlight = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<K, AtomicLong> generations = new ConcurrentHashMap<>();
+    // bumped by invalidateAll(), part of every key's generation
+    private final AtomicLong epoch = new AtomicLong();
+
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder joined = new LongAdder();
+    private final LongAdder timeouts = new LongAdder();
+
+    // loads run, requests that joined one and joins that timed out
+    long loads() {
+        return loads.sum();
+    }
+
+    long coalesced() {
+        return joined.sum();
+    }
+
+    long timeouts() {
+        return timeouts.sum();
+    }
+
+    // returns the result of the in-flight load of key, or runs loader if there is none
+    // callers that join an in-flight load wait at most timeoutMs for it
+    public R load(K key, Callable<R> loader, long timeoutMs) throws Exception {
+        CompletableFuture<R> flight = new CompletableFuture<>();
+        CompletableFuture<R> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            joined.increment();
+            try {
+                return existing.get(timeoutMs, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                timeouts.increment();
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        }
+
+        loads.increment();
+        try {
+            R result = loader.call();
+            flight.complete(result);
+            return result;
+        } catch (Exception e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    // load() without blocking: completes with the in-flight load of key, or with the one loader
+    // starts if there is none. a caller joining an in-flight load gives up after timeoutMs with a
+    // TimeoutException, without failing the load for the others
+    public CompletableFuture<R> loadAsync(K key, Supplier<CompletableFuture<R>> loader, long timeoutMs) {
+        CompletableFuture<R> flight = new CompletableFuture<>();
+        CompletableFuture<R> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            joined.increment();
+            return existing.copy().orTimeout(timeoutMs, TimeUnit.MILLISECONDS).whenComplete((result, e) -> {
+                if (e instanceof TimeoutException) {
+                    timeouts.increment();
+                }
+            });
+        }
+
+        loads.increment();
+        CompletableFuture<R> load;
+        try {
+            load = loader.get();
+        } catch (RuntimeException e) {
+            load = CompletableFuture.failedFuture(e);
+        }
+        load.whenComplete((result, e) -> {
+            inFlight.remove(key, flight);
+            if (e != null) {
+                flight.completeExceptionally(e);
+            } else {
+                flight.complete(result);
+            }
+        });
+        return flight;
+    }
+
+    // current generation of key, changes every time the key is invalidated
+    public long generation(K key) {
+        AtomicLong generation = generations.get(key);
+        return epoch.get() + (generation == null ? 0 : generation.get());
+    }
+
+    // callers arriving after this start a new load instead of joining the running one
+    public void invalidate(K key) {
+        generations.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+        inFlight.remove(key);
+    }
+
+    // invalidate() of every key, including the ones with no load running
+    public void invalidateAll() {
+        epoch.incrementAndGet();
+        inFlight.clear();
+    }
+
+    // loads started, callers that shared another caller's load, and waits that timed out
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("loads", loads.sum());
+        stats.put("coalesced", joined.sum());
+        stats.put("timeouts", timeouts.sum());
+        stats.put("inFlight", inFlight.size());
+        return stats;
+    }
+}
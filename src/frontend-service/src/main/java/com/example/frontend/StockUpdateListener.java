@@ -0,0 +1,9 @@
+package com.example.frontend;
+
+// takes the stock updates the catalog pushes (see CatalogStream) into the stock cache,
+// implemented by the stock controller of the active profile
+public interface StockUpdateListener {
+
+    // a version of a stock, replacing the cached entry if there is an older one
+    void stockUpdated(String stockName, CachedStock stock);
+}
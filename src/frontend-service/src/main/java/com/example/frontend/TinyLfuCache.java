@@ -0,0 +1,398 @@
+package com.example.frontend;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.UnaryOperator;
+
+// concurrent W-TinyLFU cache
+//
+// reads never block: values are looked up in a ConcurrentHashMap and the access is only
+// recorded in a small striped, lossy buffer that is replayed later under the eviction lock.
+// writes and evictions take the eviction lock. new entries enter a small LRU window (1% of the
+// capacity); entries leaving the window have to beat the main region's LRU victim on estimated
+// access frequency (FrequencySketch) to be admitted, so one-off lookups cannot push out hot
+// stocks. the main region is a segmented LRU: probation for entries seen once since admission,
+// protected (80%) for entries accessed again
+public class TinyLfuCache<K, V> implements FrontendCache<K, V> {
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final int STRIPES = ceilingPowerOfTwo(Runtime.getRuntime().availableProcessors());
+    private static final int BUFFER_SIZE = 32;
+
+    private final ConcurrentHashMap<K, Node<K, V>> data = new ConcurrentHashMap<>();
+    private final CacheStats stats = new CacheStats();
+    private final long ttlNanos;
+    private final LongSupplier ticker;
+
+    // everything below is guarded by evictionLock
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    private final FrequencySketch<K> sketch;
+    private final int maximumSize;
+    private final int windowMaximum;
+    private final int protectedMaximum;
+    private final Deque<K, V> window = new Deque<>();
+    private final Deque<K, V> probation = new Deque<>();
+    private final Deque<K, V> protectedDeque = new Deque<>();
+    private int windowSize;
+    private int protectedSize;
+    private int size;
+
+    // read buffer: STRIPES rings of BUFFER_SIZE slots, a reader writes into the ring picked by
+    // its thread id and recordings are dropped while a ring is full
+    private final AtomicReferenceArray<Node<K, V>> readBuffer = new AtomicReferenceArray<>(STRIPES * BUFFER_SIZE);
+    // write counts of the rings, spaced one cache line (16 ints) apart to avoid false sharing
+    private final AtomicIntegerArray readCounts = new AtomicIntegerArray(STRIPES * 16);
+
+    public TinyLfuCache(int maximumSize, long ttlMs) {
+        this(maximumSize, ttlMs, System::nanoTime);
+    }
+
+    TinyLfuCache(int maximumSize, long ttlMs, LongSupplier ticker) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maximumSize = maximumSize;
+        this.windowMaximum = Math.max(1, maximumSize / 100);
+        int mainMaximum = maximumSize - windowMaximum;
+        this.protectedMaximum = (int) (mainMaximum * 0.8);
+        this.ttlNanos = ttlMs * 1_000_000;
+        this.ticker = ticker;
+        this.sketch = new FrequencySketch<>(maximumSize);
+    }
+
+    @Override
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        if (node == null) {
+            stats.recordMiss();
+            return null;
+        }
+        if (ttlNanos > 0 && ticker.getAsLong() - node.writeTime > ttlNanos) {
+            stats.recordExpiration();
+            stats.recordMiss();
+            expire(node);
+            return null;
+        }
+        stats.recordHit();
+        recordRead(node);
+        return node.value;
+    }
+
+    // reads take no lock, so this is get() per key
+    @Override
+    public List<V> getAll(List<K> keys) {
+        List<V> values = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            values.add(get(key));
+        }
+        return values;
+    }
+
+    @Override
+    public void put(K key, V value) {
+        long now = ticker.getAsLong();
+        evictionLock.lock();
+        try {
+            drainReadBuffer();
+            Node<K, V> node = data.get(key);
+            if (node != null) {
+                // update in place, counts as an access
+                node.value = value;
+                node.writeTime = now;
+                onAccess(node);
+                return;
+            }
+            node = new Node<>(key, value, now);
+            data.put(key, node);
+            sketch.increment(key);
+            node.queue = WINDOW;
+            window.addLast(node);
+            windowSize++;
+            size++;
+            evict();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean update(K key, UnaryOperator<V> update) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.get(key);
+            if (node == null) {
+                return false;
+            }
+            V value = update.apply(node.value);
+            if (value != node.value) {
+                node.value = value;
+                node.writeTime = ticker.getAsLong();
+            }
+            return true;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public void invalidate(K key) {
+        evictionLock.lock();
+        try {
+            Node<K, V> node = data.remove(key);
+            if (node != null) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // invalidate() of every key under one hold of the lock
+    @Override
+    public void clear() {
+        evictionLock.lock();
+        try {
+            for (K key : data.keySet()) {
+                Node<K, V> node = data.remove(key);
+                if (node != null) {
+                    unlink(node);
+                }
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        return data.size();
+    }
+
+    @Override
+    public Set<K> keys() {
+        return new LinkedHashSet<>(data.keySet());
+    }
+
+    @Override
+    public CacheStats stats() {
+        return stats;
+    }
+
+    private void expire(Node<K, V> node) {
+        evictionLock.lock();
+        try {
+            if (data.remove(node.key, node)) {
+                unlink(node);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    // lossy: if the ring is full the access is simply not recorded. the count stops at
+    // BUFFER_SIZE, so reads while a drain is held up cannot run it past the ring, or around
+    private void recordRead(Node<K, V> node) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        int index;
+        do {
+            index = readCounts.get(stripe << 4);
+        } while (index < BUFFER_SIZE && !readCounts.compareAndSet(stripe << 4, index, index + 1));
+        if (index < BUFFER_SIZE) {
+            readBuffer.lazySet(stripe * BUFFER_SIZE + index, node);
+            if (index < BUFFER_SIZE - 1) {
+                return;
+            }
+        }
+        // ring is full, replay it if nobody else is holding the lock
+        if (evictionLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int count = Math.min(readCounts.get(stripe << 4), BUFFER_SIZE);
+            if (count == 0) {
+                continue;
+            }
+            for (int i = 0; i < count; i++) {
+                Node<K, V> node = readBuffer.getAndSet(stripe * BUFFER_SIZE + i, null);
+                if (node != null) {
+                    onAccess(node);
+                }
+            }
+            readCounts.set(stripe << 4, 0);
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        if (node.queue < 0) {
+            // removed since the read was recorded
+            return;
+        }
+        sketch.increment(node.key);
+        if (node.queue == WINDOW) {
+            window.moveToBack(node);
+        } else if (node.queue == PROBATION) {
+            // accessed again after admission, promote to protected
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedDeque.addLast(node);
+            protectedSize++;
+            while (protectedSize > protectedMaximum) {
+                Node<K, V> demoted = protectedDeque.removeFirst();
+                protectedSize--;
+                demoted.queue = PROBATION;
+                probation.addLast(demoted);
+            }
+        } else {
+            protectedDeque.moveToBack(node);
+        }
+    }
+
+    private void evict() {
+        // entries overflowing the window become admission candidates at the tail of probation,
+        // candidates is the first of them and the others follow it there
+        Node<K, V> candidates = null;
+        while (windowSize > windowMaximum) {
+            Node<K, V> candidate = window.removeFirst();
+            windowSize--;
+            candidate.queue = PROBATION;
+            probation.addLast(candidate);
+            if (candidates == null) {
+                candidates = candidate;
+            }
+        }
+        while (size > maximumSize) {
+            Node<K, V> victim = probation.peekFirst();
+            Node<K, V> candidate = candidates;
+            if (victim == null) {
+                // probation is empty, fall back to the LRU end of protected, then window
+                victim = protectedDeque.peekFirst() != null ? protectedDeque.peekFirst() : window.peekFirst();
+                evictNode(victim);
+            } else if (candidate == null) {
+                // nothing left the window, the main region gives up its LRU entry
+                evictNode(victim);
+            } else if (victim == candidate) {
+                // no entry admitted earlier is left to contest
+                candidates = candidate.next;
+                evictNode(victim);
+            } else if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+                evictNode(victim);
+            } else {
+                candidates = candidate.next;
+                evictNode(candidate);
+            }
+        }
+    }
+
+    private void evictNode(Node<K, V> node) {
+        data.remove(node.key, node);
+        unlink(node);
+        stats.recordEviction();
+    }
+
+    private void unlink(Node<K, V> node) {
+        if (node.queue == WINDOW) {
+            window.remove(node);
+            windowSize--;
+        } else if (node.queue == PROBATION) {
+            probation.remove(node);
+        } else if (node.queue == PROTECTED) {
+            protectedDeque.remove(node);
+            protectedSize--;
+        } else {
+            return;
+        }
+        node.queue = -1;
+        size--;
+    }
+
+    private static int ceilingPowerOfTwo(int x) {
+        return x <= 1 ? 1 : 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+    }
+
+    private static final class Node<K, V> {
+        final K key;
+        volatile V value;
+        volatile long writeTime;
+
+        // guarded by evictionLock: which deque the node is in (-1 once removed) and its links
+        int queue = -1;
+        Node<K, V> prev;
+        Node<K, V> next;
+
+        Node(K key, V value, long writeTime) {
+            this.key = key;
+            this.value = value;
+            this.writeTime = writeTime;
+        }
+    }
+
+    // intrusive doubly-linked list in access order, least recently used first
+    private static final class Deque<K, V> {
+        private Node<K, V> head;
+        private Node<K, V> tail;
+
+        Node<K, V> peekFirst() {
+            return head;
+        }
+
+        Node<K, V> peekLast() {
+            return tail;
+        }
+
+        void addLast(Node<K, V> node) {
+            node.prev = tail;
+            node.next = null;
+            if (tail == null) {
+                head = node;
+            } else {
+                tail.next = node;
+            }
+            tail = node;
+        }
+
+        Node<K, V> removeFirst() {
+            Node<K, V> node = head;
+            remove(node);
+            return node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.prev == null) {
+                head = node.next;
+            } else {
+                node.prev.next = node.next;
+            }
+            if (node.next == null) {
+                tail = node.prev;
+            } else {
+                node.next.prev = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != tail) {
+                remove(node);
+                addLast(node);
+            }
+        }
+    }
+}
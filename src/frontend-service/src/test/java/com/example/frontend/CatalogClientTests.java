@@ -0,0 +1,101 @@
+package com.example.frontend;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.LogSampler;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CatalogClientTests {
+
+	private final List<HttpServer> servers = new ArrayList<>();
+
+	@AfterEach
+	void stop() {
+		for (HttpServer server : servers) {
+			server.stop(0);
+		}
+	}
+
+	// every stock is asked of its own shard only, a bulk lookup in one call per shard, and the
+	// answers of all shards come back as one
+	@Test
+	void lookupsGoToTheShardOwningTheStock() throws Exception {
+		Queue<String> first = new ConcurrentLinkedQueue<>();
+		Queue<String> second = new ConcurrentLinkedQueue<>();
+		String firstUrl = shard(first);
+		String secondUrl = shard(second);
+		CatalogShards shards = new CatalogShards(List.of("catalog-1=" + firstUrl, "catalog-2=" + secondUrl), null, 100);
+		CatalogClient client = new CatalogClient(new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper()),
+				shards, new LogSampler(1));
+		List<String> names = new ArrayList<>();
+		for (int i = 1; i <= 20; i++) {
+			names.add("Stock" + i);
+		}
+
+		Map<String, CatalogClient.CatalogResponse> stocks = client.fetchStocks(names);
+
+		assertEquals(20, stocks.size());
+		assertEquals(1, first.size());
+		assertEquals(1, second.size());
+		List<String> askedFirst = Arrays.asList(first.remove().split(","));
+		List<String> askedSecond = Arrays.asList(second.remove().split(","));
+		assertEquals(20, askedFirst.size() + askedSecond.size());
+		for (String name : names) {
+			String owner = shards.urlFor(name);
+			assertTrue((owner.equals(firstUrl) ? askedFirst : askedSecond).contains(name), name);
+			assertTrue(stocks.get(name).getBody().contains(owner), name);
+			assertTrue(client.fetchStock(name).getBody().contains(owner), name);
+		}
+	}
+
+	// a catalog shard answering lookups and bulk lookups of any stock with its own url as the
+	// stock, recording the names of each bulk lookup
+	private String shard(Queue<String> bulkLookups) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		servers.add(server);
+		String url = "http://localhost:" + server.getAddress().getPort();
+		server.createContext("/stocks", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			String body;
+			if (path.equals("/stocks")) {
+				String names = URLDecoder.decode(exchange.getRequestURI().getRawQuery().substring("names=".length()),
+						StandardCharsets.UTF_8);
+				bulkLookups.add(names);
+				StringBuilder array = new StringBuilder("[");
+				for (String name : names.split(",")) {
+					array.append(array.length() > 1 ? "," : "").append("{\"name\":\"").append(name)
+							.append("\",\"version\":1,\"etag\":\"\\\"1\\\"\",\"stock\":{\"shard\":\"").append(url).append("\"}}");
+				}
+				body = array.append("]").toString();
+			} else {
+				body = "{\"shard\":\"" + url + "\"}";
+			}
+			byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().add("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, bytes.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(bytes);
+			}
+		});
+		server.start();
+		return url;
+	}
+}
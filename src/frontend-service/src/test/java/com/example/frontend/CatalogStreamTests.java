@@ -0,0 +1,93 @@
+package com.example.frontend;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.support.StaticListableBeanFactory;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CatalogStreamTests {
+
+	private HttpServer server;
+	private CatalogStream stream;
+	private final CountDownLatch done = new CountDownLatch(1);
+
+	@AfterEach
+	void stop() {
+		done.countDown();
+		if (stream != null) {
+			stream.stop();
+		}
+		server.stop(0);
+	}
+
+	// every stock of a snapshot and every volume event reaches the listeners, and after the
+	// catalog drops the connection the stream resumes from the last event it applied
+	@Test
+	void appliesEventsAndResumesAfterReconnect() throws Exception {
+		BlockingQueue<String> resumedFrom = new LinkedBlockingQueue<>();
+		AtomicInteger connections = new AtomicInteger();
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/stocks/stream", exchange -> {
+			int connection = connections.incrementAndGet();
+			String lastEventId = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+			resumedFrom.add(lastEventId == null ? "none" : lastEventId);
+			exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+			exchange.sendResponseHeaders(200, 0);
+			OutputStream body = exchange.getResponseBody();
+			if (connection == 1) {
+				body.write(("id:a-1\nevent:snapshot\ndata:[" + update("Stock1", 1, 100) + "," + update("Stock2", 1, 150)
+						+ "]\n\n").getBytes(StandardCharsets.UTF_8));
+			} else {
+				body.write((":heartbeat\n\nid:a-2\nevent:volume\ndata:" + update("Stock1", 2, 90) + "\n\n")
+						.getBytes(StandardCharsets.UTF_8));
+				body.flush();
+				try {
+					done.await(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			exchange.close();
+		});
+		server.start();
+
+		BlockingQueue<String> updates = new LinkedBlockingQueue<>();
+		StockUpdateListener listener = (name, stock) -> updates.add(name + " " + stock.getEtag() + " " + stock.getBody());
+		stream = new CatalogStream(new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper()),
+				new CatalogShards("http://localhost:" + server.getAddress().getPort()), new ObjectMapper(),
+				new StaticListableBeanFactory(Map.of("listener", listener)).getBeanProvider(StockUpdateListener.class),
+				true, 10, 100, new SimpleMeterRegistry());
+		stream.start();
+
+		assertEquals("Stock1 \"a-1\" {\"volume\":100,\"name\":\"Stock1\"}", updates.poll(5, TimeUnit.SECONDS));
+		assertEquals("Stock2 \"a-1\" {\"volume\":150,\"name\":\"Stock2\"}", updates.poll(5, TimeUnit.SECONDS));
+		assertEquals("Stock1 \"a-2\" {\"volume\":90,\"name\":\"Stock1\"}", updates.poll(5, TimeUnit.SECONDS));
+		assertEquals(List.of("none", "a-1"), List.of(resumedFrom.take(), resumedFrom.take()));
+		assertNull(updates.poll(50, TimeUnit.MILLISECONDS));
+	}
+
+	private static String update(String name, long version, long volume) {
+		return "{\"name\":\"" + name + "\",\"version\":" + version + ",\"etag\":\"\\\"a-" + version + "\\\"\","
+				+ "\"stock\":{\"volume\":" + volume + ",\"name\":\"" + name + "\"}}";
+	}
+}
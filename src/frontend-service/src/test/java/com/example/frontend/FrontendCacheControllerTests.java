@@ -0,0 +1,284 @@
+package com.example.frontend;
+
+import com.example.common.LogSampler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.ResponseEntity;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrontendCacheControllerTests {
+
+	// catalog stub that counts fetches and holds each one until released
+	static class BlockingCatalogClient extends CatalogClient {
+		final AtomicInteger calls = new AtomicInteger();
+		final CountDownLatch fetchStarted = new CountDownLatch(1);
+		volatile CountDownLatch release = new CountDownLatch(1);
+
+		BlockingCatalogClient() {
+			super(null, "http://localhost:8081", new LogSampler(1));
+		}
+
+		@Override
+		public CatalogResponse fetchStock(String stockName, String etag) throws Exception {
+			int call = calls.incrementAndGet();
+			fetchStarted.countDown();
+			assertTrue(release.await(10, TimeUnit.SECONDS));
+			return new CatalogResponse(200, "{\"name\":\"" + stockName + "\",\"volume\":" + call + "}");
+		}
+	}
+
+	// catalog stub at one stock version, answering 304 to its ETag
+	static class VersionedCatalogClient extends CatalogClient {
+		final List<String> etagsSent = new ArrayList<>();
+		volatile String version = "\"v1\"";
+
+		VersionedCatalogClient() {
+			super(null, "http://localhost:8081", new LogSampler(1));
+		}
+
+		@Override
+		public CatalogResponse fetchStock(String stockName, String etag) {
+			etagsSent.add(etag);
+			if (version.equals(etag)) {
+				return new CatalogResponse(304, "", etag);
+			}
+			return new CatalogResponse(200, "{\"name\":\"" + stockName + "\",\"version\":" + version + "}", version);
+		}
+	}
+
+	// catalog stub knowing Stock1 to Stock3, recording the names of every bulk call
+	static class BulkCatalogClient extends CatalogClient {
+		final List<List<String>> bulkCalls = new ArrayList<>();
+		final AtomicInteger singleCalls = new AtomicInteger();
+
+		BulkCatalogClient() {
+			super(null, "http://localhost:8081", new LogSampler(1));
+		}
+
+		@Override
+		public CatalogResponse fetchStock(String stockName, String etag) {
+			singleCalls.incrementAndGet();
+			return stock(stockName);
+		}
+
+		@Override
+		public Map<String, CatalogResponse> fetchStocks(List<String> stockNames) {
+			bulkCalls.add(new ArrayList<>(stockNames));
+			Map<String, CatalogResponse> stocks = new LinkedHashMap<>();
+			for (String name : stockNames) {
+				if (name.matches("Stock[1-3]")) {
+					stocks.put(name, stock(name));
+				}
+			}
+			return stocks;
+		}
+
+		private static CatalogResponse stock(String name) {
+			return new CatalogResponse(200, "{\"volume\":100,\"name\":\"" + name + "\"}", "\"e-1\"");
+		}
+	}
+
+	@Test
+	void concurrentMissesMakeOneCatalogCall() throws Exception {
+		BlockingCatalogClient catalog = new BlockingCatalogClient();
+		FrontendCacheController controller = new FrontendCacheController(new TinyLfuCache<>(3, 0), catalog, 5000, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		int requests = 32;
+		ExecutorService pool = Executors.newFixedThreadPool(requests);
+		List<Future<ResponseEntity<String>>> responses = new ArrayList<>();
+		for (int i = 0; i < requests; i++) {
+			responses.add(pool.submit(() -> controller.getStock("Stock1")));
+		}
+
+		assertTrue(catalog.fetchStarted.await(5, TimeUnit.SECONDS));
+		// give every request time to reach the cache miss before the fetch completes
+		Thread.sleep(200);
+		catalog.release.countDown();
+
+		for (Future<ResponseEntity<String>> response : responses) {
+			assertEquals("{\"name\":\"Stock1\",\"volume\":1}", response.get(5, TimeUnit.SECONDS).getBody());
+		}
+		pool.shutdown();
+		assertEquals(1, catalog.calls.get());
+		assertEquals(200, controller.getStock("Stock1").getStatusCode().value());
+		assertEquals(1, catalog.calls.get());
+	}
+
+	@Test
+	void invalidationDuringFetchIsNotOverwritten() throws Exception {
+		BlockingCatalogClient catalog = new BlockingCatalogClient();
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		FrontendCacheController controller = new FrontendCacheController(cache, catalog, 5000, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<ResponseEntity<String>> first = pool.submit(() -> controller.getStock("Stock1"));
+
+		assertTrue(catalog.fetchStarted.await(5, TimeUnit.SECONDS));
+		controller.invalidate("Stock1");
+		catalog.release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		pool.shutdown();
+
+		// the fetched body may predate the trade, so it must not stay cached
+		assertNull(cache.get("Stock1"));
+		assertEquals("{\"name\":\"Stock1\",\"volume\":2}", controller.getStock("Stock1").getBody());
+		assertEquals(2, catalog.calls.get());
+	}
+
+	// a catalog that lost invalidations drops every stock, the cached ones and the ones being fetched
+	@Test
+	void invalidationOfAllStocksDuringFetch() throws Exception {
+		BlockingCatalogClient catalog = new BlockingCatalogClient();
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		cache.put("Stock2", new CachedStock("{\"name\":\"Stock2\",\"volume\":0}", null, 0));
+		FrontendCacheController controller = new FrontendCacheController(cache, catalog, 5000, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<ResponseEntity<String>> first = pool.submit(() -> controller.getStock("Stock1"));
+
+		assertTrue(catalog.fetchStarted.await(5, TimeUnit.SECONDS));
+		controller.invalidateEverything();
+		catalog.release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		pool.shutdown();
+
+		assertNull(cache.get("Stock1"));
+		assertNull(cache.get("Stock2"));
+		assertEquals(0, cache.size());
+		assertEquals("{\"name\":\"Stock2\",\"volume\":2}", controller.getStock("Stock2").getBody());
+	}
+
+	@Test
+	void waitingRequestTimesOut() throws Exception {
+		BlockingCatalogClient catalog = new BlockingCatalogClient();
+		FrontendCacheController controller = new FrontendCacheController(new TinyLfuCache<>(3, 0), catalog, 50, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		ExecutorService pool = Executors.newSingleThreadExecutor();
+		Future<ResponseEntity<String>> owner = pool.submit(() -> controller.getStock("Stock1"));
+		assertTrue(catalog.fetchStarted.await(5, TimeUnit.SECONDS));
+
+		assertEquals(504, controller.getStock("Stock1").getStatusCode().value());
+
+		catalog.release.countDown();
+		assertEquals(200, owner.get(5, TimeUnit.SECONDS).getStatusCode().value());
+		pool.shutdown();
+	}
+
+	@Test
+	void staleEntriesAreRevalidatedWithTheirEtag() throws Exception {
+		VersionedCatalogClient catalog = new VersionedCatalogClient();
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		FrontendCacheController controller = new FrontendCacheController(cache, catalog, 5000, 20,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+
+		ResponseEntity<String> first = controller.getStock("Stock1");
+		assertEquals("\"v1\"", first.getHeaders().getETag());
+		controller.getStock("Stock1");
+		assertEquals(1, catalog.etagsSent.size());
+		assertNull(catalog.etagsSent.get(0));
+
+		// past the revalidation age the catalog is asked with the ETag and the body is kept
+		Thread.sleep(30);
+		assertEquals(first.getBody(), controller.getStock("Stock1").getBody());
+		assertEquals(List.of("\"v1\""), catalog.etagsSent.subList(1, 2));
+		controller.getStock("Stock1");
+		assertEquals(2, catalog.etagsSent.size());
+
+		// a trade moved the version on, the new body replaces the cached one
+		catalog.version = "\"v2\"";
+		Thread.sleep(30);
+		ResponseEntity<String> traded = controller.getStock("Stock1");
+		assertEquals("{\"name\":\"Stock1\",\"version\":\"v2\"}", traded.getBody());
+		assertEquals("\"v2\"", traded.getHeaders().getETag());
+		assertEquals("\"v2\"", cache.get("Stock1").getEtag());
+	}
+
+	// a pushed version replaces an older cached one, never a newer one, and is not cached when absent
+	@Test
+	void pushedVersionsUpdateTheCacheInPlace() throws Exception {
+		VersionedCatalogClient catalog = new VersionedCatalogClient();
+		catalog.version = "\"e-2\"";
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		FrontendCacheController controller = new FrontendCacheController(cache, catalog, 5000, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		controller.getStock("Stock1");
+
+		controller.stockUpdated("Stock1", new CachedStock("old", "\"e-1\"", System.nanoTime()));
+		assertEquals("\"e-2\"", cache.get("Stock1").getEtag());
+		controller.stockUpdated("Stock1", new CachedStock("new", "\"e-3\"", System.nanoTime()));
+		assertEquals("new", controller.getStock("Stock1").getBody());
+		assertEquals(1, catalog.etagsSent.size());
+
+		controller.stockUpdated("Stock2", new CachedStock("new", "\"e-3\"", System.nanoTime()));
+		assertNull(cache.get("Stock2"));
+	}
+
+	// cached stocks are served from the cache, all the others come from one catalog call
+	@Test
+	void bulkLookupFetchesOnlyMissingStocks() {
+		BulkCatalogClient catalog = new BulkCatalogClient();
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		FrontendCacheController controller = new FrontendCacheController(cache, catalog, 5000, 0,
+				new SimpleMeterRegistry(), new LogSampler(1), noHotStocks());
+		controller.getStock("Stock1");
+
+		ResponseEntity<String> stocks = controller.getStocks(List.of("Stock2", "Stock1", "Unknown", "Stock2"), null, 100);
+		assertEquals(200, stocks.getStatusCode().value());
+		assertEquals("[{\"name\":\"Stock2\",\"version\":1,\"etag\":\"\\\"e-1\\\"\",\"stock\":{\"volume\":100,\"name\":\"Stock2\"}},"
+				+ "{\"name\":\"Stock1\",\"version\":1,\"etag\":\"\\\"e-1\\\"\",\"stock\":{\"volume\":100,\"name\":\"Stock1\"}}]",
+				stocks.getBody());
+		assertEquals(List.of(List.of("Stock2", "Unknown")), catalog.bulkCalls);
+		assertEquals(1, catalog.singleCalls.get());
+		assertEquals("\"e-1\"", cache.get("Stock2").getEtag());
+
+		controller.getStocks(List.of("Stock1", "Stock2"), null, 100);
+		assertEquals(1, catalog.bulkCalls.size());
+		assertEquals(400, controller.getStocks(null, null, 100).getStatusCode().value());
+	}
+
+	// the stocks looked up most are saved on shutdown and loaded in one call by the next run
+	@Test
+	void hotStocksArePrewarmedAfterARestart(@TempDir Path dir) throws Exception {
+		String file = dir.resolve("hot-stocks.txt").toString();
+		HotStocks hotStocks = new HotStocks(true, 2, 3, file, 0);
+		FrontendCacheController controller = new FrontendCacheController(new TinyLfuCache<>(3, 0), new BulkCatalogClient(),
+				5000, 0, new SimpleMeterRegistry(), new LogSampler(1), hotStocks);
+		for (int i = 0; i < 3; i++) {
+			controller.getStock("Stock3");
+		}
+		controller.getStocks(List.of("Stock1", "Stock3", "Unknown"), null, 100);
+		controller.getStock("Stock1");
+		controller.getStock("Stock2");
+		hotStocks.stop();
+		assertEquals(List.of("Stock3", "Stock1"), Files.readAllLines(dir.resolve("hot-stocks.txt")));
+
+		BulkCatalogClient catalog = new BulkCatalogClient();
+		FrontendCache<String, CachedStock> cache = new TinyLfuCache<>(3, 0);
+		new FrontendCacheController(cache, catalog, 5000, 0, new SimpleMeterRegistry(), new LogSampler(1),
+				new HotStocks(true, 2, 3, file, 0)).run(null);
+		assertEquals(List.of(List.of("Stock3", "Stock1")), catalog.bulkCalls);
+		assertEquals(2, cache.size());
+		assertEquals(0, catalog.singleCalls.get());
+	}
+
+	private static HotStocks noHotStocks() {
+		return new HotStocks(false, 0, 3, "hot-stocks.txt", 0);
+	}
+}
@@ -0,0 +1,239 @@
+package com.example.frontend;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrontendCacheTests {
+
+	@Test
+	void lruEvictsLeastRecentlyUsed() {
+		FrontendCache<String, String> cache = new LruCache<>(2, 0);
+		cache.put("Stock1", "1");
+		cache.put("Stock2", "2");
+		cache.get("Stock1");
+		cache.put("Stock3", "3");
+
+		assertNull(cache.get("Stock2"));
+		assertEquals("1", cache.get("Stock1"));
+		assertEquals(1, cache.stats().evictions());
+	}
+
+	// a scan of one-off stocks must not push a frequently read stock out of the cache
+	@Test
+	void tinyLfuKeepsHotEntryDuringScan() {
+		FrontendCache<String, String> cache = new TinyLfuCache<>(3, 0);
+		cache.put("Hot", "hot");
+		for (int i = 0; i < 20; i++) {
+			assertEquals("hot", cache.get("Hot"));
+		}
+		for (int i = 0; i < 100; i++) {
+			cache.put("Cold" + i, "cold");
+		}
+
+		assertEquals("hot", cache.get("Hot"));
+		assertEquals(3, cache.size());
+		assertTrue(cache.stats().evictions() >= 98);
+	}
+
+	// the entry leaving the window contests the LRU entry of probation: a one-off loses, one read
+	// often while in the window takes the victim's place
+	@Test
+	void tinyLfuAdmitsWindowEntriesByFrequency() {
+		TinyLfuCache<String, String> cache = new TinyLfuCache<>(3, 0);
+		cache.put("A", "a");
+		for (int i = 0; i < 20; i++) {
+			cache.get("A");
+		}
+		cache.put("B", "b");
+		// read again in probation, A moves on to protected
+		cache.get("A");
+		cache.put("C", "c");
+		cache.put("D", "d");
+		assertEquals(Set.of("A", "B", "D"), cache.keys());
+
+		for (int i = 0; i < 20; i++) {
+			cache.get("D");
+		}
+		cache.put("E", "e");
+		assertEquals(Set.of("A", "D", "E"), cache.keys());
+		assertEquals(2, cache.stats().evictions());
+	}
+
+	@Test
+	void tinyLfuInvalidateRemovesEntry() {
+		FrontendCache<String, String> cache = new TinyLfuCache<>(3, 0);
+		cache.put("Stock1", "1");
+		cache.invalidate("Stock1");
+
+		assertNull(cache.get("Stock1"));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.stats().misses());
+	}
+
+	// an update replaces a cached value in place and never caches a key that is not there
+	@Test
+	void updateReplacesOnlyCachedEntries() {
+		FrontendCache<String, String> lru = new LruCache<>(3, 0);
+		FrontendCache<String, String> tinyLfu = new TinyLfuCache<>(3, 0);
+		for (FrontendCache<String, String> cache : Arrays.asList(lru, tinyLfu)) {
+			cache.put("Stock1", "1");
+
+			assertTrue(cache.update("Stock1", v -> v + "!"));
+			assertFalse(cache.update("Stock2", v -> "2"));
+			assertEquals(0, cache.stats().hits() + cache.stats().misses());
+			assertEquals("1!", cache.get("Stock1"));
+			assertNull(cache.get("Stock2"));
+			assertEquals(1, cache.size());
+		}
+	}
+
+	// a multi-key read answers in key order and counts a hit or miss per key
+	@Test
+	void getAllReadsEveryKey() {
+		AtomicLong now = new AtomicLong();
+		FrontendCache<String, String> lru = new LruCache<>(3, 10, now::get);
+		FrontendCache<String, String> tinyLfu = new TinyLfuCache<>(3, 10, now::get);
+		for (FrontendCache<String, String> cache : Arrays.asList(lru, tinyLfu)) {
+			cache.put("Stock1", "1");
+			now.set(TimeUnit.MILLISECONDS.toNanos(20));
+			cache.put("Stock2", "2");
+
+			assertEquals(Arrays.asList("2", null, null), cache.getAll(Arrays.asList("Stock2", "Stock1", "Stock3")));
+			assertEquals(1, cache.stats().hits());
+			assertEquals(2, cache.stats().misses());
+			assertEquals(1, cache.stats().expirations());
+			now.set(0);
+		}
+	}
+
+	@Test
+	void entriesExpireAfterTtl() {
+		AtomicLong now = new AtomicLong();
+		FrontendCache<String, String> tinyLfu = new TinyLfuCache<>(3, 10, now::get);
+		FrontendCache<String, String> lru = new LruCache<>(3, 10, now::get);
+		tinyLfu.put("Stock1", "1");
+		lru.put("Stock1", "1");
+		now.set(TimeUnit.MILLISECONDS.toNanos(5));
+		assertNotNull(tinyLfu.get("Stock1"));
+		assertNotNull(lru.get("Stock1"));
+
+		now.set(TimeUnit.MILLISECONDS.toNanos(11));
+		assertNull(tinyLfu.get("Stock1"));
+		assertNull(lru.get("Stock1"));
+		assertEquals(1, tinyLfu.stats().expirations());
+		assertEquals(0, tinyLfu.size());
+	}
+
+	// many threads reading, inserting and invalidating must keep the cache within its bound
+	@Test
+	void tinyLfuStaysBoundedUnderConcurrency() throws Exception {
+		FrontendCache<Integer, Integer> cache = new TinyLfuCache<>(50, 0);
+		run(cache, 8, 50_000, 500, 0.99, true);
+		assertTrue(cache.size() <= 50, "size " + cache.size());
+		assertEquals(cache.size(), cache.keys().size());
+	}
+
+	// hit ratio and lookups/sec of both policies under Zipfian stock popularity,
+	// run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkZipfian() throws Exception {
+		int stocks = 10_000;
+		int size = 2_000;
+		for (int threads : new int[]{1, 4, 16}) {
+			for (String policy : new String[]{"lru", "tinylfu"}) {
+				FrontendCache<Integer, Integer> cache = CacheConfiguration.newCache(policy, size, 0);
+				long start = System.nanoTime();
+				long ops = run(cache, threads, 1_000_000, stocks, 0.99, true);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				double hitRatio = cache.stats().hitRatio();
+
+				// the same keys again without inserting, ie. only the lookup path
+				start = System.nanoTime();
+				run(cache, threads, 1_000_000, stocks, 0.99, false);
+				double readSeconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%-8s threads=%2d hitRatio=%.3f mixed ops/sec=%.0f lookups/sec=%.0f%n",
+						policy, threads, hitRatio, ops / seconds, ops / readSeconds);
+			}
+		}
+	}
+
+	// each thread looks up Zipf distributed keys, when insert is set it also inserts on a miss and
+	// now and then invalidates; keys are drawn before the clock starts so only cache operations count
+	private static long run(FrontendCache<Integer, Integer> cache, int threads, int opsPerThread,
+							int keys, double skew, boolean insert) throws InterruptedException {
+		double[] cumulative = zipf(keys, skew);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		CountDownLatch start = new CountDownLatch(1);
+		for (int t = 0; t < threads; t++) {
+			Integer[] sequence = new Integer[opsPerThread];
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			for (int i = 0; i < opsPerThread; i++) {
+				sequence[i] = sample(cumulative, random.nextDouble());
+			}
+			pool.execute(() -> {
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int i = 0; i < sequence.length; i++) {
+					Integer key = sequence[i];
+					if (!insert) {
+						cache.get(key);
+					} else if (cache.get(key) == null) {
+						cache.put(key, key);
+					} else if ((i & 127) == 0) {
+						cache.invalidate(key);
+					}
+				}
+			});
+		}
+		start.countDown();
+		pool.shutdown();
+		assertTrue(pool.awaitTermination(5, TimeUnit.MINUTES));
+		return (long) threads * opsPerThread;
+	}
+
+	private static double[] zipf(int n, double skew) {
+		double[] cumulative = new double[n];
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			sum += 1.0 / Math.pow(i + 1, skew);
+			cumulative[i] = sum;
+		}
+		for (int i = 0; i < n; i++) {
+			cumulative[i] /= sum;
+		}
+		return cumulative;
+	}
+
+	private static int sample(double[] cumulative, double u) {
+		int low = 0;
+		int high = cumulative.length - 1;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (cumulative[mid] < u) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
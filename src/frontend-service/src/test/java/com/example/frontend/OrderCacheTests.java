@@ -0,0 +1,88 @@
+package com.example.frontend;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderCacheTests {
+
+	// only the leader's acknowledgement of a create fills the cache, a replica's answer to a lookup
+	// may be of an order that is not committed yet
+	@Test
+	void cachesOnlyCommittedOrders() {
+		OrderCache cache = new OrderCache(router(2), true, 100, 1024);
+		assertNull(cache.get(1));
+
+		cache.created(5, order(5));
+		cache.created(4, order(4));
+
+		assertEquals(order(5), cache.get(5));
+		assertEquals(order(4), cache.get(4));
+		assertNull(cache.get(3));
+		assertEquals(2, cache.stats().hits());
+		assertEquals(2, cache.stats().misses());
+	}
+
+	// whichever of the entry and the memory limit is reached first evicts the least recently read
+	@Test
+	void staysWithinItsSizeAndMemory() {
+		OrderCache bySize = new OrderCache(router(1), true, 2, 1024);
+		bySize.created(1, order(1));
+		bySize.created(2, order(2));
+		bySize.get(1);
+		bySize.created(3, order(3));
+
+		assertNotNull(bySize.get(1));
+		assertNull(bySize.get(2));
+		assertEquals(2, bySize.size());
+		assertEquals(1, bySize.stats().evictions());
+
+		OrderCache byMemory = new OrderCache(router(1), true, 100, 1);
+		StringBuilder large = new StringBuilder(order(1));
+		while (large.length() < 300) {
+			large.append(' ');
+		}
+		byMemory.created(1, large.toString());
+		byMemory.created(2, large.toString());
+
+		assertNull(byMemory.get(1));
+		assertNotNull(byMemory.get(2));
+		assertEquals(1, byMemory.size());
+		assertTrue(byMemory.bytes() <= 1024, "bytes " + byMemory.bytes());
+	}
+
+	// a cached answer carries the order's number as its token, or the client's when that is
+	// further on in the order's partition
+	@Test
+	void cachedAnswersKeepTokensMonotonic() {
+		OrderCache cache = new OrderCache(router(2), true, 100, 1024);
+
+		assertEquals(3, cache.token(3, null));
+		assertEquals(7, cache.token(3, 7L));
+		assertEquals(3, cache.token(3, 8L));
+		assertEquals(3, cache.token(3, 1L));
+	}
+
+	@Test
+	void disabledCacheKeepsNothing() {
+		OrderCache cache = new OrderCache(router(1), false, 100, 1024);
+		cache.created(1, order(1));
+
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.stats().misses());
+	}
+
+	private static OrderRouter router(int partitions) {
+		OrderRouter router = new OrderRouter(null);
+		router.setPartitions(partitions);
+		return router;
+	}
+
+	private static String order(int number) {
+		return "{\"data\":{\"number\":" + number + ",\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":5}}";
+	}
+}
@@ -0,0 +1,195 @@
+package com.example.frontend;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.OrderPartitioning;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderRouterTests {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final List<HttpServer> replicas = new ArrayList<>();
+	private final AtomicInteger pings = new AtomicInteger();
+	private OrderRouter router;
+
+	@AfterEach
+	void stop() {
+		if (router != null) {
+			router.stop();
+		}
+		for (HttpServer replica : replicas) {
+			replica.stop(0);
+		}
+	}
+
+	@Test
+	void getLeaderReadsTheLeaseWithoutPinging() throws Exception {
+		List<String> urls = startReplicas(3);
+		router = router(urls, 1000, 3);
+		int afterElection = pings.get();
+
+		for (int i = 0; i < 10_000; i++) {
+			assertEquals(urls.get(2), router.getLeader(0));
+		}
+		// at most one heartbeat round may have run meanwhile
+		assertTrue(pings.get() - afterElection <= 3, "pings " + (pings.get() - afterElection));
+	}
+
+	@Test
+	void leaderFailureIsDetectedByHeartbeat() throws Exception {
+		List<String> urls = startReplicas(3);
+		long intervalMs = 50;
+		int threshold = 2;
+		router = router(urls, intervalMs, threshold);
+		assertEquals(urls.get(2), router.getLeader(0));
+
+		replicas.get(2).stop(0);
+		long stopped = System.nanoTime();
+		while (!urls.get(1).equals(((List<?>) router.status().get("leaders")).get(0))) {
+			assertTrue(System.nanoTime() - stopped < 5_000_000_000L, "no failover");
+			Thread.sleep(5);
+		}
+		long detectedMs = (System.nanoTime() - stopped) / 1_000_000;
+		System.out.printf("failover detected after %d ms (interval %d ms, threshold %d)%n", detectedMs, intervalMs, threshold);
+
+		assertEquals(urls.get(1), router.getLeader(0));
+		assertEquals(1L, router.status().get("failovers"));
+		assertTrue(detectedMs < intervalMs * (threshold + 2) + 300, "detected after " + detectedMs + " ms");
+	}
+
+	@Test
+	void resetLeaderElectsImmediately() throws Exception {
+		List<String> urls = startReplicas(2);
+		router = router(urls, 60_000, 3);
+		assertEquals(urls.get(1), router.getLeader(0));
+
+		replicas.get(1).stop(0);
+		router.resetLeader(0);
+		assertEquals(urls.get(0), router.getLeader(0));
+	}
+
+	// replicas that elected replica 2 are followed even though replica 3 has the highest id
+	@Test
+	void followsTheLeaderTheReplicasElected() throws Exception {
+		List<String> urls = startReplicas(3, 2);
+		router = router(urls, 60_000, 3);
+		assertEquals(urls.get(1), router.getLeader(0));
+	}
+
+	// replica i last reported sequence 10 * i; reads needing a sequence go first to the replicas
+	// that have it, the others are only tried after the leader
+	@Test
+	void readsPreferReplicasThatAppliedTheToken() throws Exception {
+		List<String> urls = startReplicas(3);
+		router = router(urls, 60_000, 3);
+
+		for (int i = 0; i < 3; i++) {
+			List<String> order = router.readReplicas(0, 15);
+			assertEquals(3, order.size());
+			assertTrue(order.subList(0, 2).containsAll(urls.subList(1, 3)), order.toString());
+			assertEquals(urls.get(0), order.get(2));
+			assertEquals(urls.get(2), router.readReplicas(0, 25).get(0));
+		}
+		// every replica takes its turn first for reads without a token
+		Set<String> first = new HashSet<>();
+		for (int i = 0; i < 3; i++) {
+			first.add(router.readReplicas(0, 0).get(0));
+		}
+		assertEquals(new HashSet<>(urls), first);
+		// nobody has 100 yet, the leader issued it
+		assertEquals(urls.get(2), router.readReplicas(0, 100).get(0));
+	}
+
+	// replicas reporting a leader per partition, replica 3 leading partition 0 and the others
+	// rotating; orders and reads of each partition follow its own leader
+	@Test
+	void followsTheLeaderOfEveryPartition() throws Exception {
+		StringBuilder partitions = new StringBuilder();
+		for (int leaderId : new int[]{3, 1, 2}) {
+			partitions.append(partitions.length() == 0 ? "" : ",")
+					.append("{\"term\":1,\"leaderId\":").append(leaderId).append(",\"lastOrder\":5}");
+		}
+		List<String> urls = new ArrayList<>();
+		for (int id = 1; id <= 3; id++) {
+			urls.add(startReplica("{\"replicaId\":" + id + ",\"status\":\"alive\",\"partitions\":[" + partitions + "]}"));
+		}
+		router = router(urls, 60_000, 3, 3);
+
+		assertEquals(urls.get(2), router.getLeader(0));
+		assertEquals(urls.get(0), router.getLeader(1));
+		assertEquals(urls.get(1), router.getLeader(2));
+		assertEquals(router.partitionOf("Stock1"), OrderPartitioning.partitionOf("Stock1", 3));
+		assertEquals(1, router.partitionOfNumber(5));
+		assertEquals(2, router.sequenceOf(5));
+		// every replica has sequence 5 of partition 1, the leader has the rest
+		assertEquals(3, router.readReplicas(1, 5).size());
+		assertEquals(urls.get(0), router.readReplicas(1, 6).get(0));
+	}
+
+	private List<String> startReplicas(int count) throws IOException {
+		return startReplicas(count, -1);
+	}
+
+	// stub order replicas with ids 1..count answering /orders/ping at sequence 10 * id, following leaderId in term 1
+	// unless it is -1
+	private List<String> startReplicas(int count, int leaderId) throws IOException {
+		List<String> urls = new ArrayList<>();
+		for (int id = 1; id <= count; id++) {
+			String election = leaderId == -1 ? "" : ",\"term\":1,\"leaderId\":" + leaderId;
+			urls.add(startReplica("{\"replicaId\":" + id + ",\"status\":\"alive\",\"lastOrder\":" + id * 10 + election + "}"));
+		}
+		return urls;
+	}
+
+	// stub order replica answering /orders/ping with the given body
+	private String startReplica(String ping) throws IOException {
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		byte[] body = ping.getBytes(StandardCharsets.UTF_8);
+		server.createContext("/orders/ping", exchange -> {
+			pings.incrementAndGet();
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.start();
+		replicas.add(server);
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	private static OrderRouter router(List<String> urls, long intervalMs, int threshold) {
+		return router(urls, intervalMs, threshold, 1);
+	}
+
+	private static OrderRouter router(List<String> urls, long intervalMs, int threshold, int partitions) {
+		HttpClientProperties properties = new HttpClientProperties();
+		HttpClientProperties.Route heartbeat = new HttpClientProperties.Route();
+		heartbeat.setReadTimeoutMs(100L);
+		properties.getRoutes().put("heartbeat", heartbeat);
+		properties.setConnectTimeoutMs(100);
+		OrderRouter router = new OrderRouter(new ServiceHttpClient(properties, new ObjectMapper()));
+		router.setReplicas(urls);
+		router.setHeartbeatIntervalMs(intervalMs);
+		router.setFailureThreshold(threshold);
+		router.setPartitions(partitions);
+		router.start();
+		return router;
+	}
+}
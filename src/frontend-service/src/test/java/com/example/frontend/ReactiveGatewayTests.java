@@ -0,0 +1,308 @@
+package com.example.frontend;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReactiveGatewayTests {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final AtomicInteger catalogFetches = new AtomicInteger();
+	private final AtomicInteger replicaReads = new AtomicInteger();
+	private volatile String bulkQuery;
+	private final ScheduledExecutorService delays = Executors.newSingleThreadScheduledExecutor();
+	private HttpServer catalog;
+	private HttpServer replica;
+	private ConfigurableApplicationContext frontend;
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	@AfterEach
+	void stop() {
+		if (frontend != null) {
+			frontend.close();
+		}
+		if (catalog != null) {
+			catalog.stop(0);
+		}
+		if (replica != null) {
+			replica.stop(0);
+		}
+		delays.shutdownNow();
+	}
+
+	// the servlet and the reactive frontend answer every endpoint the same way
+	@Test
+	void bothStacksServeTheSameApi() throws Exception {
+		startCatalog(0);
+		startReplica();
+		for (String profile : new String[]{"default", "reactive"}) {
+			catalogFetches.set(0);
+			replicaReads.set(0);
+			String url = startFrontend(profile);
+			String server = ((WebServerApplicationContext) frontend).getWebServer().getClass().getSimpleName();
+			assertEquals(profile.equals("reactive") ? "NettyWebServer" : "TomcatWebServer", server);
+
+			assertEquals("{\"name\":\"Stock1\",\"volume\":100}", get(url + "/stocks/Stock1").body());
+			assertEquals("{\"name\":\"Stock1\",\"volume\":100}", get(url + "/stocks/Stock1").body());
+			assertEquals(1, catalogFetches.get(), profile);
+			post(url + "/stocks/invalidate/Stock1", "");
+			get(url + "/stocks/Stock1");
+			assertEquals(2, catalogFetches.get(), profile);
+			assertEquals(404, get(url + "/stocks/Unknown").statusCode());
+
+			HttpResponse<String> created = post(url + "/orders", "{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":5}");
+			assertEquals(200, created.statusCode(), profile);
+			assertEquals(ORDER, created.body());
+			assertEquals("1", created.headers().firstValue("X-Order-Seq").orElse(null));
+
+			// the order just created is answered by the frontend itself
+			HttpResponse<String> order = client.send(HttpRequest.newBuilder(URI.create(url + "/orders/1"))
+					.header("X-Order-Seq", "1").build(), HttpResponse.BodyHandlers.ofString());
+			assertEquals(200, order.statusCode());
+			assertEquals(ORDER, order.body());
+			assertEquals("1", order.headers().firstValue("X-Order-Seq").orElse(null));
+			assertEquals(0, replicaReads.get(), profile);
+			// orders this frontend did not create are asked of a replica every time
+			for (int i = 0; i < 2; i++) {
+				HttpResponse<String> other = get(url + "/orders/3");
+				assertEquals(200, other.statusCode(), profile);
+				assertEquals(OTHER_ORDER, other.body());
+			}
+			assertEquals(2, replicaReads.get(), profile);
+			HttpResponse<String> unknown = get(url + "/orders/2");
+			assertEquals(404, unknown.statusCode());
+			assertEquals("{\"error\":{\"code\":404,\"message\":\"Order not found\"}}", unknown.body());
+
+			// the cache and the calls to the catalog show on the metrics endpoint
+			String metrics = get(url + "/actuator/prometheus").body();
+			assertTrue(metrics.contains("frontend_cache_requests_total{result=\"hit\"} 1.0"), profile);
+			assertTrue(metrics.contains("frontend_cache_load_seconds_count{outcome=\"not_found\"} 1"), profile);
+			assertTrue(metrics.contains("http_client_requests_seconds_count{outcome=\"SUCCESS\",route=\"catalog\""), profile);
+			assertTrue(metrics.contains("frontend_order_cache_requests_total{result=\"hit\"} 1.0"), profile);
+
+			// one catalog call for the stocks a bulk lookup does not find cached
+			assertEquals("[{\"name\":\"Stock1\",\"stock\":{\"name\":\"Stock1\",\"volume\":100}},"
+					+ "{\"name\":\"Stock2\",\"stock\":{\"name\":\"Stock2\",\"volume\":100}}]",
+					get(url + "/stocks?names=Stock1,Stock2,Unknown").body(), profile);
+			assertEquals("names=Stock2,Unknown", bulkQuery, profile);
+
+			frontend.close();
+			frontend = null;
+		}
+	}
+
+	// throughput and latency of both stacks holding many connections at once, every request a
+	// cache miss waiting 50ms on the catalog. each connection sends its next request as soon as
+	// the last one is answered. run with -Dbenchmark=true; -Dconnections=N (10000 by default)
+	// needs about four file descriptors per connection
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkStacks() throws Exception {
+		int connections = Integer.getInteger("connections", 10_000);
+		startCatalog(50);
+		startReplica();
+		for (String profile : new String[]{"default", "reactive"}) {
+			String url = startFrontend(profile);
+			load(url, connections, 3_000);
+			load(url, connections, 10_000).print(profile.equals("reactive") ? "reactive" : "servlet", connections);
+			frontend.close();
+			frontend = null;
+		}
+	}
+
+	static class Result {
+		final long[] latencies;
+		final long errors;
+		final double seconds;
+
+		Result(long[] latencies, long errors, double seconds) {
+			this.latencies = latencies;
+			this.errors = errors;
+			this.seconds = seconds;
+		}
+
+		void print(String mode, int connections) {
+			Arrays.sort(latencies);
+			System.out.printf("%-8s connections=%d requests/s=%.0f p50=%.1fms p99=%.1fms max=%.1fms errors=%d%n", mode,
+					connections, latencies.length / seconds, percentile(0.50), percentile(0.99),
+					latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6, errors);
+		}
+
+		double percentile(double p) {
+			return latencies.length == 0 ? 0 : latencies[(int) Math.min(latencies.length - 1, p * latencies.length)] / 1e6;
+		}
+	}
+
+	// connections requests in flight from a non-blocking client for durationMs
+	private static Result load(String url, int connections, long durationMs) throws Exception {
+		HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build();
+		AtomicLong names = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		long[] latencies = new long[1 << 22];
+		AtomicInteger count = new AtomicInteger();
+		CountDownLatch done = new CountDownLatch(connections);
+		long end = System.nanoTime() + durationMs * 1_000_000;
+		long start = System.nanoTime();
+		for (int c = 0; c < connections; c++) {
+			send(client, url, names, errors, latencies, count, done, end);
+		}
+		assertTrue(done.await(durationMs + 60_000, TimeUnit.MILLISECONDS));
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return new Result(Arrays.copyOf(latencies, Math.min(count.get(), latencies.length)), errors.get(), seconds);
+	}
+
+	private static void send(HttpClient client, String url, AtomicLong names, AtomicLong errors, long[] latencies,
+							 AtomicInteger count, CountDownLatch done, long end) {
+		if (System.nanoTime() - end > 0) {
+			done.countDown();
+			return;
+		}
+		HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/stocks/Stock" + names.incrementAndGet()))
+				.timeout(Duration.ofSeconds(30)).build();
+		long sent = System.nanoTime();
+		CompletableFuture<HttpResponse<String>> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+		response.whenComplete((r, e) -> {
+			if (e != null || r.statusCode() != 200) {
+				errors.incrementAndGet();
+			} else {
+				int index = count.getAndIncrement();
+				if (index < latencies.length) {
+					latencies[index] = System.nanoTime() - sent;
+				}
+			}
+			send(client, url, names, errors, latencies, count, done, end);
+		});
+	}
+
+	// catalog answering every stock but "Unknown" after delayMs, without holding a thread meanwhile
+	private void startCatalog(long delayMs) throws IOException {
+		catalog = HttpServer.create(new InetSocketAddress("localhost", 0), 16_384);
+		catalog.setExecutor(Executors.newFixedThreadPool(4));
+		catalog.createContext("/stocks/", exchange -> {
+			catalogFetches.incrementAndGet();
+			String name = exchange.getRequestURI().getPath().substring("/stocks/".length());
+			if (name.equals("Unknown")) {
+				respond(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Stock not found\"}}", null);
+			} else if (delayMs == 0) {
+				respond(exchange, 200, "{\"name\":\"" + name + "\",\"volume\":100}", null);
+			} else {
+				delays.schedule(() -> respond(exchange, 200, "{\"name\":\"" + name + "\",\"volume\":100}", null),
+						delayMs, TimeUnit.MILLISECONDS);
+			}
+		});
+		// bulk lookups, GET /stocks?names=..
+		catalog.createContext("/stocks", exchange -> {
+			bulkQuery = exchange.getRequestURI().getQuery();
+			StringBuilder body = new StringBuilder("[");
+			for (String name : bulkQuery.substring("names=".length()).split(",")) {
+				if (!name.equals("Unknown")) {
+					body.append(body.length() > 1 ? "," : "").append("{\"name\":\"").append(name)
+							.append("\",\"stock\":{\"name\":\"").append(name).append("\",\"volume\":100}}");
+				}
+			}
+			respond(exchange, 200, body.append(']').toString(), null);
+		});
+		catalog.start();
+	}
+
+	private static final String ORDER = "{\"data\":{\"number\":1,\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":5}}";
+	private static final String OTHER_ORDER = "{\"data\":{\"number\":3,\"name\":\"Stock2\",\"type\":\"sell\",\"quantity\":1}}";
+
+	// the one order replica, leading and holding order #1
+	private void startReplica() throws IOException {
+		replica = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		replica.createContext("/orders", exchange -> {
+			String path = exchange.getRequestURI().getPath();
+			if (path.equals("/orders/ping")) {
+				respond(exchange, 200, "{\"replicaId\":1,\"status\":\"alive\",\"term\":1,\"leaderId\":1,\"lastOrder\":1}", null);
+			} else if (exchange.getRequestMethod().equals("POST")) {
+				exchange.getRequestBody().readAllBytes();
+				respond(exchange, 200, ORDER, "1");
+			} else if (path.equals("/orders/1")) {
+				replicaReads.incrementAndGet();
+				respond(exchange, 200, ORDER, "1");
+			} else if (path.equals("/orders/3")) {
+				replicaReads.incrementAndGet();
+				respond(exchange, 200, OTHER_ORDER, "3");
+			} else {
+				respond(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Order not found\"}}", "1");
+			}
+		});
+		replica.start();
+	}
+
+	private static void respond(HttpExchange exchange, int status, String json, String seq) {
+		try {
+			byte[] body = json.getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			if (seq != null) {
+				exchange.getResponseHeaders().set("X-Order-Seq", seq);
+			}
+			exchange.sendResponseHeaders(status, body.length);
+			exchange.getResponseBody().write(body);
+		} catch (IOException e) {
+			// the frontend went away
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private String startFrontend(String profile) throws IOException {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		String replicaUrl = "http://localhost:" + replica.getAddress().getPort();
+		frontend = new SpringApplicationBuilder(FrontendServiceApplication.class).profiles(profile).run(
+				"--server.port=" + port,
+				"--CATALOG_URL=http://localhost:" + catalog.getAddress().getPort(),
+				"--catalog.stream.enabled=false",
+				"--order.replicas=" + replicaUrl,
+				"--server.shutdown=immediate",
+				"--server.tomcat.max-connections=20000",
+				"--server.tomcat.accept-count=16384",
+				"--http.client.connect-timeout-ms=10000",
+				"--http.client.routes.catalog.read-timeout-ms=30000",
+				"--cache.load-timeout-ms=30000",
+				"--logging.level.com.example=warn");
+		return "http://localhost:" + port;
+	}
+
+	private HttpResponse<String> get(String url) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(url)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	private HttpResponse<String> post(String url, String json) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(url)).header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+}
@@ -0,0 +1,190 @@
+package com.example.frontend;
+
+import com.example.common.ServiceThreads;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ThreadingModeTests {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private HttpServer catalog;
+	private ConfigurableApplicationContext frontend;
+
+	@AfterEach
+	void stop() {
+		if (frontend != null) {
+			frontend.close();
+		}
+		if (catalog != null) {
+			catalog.stop(0);
+		}
+	}
+
+	// the switch only takes effect on a JVM with virtual threads, requests are served either way
+	@Test
+	void virtualModeFollowsTheJavaVersion() throws Exception {
+		startCatalog(0);
+		String url = startFrontend(true);
+
+		assertEquals(Runtime.version().feature() >= 21, frontend.getBean(ServiceThreads.class).isVirtual());
+		HttpResponse<String> response = HttpClient.newHttpClient().send(
+				HttpRequest.newBuilder(URI.create(url + "/stocks/Stock1")).build(), HttpResponse.BodyHandlers.ofString());
+		assertEquals(200, response.statusCode());
+		assertEquals("{\"name\":\"Stock1\",\"volume\":100}", response.body());
+	}
+
+	// throughput and latency of cache misses at high concurrency, each waiting 50ms on the catalog,
+	// with Tomcat's 200 platform threads and then with virtual threads (skipped before Java 21);
+	// run with -Dbenchmark=true, -Dclients=N for another concurrency
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkThreadingModes() throws Exception {
+		int clients = Integer.getInteger("clients", 1000);
+		startCatalog(50);
+		for (boolean virtual : new boolean[]{false, true}) {
+			if (virtual && Runtime.version().feature() < 21) {
+				System.out.printf("virtual   skipped, Java %d has no virtual threads%n", Runtime.version().feature());
+				continue;
+			}
+			String url = startFrontend(virtual);
+			load(url, clients, 2_000);
+			load(url, clients, 10_000).print(virtual ? "virtual" : "platform", clients);
+			frontend.close();
+			frontend = null;
+		}
+	}
+
+	static class Result {
+		final long[] latencies;
+		final long errors;
+		final double seconds;
+
+		Result(long[] latencies, long errors, double seconds) {
+			this.latencies = latencies;
+			this.errors = errors;
+			this.seconds = seconds;
+		}
+
+		void print(String mode, int clients) {
+			Arrays.sort(latencies);
+			System.out.printf("%-9s clients=%d requests/s=%.0f p50=%.1fms p99=%.1fms max=%.1fms errors=%d%n", mode, clients,
+					latencies.length / seconds, percentile(0.50), percentile(0.99),
+					latencies.length == 0 ? 0 : latencies[latencies.length - 1] / 1e6, errors);
+		}
+
+		double percentile(double p) {
+			return latencies.length == 0 ? 0 : latencies[(int) Math.min(latencies.length - 1, p * latencies.length)] / 1e6;
+		}
+	}
+
+	// clients threads sending GET /stocks/{name} back to back for durationMs, names never repeat
+	// within the cache size so every request goes to the catalog
+	private static Result load(String url, int clients, long durationMs) throws Exception {
+		HttpClient client = HttpClient.newBuilder().executor(Executors.newCachedThreadPool()).build();
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		AtomicLong names = new AtomicLong();
+		AtomicLong errors = new AtomicLong();
+		long end = System.nanoTime() + durationMs * 1_000_000;
+		long start = System.nanoTime();
+		List<Future<long[]>> done = new ArrayList<>();
+		for (int c = 0; c < clients; c++) {
+			done.add(pool.submit(() -> {
+				long[] latencies = new long[256];
+				int count = 0;
+				while (System.nanoTime() < end) {
+					HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/stocks/Stock" + names.incrementAndGet())).build();
+					long sent = System.nanoTime();
+					try {
+						if (client.send(request, HttpResponse.BodyHandlers.ofString()).statusCode() != 200) {
+							errors.incrementAndGet();
+							continue;
+						}
+					} catch (Exception e) {
+						errors.incrementAndGet();
+						continue;
+					}
+					if (count == latencies.length) {
+						latencies = Arrays.copyOf(latencies, count * 2);
+					}
+					latencies[count++] = System.nanoTime() - sent;
+				}
+				return Arrays.copyOf(latencies, count);
+			}));
+		}
+		List<long[]> all = new ArrayList<>();
+		int total = 0;
+		for (Future<long[]> future : done) {
+			long[] latencies = future.get();
+			all.add(latencies);
+			total += latencies.length;
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		long[] latencies = new long[total];
+		int offset = 0;
+		for (long[] part : all) {
+			System.arraycopy(part, 0, latencies, offset, part.length);
+			offset += part.length;
+		}
+		return new Result(latencies, errors.get(), seconds);
+	}
+
+	// catalog answering every stock lookup after delayMs, on a thread per request
+	private void startCatalog(long delayMs) throws Exception {
+		catalog = HttpServer.create(new InetSocketAddress("localhost", 0), 4096);
+		catalog.setExecutor(Executors.newCachedThreadPool());
+		catalog.createContext("/stocks/", exchange -> {
+			String name = exchange.getRequestURI().getPath().substring("/stocks/".length());
+			byte[] body = ("{\"name\":\"" + name + "\",\"volume\":100}").getBytes(StandardCharsets.UTF_8);
+			try {
+				Thread.sleep(delayMs);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			exchange.getResponseHeaders().set("Content-Type", "application/json");
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		catalog.start();
+	}
+
+	private String startFrontend(boolean virtual) throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		frontend = new SpringApplicationBuilder(FrontendServiceApplication.class).run(
+				"--server.port=" + port,
+				"--CATALOG_URL=http://localhost:" + catalog.getAddress().getPort(),
+				"--catalog.stream.enabled=false",
+				"--spring.threads.virtual.enabled=" + virtual,
+				"--server.tomcat.accept-count=4096",
+				"--logging.level.com.example=warn");
+		return "http://localhost:" + port;
+	}
+}
@@ -0,0 +1,258 @@
+package com.example.loadgen;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// boots the topology (or uses a running one with --frontend-url and --catalog-url), drives it with
+// the workload, prints throughput and latency percentiles every second and for the whole run
+// after the warmup, with the hit ratios of the frontend's stock and order caches and, when the
+// order leader is killed mid-run, how long orders were unavailable. compare runs with --replicas=1 and the default 3 for
+// what replication costs an order, and --mix=trade:100 runs with --catalog-shards=1, 2 and 4 for
+// how trades scale over catalog shards
+public class LoadGenerator {
+
+    private static final String USAGE = String.join("\n",
+            "java -jar src/loadgen/target/loadgen.jar [--key=value ...]",
+            "  --mode=closed|open          closed: --clients wait for their answers, open: --rate requests/s regardless",
+            "  --clients=16 --rate=500     concurrency of the closed loop, rate of the open loop",
+            "  --max-in-flight=10000       open loop requests beyond this many unanswered count as errors",
+            "  --duration=30 --warmup=5    seconds measured, seconds run before",
+            "  --mix=lookup:70,trade:10,create:10,read:10",
+            "  --symbols=1000 --zipf=0.99  stocks drawn from, skew of their popularity (0 = uniform)",
+            "  --stock-volume=1000000      initial volume of every stock of the catalog started",
+            "  --timeout-ms=5000           per request",
+            "  --replicas=3 --partitions=1 order replicas and order partitions",
+            "  --catalog-shards=1          catalogs started, each trading its slice of the stocks",
+            "  --kill-leader-at=S          kill the leader of order partition 0 S seconds into the measurement",
+            "  --restart-after=S           start the killed replica again S seconds later",
+            "  --dir=target/loadgen-run    where the services run, log and keep their orders",
+            "  --jvm-opts='-Xmx512m'       options of every service JVM",
+            "  --catalog:key=value, --frontend:key=value, --order:key=value   service properties",
+            "  --frontend-url=U --catalog-url=U   load an already running topology instead,",
+            "                              a sharded catalog given as --catalog-url=id=U,id=U,.. like catalog.shards");
+
+    private static final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        Options options = new Options(args);
+        if (options.has("help")) {
+            System.out.println(USAGE);
+            return;
+        }
+        String mode = options.get("mode", "closed");
+        int warmup = options.getInt("warmup", 5);
+        int duration = options.getInt("duration", 30);
+        int killAt = options.getInt("kill-leader-at", -1);
+        int restartAfter = options.getInt("restart-after", -1);
+        int symbols = options.getInt("symbols", 1000);
+        double exponent = options.getDouble("zipf", 0.99);
+
+        Topology topology = null;
+        String frontendUrl = options.get("frontend-url", null);
+        List<String> catalogs = Arrays.asList(options.get("catalog-url", "http://localhost:8081").split(","));
+        if (frontendUrl == null) {
+            Path runDir = Path.of(options.get("dir", "target/loadgen-run")).toAbsolutePath();
+            List<String> jvmOptions = new ArrayList<>(Arrays.asList(options.get("jvm-opts", "-Xmx512m").trim().split("\\s+")));
+            topology = new Topology(runDir, jvmOptions);
+            System.out.printf("starting %d catalog(s), frontend and %d order replicas in %s%n",
+                    options.getInt("catalog-shards", 1), options.getInt("replicas", 3), runDir);
+            long started = System.nanoTime();
+            topology.start(options);
+            System.out.printf("topology up in %.1fs%n", (System.nanoTime() - started) / 1e9);
+            frontendUrl = topology.frontendUrl();
+            catalogs = topology.catalogShards();
+        } else if (killAt >= 0) {
+            throw new IllegalArgumentException("--kill-leader-at needs the topology started by the load generator");
+        }
+
+        Zipf zipf = new Zipf(symbols, exponent);
+        Workload workload = new Workload(frontendUrl, catalogs, options.mix("lookup:70,trade:10,create:10,read:10"),
+                zipf, options.getInt("timeout-ms", 5000));
+        System.out.printf("%s loop, %s, %d symbols with zipf %.2f (top 10 get %.0f%% of requests), %ds warmup, %ds measured%n",
+                mode, mode.equals("open") ? options.getDouble("rate", 500) + " requests/s"
+                        : options.getInt("clients", 16) + " clients",
+                symbols, exponent, 100 * zipf.topShare(10), warmup, duration);
+
+        if (mode.equals("open")) {
+            workload.startOpenLoop(options.getDouble("rate", 500), options.getInt("max-in-flight", 10_000));
+        } else if (mode.equals("closed")) {
+            workload.startClosedLoop(options.getInt("clients", 16));
+        } else {
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+
+        Map<Workload.Op, Histogram> totals = new EnumMap<>(Workload.Op.class);
+        Map<Workload.Op, long[]> outcomes = new EnumMap<>(Workload.Op.class);
+        for (Workload.Op op : Workload.Op.values()) {
+            totals.put(op, new Histogram(TimeUnit.SECONDS.toMicros(60), 3));
+            outcomes.put(op, new long[2]);
+        }
+        JsonNode cacheBefore = null;
+        JsonNode orderCacheBefore = null;
+        Topology.Service killed = null;
+        long start = System.nanoTime();
+        for (int second = 1; second <= warmup + duration; second++) {
+            long wait = start + TimeUnit.SECONDS.toNanos(second) - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+            boolean measured = second > warmup;
+            Map<Workload.Op, Histogram> interval = workload.interval();
+            StringBuilder line = new StringBuilder(String.format("%s %4ds", measured ? "   " : "(w)", second - warmup));
+            long requests = 0;
+            long errors = 0;
+            for (Workload.Op op : Workload.Op.values()) {
+                Histogram histogram = interval.get(op);
+                Workload.OpStats stats = workload.stats().get(op);
+                long opErrors = stats.errors.getAndSet(0);
+                long opRejected = stats.rejected.getAndSet(0);
+                requests += histogram.getTotalCount() + opErrors;
+                errors += opErrors;
+                if (histogram.getTotalCount() + opErrors > 0) {
+                    line.append(String.format(" | %s %d/s p99 %.1fms", op.name().toLowerCase(),
+                            histogram.getTotalCount(), histogram.getValueAtPercentile(99) / 1000.0));
+                }
+                if (measured) {
+                    totals.get(op).add(histogram);
+                    outcomes.get(op)[0] += opRejected;
+                    outcomes.get(op)[1] += opErrors;
+                }
+            }
+            System.out.println(line.append(String.format(" | %d requests, %d errors", requests, errors)));
+
+            if (second == warmup) {
+                cacheBefore = getJson(frontendUrl + "/stocks/cache/stats");
+                orderCacheBefore = getJson(frontendUrl + "/orders/cache/stats");
+            }
+            if (topology != null && killAt >= 0 && second == warmup + killAt) {
+                killed = killLeader(topology, frontendUrl, workload);
+                if (killed != null && restartAfter >= 0) {
+                    restartLater(topology, killed, restartAfter);
+                }
+            }
+        }
+        workload.stop();
+
+        report(totals, outcomes, duration);
+        System.out.println();
+        reportCache("frontend cache", cacheBefore, getJson(frontendUrl + "/stocks/cache/stats"));
+        reportCache("order cache", orderCacheBefore, getJson(frontendUrl + "/orders/cache/stats"));
+        if (killed != null) {
+            long failoverMs = workload.failoverMs();
+            System.out.printf("failover: %s killed, orders created again after %s, %d orders failed meanwhile%n",
+                    killed.name, failoverMs < 0 ? "never" : failoverMs + "ms", workload.failedDuringFailover());
+        }
+        JsonNode router = getJson(frontendUrl + "/orders/leader");
+        if (router != null) {
+            System.out.printf("router: leaders %s, %d failovers, longest %dms%n", router.path("leaders"),
+                    router.path("failovers").asLong(), router.path("maxFailoverMs").asLong());
+        }
+        if (topology != null) {
+            topology.stop();
+        }
+        System.exit(0);
+    }
+
+    private static Topology.Service killLeader(Topology topology, String frontendUrl, Workload workload) {
+        JsonNode router = getJson(frontendUrl + "/orders/leader");
+        String leaderUrl = router != null ? router.path("leaders").path(0).asText(null) : null;
+        Topology.Service leader = leaderUrl != null ? topology.replica(leaderUrl) : null;
+        if (leader == null) {
+            System.out.println("no order leader known to the frontend, nothing killed");
+            return null;
+        }
+        workload.leaderKilled();
+        topology.kill(leader);
+        System.out.printf("killed order leader %s (%s)%n", leader.name, leader.url);
+        return leader;
+    }
+
+    private static void restartLater(Topology topology, Topology.Service replica, int afterSeconds) {
+        Thread thread = new Thread(() -> {
+            try {
+                TimeUnit.SECONDS.sleep(afterSeconds);
+                long started = System.nanoTime();
+                topology.restart(replica);
+                System.out.printf("restarted %s, up in %.1fs%n", replica.name, (System.nanoTime() - started) / 1e9);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException e) {
+                if (!topology.stopped()) {
+                    System.out.println("could not restart " + replica.name + ": " + e.getMessage());
+                }
+            }
+        }, "restart-" + replica.name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void report(Map<Workload.Op, Histogram> totals, Map<Workload.Op, long[]> outcomes, int duration) {
+        System.out.printf("%n%-7s %9s %8s %8s %8s %8s %8s %9s %9s %8s%n", "op", "count", "req/s",
+                "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms", "rejected", "errors");
+        Histogram all = new Histogram(TimeUnit.SECONDS.toMicros(60), 3);
+        long rejected = 0;
+        long errors = 0;
+        for (Workload.Op op : Workload.Op.values()) {
+            Histogram histogram = totals.get(op);
+            long[] outcome = outcomes.get(op);
+            if (histogram.getTotalCount() + outcome[1] == 0) {
+                continue;
+            }
+            all.add(histogram);
+            rejected += outcome[0];
+            errors += outcome[1];
+            row(op.name().toLowerCase(), histogram, outcome[0], outcome[1], duration);
+        }
+        row("all", all, rejected, errors, duration);
+    }
+
+    private static void row(String name, Histogram histogram, long rejected, long errors, int duration) {
+        System.out.printf("%-7s %9d %8.0f %8.2f %8.2f %8.2f %8.2f %8.2f %9d %8d%n", name, histogram.getTotalCount(),
+                (double) histogram.getTotalCount() / duration,
+                histogram.getValueAtPercentile(50) / 1000.0, histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0, histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0, rejected, errors);
+    }
+
+    // hit ratio of the lookups measured, from the frontend's counters of the stock or the order
+    // cache before and after
+    private static void reportCache(String cache, JsonNode before, JsonNode after) {
+        if (before == null || after == null) {
+            return;
+        }
+        long hits = after.path("hits").asLong() - before.path("hits").asLong();
+        long misses = after.path("misses").asLong() - before.path("misses").asLong();
+        System.out.printf("%s: %d hits, %d misses, hit ratio %.3f, %d entries, %d evictions%n", cache, hits, misses,
+                hits + misses == 0 ? 0.0 : (double) hits / (hits + misses), after.path("size").asLong(),
+                after.path("evictions").asLong() - before.path("evictions").asLong());
+    }
+
+    private static JsonNode getJson(String url) {
+        try {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(5)).build(), HttpResponse.BodyHandlers.ofString());
+            return response.statusCode() == 200 ? mapper.readTree(response.body()) : null;
+        } catch (IOException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.loadgen;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// command line of the load generator, every option as --key=value; options of the form
+// --catalog:key=value, --frontend:key=value and --order:key=value are handed to that service
+// as --key=value and override its application.yml
+class Options {
+
+    static final String[] SERVICES = {"catalog", "frontend", "order"};
+
+    private final Map<String, String> values = new LinkedHashMap<>();
+    private final Map<String, List<String>> serviceArgs = new LinkedHashMap<>();
+
+    Options(String[] args) {
+        for (String service : SERVICES) {
+            serviceArgs.put(service, new ArrayList<>());
+        }
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Expected --key=value but got " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            int colon = key.indexOf(':');
+            if (colon > 0) {
+                List<String> passed = serviceArgs.get(key.substring(0, colon));
+                if (passed == null) {
+                    throw new IllegalArgumentException("Unknown service in " + arg);
+                }
+                passed.add("--" + key.substring(colon + 1) + "=" + value);
+            } else {
+                values.put(key, value);
+            }
+        }
+    }
+
+    String get(String key, String defaultValue) {
+        String value = values.get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    int getInt(String key, int defaultValue) {
+        String value = values.get(key);
+        return value != null ? Integer.parseInt(value) : defaultValue;
+    }
+
+    double getDouble(String key, double defaultValue) {
+        String value = values.get(key);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    boolean has(String key) {
+        return values.containsKey(key);
+    }
+
+    // extra arguments for every process of the service
+    List<String> serviceArgs(String service) {
+        return serviceArgs.get(service);
+    }
+
+    // weights of the operations, eg. lookup:70,trade:10,create:10,read:10
+    Map<Workload.Op, Integer> mix(String defaultValue) {
+        Map<Workload.Op, Integer> mix = new LinkedHashMap<>();
+        for (String part : get("mix", defaultValue).split(",")) {
+            String[] weight = part.split(":");
+            if (weight.length != 2) {
+                throw new IllegalArgumentException("Expected op:weight in --mix but got " + part);
+            }
+            mix.put(Workload.Op.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+        }
+        return mix;
+    }
+}
@@ -0,0 +1,311 @@
+package com.example.loadgen;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// the catalog, the frontend and the order replicas on loopback, each service in a JVM of its own
+// since every service jar brings its own application.yml and logback-spring.xml. processes run in
+// the run directory, where their logs and the order stores end up, and are killed on exit. the
+// catalog trades Stock1..StockN from a stocks.csv written there, ahead of its own on the classpath;
+// with --catalog-shards=N there are N catalogs, catalog-1..catalog-N, each trading its slice of it
+class Topology {
+
+    // a service process, restartable with the same command
+    static class Service {
+        final String name;
+        final String url;
+        final String readyPath;
+        final List<String> command;
+        final File out;
+        Process process;
+
+        Service(String name, int port, String readyPath, List<String> command, File out) {
+            this.name = name;
+            this.url = "http://localhost:" + port;
+            this.readyPath = readyPath;
+            this.command = command;
+            this.out = out;
+        }
+    }
+
+    private final Path runDir;
+    private final List<String> jvmOptions;
+    private final HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(1)).build();
+
+    private final List<Service> catalogs = new ArrayList<>();
+    private Service frontend;
+    private final List<Service> replicas = new ArrayList<>();
+    private volatile boolean stopped;
+
+    Topology(Path runDir, List<String> jvmOptions) {
+        this.runDir = runDir;
+        this.jvmOptions = jvmOptions;
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "topology-stop"));
+    }
+
+    // starts every service and waits until all of them answer; the order stores start empty
+    void start(Options options) throws IOException, InterruptedException {
+        int replicaCount = options.getInt("replicas", 3);
+        int partitions = options.getInt("partitions", 1);
+        int shardCount = options.getInt("catalog-shards", 1);
+        deleteRecursively(runDir.resolve("data"));
+        Path stocks = Files.createDirectories(runDir.resolve("catalog"));
+        writeStocks(stocks.resolve("stocks.csv"), options.getInt("symbols", 1000), options.getInt("stock-volume", 1_000_000));
+
+        int frontendPort = freePort();
+        List<String> replicaUrls = new ArrayList<>();
+        int[] replicaPorts = new int[replicaCount];
+        for (int i = 0; i < replicaCount; i++) {
+            replicaPorts[i] = freePort();
+            replicaUrls.add("http://localhost:" + replicaPorts[i]);
+        }
+        String allReplicas = String.join(",", replicaUrls);
+
+        List<String> args;
+        if (shardCount <= 1) {
+            args = new ArrayList<>();
+            args.add("--FRONTEND_URL=http://localhost:" + frontendPort);
+            catalogs.add(service("catalog", "com.example.catalog.CatalogServiceApplication", freePort(),
+                    "/stocks/Stock1", stocks.toString(), args, options.serviceArgs("catalog")));
+        } else {
+            List<String> ids = new ArrayList<>();
+            for (int i = 1; i <= shardCount; i++) {
+                ids.add("catalog-" + i);
+            }
+            for (String id : ids) {
+                args = new ArrayList<>();
+                args.add("--FRONTEND_URL=http://localhost:" + frontendPort);
+                args.add("--shard.id=" + id);
+                args.add("--shard.members=" + String.join(",", ids));
+                args.add("--journal.dir=" + runDir.resolve("data").resolve(id).toAbsolutePath());
+                // a shard may not have Stock1
+                catalogs.add(service(id, "com.example.catalog.CatalogServiceApplication", freePort(),
+                        "/actuator/health", stocks.toString(), args, options.serviceArgs("catalog")));
+            }
+        }
+
+        for (int i = 0; i < replicaCount; i++) {
+            args = new ArrayList<>();
+            args.add("--replica.id=" + (i + 1));
+            args.add("--replica.all=" + allReplicas);
+            args.add("--partitions.count=" + partitions);
+            args.add("--store.dir=" + runDir.resolve("data").resolve("order-" + (i + 1)).toAbsolutePath());
+            replicas.add(service("order-" + (i + 1), "com.example.order.OrderServiceApplication", replicaPorts[i],
+                    "/orders/ping", null, args, options.serviceArgs("order")));
+        }
+
+        args = new ArrayList<>();
+        if (shardCount <= 1) {
+            args.add("--CATALOG_URL=" + catalogs.get(0).url);
+        } else {
+            args.add("--catalog.shards=" + String.join(",", catalogShards()));
+        }
+        args.add("--order.replicas=" + allReplicas);
+        args.add("--order.partitions=" + partitions);
+        frontend = service("frontend", "com.example.frontend.FrontendServiceApplication", frontendPort,
+                "/orders/leader", null, args, options.serviceArgs("frontend"));
+
+        List<Service> all = new ArrayList<>(replicas);
+        all.addAll(catalogs);
+        all.add(frontend);
+        for (Service service : all) {
+            launch(service);
+        }
+        for (Service service : all) {
+            awaitReady(service, 180_000);
+        }
+    }
+
+    // the catalogs as id=url, as the frontend's catalog.shards lists them
+    List<String> catalogShards() {
+        List<String> shards = new ArrayList<>();
+        for (Service catalog : catalogs) {
+            shards.add(catalog.name + "=" + catalog.url);
+        }
+        return shards;
+    }
+
+    String frontendUrl() {
+        return frontend.url;
+    }
+
+    // the replica at the url, as the frontend names leaders
+    Service replica(String url) {
+        for (Service replica : replicas) {
+            if (replica.url.equals(url)) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    void kill(Service service) {
+        service.process.destroyForcibly();
+        try {
+            service.process.waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // starts a killed service again on its port with its store; returns once it answers
+    void restart(Service service) throws IOException, InterruptedException {
+        launch(service);
+        awaitReady(service, 180_000);
+    }
+
+    boolean stopped() {
+        return stopped;
+    }
+
+    void stop() {
+        stopped = true;
+        List<Service> all = new ArrayList<>(replicas);
+        all.addAll(catalogs);
+        all.add(frontend);
+        for (Service service : all) {
+            if (service != null && service.process != null) {
+                service.process.destroy();
+            }
+        }
+        for (Service service : all) {
+            if (service != null && service.process != null) {
+                try {
+                    service.process.waitFor();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    // firstEntry, if any, goes ahead of the service's own classpath
+    private Service service(String name, String mainClass, int port, String readyPath, String firstEntry,
+                            List<String> args, List<String> extraArgs) {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        // order-1 and catalog-1 run the order and catalog services
+        String classpath = classpath(name.split("-")[0] + "-service");
+        command.add(firstEntry != null ? firstEntry + File.pathSeparator + classpath : classpath);
+        command.add(mainClass);
+        command.add("--server.port=" + port);
+        command.addAll(args);
+        command.addAll(extraArgs);
+        return new Service(name, port, readyPath, command, runDir.resolve(name + ".out").toFile());
+    }
+
+    private void launch(Service service) throws IOException {
+        service.process = new ProcessBuilder(service.command)
+                .directory(runDir.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.appendTo(service.out))
+                .start();
+    }
+
+    private void awaitReady(Service service, long timeoutMs) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        HttpRequest request = HttpRequest.newBuilder(URI.create(service.url + service.readyPath))
+                .timeout(Duration.ofSeconds(2)).build();
+        while (System.currentTimeMillis() < deadline) {
+            if (!service.process.isAlive()) {
+                throw new IOException(service.name + " exited with " + service.process.exitValue() + ", see " + service.out);
+            }
+            try {
+                if (client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode() == 200) {
+                    return;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(250);
+        }
+        throw new IOException(service.name + " did not start within " + timeoutMs + "ms, see " + service.out);
+    }
+
+    // the service's own jar or classes first, the other services left out and every library kept;
+    // run from target/loadgen.jar the libraries are those copied to target/lib
+    private static String classpath(String artifact) {
+        List<String> entries = new ArrayList<>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(entry);
+            File lib = new File(new File(entry).getAbsoluteFile().getParentFile(), "lib");
+            if (entry.endsWith(".jar") && lib.isDirectory()) {
+                File[] jars = lib.listFiles((dir, file) -> file.endsWith(".jar"));
+                if (jars != null) {
+                    for (File jar : jars) {
+                        entries.add(jar.getPath());
+                    }
+                }
+            }
+        }
+        List<String> own = new ArrayList<>();
+        List<String> libraries = new ArrayList<>();
+        for (String entry : entries) {
+            String service = serviceOf(entry);
+            if (service == null) {
+                libraries.add(entry);
+            } else if (service.equals(artifact)) {
+                own.add(entry);
+            }
+        }
+        if (own.isEmpty()) {
+            throw new IllegalStateException(artifact + " is not on the classpath");
+        }
+        own.addAll(libraries);
+        return String.join(File.pathSeparator, own);
+    }
+
+    // the service an entry belongs to, its jar in a repository or target/lib or its module's classes
+    private static String serviceOf(String entry) {
+        String path = entry.replace('\\', '/');
+        for (String service : Options.SERVICES) {
+            String artifact = service + "-service";
+            String file = path.substring(path.lastIndexOf('/') + 1);
+            if (file.startsWith(artifact + "-") && file.endsWith(".jar") || path.contains("/" + artifact + "/target/")) {
+                return artifact;
+            }
+        }
+        return null;
+    }
+
+    private static void writeStocks(Path file, int symbols, long volume) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("name,volume");
+        for (int i = 1; i <= symbols; i++) {
+            lines.add("Stock" + i + "," + volume);
+        }
+        Files.write(file, lines);
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void deleteRecursively(Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.example.loadgen;
+
+import com.example.common.HashRing;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+// the requests sent to the topology and their latencies. lookups go to the frontend, trades
+// straight to the catalog (which then invalidates the frontend's cache), to the stock's shard when
+// the catalog is sharded, order creates and reads to the frontend; stock names are drawn from the zipf distribution, reads pick one of the
+// recently created orders and carry its X-Order-Seq token
+class Workload {
+
+    enum Op {
+        LOOKUP, TRADE, CREATE, READ
+    }
+
+    // latencies of one operation, in microseconds; recorders are read every interval
+    static class OpStats {
+        final Recorder recorder = new Recorder(TimeUnit.SECONDS.toMicros(60), 3);
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+
+        void record(long startNanos, int status) {
+            if (status >= 500 || status < 0) {
+                errors.incrementAndGet();
+                return;
+            }
+            if (status >= 400) {
+                // eg. a buy of more than the remaining volume, an answer nonetheless
+                rejected.incrementAndGet();
+            }
+            long micros = (System.nanoTime() - startNanos) / 1000;
+            recorder.recordValue(Math.max(1, Math.min(micros, TimeUnit.SECONDS.toMicros(60))));
+        }
+    }
+
+    private static final String SEQ_HEADER = "X-Order-Seq";
+    private static final int RECENT_ORDERS = 4096;
+
+    private final String frontendUrl;
+    // catalog urls by shard id and the ring over the ids, the frontend's catalog.shards
+    private final Map<String, String> catalogUrls = new LinkedHashMap<>();
+    private final HashRing<String> catalogRing;
+    private final Zipf zipf;
+    private final Op[] ops;
+    private final int[] cumulativeWeights;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final Map<Op, OpStats> stats = new EnumMap<>(Op.class);
+
+    // numbers and tokens of the last orders created, reads draw from them
+    private final AtomicLongArray recentNumbers = new AtomicLongArray(RECENT_ORDERS);
+    private final AtomicLongArray recentTokens = new AtomicLongArray(RECENT_ORDERS);
+    private final AtomicLong created = new AtomicLong();
+
+    // set when the order leader is killed, cleared by the first order created after it
+    private volatile long killedAt;
+    private final AtomicLong recoveredAt = new AtomicLong();
+    private final AtomicLong failedDuringFailover = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    // catalogs is the one catalog's url or its shards as id=url
+    Workload(String frontendUrl, List<String> catalogs, Map<Op, Integer> mix, Zipf zipf, long timeoutMs) {
+        this.frontendUrl = frontendUrl;
+        for (String catalog : catalogs) {
+            int eq = catalog.indexOf('=');
+            catalogUrls.put(eq < 0 ? "catalog" : catalog.substring(0, eq), catalog.substring(eq + 1));
+        }
+        this.catalogRing = new HashRing<>(new ArrayList<>(catalogUrls.keySet()), Function.identity(), 100);
+        this.zipf = zipf;
+        this.timeout = Duration.ofMillis(timeoutMs);
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5)).build();
+        ops = new Op[mix.size()];
+        cumulativeWeights = new int[mix.size()];
+        int i = 0;
+        int sum = 0;
+        for (Map.Entry<Op, Integer> weight : mix.entrySet()) {
+            sum += weight.getValue();
+            ops[i] = weight.getKey();
+            cumulativeWeights[i++] = sum;
+        }
+        if (sum <= 0) {
+            throw new IllegalArgumentException("The mix needs at least one operation with a positive weight");
+        }
+        for (Op op : Op.values()) {
+            stats.put(op, new OpStats());
+        }
+    }
+
+    Map<Op, OpStats> stats() {
+        return stats;
+    }
+
+    // closed loop: every client sends its next request once the last one is answered
+    Thread[] startClosedLoop(int clients) {
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++) {
+            threads[c] = new Thread(() -> {
+                while (running) {
+                    Op op = nextOp();
+                    long start = System.nanoTime();
+                    int status;
+                    try {
+                        HttpResponse<String> response = client.send(request(op), HttpResponse.BodyHandlers.ofString());
+                        status = answered(op, start, response);
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        status = failed(op, start);
+                    }
+                    stats.get(op).record(start, status);
+                }
+            }, "client-" + c);
+            threads[c].setDaemon(true);
+            threads[c].start();
+        }
+        return threads;
+    }
+
+    // open loop: requests go out at the given rate whether or not earlier ones were answered, and
+    // latency counts from when a request was due, so a stalled topology shows in the percentiles
+    // instead of slowing the load down; requests beyond maxInFlight count as errors
+    Thread startOpenLoop(double ratePerSecond, int maxInFlight) {
+        AtomicInteger inFlight = new AtomicInteger();
+        Thread thread = new Thread(() -> {
+            long interval = (long) (1e9 / ratePerSecond);
+            long due = System.nanoTime();
+            while (running) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                Op op = nextOp();
+                long start = due;
+                due += interval;
+                if (inFlight.get() >= maxInFlight) {
+                    stats.get(op).record(start, -1);
+                    continue;
+                }
+                inFlight.incrementAndGet();
+                CompletableFuture<HttpResponse<String>> response;
+                try {
+                    response = client.sendAsync(request(op), HttpResponse.BodyHandlers.ofString());
+                } catch (RuntimeException e) {
+                    inFlight.decrementAndGet();
+                    stats.get(op).record(start, failed(op, start));
+                    continue;
+                }
+                response.whenComplete((r, e) -> {
+                    inFlight.decrementAndGet();
+                    stats.get(op).record(start, e != null ? failed(op, start) : answered(op, start, r));
+                });
+            }
+        }, "open-loop");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    void leaderKilled() {
+        recoveredAt.set(0);
+        failedDuringFailover.set(0);
+        killedAt = System.nanoTime();
+    }
+
+    // how long after the kill the first order was created, -1 if none was
+    long failoverMs() {
+        long recovered = recoveredAt.get();
+        return recovered == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(recovered - killedAt);
+    }
+
+    long failedDuringFailover() {
+        return failedDuringFailover.get();
+    }
+
+    long created() {
+        return created.get();
+    }
+
+    // interval histograms of every operation, the recorders start over
+    Map<Op, Histogram> interval() {
+        Map<Op, Histogram> interval = new EnumMap<>(Op.class);
+        for (Map.Entry<Op, OpStats> entry : stats.entrySet()) {
+            interval.put(entry.getKey(), entry.getValue().recorder.getIntervalHistogram());
+        }
+        return interval;
+    }
+
+    private Op nextOp() {
+        int draw = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        Op op = ops[ops.length - 1];
+        for (int i = 0; i < ops.length; i++) {
+            if (draw < cumulativeWeights[i]) {
+                op = ops[i];
+                break;
+            }
+        }
+        // nothing to read before the first order, look a stock up instead
+        return op == Op.READ && created.get() == 0 ? Op.LOOKUP : op;
+    }
+
+    private HttpRequest request(Op op) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        String name = "Stock" + (zipf.next() + 1);
+        if (op == Op.READ) {
+            long count = created.get();
+            if (count > 0) {
+                int slot = (int) ((count - 1 - random.nextLong(Math.min(count, RECENT_ORDERS))) % RECENT_ORDERS);
+                long number = recentNumbers.get(slot);
+                long token = recentTokens.get(slot);
+                if (number > 0) {
+                    HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(frontendUrl + "/orders/" + number))
+                            .timeout(timeout);
+                    if (token > 0) {
+                        builder.header(SEQ_HEADER, Long.toString(token));
+                    }
+                    return builder.build();
+                }
+            }
+            op = Op.LOOKUP;
+        }
+        if (op == Op.LOOKUP) {
+            return HttpRequest.newBuilder(URI.create(frontendUrl + "/stocks/" + name)).timeout(timeout).build();
+        }
+        String type = random.nextBoolean() ? "buy" : "sell";
+        String body = "{\"name\":\"" + name + "\",\"type\":\"" + type + "\",\"quantity\":" + (1 + random.nextInt(10)) + "}";
+        String url = op == Op.TRADE ? catalogUrls.get(catalogRing.nodeFor(name)) + "/stocks/trade" : frontendUrl + "/orders";
+        return HttpRequest.newBuilder(URI.create(url)).timeout(timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body)).build();
+    }
+
+    private int answered(Op op, long start, HttpResponse<String> response) {
+        if (op == Op.CREATE) {
+            if (response.statusCode() == 200) {
+                remember(response);
+                if (killedAt != 0 && start - killedAt > 0) {
+                    recoveredAt.compareAndSet(0, System.nanoTime());
+                }
+            } else {
+                duringFailover(start);
+            }
+        }
+        return response.statusCode();
+    }
+
+    private int failed(Op op, long start) {
+        if (op == Op.CREATE) {
+            duringFailover(start);
+        }
+        return -1;
+    }
+
+    private void duringFailover(long start) {
+        if (killedAt != 0 && start - killedAt > 0 && recoveredAt.get() == 0) {
+            failedDuringFailover.incrementAndGet();
+        }
+    }
+
+    private void remember(HttpResponse<String> response) {
+        try {
+            // the replica's {"data":{"number":..}}
+            JsonNode number = mapper.readTree(response.body()).path("data").get("number");
+            if (number == null) {
+                return;
+            }
+            long token = response.headers().firstValue(SEQ_HEADER).map(Long::parseLong).orElse(0L);
+            int slot = (int) (created.getAndIncrement() % RECENT_ORDERS);
+            recentTokens.set(slot, token);
+            recentNumbers.set(slot, number.asLong());
+        } catch (Exception e) {
+            // not an order, counted by its status
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.loadgen;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+// draws ranks 0..n-1 with P(rank k) proportional to 1 / (k + 1)^exponent, so rank 0 is the most
+// popular; exponent 0 is uniform. the cumulative distribution is computed once and searched per draw
+class Zipf {
+
+    private final double[] cumulative;
+
+    Zipf(int n, double exponent) {
+        cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+    }
+
+    int next() {
+        int index = Arrays.binarySearch(cumulative, ThreadLocalRandom.current().nextDouble());
+        // not found gives -(insertion point) - 1, the first rank whose cumulative share exceeds the draw
+        return Math.min(index >= 0 ? index : -index - 1, cumulative.length - 1);
+    }
+
+    // share of all draws going to the most popular ranks
+    double topShare(int ranks) {
+        return cumulative[Math.min(ranks, cumulative.length) - 1];
+    }
+}
@@ -0,0 +1,237 @@
+package com.example.order;
+
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SequenceWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// brings the order log of a partition on a follower that fell behind up to the leader's, by
+// sequence number
+//
+// the follower asks GET /orders/log?partition=<p>&after=<its appliedSeq>&terms=<seq:term,..>, terms
+// being the first sequence of each term in its log. the leader streams from after the last entry
+// both logs hold, which is before appliedSeq if the follower got orders from an earlier leader
+// that this one never had, as NDJSON: a header line {"kind","from","to","match","term","prevTerm"},
+// then one order per line. the follower applies them as ranges sent by the leader of term (see
+// OrderLog.apply), dropping what it held after match. the leader writes the orders straight from
+// its log into the response and the follower applies them chunk orders at a time as they come in,
+// so neither side holds the transfer in memory. a follower more than snapshot-after orders behind
+// gets a snapshot instead, every order from sequence 1.
+// the leader stops sending replication batches to a follower more than stream-after orders behind
+// and only tells it where the log ends; the follower then pulls the difference here
+// built for every partition by OrderPartitions
+public class CatchUp {
+
+    private static final Logger logger = LoggerFactory.getLogger(CatchUp.class);
+
+    private final int partition;
+    private final OrderLog log;
+    private final ServiceHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final long streamAfter;
+    private final long snapshotAfter;
+    private final int chunk;
+
+    // one catch-up at a time, off the request and election threads
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    private final LongAdder logTransfers = new LongAdder();
+    private final LongAdder snapshotTransfers = new LongAdder();
+    private final LongAdder ordersReceived = new LongAdder();
+    private volatile long lastDurationMs = -1;
+
+    public CatchUp(int partition, OrderLog log, ServiceHttpClient httpClient, ObjectMapper objectMapper,
+                   long streamAfter, long snapshotAfter, int chunk) {
+        this.partition = partition;
+        this.log = log;
+        this.httpClient = httpClient;
+        this.objectMapper = objectMapper;
+        this.streamAfter = streamAfter;
+        this.snapshotAfter = snapshotAfter;
+        this.chunk = chunk;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "catch-up-" + partition);
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    // follower: whether a batch starting at from leaves a gap too large for replication batches
+    public boolean farBehind(long from) {
+        return from - 1 - log.appliedSeq() > streamAfter;
+    }
+
+    // follower: catches up from the leader in the background, unless a catch-up is running already
+    public void request(String leaderUrl) {
+        if (leaderUrl == null || !running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    catchUp(leaderUrl);
+                } catch (Exception e) {
+                    logger.warn("Failed to catch up partition {} from leader {}, {}", partition, leaderUrl, e.getMessage());
+                } finally {
+                    running.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+        }
+    }
+
+    // follower: pulls and applies everything the leader has after where their logs last match,
+    // returns the number of orders received
+    public long catchUp(String leaderUrl) throws IOException, InterruptedException {
+        long started = System.nanoTime();
+        long after = log.appliedSeq();
+        HttpResponse<InputStream> response = httpClient.stream("replica", leaderUrl + "/orders/log?partition="
+                + partition + "&after=" + after + "&terms=" + formatTerms(log.terms()));
+        long received = 0;
+        String kind;
+        try (InputStream body = response.body()) {
+            if (response.statusCode() != 200) {
+                throw new IOException("status " + response.statusCode());
+            }
+            JsonParser parser = objectMapper.getFactory().createParser(body);
+            if (parser.nextToken() == null) {
+                throw new IOException("empty response");
+            }
+            Map<?, ?> header = objectMapper.readValue(parser, Map.class);
+            parser.nextToken();
+            MappingIterator<Order> lines = objectMapper.readerFor(Order.class).readValues(parser);
+            kind = (String) header.get("kind");
+            long from = ((Number) header.get("from")).longValue();
+            long to = ((Number) header.get("to")).longValue();
+            long match = ((Number) header.get("match")).longValue();
+            // the orders this replica holds after match are not the leader's, the first range
+            // drops them
+            boolean truncate = match < after;
+            long term = ((Number) header.get("term")).longValue();
+            long prevTerm = ((Number) header.get("prevTerm")).longValue();
+            List<Order> entries = new ArrayList<>(chunk);
+            // a stream cut off halfway fails in hasNextValue(), so the last range is only
+            // marked as applied once every order of it has arrived
+            while (lines.hasNextValue()) {
+                Order entry = lines.nextValue();
+                entries.add(entry);
+                if (entries.size() == chunk) {
+                    long last = entry.getNumber();
+                    log.apply(term, from, last, prevTerm, entries, truncate);
+                    truncate = false;
+                    received += entries.size();
+                    ordersReceived.add(entries.size());
+                    from = last + 1;
+                    prevTerm = entry.getTerm();
+                    entries = new ArrayList<>(chunk);
+                }
+            }
+            log.apply(term, from, to, prevTerm, entries, truncate);
+            received += entries.size();
+            ordersReceived.add(entries.size());
+        }
+        if ("snapshot".equals(kind)) {
+            snapshotTransfers.increment();
+        } else {
+            logTransfers.increment();
+        }
+        lastDurationMs = (System.nanoTime() - started) / 1_000_000;
+        logger.info("Caught up partition {} from leader {} with {} {} orders in {} ms, applied up to #{}",
+                partition, leaderUrl, received, kind, lastDurationMs, log.appliedSeq());
+        return received;
+    }
+
+    // leader of term: writes the orders after the last one the follower's log up to `after`, as
+    // its terms, has in common with this one for GET /orders/log, or a snapshot if that is more
+    // than snapshot-after orders
+    public void write(long after, NavigableMap<Long, Long> terms, long term, OutputStream out) throws IOException {
+        long to = log.appliedSeq();
+        long match = log.lastMatch(terms, after);
+        boolean snapshot = to - match > snapshotAfter;
+        long from = snapshot ? 1 : match + 1;
+
+        Map<String, Object> header = new LinkedHashMap<>();
+        header.put("kind", snapshot ? "snapshot" : "log");
+        header.put("from", from);
+        header.put("to", to);
+        header.put("match", match);
+        header.put("term", term);
+        header.put("prevTerm", log.termAt(from - 1));
+        // flushed by the servlet output buffer as it fills, not after every order
+        SequenceWriter writer = objectMapper.writer()
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE)
+                .withRootValueSeparator("\n")
+                .writeValues(out);
+        writer.write(header);
+        long sent = 0;
+        for (long seq = from; seq <= to; seq++) {
+            Order order = log.get((int) seq);
+            if (order != null) {
+                writer.write(order);
+                sent++;
+            }
+        }
+        writer.close();
+        if (match < after) {
+            logger.info("Follower of partition {} diverged after #{}, it was at #{}", partition, match, after);
+        }
+        logger.info("Sent {} {} orders of partition {} after #{} to a follower", sent, snapshot ? "snapshot" : "log",
+                partition, match);
+    }
+
+    // terms() of a log as the terms parameter of GET /orders/log, eg. 1:65539,12:131074
+    static String formatTerms(NavigableMap<Long, Long> terms) {
+        StringBuilder formatted = new StringBuilder();
+        for (Map.Entry<Long, Long> term : terms.entrySet()) {
+            formatted.append(formatted.length() > 0 ? "," : "").append(term.getKey()).append(':').append(term.getValue());
+        }
+        return formatted.toString();
+    }
+
+    static NavigableMap<Long, Long> parseTerms(String formatted) {
+        NavigableMap<Long, Long> terms = new TreeMap<>();
+        for (String term : formatted.split(",")) {
+            int colon = term.indexOf(':');
+            if (colon > 0) {
+                terms.put(Long.parseLong(term.substring(0, colon)), Long.parseLong(term.substring(colon + 1)));
+            }
+        }
+        return terms;
+    }
+
+    // for GET /orders/replication
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", running.get());
+        status.put("logTransfers", logTransfers.sum());
+        status.put("snapshotTransfers", snapshotTransfers.sum());
+        status.put("ordersReceived", ordersReceived.sum());
+        status.put("lastDurationMs", lastDurationMs);
+        return status;
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.order;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+// orders on the heap as columns of primitives indexed by order number, lost on restart
+//
+// there is no object per order: name and type are stored as ids of interned symbols, so an order
+// costs 13 bytes (name id, quantity, term, type id) however many orders trade the same stock, and
+// get() builds the Order from its columns. columns come in pages of 64k numbers. the name column is
+// written last with release semantics and read first, so a reader that finds an order sees all of it
+public class ColumnarOrderStore implements OrderStore {
+
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // name column: 0 for a number without an order, NULL_SYMBOL for an order without a name
+    private static final int NULL_SYMBOL = -1;
+
+    // guards writes, reads go through the volatile pages and the name column
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile Page[] pages = new Page[0];
+
+    // stock names -> ids from 1; ids are looked up through the array, replaced as a whole
+    private final Map<String, Integer> nameIds = new HashMap<>();
+    private volatile String[] names = new String[1];
+
+    // order types ("buy", "sell") -> ids from 1, 0 for none
+    private final Map<String, Byte> typeIds = new HashMap<>();
+    private volatile String[] types = new String[1];
+
+    private volatile int size;
+    private volatile long maxNumber;
+    private volatile long appliedSeq;
+
+    static final class Page {
+        final AtomicIntegerArray names = new AtomicIntegerArray(PAGE_SIZE);
+        final int[] quantities = new int[PAGE_SIZE];
+        final int[] terms = new int[PAGE_SIZE];
+        final byte[] types = new byte[PAGE_SIZE];
+    }
+
+    @Override
+    public long write(List<Order> orders, long appliedSeq) {
+        lock.lock();
+        try {
+            for (Order order : orders) {
+                int number = order.getNumber();
+                Page page = page(number);
+                int slot = number & PAGE_MASK;
+                page.quantities[slot] = order.getQuantity();
+                page.terms[slot] = (int) order.getTerm();
+                page.types[slot] = typeId(order.getType());
+                if (page.names.get(slot) == 0) {
+                    size++;
+                }
+                // publishes the other columns
+                page.names.lazySet(slot, nameId(order.getName()));
+                maxNumber = Math.max(maxNumber, number);
+            }
+            this.appliedSeq = appliedSeq;
+            return 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+    }
+
+    @Override
+    public Order get(int number) {
+        Page[] current = pages;
+        int index = number >>> PAGE_BITS;
+        if (number < 0 || index >= current.length) {
+            return null;
+        }
+        Page page = current[index];
+        int slot = number & PAGE_MASK;
+        int nameId = page.names.get(slot);
+        if (nameId == 0) {
+            return null;
+        }
+        Order order = new Order(number, nameId == NULL_SYMBOL ? null : names[nameId], types[page.types[slot]],
+                page.quantities[slot]);
+        order.setTerm(page.terms[slot]);
+        return order;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long maxNumber() {
+        return maxNumber;
+    }
+
+    @Override
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    // caller holds lock
+    private Page page(int number) {
+        if (number <= 0) {
+            throw new IllegalArgumentException("Order number " + number + " cannot be stored");
+        }
+        int index = number >>> PAGE_BITS;
+        Page[] current = pages;
+        if (index >= current.length) {
+            current = Arrays.copyOf(current, index + 1);
+            for (int i = pages.length; i < current.length; i++) {
+                current[i] = new Page();
+            }
+            pages = current;
+        }
+        return current[index];
+    }
+
+    // caller holds lock
+    private int nameId(String name) {
+        if (name == null) {
+            return NULL_SYMBOL;
+        }
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.length;
+            String[] grown = Arrays.copyOf(names, id + 1);
+            grown[id] = name;
+            // before the id is handed out, so readers find it
+            names = grown;
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    // caller holds lock
+    private byte typeId(String type) {
+        if (type == null) {
+            return 0;
+        }
+        Byte id = typeIds.get(type);
+        if (id == null) {
+            if (types.length > Byte.MAX_VALUE) {
+                throw new IllegalArgumentException("Too many order types, cannot store " + type);
+            }
+            id = (byte) types.length;
+            String[] grown = Arrays.copyOf(types, id + 1);
+            grown[id] = type;
+            types = grown;
+            typeIds.put(type, id);
+        }
+        return id;
+    }
+}
@@ -0,0 +1,612 @@
+package com.example.order;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// orders in an append-only log of segment files, so they survive a restart
+//
+// every order written is appended as one record to the active segment, a memory-mapped file of
+// segment-mb; a full segment is forced to disk and the next one started. orders are read straight
+// from the mapped segments, the heap only holds an index of 8 bytes per order number (segment slot
+// and offset). concurrent writers share one fsync through group commit.
+// an order written again (eg. by catch-up after replication delivered it already) leaves a dead
+// record behind; every compact-interval-ms, full segments that are mostly dead are rewritten with
+// only their live records, the mapping of the old file is unmapped once no read is in it and its
+// slot goes to the next segment. on startup the segments are scanned in order, the last record of a
+// number wins, and the scan of a segment ends at its first torn or missing record
+//
+// <id>.log layout: records [json length, crc32, number, applied seq, json], zero-filled after
+// the last one; a record carries the applied sequence only if it ends its write, the others carry
+// the one before (or the sequence before the write's first order, if lower), so a write torn by a
+// crash never claims orders it lost; the last record recovered has the applied sequence. a write
+// without orders that moves the applied sequence (a follower dropping entries another leader never
+// had) appends a marker record of number 0, which is not indexed and goes away on compaction
+public class FileOrderStore implements OrderStore, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(FileOrderStore.class);
+
+    private static final int HEADER_BYTES = 20;
+    private static final int MARKER_NUMBER = 0;
+    private static final byte[] MARKER_JSON = {'{', '}'};
+    private static final int PAGE_BITS = 16;
+    private static final int PAGE_MASK = (1 << PAGE_BITS) - 1;
+
+    // sun.misc.Unsafe and its invokeCleaner, to unmap a replaced segment right away rather than
+    // whenever its buffer is collected; null where the JDK does not have them
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.info("Replaced order segments are unmapped by the garbage collector: {}", e.toString());
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final boolean fsync;
+    private final double compactDeadRatio;
+    private final ObjectMapper objectMapper;
+
+    // guards appends, segment changes and live byte counts
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // held by the thread currently forcing the active segment to disk
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    // segments by slot, replaced as a whole; a compacted segment moves to a new slot and its old
+    // slot is cleared, then reused by a later segment, so a reader checks the index and the slot
+    // still hold what it read from
+    private volatile Segment[] slots = new Segment[0];
+    private volatile Segment active;
+    private int activeSlot;
+
+    // order number -> (slot + 1) << 32 | offset, 0 if absent; pages of 64k numbers, replaced as a
+    // whole when one is added
+    private volatile AtomicLongArray[] index = new AtomicLongArray[0];
+
+    private volatile int size;
+    private volatile long maxNumber;
+    private volatile long appliedSeq;
+
+    // bytes appended over the lifetime of this process, and how many of them are known durable;
+    // durable is raised by the syncing thread, roll() and close(), only ever to a higher value
+    private volatile long appended;
+    private final AtomicLong durable = new AtomicLong();
+
+    private final ScheduledExecutorService compactor;
+
+    static final class Segment {
+        final long id;
+        final Path path;
+        final MappedByteBuffer buffer;
+        // guarded by lock
+        int position;
+        long liveBytes;
+        // reads in the buffer, which is only unmapped once the segment is retired and none is left
+        final AtomicInteger readers = new AtomicInteger();
+        volatile boolean retired;
+
+        Segment(long id, Path path, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.buffer = buffer;
+        }
+
+        // false once the segment is retired, it may no longer be mapped
+        boolean acquire() {
+            readers.incrementAndGet();
+            if (retired) {
+                readers.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        void release() {
+            readers.decrementAndGet();
+        }
+    }
+
+    public FileOrderStore(String dir, int segmentMb, boolean fsync, long compactIntervalMs, double compactDeadRatio,
+                          ObjectMapper objectMapper) throws IOException {
+        this.dir = Paths.get(dir);
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE, (long) segmentMb * 1024 * 1024);
+        this.fsync = fsync;
+        this.compactDeadRatio = compactDeadRatio;
+        this.objectMapper = objectMapper;
+        recover();
+        if (compactIntervalMs > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "order-store-compactor");
+                t.setDaemon(true);
+                return t;
+            });
+            compactor.scheduleWithFixedDelay(this::scheduledCompaction, compactIntervalMs, compactIntervalMs, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    @Override
+    public long write(List<Order> orders, long appliedSeq) {
+        List<byte[]> records = new ArrayList<>(orders.size());
+        for (Order order : orders) {
+            try {
+                records.add(objectMapper.writeValueAsBytes(order));
+            } catch (JsonProcessingException e) {
+                throw new IllegalArgumentException("Order #" + order.getNumber() + " cannot be stored", e);
+            }
+        }
+        lock.lock();
+        try {
+            // never past the orders before this write, in case it rewrites some the replica had applied
+            long previousApplied = records.isEmpty() ? this.appliedSeq
+                    : Math.min(this.appliedSeq, orders.get(0).getNumber() - 1);
+            for (int i = 0; i < records.size(); i++) {
+                append(orders.get(i).getNumber(), i == records.size() - 1 ? appliedSeq : previousApplied, records.get(i));
+            }
+            if (records.isEmpty() && appliedSeq != this.appliedSeq) {
+                // no order carries it, recovery would take the one of the last order written
+                append(MARKER_NUMBER, appliedSeq, MARKER_JSON);
+            }
+            this.appliedSeq = appliedSeq;
+            return appended;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // group commit: the first waiter forces the active segment for everyone who wrote before it
+    // started, the others wait for that force and only force again if it did not cover them
+    @Override
+    public void awaitDurable(long position) {
+        if (!fsync) {
+            return;
+        }
+        while (durable.get() < position) {
+            if (syncLock.tryLock()) {
+                try {
+                    if (durable.get() < position) {
+                        // earlier segments were forced when they filled up
+                        long target = appended;
+                        active.buffer.force();
+                        durable.accumulateAndGet(target, Math::max);
+                    }
+                } finally {
+                    syncLock.unlock();
+                }
+            } else {
+                syncLock.lock();
+                syncLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public Order get(int number) {
+        while (true) {
+            long location = location(number);
+            if (location == 0) {
+                return null;
+            }
+            int slot = slotOf(location);
+            Segment segment = slots[slot];
+            if (segment == null || !segment.acquire()) {
+                // compacted since the index was read
+                continue;
+            }
+            byte[] json;
+            try {
+                json = read(segment, (int) location);
+            } finally {
+                segment.release();
+            }
+            // the slot may have gone to another segment since the index was read, then what was
+            // read is not the order
+            if (json == null || slots[slot] != segment || location(number) != location) {
+                continue;
+            }
+            try {
+                return objectMapper.readValue(json, Order.class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Unreadable order #" + number + " in " + segment.path, e);
+            }
+        }
+    }
+
+    // json of the record at offset, null if there is no whole record there
+    private static byte[] read(Segment segment, int offset) {
+        MappedByteBuffer buffer = segment.buffer;
+        if (offset > buffer.capacity() - HEADER_BYTES) {
+            return null;
+        }
+        int length = buffer.getInt(offset);
+        if (length <= 0 || length > buffer.capacity() - offset - HEADER_BYTES) {
+            return null;
+        }
+        byte[] json = new byte[length];
+        buffer.get(offset + HEADER_BYTES, json);
+        return json;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long maxNumber() {
+        return maxNumber;
+    }
+
+    @Override
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    // rewrites every full segment in which at most 1 - compact-dead-ratio of the bytes are live
+    public void compact() throws IOException {
+        for (Segment segment : slots) {
+            if (segment == null || segment == active) {
+                continue;
+            }
+            boolean mostlyDead;
+            lock.lock();
+            try {
+                mostlyDead = segment.position > 0 && segment.liveBytes <= segment.position * (1 - compactDeadRatio);
+            } finally {
+                lock.unlock();
+            }
+            if (mostlyDead) {
+                compact(segment);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        lock.lock();
+        try {
+            active.buffer.force();
+            durable.accumulateAndGet(appended, Math::max);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds lock
+    private void append(int number, long appliedSeq, byte[] json) {
+        int recordBytes = HEADER_BYTES + json.length;
+        if (recordBytes > segmentBytes) {
+            throw new IllegalArgumentException("Order #" + number + " is larger than a segment");
+        }
+        if (active.position + recordBytes > active.buffer.capacity()) {
+            roll();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int position = active.position;
+        buffer.putInt(position, json.length);
+        buffer.putInt(position + 8, number);
+        buffer.putLong(position + 12, appliedSeq);
+        buffer.put(position + HEADER_BYTES, json);
+        buffer.putInt(position + 4, checksum(buffer, position, json.length));
+        active.position = position + recordBytes;
+        if (number != MARKER_NUMBER) {
+            index(number, location(activeSlot, position), recordBytes);
+        }
+        appended += recordBytes;
+    }
+
+    // seals the full active segment and starts the next one, caller holds lock
+    private void roll() {
+        active.buffer.force();
+        try {
+            Segment next = map(active.id + 1, segmentBytes);
+            activeSlot = addSlot(next);
+            active = next;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to start a new segment in " + dir, e);
+        }
+        // everything appended so far was in the segment just forced
+        durable.accumulateAndGet(appended, Math::max);
+    }
+
+    // points number at its newest record, caller holds lock
+    private void index(int number, long location, int recordBytes) {
+        int page = number >>> PAGE_BITS;
+        AtomicLongArray[] pages = index;
+        if (page >= pages.length) {
+            pages = Arrays.copyOf(pages, page + 1);
+            for (int i = index.length; i < pages.length; i++) {
+                pages[i] = new AtomicLongArray(1 << PAGE_BITS);
+            }
+            index = pages;
+        }
+        long previous = pages[page].getAndSet(number & PAGE_MASK, location);
+        if (previous == 0) {
+            size++;
+        } else {
+            Segment old = slots[slotOf(previous)];
+            old.liveBytes -= HEADER_BYTES + old.buffer.getInt((int) previous);
+        }
+        slots[slotOf(location)].liveBytes += recordBytes;
+        maxNumber = Math.max(maxNumber, number);
+    }
+
+    private long location(int number) {
+        AtomicLongArray[] pages = index;
+        int page = number >>> PAGE_BITS;
+        return number < 0 || page >= pages.length ? 0 : pages[page].get(number & PAGE_MASK);
+    }
+
+    private static long location(int slot, int offset) {
+        return (long) (slot + 1) << 32 | offset;
+    }
+
+    private static int slotOf(long location) {
+        return (int) (location >>> 32) - 1;
+    }
+
+    private int slotOf(Segment segment) {
+        Segment[] current = slots;
+        for (int slot = current.length - 1; slot >= 0; slot--) {
+            if (current[slot] == segment) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("Segment " + segment.path + " has no slot");
+    }
+
+    // the first cleared slot, or a new one; caller holds lock
+    private int addSlot(Segment segment) {
+        Segment[] current = slots;
+        for (int slot = 0; slot < current.length; slot++) {
+            if (current[slot] == null) {
+                Segment[] reused = current.clone();
+                reused[slot] = segment;
+                slots = reused;
+                return slot;
+            }
+        }
+        Segment[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[grown.length - 1] = segment;
+        slots = grown;
+        return grown.length - 1;
+    }
+
+    // caller holds lock
+    private void clearSlot(int slot) {
+        Segment[] current = slots.clone();
+        current[slot] = null;
+        slots = current;
+    }
+
+    // copies the live records of a full segment into a new file that atomically replaces it,
+    // then moves the index entries that still point at the old records over to the copies
+    private void compact(Segment segment) throws IOException {
+        int oldSlot = slotOf(segment);
+        Path tmp = segment.path.resolveSibling(segment.path.getFileName() + ".tmp");
+        List<int[]> moved = new ArrayList<>();
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            int end;
+            lock.lock();
+            try {
+                end = segment.position;
+            } finally {
+                lock.unlock();
+            }
+            int written = 0;
+            for (int position = 0; position < end; ) {
+                int number = segment.buffer.getInt(position + 8);
+                int recordBytes = HEADER_BYTES + segment.buffer.getInt(position);
+                if (location(number) == location(oldSlot, position)) {
+                    ByteBuffer record = segment.buffer.duplicate();
+                    record.limit(position + recordBytes).position(position);
+                    while (record.hasRemaining()) {
+                        out.write(record);
+                    }
+                    moved.add(new int[]{number, position, written, recordBytes});
+                    written += recordBytes;
+                }
+                position += recordBytes;
+            }
+            out.force(true);
+        }
+        if (moved.isEmpty()) {
+            // every order in it was written again later
+            Files.delete(tmp);
+            Files.delete(segment.path);
+            lock.lock();
+            try {
+                clearSlot(oldSlot);
+            } finally {
+                lock.unlock();
+            }
+            unmap(segment);
+            logger.info("Removed segment {}, none of its {} bytes were live", segment.path.getFileName(), segment.position);
+            return;
+        }
+        Files.move(tmp, segment.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Segment compacted = map(segment.id, -1);
+
+        lock.lock();
+        try {
+            int newSlot = addSlot(compacted);
+            compacted.position = compacted.buffer.capacity();
+            for (int[] record : moved) {
+                AtomicLongArray page = index[record[0] >>> PAGE_BITS];
+                // an order written again meanwhile keeps its newer record
+                if (page.compareAndSet(record[0] & PAGE_MASK, location(oldSlot, record[1]), location(newSlot, record[2]))) {
+                    compacted.liveBytes += record[3];
+                }
+            }
+            clearSlot(oldSlot);
+        } finally {
+            lock.unlock();
+        }
+        unmap(segment);
+        logger.info("Compacted segment {} from {} to {} bytes", segment.path.getFileName(), segment.position,
+                compacted.buffer.capacity());
+    }
+
+    // unmaps a segment no longer in any slot once the reads still in it are done; they are
+    // copies of a few hundred bytes, so this waits on the compactor's thread
+    private static void unmap(Segment segment) {
+        segment.retired = true;
+        while (segment.readers.get() > 0) {
+            Thread.onSpinWait();
+        }
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, segment.buffer);
+            } catch (ReflectiveOperationException e) {
+                logger.warn("Segment {} left to the garbage collector to unmap: {}", segment.path.getFileName(), e.toString());
+            }
+        }
+    }
+
+    // slots in use or free for the next segment
+    int slotCount() {
+        return slots.length;
+    }
+
+    private void scheduledCompaction() {
+        try {
+            compact();
+        } catch (Exception e) {
+            logger.error("Segment compaction failed: {}", e.getMessage());
+        }
+    }
+
+    // maps every segment in order and indexes their records; the last one becomes the active
+    // segment and is appended to after its last valid record
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        List<Long> ids = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.log*")) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    // a compaction that did not finish, the segment it copied is still in place
+                    Files.delete(file);
+                } else {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - ".log".length())));
+                }
+            }
+        }
+        Collections.sort(ids);
+        if (ids.isEmpty()) {
+            ids.add(1L);
+        }
+        lock.lock();
+        try {
+            for (int i = 0; i < ids.size(); i++) {
+                boolean last = i == ids.size() - 1;
+                Segment segment = map(ids.get(i), last ? segmentBytes : -1);
+                int slot = addSlot(segment);
+                scan(segment, slot);
+                if (last) {
+                    active = segment;
+                    activeSlot = slot;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        logger.info("Recovered {} orders from {} segments in {} in {} ms, applied up to #{}",
+                size, ids.size(), dir, (System.nanoTime() - start) / 1_000_000, appliedSeq);
+    }
+
+    // indexes the valid records of a segment, caller holds lock
+    private void scan(Segment segment, int slot) {
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        while (position + HEADER_BYTES <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > buffer.capacity() - position - HEADER_BYTES
+                    || buffer.getInt(position + 4) != checksum(buffer, position, length)) {
+                break;
+            }
+            int number = buffer.getInt(position + 8);
+            if (number != MARKER_NUMBER) {
+                index(number, location(slot, position), HEADER_BYTES + length);
+            }
+            // the last write's, lower than earlier ones where the log dropped entries
+            appliedSeq = buffer.getLong(position + 12);
+            position += HEADER_BYTES + length;
+        }
+        segment.position = position;
+    }
+
+    // maps segment id, read-write with room for at least capacity bytes, or read-only as it is if
+    // capacity is -1
+    private Segment map(long id, int capacity) throws IOException {
+        Path path = dir.resolve(String.format("%016d.log", id));
+        MappedByteBuffer buffer;
+        if (capacity < 0) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        } else {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(capacity, channel.size()));
+            }
+        }
+        return new Segment(id, path, buffer);
+    }
+
+    // crc32 of number, applied seq and json of the record at position
+    private static int checksum(MappedByteBuffer buffer, int position, int length) {
+        ByteBuffer covered = buffer.duplicate();
+        covered.limit(position + HEADER_BYTES + length).position(position + 8);
+        CRC32 crc = new CRC32();
+        crc.update(covered);
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.order;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// orders in a map on the heap, lost on restart
+public class InMemoryOrderStore implements OrderStore {
+
+    // store orders using their orderId
+    private final Map<Integer, Order> orders = new ConcurrentHashMap<>();
+
+    private volatile long maxNumber;
+    private volatile long appliedSeq;
+
+    @Override
+    public long write(List<Order> orders, long appliedSeq) {
+        for (Order order : orders) {
+            int number = order.getNumber();
+            this.orders.put(number, order);
+            maxNumber = Math.max(maxNumber, number);
+        }
+        this.appliedSeq = appliedSeq;
+        return 0;
+    }
+
+    @Override
+    public void awaitDurable(long position) {
+    }
+
+    @Override
+    public Order get(int number) {
+        return orders.get(number);
+    }
+
+    @Override
+    public int size() {
+        return orders.size();
+    }
+
+    @Override
+    public long maxNumber() {
+        return maxNumber;
+    }
+
+    @Override
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+}
@@ -0,0 +1,508 @@
+package com.example.order;
+
+import com.example.common.ServiceHttpClient;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// decides which replica leads each partition of the order keyspace, bully election with terms
+//
+// every replica pings its peers in parallel every heartbeat-interval-ms and learns their id and,
+// for every partition, its term and the leader they follow. a replica follows the leader of the
+// highest term it has seen; leadership is sticky, so a replica that comes back does not take over
+// from a live leader. once the leader has missed failure-threshold heartbeats, the live replica
+// with the most up to date log of the partition claims leadership for a new term, and the others
+// adopt it as soon as they see that term; it only claims while a majority of the replicas (itself
+// included) answer, so it has compared its log with at least one that holds every acknowledged order. the most up to date log is the one whose last order has
+// the latest term, then the longer one: a replica can hold orders a former leader never got a
+// quorum for, counting them would let it replace orders that were acknowledged.
+// orders carry the term of the leader that appended them as logTerm(): two replicas can claim the
+// same term after a partition, so it also has the leader's id (below 65536) in its low 16 bits;
+// terms are not kept over a restart, so a replica claims a term after the last one in its log. ties go to the replica ranked first for the partition: the
+// highest id for partition 0, then rotating, so with as many partitions as replicas every replica
+// leads one; a leader hands a partition back to the replica ranked first for it once that one has
+// caught up (see handOver). with a single partition this is one leader, the highest id on a cold
+// start.
+// the current role is kept in a volatile snapshot per partition so isLeader() costs one read.
+// per partition, order.election.leader.changes counts the leaders adopted and
+// order.election.duration times each election from the first missed heartbeat (or the start) to
+// the new leader; order.election.term and order.election.leader show the current term and role
+@Component
+public class LeaderElection {
+
+    private static final Logger logger = LoggerFactory.getLogger(LeaderElection.class);
+
+    private static final OrderLog.Position EMPTY_LOG = new OrderLog.Position(0, 0);
+
+    private final int replicaId;
+    private final String selfUrl;
+    private final List<String> peers = new ArrayList<>();
+    private final int partitions;
+    private final long heartbeatIntervalMs;
+    private final int failureThreshold;
+    private final ServiceHttpClient httpClient;
+
+    // immutable view of the current role in every partition, each replaced as a whole
+    private final AtomicReferenceArray<State> states;
+
+    // what each peer reported on its last ping
+    private final Map<String, PeerState> peerStates = new ConcurrentHashMap<>();
+
+    // guards role changes, reads go through the volatile states
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // heartbeats of the current leader of each partition missed in a row
+    private final AtomicIntegerArray leaderMisses;
+
+    // end of the applied log of each partition on this replica, compared between candidates; null
+    // until the partition's log is loaded
+    private final Supplier<OrderLog.Position>[] progress;
+
+    private final List<LeaderListener> listeners = new CopyOnWriteArrayList<>();
+
+    // when each partition was last seen without a live leader, 0 while it has one
+    private final AtomicLongArray leaderLostAt;
+    private final Counter[] leaderChanges;
+    private final Timer[] elections;
+
+    private final ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "leader-election");
+        t.setDaemon(true);
+        return t;
+    });
+
+    static final class State {
+        final long term;
+        final int leaderId;
+        final String leaderUrl;
+
+        State(long term, int leaderId, String leaderUrl) {
+            this.term = term;
+            this.leaderId = leaderId;
+            this.leaderUrl = leaderUrl;
+        }
+    }
+
+    // indexed by partition
+    static final class PeerState {
+        final int replicaId;
+        final long[] term;
+        final int[] leaderId;
+        final long[] lastOrder;
+        // term of the last order
+        final long[] lastTerm;
+
+        PeerState(int replicaId, long[] term, int[] leaderId, long[] lastOrder, long[] lastTerm) {
+            this.replicaId = replicaId;
+            this.term = term;
+            this.leaderId = leaderId;
+            this.lastOrder = lastOrder;
+            this.lastTerm = lastTerm;
+        }
+    }
+
+    // told about every new leader of a partition, eg. so a follower can catch up from it
+    public interface LeaderListener {
+        void leaderChanged(int partition, long term, int leaderId, String leaderUrl);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LeaderElection(@Value("${replica.id}") int replicaId,
+                          @Value("#{'${replica.all}'.split(',')}") List<String> allReplicas,
+                          @Value("${server.port}") int serverPort,
+                          @Value("${partitions.count:1}") int partitions,
+                          @Value("${election.heartbeat-interval-ms:300}") long heartbeatIntervalMs,
+                          @Value("${election.failure-threshold:3}") int failureThreshold,
+                          ServiceHttpClient httpClient, MeterRegistry registry) {
+        this.replicaId = replicaId;
+        String self = null;
+        for (String url : allReplicas) {
+            // same test as the replication loop uses to skip itself
+            if (url.contains(":" + serverPort)) {
+                self = url;
+            } else {
+                peers.add(url);
+            }
+        }
+        this.selfUrl = self;
+        this.partitions = partitions;
+        this.heartbeatIntervalMs = heartbeatIntervalMs;
+        this.failureThreshold = failureThreshold;
+        this.httpClient = httpClient;
+        this.states = new AtomicReferenceArray<>(partitions);
+        this.leaderMisses = new AtomicIntegerArray(partitions);
+        this.progress = new Supplier[partitions];
+        this.leaderLostAt = new AtomicLongArray(partitions);
+        this.leaderChanges = new Counter[partitions];
+        this.elections = new Timer[partitions];
+        for (int partition = 0; partition < partitions; partition++) {
+            states.set(partition, new State(0, -1, null));
+            int id = partition;
+            String tag = Integer.toString(partition);
+            leaderChanges[partition] = Counter.builder("order.election.leader.changes")
+                    .description("Leaders this replica adopted, itself included")
+                    .tag("partition", tag)
+                    .register(registry);
+            elections[partition] = Timer.builder("order.election.duration")
+                    .description("Time from losing the leader to adopting a new one")
+                    .tag("partition", tag)
+                    .register(registry);
+            Gauge.builder("order.election.term", this, e -> e.term(id))
+                    .tag("partition", tag)
+                    .register(registry);
+            Gauge.builder("order.election.leader", this, e -> e.isLeader(id) ? 1 : 0)
+                    .description("1 while this replica leads the partition")
+                    .tag("partition", tag)
+                    .register(registry);
+        }
+    }
+
+    // first round runs synchronously, so the replica knows its role before it serves requests
+    @PostConstruct
+    public void start() {
+        for (int partition = 0; partition < partitions; partition++) {
+            leaderLostAt.set(partition, System.nanoTime());
+        }
+        heartbeatRound();
+        heartbeat.scheduleWithFixedDelay(this::heartbeatRound, heartbeatIntervalMs, heartbeatIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    public void stop() {
+        heartbeat.shutdownNow();
+    }
+
+    public int partitions() {
+        return partitions;
+    }
+
+    public boolean isLeader(int partition) {
+        return states.get(partition).leaderId == replicaId;
+    }
+
+    public long term(int partition) {
+        return states.get(partition).term;
+    }
+
+    // term the current leader of the partition stamps its orders with
+    public long logTerm(int partition) {
+        State current = states.get(partition);
+        return logTerm(current.term, current.leaderId);
+    }
+
+    public static long logTerm(long term, int leaderId) {
+        return term << 16 | (leaderId & 0xffff);
+    }
+
+    public int leaderId(int partition) {
+        return states.get(partition).leaderId;
+    }
+
+    // url of the current leader of the partition, null while no leader is known
+    public String leaderUrl(int partition) {
+        return states.get(partition).leaderUrl;
+    }
+
+    public int replicaId() {
+        return replicaId;
+    }
+
+    public List<String> peers() {
+        return peers;
+    }
+
+    // set by the partition's order log once it is ready
+    public void setProgress(int partition, Supplier<OrderLog.Position> progress) {
+        this.progress[partition] = progress;
+    }
+
+    public void addListener(LeaderListener listener) {
+        listeners.add(listener);
+    }
+
+    // whether the peer answered the last heartbeat
+    public boolean isReachable(String url) {
+        return peerStates.containsKey(url);
+    }
+
+    // term, leader and role in every partition, reported by GET /orders/ping; the first
+    // partition's also at the top, as with a single partition
+    public Map<String, Object> describe() {
+        List<Map<String, Object>> perPartition = new ArrayList<>(partitions);
+        for (int partition = 0; partition < partitions; partition++) {
+            State current = states.get(partition);
+            Map<String, Object> description = new HashMap<>();
+            description.put("term", current.term);
+            description.put("leaderId", current.leaderId);
+            description.put("leader", current.leaderUrl);
+            description.put("role", current.leaderId == replicaId ? "leader" : "follower");
+            OrderLog.Position end = position(partition);
+            description.put("lastOrder", end.seq());
+            description.put("lastTerm", end.term());
+            perPartition.add(description);
+        }
+        Map<String, Object> description = new HashMap<>(perPartition.get(0));
+        description.put("partitions", perPartition);
+        return description;
+    }
+
+    // called with the term a leader of the partition sent along with a request
+    // returns false if the request comes from a leader that has already been replaced
+    public boolean observeLeader(int partition, long term, int leaderId, String leaderUrl) {
+        State current = states.get(partition);
+        if (term < current.term) {
+            return false;
+        }
+        if (term > current.term || leaderId > current.leaderId) {
+            adopt(partition, term, leaderId, leaderUrl);
+        }
+        return term > current.term || leaderId >= current.leaderId;
+    }
+
+    // pings every peer in parallel, then follows the newest leader or claims leadership
+    private void heartbeatRound() {
+        try {
+            List<CompletableFuture<Void>> pings = new ArrayList<>(peers.size());
+            for (String url : peers) {
+                pings.add(httpClient.getAsync("heartbeat", url + "/orders/ping")
+                        .handle((response, error) -> {
+                            record(url, response, error);
+                            return null;
+                        }));
+            }
+            CompletableFuture.allOf(pings.toArray(new CompletableFuture[0])).join();
+            for (int partition = 0; partition < partitions; partition++) {
+                decide(partition);
+            }
+        } catch (Exception e) {
+            logger.warn("Election round failed: {}", e.getMessage());
+        }
+    }
+
+    private void record(String url, HttpResponse<String> response, Throwable error) {
+        if (error == null && response.statusCode() == 200) {
+            try {
+                Map<?, ?> body = httpClient.readJson(response.body(), Map.class);
+                int id = ((Number) body.get("replicaId")).intValue();
+                List<?> reported = (List<?>) body.get("partitions");
+                if (reported == null || reported.size() != partitions) {
+                    throw new IllegalStateException("peer has " + (reported == null ? 1 : reported.size())
+                            + " partitions, not " + partitions);
+                }
+                long[] term = new long[partitions];
+                int[] leaderId = new int[partitions];
+                long[] lastOrder = new long[partitions];
+                long[] lastTerm = new long[partitions];
+                for (int partition = 0; partition < partitions; partition++) {
+                    Map<?, ?> state = (Map<?, ?>) reported.get(partition);
+                    term[partition] = state.get("term") instanceof Number ? ((Number) state.get("term")).longValue() : 0;
+                    leaderId[partition] = state.get("leaderId") instanceof Number ? ((Number) state.get("leaderId")).intValue() : -1;
+                    lastOrder[partition] = state.get("lastOrder") instanceof Number ? ((Number) state.get("lastOrder")).longValue() : 0;
+                    lastTerm[partition] = state.get("lastTerm") instanceof Number ? ((Number) state.get("lastTerm")).longValue() : 0;
+                }
+                peerStates.put(url, new PeerState(id, term, leaderId, lastOrder, lastTerm));
+                return;
+            } catch (Exception e) {
+                logger.warn("Unreadable ping from {}: {}", url, e.getMessage());
+            }
+        }
+        peerStates.remove(url);
+    }
+
+    private void decide(int partition) {
+        State current = states.get(partition);
+
+        // the newest term any live peer knows about, and who leads it
+        long newestTerm = current.term;
+        int newestLeader = current.leaderId;
+        for (PeerState peer : peerStates.values()) {
+            if (peer.term[partition] > newestTerm || (peer.term[partition] == newestTerm && peer.leaderId[partition] > newestLeader)) {
+                newestTerm = peer.term[partition];
+                newestLeader = peer.leaderId[partition];
+            }
+        }
+
+        if (newestLeader != -1 && leaderAlive(partition, newestTerm, newestLeader, current)) {
+            leaderMisses.set(partition, 0);
+            if (newestTerm != current.term || newestLeader != current.leaderId) {
+                adopt(partition, newestTerm, newestLeader, newestLeader == replicaId ? selfUrl : urlOf(newestLeader));
+                return;
+            }
+            // the leader answers again, no election this time
+            leaderLostAt.set(partition, 0);
+            if (partitions > 1 && newestLeader == replicaId) {
+                handOver(partition, current);
+            }
+            return;
+        }
+
+        // a claim is for a term after every one this replica's orders were appended in
+        long claimTerm = Math.max(newestTerm, position(partition).term() >>> 16) + 1;
+
+        // the leader handed the partition over to this replica (or named it before a restart),
+        // claim it right away rather than wait for it to be missed
+        if (newestLeader == replicaId && bestCandidate(partition)) {
+            adopt(partition, claimTerm, replicaId, selfUrl);
+            return;
+        }
+
+        // no leader, or the leader stopped answering
+        leaderLostAt.compareAndSet(partition, 0, System.nanoTime());
+        if (newestLeader != -1 && leaderMisses.incrementAndGet(partition) < failureThreshold) {
+            return;
+        }
+        if (bestCandidate(partition)) {
+            adopt(partition, claimTerm, replicaId, selfUrl);
+        }
+        // otherwise wait for the best candidate to claim the next term
+    }
+
+    // a leader is alive if it answers pings and still claims the term itself
+    private boolean leaderAlive(int partition, long term, int leaderId, State current) {
+        if (leaderId == replicaId) {
+            // only a claim made by this process counts, not one from before a restart
+            return current.leaderId == replicaId && current.term == term;
+        }
+        for (PeerState peer : peerStates.values()) {
+            if (peer.replicaId == leaderId) {
+                return peer.leaderId[partition] == leaderId && peer.term[partition] >= term;
+            }
+        }
+        return false;
+    }
+
+    // the live replica with the most up to date log of the partition leads, ties go to the one
+    // ranked first for it, so a replica that just restarted with nothing cannot take over from one
+    // that has the data
+    private boolean bestCandidate(int partition) {
+        if (progress[partition] == null) {
+            // the log is not loaded yet (the first round runs before it is), so this replica cannot
+            // tell how up to date it is nor claim a term after its entries; the next round can
+            return false;
+        }
+        // only with a majority answering: every order a quorum acknowledged is then on one of the
+        // logs compared against, so a replica that cannot see the up to date ones never claims a
+        // term and truncates those orders away on its followers
+        if (peerStates.size() + 1 < (peers.size() + 1) / 2 + 1) {
+            return false;
+        }
+        OrderLog.Position own = progress[partition].get();
+        for (PeerState peer : peerStates.values()) {
+            int compared = compare(peer, partition, own);
+            if (compared > 0 || (compared == 0 && rank(peer.replicaId, partition) > rank(replicaId, partition))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // how the peer's log of the partition compares to this replica's: the later term of the last
+    // order first, then the longer log
+    private static int compare(PeerState peer, int partition, OrderLog.Position own) {
+        if (peer.lastTerm[partition] != own.term()) {
+            return Long.compare(peer.lastTerm[partition], own.term());
+        }
+        return Long.compare(peer.lastOrder[partition], own.seq());
+    }
+
+    // with several partitions, a leader hands its partition over to the live replica ranked first
+    // for it once that one follows it and its log is as up to date, so leadership spreads out again after a
+    // cold start or a failover; it names that replica leader of the next term and stops leading,
+    // the replica then claims the term after. a single partition keeps its leader
+    private void handOver(int partition, State current) {
+        String preferredUrl = null;
+        PeerState preferred = null;
+        for (Map.Entry<String, PeerState> entry : peerStates.entrySet()) {
+            PeerState peer = entry.getValue();
+            if (rank(peer.replicaId, partition) > rank(preferred != null ? preferred.replicaId : replicaId, partition)) {
+                preferred = peer;
+                preferredUrl = entry.getKey();
+            }
+        }
+        if (preferred != null && preferred.term[partition] == current.term && preferred.leaderId[partition] == replicaId
+                && compare(preferred, partition, position(partition)) >= 0) {
+            logger.info("Replica {} hands partition {} over to replica {}", replicaId, partition, preferred.replicaId);
+            adopt(partition, current.term + 1, preferred.replicaId, preferredUrl);
+        }
+    }
+
+    private OrderLog.Position position(int partition) {
+        Supplier<OrderLog.Position> position = progress[partition];
+        return position != null ? position.get() : EMPTY_LOG;
+    }
+
+    // ids shifted by the partition around the number of replicas, highest ranks first; for
+    // partition 0 the plain id
+    private long rank(int id, int partition) {
+        int replicas = peers.size() + 1;
+        return (long) Math.floorMod(id - 1 - partition, replicas) * Integer.MAX_VALUE + id;
+    }
+
+    private void adopt(int partition, long term, int leaderId, String leaderUrl) {
+        lock.lock();
+        try {
+            State current = states.get(partition);
+            // within one term two claims can only happen after a partition, the higher id wins
+            if (term < current.term || (term == current.term && leaderId <= current.leaderId)) {
+                return;
+            }
+            states.set(partition, new State(term, leaderId, leaderUrl));
+            leaderMisses.set(partition, 0);
+            leaderChanges[partition].increment();
+            long lostAt = leaderLostAt.getAndSet(partition, 0);
+            if (lostAt != 0) {
+                elections[partition].record(System.nanoTime() - lostAt, TimeUnit.NANOSECONDS);
+            }
+            if (leaderId == replicaId) {
+                logger.info("Replica {} is the leader of partition {} for term {}", replicaId, partition, term);
+            } else {
+                logger.info("Replica {} follows leader {} of partition {} in term {}", replicaId, leaderId, partition, term);
+            }
+        } finally {
+            lock.unlock();
+        }
+        // on the election thread, so a request that carried the new term is not held up
+        heartbeat.execute(() -> {
+            for (LeaderListener listener : listeners) {
+                try {
+                    listener.leaderChanged(partition, term, leaderId, leaderUrl);
+                } catch (Exception e) {
+                    logger.warn("Leader change listener failed: {}", e.getMessage());
+                }
+            }
+        });
+    }
+
+    private String urlOf(int id) {
+        for (Map.Entry<String, PeerState> entry : peerStates.entrySet()) {
+            if (entry.getValue().replicaId == id) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+}
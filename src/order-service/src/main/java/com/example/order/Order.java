@@ -0,0 +1,71 @@
+package com.example.order;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+// one order, eg. {"number": 7, "name": "Stock1", "type": "buy", "quantity": 5}
+// the number is 0 until the leader assigns it; the term of the leader that appended it travels
+// with it between replicas and is left out of answers to clients, where it is 0
+public class Order {
+
+    private int number;
+    private String name;
+    private String type;
+    private int quantity;
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private long term;
+
+    public Order() {
+    }
+
+    public Order(int number, String name, String type, int quantity) {
+        this.number = number;
+        this.name = name;
+        this.type = type;
+        this.quantity = quantity;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public void setNumber(int number) {
+        this.number = number;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    public long getTerm() {
+        return term;
+    }
+
+    public void setTerm(long term) {
+        this.term = term;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + number + " " + type + " " + quantity + " " + name;
+    }
+}
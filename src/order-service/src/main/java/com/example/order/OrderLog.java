@@ -0,0 +1,286 @@
+package com.example.order;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// the orders of a partition on this replica, doubling as its replication log: within the log an
+// order's number is its sequence number (clients see the number OrderPartitioning derives from
+// it and the partition). appliedSeq is the highest sequence up to which this replica has every
+// entry; the leader appends right after it, followers apply ranges sent by the leader, which may
+// arrive out of order when they are pipelined.
+// every entry carries the term of the leader that appended it (see LeaderElection.logTerm), and
+// an entry at the same sequence and term is the same order on every replica, with the same entries
+// before it. a range is only
+// applied once the entry before it is the leader's, and where it holds entries of another term the
+// ones of this replica are dropped from there on, so after a failover a replica that got orders the
+// new leader never had gives them up instead of keeping them as applied.
+// orders are kept in the OrderStore, and the log picks up from what it recovered on startup;
+// append() and apply() return once their orders are durable
+public class OrderLog {
+
+    private final OrderStore store;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled whenever appliedSeq moves, for reads waiting for a sequence
+    private final Condition advanced = lock.newCondition();
+
+    // guarded by lock, published through the volatile fields
+    private volatile long appliedSeq;
+    private volatile Position position;
+    // first sequence appended in the latest term this replica led
+    private volatile long termStart;
+    // highest term a leader sent entries in
+    private long leaderTerm;
+    // ranges received ahead of appliedSeq from the leader of leaderTerm, start -> {end, term of
+    // the entry before start}
+    private final TreeMap<Long, long[]> pendingRanges = new TreeMap<>();
+
+    // the end of the applied log: its last sequence and the term of the entry there
+    public static final class Position {
+        private final long seq;
+        private final long term;
+
+        Position(long seq, long term) {
+            this.seq = seq;
+            this.term = term;
+        }
+
+        public long seq() {
+            return seq;
+        }
+
+        public long term() {
+            return term;
+        }
+    }
+
+    public OrderLog(OrderStore store) {
+        this.store = store;
+        this.appliedSeq = store.appliedSeq();
+        this.position = new Position(appliedSeq, termAt(appliedSeq));
+    }
+
+    // leader: numbers the order, stamps it with the leader's term and appends it, returns its
+    // sequence
+    public long append(Order order, long term) {
+        long seq;
+        long durable;
+        lock.lock();
+        try {
+            // right after the applied log, what this replica holds beyond it never became part of it
+            seq = appliedSeq + 1;
+            order.setNumber((int) seq);
+            order.setTerm(term);
+            durable = store.write(Collections.singletonList(order), seq);
+            if (position.term != term) {
+                termStart = seq;
+            }
+            leaderTerm = Math.max(leaderTerm, term);
+            pendingRanges.clear();
+            advance(seq, term);
+        } finally {
+            lock.unlock();
+        }
+        // outside the lock, so concurrent appends share one sync
+        store.awaitDurable(durable);
+        return seq;
+    }
+
+    // follower: stores the entries of the range from..to sent by the leader of term, prevTerm being
+    // the term of the leader's entry before from; returns the end of the applied log.
+    // a range whose previous entry differs from this replica's is not taken, and one that starts
+    // ahead of appliedSeq waits for the entries before it. if truncate is set the leader's log ends
+    // at to as far as this replica knows, so anything applied beyond it is dropped as well.
+    // an empty range (to < from) only asks for the end of the log
+    public Position apply(long term, long from, long to, long prevTerm, List<Order> entries, boolean truncate) {
+        Position applied;
+        long durable;
+        lock.lock();
+        try {
+            if (term < leaderTerm) {
+                // from a leader that has been replaced since
+                return position;
+            }
+            if (term > leaderTerm) {
+                // ranges still waiting came from the previous leader and may not be on this one's log
+                leaderTerm = term;
+                pendingRanges.clear();
+            }
+            long seq = appliedSeq;
+            long prev = from - 1;
+            boolean conflict = false;
+            if (prev > seq) {
+                if (to >= from) {
+                    pendingRanges.merge(from, new long[]{to, prevTerm}, (a, b) -> a[0] >= b[0] ? a : b);
+                }
+            } else if (termAt(prev) != prevTerm) {
+                // this replica diverged from the leader before the range, the leader looks for
+                // where their logs last match and sends from there
+                return position;
+            } else {
+                conflict = truncate;
+                for (int i = 0; i < entries.size() && !conflict; i++) {
+                    Order entry = entries.get(i);
+                    conflict = entry.getNumber() <= seq && termAt(entry.getNumber()) != entry.getTerm();
+                }
+                // on a conflict, this replica's entries after the range are not the leader's either
+                seq = conflict ? Math.max(prev, to) : Math.max(seq, to);
+                while (!pendingRanges.isEmpty() && pendingRanges.firstKey() <= seq + 1) {
+                    Map.Entry<Long, long[]> range = pendingRanges.pollFirstEntry();
+                    if (range.getValue()[0] > seq && termAt(range.getKey() - 1, from, entries) == range.getValue()[1]) {
+                        seq = range.getValue()[0];
+                    }
+                }
+            }
+            durable = store.write(entries, seq);
+            if (seq != appliedSeq || conflict) {
+                // only once the entries are readable, a read waiting for them may go ahead right away
+                advance(seq, termAt(seq));
+            }
+            applied = position;
+        } finally {
+            lock.unlock();
+        }
+        // the leader counts the follower as holding what it answers, which may include entries
+        // another call wrote just before
+        store.awaitDurable(durable);
+        return applied;
+    }
+
+    // the order at number, if this replica has applied the log up to it
+    public Order get(int number) {
+        return number <= appliedSeq ? store.get(number) : null;
+    }
+
+    // entries from..to that exist, in order
+    public List<Order> range(long from, long to) {
+        List<Order> entries = new ArrayList<>((int) Math.max(0, to - from + 1));
+        for (long seq = from; seq <= to; seq++) {
+            Order order = get((int) seq);
+            if (order != null) {
+                entries.add(order);
+            }
+        }
+        return entries;
+    }
+
+    // term of the entry at seq, 0 before the first entry or where there is none
+    public long termAt(long seq) {
+        Order order = seq > 0 ? store.get((int) seq) : null;
+        return order != null ? order.getTerm() : 0;
+    }
+
+    // whether the applied log holds the entry of term at seq, and so everything before it the
+    // other replica has
+    public boolean holds(long seq, long term) {
+        return seq <= appliedSeq && termAt(seq) == term;
+    }
+
+    // the applied log as the first sequence of each term in it, as a follower sends it to the
+    // leader to find where their logs last match; terms only grow along a log, so each boundary
+    // is a binary search
+    public NavigableMap<Long, Long> terms() {
+        NavigableMap<Long, Long> terms = new TreeMap<>();
+        lock.lock();
+        try {
+            long seq = 1;
+            while (seq <= appliedSeq) {
+                long term = termAt(seq);
+                terms.put(seq, term);
+                long last = seq;
+                long high = appliedSeq;
+                while (last < high) {
+                    long mid = (last + high + 1) >>> 1;
+                    if (termAt(mid) == term) {
+                        last = mid;
+                    } else {
+                        high = mid - 1;
+                    }
+                }
+                seq = last + 1;
+            }
+        } finally {
+            lock.unlock();
+        }
+        return terms;
+    }
+
+    // the last sequence at which another replica's log, given as its terms() up to its appliedSeq
+    // of applied, holds the same entry as this one; logs that match somewhere match everywhere
+    // before, so it is a binary search
+    public long lastMatch(NavigableMap<Long, Long> terms, long applied) {
+        long low = 0;
+        long high = Math.min(applied, appliedSeq);
+        while (low < high) {
+            long mid = (low + high + 1) >>> 1;
+            Map.Entry<Long, Long> term = terms.floorEntry(mid);
+            if ((term != null ? term.getValue() : 0) == termAt(mid)) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    public int size() {
+        return store.size();
+    }
+
+    public long appliedSeq() {
+        return appliedSeq;
+    }
+
+    public Position position() {
+        return position;
+    }
+
+    // first sequence appended in the latest term this replica led
+    public long termStart() {
+        return termStart;
+    }
+
+    // waits up to timeoutMs for this replica to have applied everything up to seq
+    // returns false if it still has not
+    public boolean awaitApplied(long seq, long timeoutMs) throws InterruptedException {
+        if (appliedSeq >= seq) {
+            return true;
+        }
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        lock.lock();
+        try {
+            while (appliedSeq < seq) {
+                if (remaining <= 0) {
+                    return false;
+                }
+                remaining = advanced.awaitNanos(remaining);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // caller holds lock
+    private void advance(long seq, long term) {
+        appliedSeq = seq;
+        position = new Position(seq, term);
+        advanced.signalAll();
+    }
+
+    // term at seq, from the entries being applied from `from` on if it is one of them
+    private long termAt(long seq, long from, List<Order> entries) {
+        long index = seq - from;
+        if (index >= 0 && index < entries.size() && entries.get((int) index).getNumber() == seq) {
+            return entries.get((int) index).getTerm();
+        }
+        return termAt(seq);
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.order;
+
+// one replication group of the order keyspace on this replica: its orders, the replication to
+// its followers while this replica leads it and the catch-up while it follows
+public class OrderPartition {
+
+    private final int id;
+    private final OrderStore store;
+    private final OrderLog log;
+    private final Replicator replicator;
+    private final CatchUp catchUp;
+
+    public OrderPartition(int id, OrderStore store, OrderLog log, Replicator replicator, CatchUp catchUp) {
+        this.id = id;
+        this.store = store;
+        this.log = log;
+        this.replicator = replicator;
+        this.catchUp = catchUp;
+    }
+
+    public int id() {
+        return id;
+    }
+
+    public OrderStore store() {
+        return store;
+    }
+
+    public OrderLog log() {
+        return log;
+    }
+
+    public Replicator replicator() {
+        return replicator;
+    }
+
+    public CatchUp catchUp() {
+        return catchUp;
+    }
+}
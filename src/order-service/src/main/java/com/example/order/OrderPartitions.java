@@ -0,0 +1,117 @@
+package com.example.order;
+
+import com.example.common.OrderPartitioning;
+import com.example.common.ServiceHttpClient;
+import com.example.common.ServiceThreads;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// the partitions of the order keyspace, split by stock symbol (see OrderPartitioning)
+//
+// every replica holds every partition; each is a replication group of its own, with its own
+// leader (see LeaderElection), log, store, replication and catch-up, so orders for stocks of
+// different partitions are numbered, stored and replicated independently by different leaders.
+// partitions.count must be the same on every replica and the frontend
+@Component
+public class OrderPartitions {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderPartitions.class);
+
+    private final LeaderElection election;
+    private final OrderPartition[] partitions;
+
+    public OrderPartitions(LeaderElection election, OrderStoreFactory stores, ServiceHttpClient httpClient,
+                           ObjectMapper objectMapper, ServiceThreads threads, MeterRegistry registry,
+                           @Value("${replication.quorum:0}") int quorum,
+                           @Value("${replication.max-batch:256}") int maxBatch,
+                           @Value("${replication.pipeline-depth:4}") int pipelineDepth,
+                           @Value("${replication.max-backoff-ms:1000}") long maxBackoffMs,
+                           @Value("${catchup.stream-after:1024}") long streamAfter,
+                           @Value("${catchup.snapshot-after:100000}") long snapshotAfter,
+                           @Value("${catchup.chunk:1000}") int chunk,
+                           @Value("${catchup.probe-interval-ms:100}") long probeIntervalMs) throws IOException {
+        this.election = election;
+        this.partitions = new OrderPartition[election.partitions()];
+        for (int id = 0; id < partitions.length; id++) {
+            OrderStore store = stores.create(id, partitions.length);
+            OrderLog log = new OrderLog(store);
+            Replicator replicator = new Replicator(id, log, election, httpClient, threads, quorum, maxBatch,
+                    pipelineDepth, maxBackoffMs, streamAfter, probeIntervalMs, registry);
+            CatchUp catchUp = new CatchUp(id, log, httpClient, objectMapper, streamAfter, snapshotAfter, chunk);
+            partitions[id] = new OrderPartition(id, store, log, replicator, catchUp);
+            election.setProgress(id, log::position);
+        }
+    }
+
+    // starts replicating, and as a follower catches up with the leader of every partition,
+    // again whenever this replica starts following a new leader
+    @PostConstruct
+    public void start() {
+        logger.info("Replica {} holds {} order partitions", election.replicaId(), partitions.length);
+        for (OrderPartition partition : partitions) {
+            partition.replicator().start();
+        }
+        election.addListener((partition, term, leaderId, leaderUrl) -> {
+            if (leaderId != election.replicaId()) {
+                partitions[partition].catchUp().request(leaderUrl);
+            }
+        });
+        for (OrderPartition partition : partitions) {
+            if (!election.isLeader(partition.id())) {
+                partition.catchUp().request(election.leaderUrl(partition.id()));
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        for (OrderPartition partition : partitions) {
+            partition.replicator().stop();
+            partition.catchUp().stop();
+            if (partition.store() instanceof Closeable) {
+                try {
+                    ((Closeable) partition.store()).close();
+                } catch (IOException e) {
+                    logger.warn("Failed to close the order store of partition {}: {}", partition.id(), e.getMessage());
+                }
+            }
+        }
+    }
+
+    public int count() {
+        return partitions.length;
+    }
+
+    public OrderPartition get(int partition) {
+        return partitions[partition];
+    }
+
+    // partition taking the orders for a stock
+    public OrderPartition forSymbol(String symbol) {
+        return partitions[OrderPartitioning.partitionOf(symbol, partitions.length)];
+    }
+
+    // partition that numbered an order
+    public OrderPartition forNumber(long number) {
+        return partitions[OrderPartitioning.partitionOfNumber(number, partitions.length)];
+    }
+
+    // order number clients see for a sequence of a partition
+    public long numberOf(OrderPartition partition, long seq) {
+        return OrderPartitioning.numberOf(seq, partition.id(), partitions.length);
+    }
+
+    // sequence of an order number in its partition
+    public long sequenceOf(long number) {
+        return OrderPartitioning.sequenceOf(number, partitions.length);
+    }
+}
@@ -1,124 +1,203 @@
 package com.example.order;
 
+import com.example.common.LogSampler;
+import com.example.common.ServiceHttpClient;
 import jakarta.annotation.PostConstruct;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Map;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 // controller for handling order creation, retrieval, replication
-// also sync among replicated OrderService instances
+// also catch-up among replicated OrderService instances
+// orders are partitioned by stock symbol, each partition led by its own replica: a new order is
+// taken by the leader of its stock's partition, replication and catch-up name the partition, and
+// an order number tells which partition to read it from
+// every replica serves reads; a write answers its number in the X-Order-Seq header and a read
+// presenting that token is only served by a replica that has applied the order's partition up to it
 @RestController
 @RequestMapping("/orders")
 public class OrderServiceController {
 
-    // store orders using their orderId
-    private final Map<Integer, Map<String, Object>> orders = new ConcurrentHashMap<>();
+    // orders of this replica by partition, numbered by the partitions' leaders
+    private final OrderPartitions partitions;
+
+    // how long createOrder waits for a quorum to hold the order
+    private final long ackTimeoutMs;
 
-    // counter to assign unique IDs to new orders
-    private final AtomicInteger orderCounter = new AtomicInteger(1);
     private static final Logger logger = LoggerFactory.getLogger(OrderServiceController.class);
 
+    // per-order debug lines are only written for a sample of the orders
+    private final LogSampler sampler;
+
     // replica ID get via application.properties
     @Value("${replica.id}")
     private int replicaId;
 
-    // list of all replica urls for leader detection and replication
-    @Value("#{'${replica.all}'.split(',')}")
-    private List<String> allReplicas;
+    // who leads each partition, checked locally on every write
+    private final LeaderElection election;
 
-    // current server port
-    // need this to avoid self-replication
-    @Value("${server.port}")
-    private int serverPort;
+    // forwards reads this replica is not caught up for to the leader
+    private final ServiceHttpClient httpClient;
 
-    // helper function for retrieving port
-    private int getServerPort() {
-        return serverPort;
-    }
+    // how long a read waits for this replica to reach its token before it is forwarded
+    private final long readWaitMs;
+
+    static final String SEQ_HEADER = "X-Order-Seq";
+    static final String FORWARDED_HEADER = "X-Forwarded-By";
 
-    // for HTTP requests to other replicas
-    private final RestTemplate restTemplate = new RestTemplate();
+    public OrderServiceController(LeaderElection election, OrderPartitions partitions, ServiceHttpClient httpClient,
+                                  @Value("${replication.ack-timeout-ms:2000}") long ackTimeoutMs,
+                                  @Value("${reads.max-wait-ms:50}") long readWaitMs, LogSampler sampler) {
+        this.election = election;
+        this.sampler = sampler;
+        this.partitions = partitions;
+        this.httpClient = httpClient;
+        this.ackTimeoutMs = ackTimeoutMs;
+        this.readWaitMs = readWaitMs;
+    }
 
-    // log replica ID and if it is a follower, sync orders from leader
+    // log replica ID
     @PostConstruct
     public void init() {
         logger.info("Replica started with ID: {}", replicaId);
-        syncWithLeader();
     }
 
 
     // create new order with its ID
-    // if the replica is leader, replicate the order to followers
+    // only the leader of the stock's partition accepts the order, another replica answers 409 with
+    // that leader in the X-Leader header; the order is acknowledged once a quorum of replicas holds
+    // it, along with its number as the token for reading it back
     @PostMapping
-    public ResponseEntity<?> createOrder(@RequestBody Map<String, Object> order) {
-        int orderId = orderCounter.getAndIncrement();
-        order.put("number", orderId);
-        orders.put(orderId, order);
-        logger.info("Order created: {}", order);
-
-        // find leader
-        int currentLeaderId = -1;
-        String currentLeaderUrl = null;
-
-        for (String url : allReplicas) {
-            try {
-                Map<?, ?> res = restTemplate.getForObject(url + "/orders/ping", Map.class);
-                int id = ((Number) res.get("replicaId")).intValue();
-                if (id > currentLeaderId) {
-                    currentLeaderId = id;
-                    currentLeaderUrl = url;
-                }
-            } catch (Exception e) {
-                logger.warn("Replica unreachable: {}", url);
-            }
+    public ResponseEntity<?> createOrder(@RequestBody Order order) throws InterruptedException {
+        OrderPartition partition = partitions.forSymbol(order.getName());
+        if (!election.isLeader(partition.id())) {
+            return notLeader(partition.id());
+        }
+        long seq = partition.log().append(order, election.logTerm(partition.id()));
+        long number = partitions.numberOf(partition, seq);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Order created in partition {}: {}", partition.id(), order);
         }
+        partition.replicator().replicate();
 
-        // leader alone should replicate to others
-        if (replicaId == currentLeaderId) {
-            logger.info("This replica (ID {}) is the leader. Propagating order.", replicaId);
-            for (String url : allReplicas) {
-                if (!url.contains(":" + getServerPort())) {  // to avoid self-propagation
-                    try {
-                        restTemplate.postForEntity(url + "/orders/replicate", order, String.class);
-                        logger.info("Replicated to {}", url);
-                    } catch (Exception e) {
-                        logger.warn("Failed to replicate to {}: {}", url, e.getMessage());
-                    }
-                }
-            }
-        } else {
-            logger.info("This replica (ID {}) is not the leader (ID {}). Skipping propagation.", replicaId, currentLeaderId);
+        if (!partition.replicator().awaitCommit(seq, ackTimeoutMs)) {
+            logger.warn("Order #{} not replicated to a quorum of {} within {} ms", number,
+                    partition.replicator().quorum(), ackTimeoutMs);
+            Map<String, Object> error = new HashMap<>();
+            error.put("code", 503);
+            error.put("message", "Order not replicated to a quorum of replicas");
+
+            Map<String, Object> response = new HashMap<>();
+            response.put("error", error);
+            return ResponseEntity.status(503).body(response);
         }
 
         Map<String, Object> response = new HashMap<>();
-        response.put("data", order);
+        response.put("data", numbered(order, number));
+
+        return ResponseEntity.ok().header(SEQ_HEADER, Long.toString(number)).body(response);
+    }
 
+    // leader of a partition sends batches of consecutive orders here, answers the sequence this
+    // replica now has everything of the partition up to and the term of the order there; the
+    // answer to an empty batch also carries the first sequence of each term in this replica's log
+    // API endpoint is POST /orders/replicate/batch
+    @PostMapping("/replicate/batch")
+    public ResponseEntity<?> replicateBatch(@RequestBody ReplicationBatch batch) {
+        if (batch.getPartition() < 0 || batch.getPartition() >= partitions.count()) {
+            return unknownPartition(batch.getPartition());
+        }
+        // the term lets followers reject a leader that has been replaced in the meantime
+        if (!election.observeLeader(batch.getPartition(), batch.getTerm(), batch.getLeaderId(), batch.getLeader())) {
+            logger.warn("Rejected batch from stale leader {} of partition {} in term {}", batch.getLeaderId(),
+                    batch.getPartition(), batch.getTerm());
+            return notLeader(batch.getPartition());
+        }
+        OrderPartition partition = partitions.get(batch.getPartition());
+        OrderLog.Position applied = partition.log().apply(LeaderElection.logTerm(batch.getTerm(), batch.getLeaderId()),
+                batch.getFrom(), batch.getTo(), batch.getPrevTerm(), batch.getEntries(), batch.isTruncate());
+        if (partition.catchUp().farBehind(batch.getFrom())) {
+            // too far behind for batches, pull the missing orders from the leader
+            partition.catchUp().request(batch.getLeader());
+        }
+        if (!batch.getEntries().isEmpty() && logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Replicated orders #{} to #{} of partition {}", batch.getFrom(), batch.getTo(), partition.id());
+        }
+        Map<String, Object> response = new HashMap<>();
+        response.put("applied", applied.seq());
+        response.put("term", applied.term());
+        if (batch.getEntries().isEmpty()) {
+            response.put("terms", partition.log().terms());
+        }
         return ResponseEntity.ok(response);
     }
 
-    // leader will use this to replicate order to follower
-    // API endpoint is POST /orders/replicate
+    // single order from the leader, numbered by its sequence in the partition, with the term of
+    // the leader's order before it in X-Prev-Term
+    // API endpoint is POST /orders/replicate?partition=<p>
     @PostMapping("/replicate")
-    public ResponseEntity<?> replicateOrder(@RequestBody Map<String, Object> order) {
-        int orderId = (int) order.get("number");
-        orders.put(orderId, order);
-        logger.info("Order replicated: {}", order);
+    public ResponseEntity<?> replicateOrder(@RequestBody Order order,
+                                            @RequestParam(value = "partition", defaultValue = "0") int partitionId,
+                                            @RequestHeader(value = "X-Leader-Term", required = false) Long term,
+                                            @RequestHeader(value = "X-Leader-Id", required = false) Integer leaderId,
+                                            @RequestHeader(value = "X-Leader", required = false) String leaderUrl,
+                                            @RequestHeader(value = "X-Prev-Term", defaultValue = "0") long prevTerm) {
+        if (partitionId < 0 || partitionId >= partitions.count()) {
+            return unknownPartition(partitionId);
+        }
+        if (term != null && leaderId != null && !election.observeLeader(partitionId, term, leaderId, leaderUrl)) {
+            logger.warn("Rejected order from stale leader {} of partition {} in term {}", leaderId, partitionId, term);
+            return notLeader(partitionId);
+        }
+        int seq = order.getNumber();
+        long logTerm = term != null && leaderId != null ? LeaderElection.logTerm(term, leaderId) : 0;
+        partitions.get(partitionId).log().apply(logTerm, seq, seq, prevTerm, Collections.singletonList(order), false);
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Order replicated to partition {}: {}", partitionId, order);
+        }
         return ResponseEntity.ok().build();
     }
 
-    // retrieve order by ID. API endpoint is GET /orders/<orderId>
+    // retrieve order by ID, on any replica. API endpoint is GET /orders/<orderId>
+    // with an X-Order-Seq token from the same partition, waits up to readWaitMs for this replica to
+    // apply the partition up to it and forwards the read to the partition's leader if it does not;
+    // the answer carries the last order number the serving replica had applied in the partition,
+    // so later reads never go back in time
     @GetMapping("/{orderId}")
-    public ResponseEntity<?> getOrder(@PathVariable("orderId") int orderId) {
-        if (!orders.containsKey(orderId)) {
+    public ResponseEntity<?> getOrder(@PathVariable("orderId") int orderId,
+                                      @RequestHeader(value = SEQ_HEADER, required = false) Long token,
+                                      @RequestHeader(value = FORWARDED_HEADER, required = false) Integer forwardedBy)
+            throws InterruptedException {
+        OrderPartition partition = partitions.forNumber(orderId);
+        OrderLog log = partition.log();
+        // a token of another partition says nothing about this one
+        long minSeq = token != null && partitions.forNumber(token) == partition ? partitions.sequenceOf(token) : 0;
+        if (minSeq > 0 && !log.awaitApplied(minSeq, readWaitMs)) {
+            String leaderUrl = election.leaderUrl(partition.id());
+            // a forwarded read is not forwarded again, replicas may disagree on the leader for a while
+            if (forwardedBy == null && !election.isLeader(partition.id()) && leaderUrl != null) {
+                return forwardRead(leaderUrl, orderId, token);
+            }
+            logger.warn("Order #{} read at #{}, replica is at sequence {} of partition {}", orderId, token,
+                    log.appliedSeq(), partition.id());
+            return notCaughtUp(partition, token);
+        }
+        // read before the order, so the token never claims more than this read saw
+        String applied = Long.toString(partitions.numberOf(partition, log.appliedSeq()));
+        Order order = orderId > 0 ? log.get((int) partitions.sequenceOf(orderId)) : null;
+        if (order == null) {
             Map<String, Object> error = new HashMap<>();
             error.put("code", 404);
             error.put("message", "Order not found");
@@ -126,13 +205,15 @@ public class OrderServiceController {
             Map<String, Object> response = new HashMap<>();
             response.put("error", error);
             logger.warn("Order not found: {}", orderId);
-            return ResponseEntity.status(404).body(response);
+            return ResponseEntity.status(404).header(SEQ_HEADER, applied).body(response);
         }
 
         Map<String, Object> response = new HashMap<>();
-        response.put("data", orders.get(orderId));
-        logger.info("Found order #{}: {}", orderId, orders.get(orderId));
-        return ResponseEntity.ok(response);
+        response.put("data", numbered(order, orderId));
+        if (logger.isDebugEnabled() && sampler.sample()) {
+            logger.debug("Found order #{}: {}", orderId, order);
+        }
+        return ResponseEntity.ok().header(SEQ_HEADER, applied).body(response);
     }
 
 
@@ -143,54 +224,104 @@ public class OrderServiceController {
         Map<String, Object> response = new HashMap<>();
         response.put("replicaId", replicaId);
         response.put("status", "alive");
+        response.putAll(election.describe());
         return ResponseEntity.ok(response);
     }
 
-    // returns all orders stored by current replica
-    // used by new replicas to sync their state from current leader
-    // API endpoint is GET /orders/sync
-    @GetMapping("/sync")
-    public ResponseEntity<?> syncOrders() {
+    // streams the orders of a partition after the last one the caller's log, up to the given
+    // sequence and with the given first sequence of each term, has in common with this one as
+    // NDJSON, or a snapshot of all its orders if the caller is too far behind; used by followers
+    // to catch up with the leader
+    // API endpoint is GET /orders/log?partition=<p>&after=<seq>&terms=<seq:term,..>
+    @GetMapping("/log")
+    public ResponseEntity<StreamingResponseBody> log(@RequestParam(value = "partition", defaultValue = "0") int partitionId,
+                                                     @RequestParam("after") long after,
+                                                     @RequestParam(value = "terms", defaultValue = "") String terms) {
+        if (partitionId < 0 || partitionId >= partitions.count()) {
+            // typed for the stream, so without the error body
+            return ResponseEntity.status(400).build();
+        }
+        CatchUp catchUp = partitions.get(partitionId).catchUp();
+        long term = election.logTerm(partitionId);
+        StreamingResponseBody body = out -> catchUp.write(after, CatchUp.parseTerms(terms), term, out);
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    // replication progress of every follower in every partition this replica leads, and the
+    // catch-up of every partition
+    // API endpoint is GET /orders/replication
+    @GetMapping("/replication")
+    public ResponseEntity<?> replicationStatus() {
+        List<Map<String, Object>> perPartition = new ArrayList<>();
+        for (int id = 0; id < partitions.count(); id++) {
+            Map<String, Object> status = partitions.get(id).replicator().status();
+            status.put("catchUp", partitions.get(id).catchUp().status());
+            perPartition.add(status);
+        }
         Map<String, Object> response = new HashMap<>();
-        // send the order values
-        response.put("orders", orders.values());
-        logger.info("received sync request, sending {} orders", orders.size());
+        response.put("partitions", perPartition);
         return ResponseEntity.ok(response);
     }
 
-    // sync orders from current leader
-    // triggered if the replica is not leader (on startup)
-    private void syncWithLeader() {
-        int currentLeaderId = -1;
-        String currentLeaderUrl = null;
-
-        for (String url : allReplicas) {
-            try {
-                Map<?, ?> res = restTemplate.getForObject(url + "/orders/ping", Map.class);
-                int id = (int) res.get("replicaId");
-                if (id > currentLeaderId) {
-                    currentLeaderId = id;
-                    currentLeaderUrl = url;
-                }
-            } catch (Exception e) {
-                logger.warn("Replica unreachable during sync check {}", url);
-            }
+    // the order as clients see it, with its number instead of its sequence in the partition
+    private static Order numbered(Order order, long number) {
+        return new Order((int) number, order.getName(), order.getType(), order.getQuantity());
+    }
+
+    // the leader has applied everything it acknowledged, hands back its answer as it is
+    private ResponseEntity<?> forwardRead(String leaderUrl, int orderId, long token) throws InterruptedException {
+        try {
+            HttpResponse<String> response = httpClient.get("replica", leaderUrl + "/orders/" + orderId,
+                    SEQ_HEADER, Long.toString(token), FORWARDED_HEADER, Integer.toString(replicaId));
+            ResponseEntity.BodyBuilder builder = ResponseEntity.status(response.statusCode())
+                    .contentType(MediaType.APPLICATION_JSON);
+            response.headers().firstValue(SEQ_HEADER).ifPresent(seq -> builder.header(SEQ_HEADER, seq));
+            return builder.body(response.body());
+        } catch (IOException e) {
+            logger.warn("Could not forward read of order #{} to leader {}: {}", orderId, leaderUrl, e.getMessage());
+            return notCaughtUp(partitions.forNumber(orderId), token);
         }
+    }
 
-        // only sync if it is not the leader
-        if (replicaId != currentLeaderId && currentLeaderUrl != null) {
-            try {
-                Map<?, ?> res = restTemplate.getForObject(currentLeaderUrl + "/orders/sync", Map.class);
-                List<Map<String, Object>> syncedOrders = (List<Map<String, Object>>) res.get("orders");
-                for (Map<String, Object> order : syncedOrders) {
-                    int id = (int) order.get("number");
-                    orders.put(id, order);
-                }
-                logger.info("Recovered {} orders from leader {}", syncedOrders.size(), currentLeaderUrl);
-            } catch (Exception e) {
-                logger.warn("Failed to sync from leader {}, {}", currentLeaderUrl, e.getMessage());
-            }
+    // 503 for a read this replica cannot serve at the token asked for
+    private ResponseEntity<?> notCaughtUp(OrderPartition partition, long token) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 503);
+        error.put("message", "Replica " + replicaId + " has not applied order #" + token);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
+        long applied = partitions.numberOf(partition, partition.log().appliedSeq());
+        return ResponseEntity.status(503).header(SEQ_HEADER, Long.toString(applied)).body(response);
+    }
+
+    // 409 naming the current leader of the partition, so the caller can retry there
+    private ResponseEntity<?> notLeader(int partition) {
+        String leaderUrl = election.leaderUrl(partition);
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 409);
+        error.put("message", "Replica " + replicaId + " is not the leader of partition " + partition);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
+        response.put("leader", leaderUrl);
+        response.put("partition", partition);
+        ResponseEntity.BodyBuilder builder = ResponseEntity.status(409);
+        if (leaderUrl != null) {
+            builder.header("X-Leader", leaderUrl);
         }
+        return builder.body(response);
+    }
+
+    // 400 for a partition this replica does not have, partitions.count differs between replicas
+    private ResponseEntity<?> unknownPartition(int partition) {
+        Map<String, Object> error = new HashMap<>();
+        error.put("code", 400);
+        error.put("message", "Replica " + replicaId + " has no order partition " + partition);
+
+        Map<String, Object> response = new HashMap<>();
+        response.put("error", error);
+        return ResponseEntity.status(400).body(response);
     }
 
 }
@@ -0,0 +1,26 @@
+package com.example.order;
+
+import java.util.List;
+
+// where a replica keeps its orders, keyed by order number; OrderLog does the numbering and
+// sequencing on top of it. store.type selects the implementation (see OrderStoreFactory)
+public interface OrderStore {
+
+    // stores the orders along with the applied sequence this write brings the replica to, which is
+    // lower than before when the log dropped entries another leader never had; the orders are
+    // readable right away. returns a position to pass to awaitDurable()
+    long write(List<Order> orders, long appliedSeq);
+
+    // blocks until everything written up to position survives a crash
+    void awaitDurable(long position);
+
+    Order get(int number);
+
+    int size();
+
+    // highest order number stored, so numbering continues after a restart
+    long maxNumber();
+
+    // applied sequence of the last write, as recovered on startup
+    long appliedSeq();
+}
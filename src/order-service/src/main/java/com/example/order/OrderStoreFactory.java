@@ -0,0 +1,60 @@
+package com.example.order;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// builds the order store of each partition from application.yml
+// store.type selects file (durable, under store.dir), memory (a map of orders, lost on restart)
+// or columnar (primitive columns, lost on restart); with more than one partition every partition
+// keeps its files in its own directory under store.dir
+@Component
+public class OrderStoreFactory {
+
+    private static final Logger logger = LoggerFactory.getLogger(OrderStoreFactory.class);
+
+    private final String type;
+    private final String dir;
+    private final int segmentMb;
+    private final boolean fsync;
+    private final long compactIntervalMs;
+    private final double compactDeadRatio;
+    private final ObjectMapper objectMapper;
+
+    public OrderStoreFactory(@Value("${store.type:file}") String type,
+                             @Value("${store.dir:${user.home}/.order-service/order}") String dir,
+                             @Value("${store.segment-mb:64}") int segmentMb,
+                             @Value("${store.fsync:true}") boolean fsync,
+                             @Value("${store.compact-interval-ms:60000}") long compactIntervalMs,
+                             @Value("${store.compact-dead-ratio:0.5}") double compactDeadRatio,
+                             ObjectMapper objectMapper) {
+        this.type = type;
+        this.dir = dir;
+        this.segmentMb = segmentMb;
+        this.fsync = fsync;
+        this.compactIntervalMs = compactIntervalMs;
+        this.compactDeadRatio = compactDeadRatio;
+        this.objectMapper = objectMapper;
+    }
+
+    public OrderStore create(int partition, int partitions) throws IOException {
+        // absolute, so the log says where the orders are whichever directory the replica runs in
+        String partitionDir = Paths.get(dir, partitions == 1 ? "" : "partition-" + partition).toAbsolutePath().toString();
+        logger.info("Order store of partition {}: type = {}, dir = {}, fsync = {}", partition, type, partitionDir, fsync);
+        if ("memory".equalsIgnoreCase(type)) {
+            return new InMemoryOrderStore();
+        }
+        if ("columnar".equalsIgnoreCase(type)) {
+            return new ColumnarOrderStore();
+        }
+        if ("file".equalsIgnoreCase(type)) {
+            return new FileOrderStore(partitionDir, segmentMb, fsync, compactIntervalMs, compactDeadRatio, objectMapper);
+        }
+        throw new IllegalArgumentException("Unknown order store type: " + type);
+    }
+}
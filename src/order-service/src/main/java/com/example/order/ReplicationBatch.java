@@ -0,0 +1,92 @@
+package com.example.order;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// body of POST /orders/replicate/batch: the orders of a partition with sequences from..to, sent
+// by the leader of the partition in term, with the log term of the leader's entry before from; truncate
+// tells a follower that diverged to drop whatever it applied beyond to (see OrderLog.apply)
+public class ReplicationBatch {
+
+    private int partition;
+    private long term;
+    private int leaderId;
+    private String leader;
+    private long from;
+    private long to;
+    private long prevTerm;
+    private boolean truncate;
+    private List<Order> entries = new ArrayList<>();
+
+    public int getPartition() {
+        return partition;
+    }
+
+    public void setPartition(int partition) {
+        this.partition = partition;
+    }
+
+    public long getTerm() {
+        return term;
+    }
+
+    public void setTerm(long term) {
+        this.term = term;
+    }
+
+    public int getLeaderId() {
+        return leaderId;
+    }
+
+    public void setLeaderId(int leaderId) {
+        this.leaderId = leaderId;
+    }
+
+    public String getLeader() {
+        return leader;
+    }
+
+    public void setLeader(String leader) {
+        this.leader = leader;
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public void setFrom(long from) {
+        this.from = from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+
+    public void setTo(long to) {
+        this.to = to;
+    }
+
+    public long getPrevTerm() {
+        return prevTerm;
+    }
+
+    public void setPrevTerm(long prevTerm) {
+        this.prevTerm = prevTerm;
+    }
+
+    public boolean isTruncate() {
+        return truncate;
+    }
+
+    public void setTruncate(boolean truncate) {
+        this.truncate = truncate;
+    }
+
+    public List<Order> getEntries() {
+        return entries;
+    }
+
+    public void setEntries(List<Order> entries) {
+        this.entries = entries;
+    }
+}
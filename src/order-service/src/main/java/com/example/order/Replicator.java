@@ -0,0 +1,444 @@
+package com.example.order;
+
+import com.example.common.ServiceHttpClient;
+import com.example.common.ServiceThreads;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// replicates the order log of one partition from its leader to every follower
+//
+// each follower has its own pipeline thread that sends the entries the follower is missing as
+// batches of up to max-batch orders to POST /orders/replicate/batch, with up to pipeline-depth
+// batches in flight, so followers are replicated in parallel and a slow one only holds up itself.
+// a follower answers with the end of its log, the sequence it has everything up to and the term of
+// the entry there; anything it is still missing once its batches are answered (a failed call, a
+// follower that restarted) is sent again, with exponential backoff while it is unreachable.
+// the leader only counts a follower as holding entries up to that sequence if its own log has an
+// entry of that term there, and never beyond its own log. a follower that does not match got
+// entries from an earlier leader that this one never had: its answer to an empty probe lists the
+// first sequence of each term in its log, the leader finds the last sequence where both logs
+// match and sends from there with truncate, so the follower drops everything it held after. a follower more than catchup.stream-after orders
+// behind is only probed every probe-interval-ms, so it learns where the log ends and streams the
+// missing orders itself (see CatchUp). an order of the leader's own term is committed once quorum
+// replicas, the leader included, hold it, the orders before it along with it, and createOrder
+// waits for that in awaitCommit(); one of an earlier term held by a quorum is not committed by
+// itself, a later leader that never had it could still replace it.
+// per follower, order.replication.lag is how many orders it is behind while this replica leads
+// and order.replication.batch.size the orders in each batch sent to it
+// built for every partition by OrderPartitions
+public class Replicator {
+
+    private static final Logger logger = LoggerFactory.getLogger(Replicator.class);
+
+    private final int partition;
+    private final OrderLog log;
+    private final LeaderElection election;
+    private final ServiceHttpClient httpClient;
+    // a follower's pipeline blocks on its network calls, virtual threads in virtual-thread mode
+    private final ServiceThreads threads;
+    private final int quorum;
+    private final int maxBatch;
+    private final int pipelineDepth;
+    private final long maxBackoffMs;
+    private final long streamAfter;
+    private final long probeIntervalMs;
+    private final List<Follower> followers = new ArrayList<>();
+
+    // highest committed sequence, and the createOrder calls waiting for theirs
+    private volatile long commitSeq;
+    private final ReentrantLock commitLock = new ReentrantLock();
+    private final ConcurrentSkipListMap<Long, CompletableFuture<Void>> waiters = new ConcurrentSkipListMap<>();
+
+    private final LongAdder batchesSent = new LongAdder();
+    private final LongAdder entriesSent = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+
+    public Replicator(int partition, OrderLog log, LeaderElection election, ServiceHttpClient httpClient,
+                      ServiceThreads threads, int quorum, int maxBatch, int pipelineDepth, long maxBackoffMs,
+                      long streamAfter, long probeIntervalMs, MeterRegistry registry) {
+        this.partition = partition;
+        this.log = log;
+        this.election = election;
+        this.httpClient = httpClient;
+        this.threads = threads;
+        int replicas = election.peers().size() + 1;
+        // 0 means a majority of all replicas
+        this.quorum = quorum <= 0 ? replicas / 2 + 1 : Math.min(quorum, replicas);
+        this.maxBatch = maxBatch;
+        this.pipelineDepth = pipelineDepth;
+        this.maxBackoffMs = maxBackoffMs;
+        this.streamAfter = streamAfter;
+        this.probeIntervalMs = probeIntervalMs;
+        for (String url : election.peers()) {
+            followers.add(new Follower(url, registry));
+        }
+    }
+
+    public void start() {
+        for (Follower follower : followers) {
+            Thread thread = threads.newThread("replicator-" + partition + "-" + follower.url, follower);
+            follower.thread = thread;
+            thread.start();
+        }
+    }
+
+    public void stop() {
+        for (Follower follower : followers) {
+            follower.thread.interrupt();
+        }
+    }
+
+    // new entries were appended, wakes every pipeline
+    public void replicate() {
+        for (Follower follower : followers) {
+            follower.wake();
+        }
+        // with a quorum of one the leader's own copy is enough
+        advanceCommit();
+    }
+
+    // waits until seq is held by a quorum, false on timeout
+    public boolean awaitCommit(long seq, long timeoutMs) throws InterruptedException {
+        if (seq <= commitSeq) {
+            return true;
+        }
+        CompletableFuture<Void> committed = new CompletableFuture<>();
+        waiters.put(seq, committed);
+        try {
+            // the commit may have advanced before the waiter was registered
+            if (seq <= commitSeq) {
+                return true;
+            }
+            committed.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } finally {
+            waiters.remove(seq);
+        }
+    }
+
+    public int quorum() {
+        return quorum;
+    }
+
+    // per-follower progress, for GET /orders/replication
+    public Map<String, Object> status() {
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("partition", partition);
+        status.put("quorum", quorum);
+        status.put("appliedSeq", log.appliedSeq());
+        status.put("commitSeq", commitSeq);
+        status.put("batchesSent", batchesSent.sum());
+        status.put("entriesSent", entriesSent.sum());
+        status.put("failures", failures.sum());
+        Map<String, Object> perFollower = new LinkedHashMap<>();
+        for (Follower follower : followers) {
+            Map<String, Object> entry = new HashMap<>();
+            entry.put("matchSeq", follower.matchSeq);
+            entry.put("lag", follower.matchSeq < 0 ? -1 : Math.max(0, log.appliedSeq() - follower.matchSeq));
+            perFollower.put(follower.url, entry);
+        }
+        status.put("followers", perFollower);
+        return status;
+    }
+
+    // commit = the highest sequence held by quorum replicas, counting the leader itself
+    private void advanceCommit() {
+        if (!election.isLeader(partition)) {
+            return;
+        }
+        OrderLog.Position end = log.position();
+        if (end.term() != election.logTerm(partition)) {
+            // nothing appended in this term yet
+            return;
+        }
+        long[] held = new long[followers.size() + 1];
+        held[0] = log.appliedSeq();
+        for (int i = 0; i < followers.size(); i++) {
+            held[i + 1] = Math.max(0, followers.get(i).matchSeq);
+        }
+        Arrays.sort(held);
+        long quorumSeq = held[held.length - quorum];
+        if (quorumSeq < log.termStart()) {
+            return;
+        }
+        commitLock.lock();
+        try {
+            if (quorumSeq <= commitSeq) {
+                return;
+            }
+            commitSeq = quorumSeq;
+        } finally {
+            commitLock.unlock();
+        }
+        for (CompletableFuture<Void> waiter : waiters.headMap(quorumSeq, true).values()) {
+            waiter.complete(null);
+        }
+    }
+
+    private final class Follower implements Runnable {
+        final String url;
+        Thread thread;
+
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition changed = lock.newCondition();
+
+        // everything up to matchSeq is on the follower, -1 until the follower has told us
+        volatile long matchSeq = -1;
+        // guarded by lock
+        long term = -1;
+        long nextSeq;
+        int inFlight;
+        // a batch failed or the follower reported a gap, resend once the pipeline is drained
+        boolean failed;
+        boolean gap;
+        // the follower diverged, the next batch starts after matchSeq, where its log last matches
+        // this one, and truncates it; nothing else is in flight meanwhile
+        boolean repair;
+        long backoffMs;
+        // while backing off nothing is sent before System.nanoTime() reaches retryAt
+        boolean backingOff;
+        long retryAt;
+        // the follower did not answer heartbeats either when the backoff started
+        boolean wasUnreachable;
+
+        final DistributionSummary batchSizes;
+
+        Follower(String url, MeterRegistry registry) {
+            this.url = url;
+            String partitionTag = Integer.toString(partition);
+            this.batchSizes = DistributionSummary.builder("order.replication.batch.size")
+                    .description("Orders per replication batch")
+                    .tag("partition", partitionTag)
+                    .tag("follower", url)
+                    .register(registry);
+            Gauge.builder("order.replication.lag", this, Follower::lag)
+                    .description("Orders the follower is behind the leader")
+                    .tag("partition", partitionTag)
+                    .tag("follower", url)
+                    .register(registry);
+        }
+
+        // NaN unless this replica leads and knows where the follower is
+        double lag() {
+            long match = matchSeq;
+            if (!election.isLeader(partition) || match < 0) {
+                return Double.NaN;
+            }
+            return Math.max(0, log.appliedSeq() - match);
+        }
+
+        void wake() {
+            lock.lock();
+            try {
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                long from;
+                long to;
+                long sendTerm;
+                boolean truncate = false;
+                lock.lock();
+                try {
+                    while (!readyToSend()) {
+                        // also wakes up now and then to notice a change of leadership
+                        changed.await(50, TimeUnit.MILLISECONDS);
+                    }
+                    sendTerm = term;
+                    if (matchSeq < 0 || farBehind()) {
+                        // ask where the follower is before sending anything, an empty range
+                        // ending where the log ends, so one far behind starts catching up
+                        from = log.appliedSeq() + 1;
+                        to = from - 1;
+                    } else if (repair) {
+                        from = matchSeq + 1;
+                        to = Math.min(log.appliedSeq(), from + maxBatch - 1);
+                        nextSeq = to + 1;
+                        truncate = true;
+                    } else {
+                        from = nextSeq;
+                        to = Math.min(log.appliedSeq(), nextSeq + maxBatch - 1);
+                        nextSeq = to + 1;
+                    }
+                    inFlight++;
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    lock.unlock();
+                }
+                send(from, to, sendTerm, truncate);
+            }
+        }
+
+        // must hold lock
+        private boolean readyToSend() {
+            if (!election.isLeader(partition)) {
+                return false;
+            }
+            if (term != election.term(partition)) {
+                // leading a new term, start over once earlier batches are answered
+                if (inFlight > 0) {
+                    return false;
+                }
+                term = election.term(partition);
+                matchSeq = -1;
+                failed = false;
+                gap = false;
+                repair = false;
+                backoffMs = 0;
+                backingOff = false;
+            }
+            if (backingOff && (System.nanoTime() - retryAt >= 0 || (wasUnreachable && election.isReachable(url)))) {
+                // waited long enough, or it came back and answered a heartbeat since
+                backingOff = false;
+            }
+            if (failed || gap || backingOff || inFlight >= pipelineDepth) {
+                return false;
+            }
+            if (matchSeq < 0 || farBehind() || repair) {
+                return inFlight == 0;
+            }
+            return nextSeq <= log.appliedSeq();
+        }
+
+        // too far behind for batches, the follower catches up by streaming
+        private boolean farBehind() {
+            return matchSeq >= 0 && log.appliedSeq() - matchSeq > streamAfter;
+        }
+
+        private void send(long from, long to, long sendTerm, boolean truncate) {
+            ReplicationBatch batch = new ReplicationBatch();
+            batch.setPartition(partition);
+            batch.setTerm(sendTerm);
+            batch.setLeaderId(election.replicaId());
+            batch.setLeader(election.leaderUrl(partition));
+            batch.setFrom(from);
+            batch.setTo(to);
+            batch.setPrevTerm(log.termAt(from - 1));
+            batch.setTruncate(truncate);
+            batch.setEntries(log.range(from, to));
+            batchesSent.increment();
+            entriesSent.add(batch.getEntries().size());
+            if (!batch.getEntries().isEmpty()) {
+                batchSizes.record(batch.getEntries().size());
+            }
+            httpClient.postJsonAsync("replica", url + "/orders/replicate/batch", batch)
+                    .whenComplete((response, error) -> completed(from, sendTerm, truncate, response, error));
+        }
+
+        private void completed(long from, long sendTerm, boolean truncate, HttpResponse<String> response,
+                               Throwable error) {
+            long applied = -1;
+            long appliedTerm = 0;
+            NavigableMap<Long, Long> terms = null;
+            if (error == null && response.statusCode() == 200) {
+                try {
+                    Map<?, ?> body = httpClient.readJson(response.body(), Map.class);
+                    applied = ((Number) body.get("applied")).longValue();
+                    appliedTerm = body.get("term") instanceof Number ? ((Number) body.get("term")).longValue() : 0;
+                    if (body.get("terms") instanceof Map) {
+                        terms = new TreeMap<>();
+                        for (Map.Entry<?, ?> term : ((Map<?, ?>) body.get("terms")).entrySet()) {
+                            terms.put(Long.parseLong(term.getKey().toString()), ((Number) term.getValue()).longValue());
+                        }
+                    }
+                } catch (Exception e) {
+                    error = e;
+                }
+            }
+            lock.lock();
+            try {
+                inFlight--;
+                if (sendTerm != term) {
+                    // answer to an earlier term, the pipeline has been reset since
+                } else if (applied >= 0 && !log.holds(applied, appliedTerm)) {
+                    // the follower holds entries this log does not have there
+                    if (terms != null) {
+                        matchSeq = log.lastMatch(terms, applied);
+                        repair = true;
+                        logger.info("Follower {} diverged from the log of partition {}, resending after #{}", url,
+                                partition, matchSeq);
+                    } else {
+                        // the answer to a probe says where the logs part
+                        matchSeq = -1;
+                    }
+                    gap = true;
+                    backoffMs = 0;
+                } else if (applied >= 0) {
+                    if (truncate) {
+                        repair = false;
+                    }
+                    if (applied < from - 1) {
+                        // the follower lacks entries before this batch, eg. it restarted
+                        matchSeq = applied;
+                        gap = true;
+                    } else if (applied > matchSeq) {
+                        matchSeq = applied;
+                    }
+                    backoffMs = 0;
+                } else {
+                    if (!failed) {
+                        logger.warn("Replication to {} failed: {}", url,
+                                error != null ? error.getMessage() : "status " + response.statusCode());
+                    }
+                    failures.increment();
+                    failed = true;
+                }
+                if (inFlight == 0 && sendTerm == term) {
+                    if (failed) {
+                        // unreachable, try again later from what the follower last confirmed
+                        backoffMs = Math.min(maxBackoffMs, Math.max(10, backoffMs * 2));
+                        retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(backoffMs);
+                        backingOff = true;
+                        wasUnreachable = !election.isReachable(url);
+                        failed = false;
+                    }
+                    if (matchSeq >= 0) {
+                        // resend whatever the follower still misses
+                        nextSeq = matchSeq + 1;
+                    }
+                    if (!backingOff && farBehind()) {
+                        // check again on the catching up follower in a while
+                        retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(probeIntervalMs);
+                        backingOff = true;
+                        wasUnreachable = false;
+                    }
+                    gap = false;
+                }
+                changed.signal();
+            } finally {
+                lock.unlock();
+            }
+            advanceCommit();
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.order;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CatchUpTests {
+
+	private static final String ORDER = "{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":1}";
+
+	// a follower that missed more than stream-after orders pulls them as one stream
+	@Test
+	void restartedFollowerStreamsTheMissingOrders() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "catchup.stream-after=10").startAll()) {
+			awaitLeader(cluster);
+			cluster.stop(1);
+			for (int i = 0; i < 40; i++) {
+				assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			}
+
+			cluster.start(1);
+			OrderLog log = cluster.partition(1).log();
+			OrderCluster.await("replica 1 to catch up", v -> log.appliedSeq() == 40);
+			assertEquals(40, log.size());
+			Map<String, Object> status = cluster.partition(1).catchUp().status();
+			assertEquals(0L, status.get("snapshotTransfers"));
+
+			// and is replicated to as usual afterwards
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			OrderCluster.await("replica 1 to get the new order", v -> log.appliedSeq() == 41);
+		}
+	}
+
+	// a follower missing more than snapshot-after orders gets every order instead
+	@Test
+	void followerFarBehindGetsASnapshot() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "catchup.stream-after=10", "catchup.snapshot-after=20",
+				"catchup.chunk=7").startAll()) {
+			awaitLeader(cluster);
+			cluster.stop(1);
+			for (int i = 0; i < 40; i++) {
+				assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			}
+
+			cluster.start(1);
+			OrderLog log = cluster.partition(1).log();
+			OrderCluster.await("replica 1 to catch up", v -> log.appliedSeq() == 40);
+			assertEquals(40, log.size());
+			assertEquals(40, log.get(40).getNumber());
+			assertEquals(1L, cluster.partition(1).catchUp().status().get("snapshotTransfers"));
+		}
+	}
+
+	// a former leader that kept orders it never got a quorum for streams the new leader's orders
+	// from where their logs last match, in place of its own
+	@Test
+	void divergedFollowerCatchesUpFromWhereTheLogsMatch() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "catchup.stream-after=1", "replication.ack-timeout-ms=300")
+				.startAll()) {
+			awaitLeader(cluster);
+			for (int i = 0; i < 2; i++) {
+				assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			}
+			OrderCluster.await("every replica to hold the orders", v -> cluster.partition(1).log().appliedSeq() == 2
+					&& cluster.partition(2).log().appliedSeq() == 2);
+			cluster.stop(1);
+			cluster.stop(2);
+			for (int i = 0; i < 3; i++) {
+				assertEquals(503, cluster.post(3, "/orders", ORDER).statusCode());
+			}
+			cluster.stop(3);
+
+			cluster.start(2);
+			cluster.start(1);
+			OrderCluster.await("replica 2 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 2
+					&& cluster.bean(2, LeaderElection.class).isLeader(0));
+			String other = "{\"name\":\"Stock1\",\"type\":\"sell\",\"quantity\":7}";
+			for (int i = 0; i < 2; i++) {
+				assertEquals(200, cluster.post(2, "/orders", other).statusCode());
+			}
+
+			cluster.start(3);
+			OrderLog log = cluster.partition(3).log();
+			OrderCluster.await("replica 3 to take the new leader's orders", v -> log.appliedSeq() == 4
+					&& log.get(3).getQuantity() == 7);
+			assertEquals(7, log.get(4).getQuantity());
+			assertNull(log.get(5));
+			assertEquals(1L, cluster.partition(3).catchUp().status().get("logTransfers"));
+		}
+	}
+
+	// recovery time and peak heap of a follower catching up on 1M orders, from nothing and after
+	// missing the last 10k, streamed from the log against the former full dump of GET /orders/sync
+	// (every order serialized into one response body, the follower parsing it whole);
+	// run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkCatchUp() throws Exception {
+		int orders = 1_000_000;
+		try (OrderCluster cluster = new OrderCluster(1, "logging.level.com.example.order=WARN",
+				"catchup.snapshot-after=" + Long.MAX_VALUE, "store.type=memory")) {
+			cluster.start(1);
+			OrderLog leader = cluster.partition(1).log();
+			OrderCluster.await("replica 1 to lead", v -> cluster.bean(1, LeaderElection.class).isLeader(0));
+			for (int i = 0; i < orders; i++) {
+				leader.append(new Order(0, "Stock" + (i % 10), i % 2 == 0 ? "buy" : "sell", 1 + i % 100), 1);
+			}
+			ObjectMapper objectMapper = new ObjectMapper();
+			ServiceHttpClient httpClient = new ServiceHttpClient(new HttpClientProperties(), objectMapper);
+			String url = cluster.url(1);
+			Recovery fullDump = follower -> {
+				Map<String, Object> response = new HashMap<>();
+				response.put("orders", leader.range(1, leader.appliedSeq()));
+				byte[] body = objectMapper.writeValueAsBytes(response);
+				List<Map<String, Object>> synced = objectMapper.readValue(body,
+						new TypeReference<Map<String, List<Map<String, Object>>>>() {}).get("orders");
+				List<Order> entries = new ArrayList<>(synced.size());
+				for (Map<String, Object> order : synced) {
+					entries.add(objectMapper.convertValue(order, Order.class));
+				}
+				follower.apply(1, 1, entries.size(), 0, entries, false);
+			};
+			Recovery streamed = follower -> new CatchUp(0, follower, httpClient, objectMapper, 1024, Long.MAX_VALUE, 1000).catchUp(url);
+
+			// warm up
+			measure("warm up", leader, orders, streamed);
+			measure("warm up", leader, orders, fullDump);
+			for (int missing : new int[]{orders, 10_000}) {
+				measure("full dump", leader, missing, fullDump);
+				measure("streamed log", leader, missing, streamed);
+			}
+		}
+	}
+
+	interface Recovery {
+		void recover(OrderLog follower) throws Exception;
+	}
+
+	// the heap in use above what was live before, at its highest during the recovery, for a
+	// follower that has every order but the last `missing`
+	private static void measure(String mode, OrderLog leader, int missing, Recovery recovery) throws Exception {
+		OrderLog follower = new OrderLog(new InMemoryOrderStore());
+		long has = leader.appliedSeq() - missing;
+		follower.apply(1, 1, has, 0, leader.range(1, has), false);
+		List<MemoryPoolMXBean> pools = ManagementFactory.getMemoryPoolMXBeans();
+		System.gc();
+		long before = heapUsed(pools, false);
+		for (MemoryPoolMXBean pool : pools) {
+			pool.resetPeakUsage();
+		}
+		long start = System.nanoTime();
+		recovery.recover(follower);
+		long millis = (System.nanoTime() - start) / 1_000_000;
+		long peak = heapUsed(pools, true) - before;
+		System.gc();
+		long retained = heapUsed(pools, false) - before;
+		assertEquals(leader.appliedSeq(), follower.appliedSeq());
+		System.out.printf("%-13s missing=%-8d recovery=%5dms peakHeap=%4dMB retained=%4dMB%n", mode, missing, millis,
+				peak >> 20, retained >> 20);
+	}
+
+	private static long heapUsed(List<MemoryPoolMXBean> pools, boolean peak) {
+		long used = 0;
+		for (MemoryPoolMXBean pool : pools) {
+			if (pool.getType() == MemoryType.HEAP) {
+				used += peak ? pool.getPeakUsage().getUsed() : pool.getUsage().getUsed();
+			}
+		}
+		return used;
+	}
+
+	private static void awaitLeader(OrderCluster cluster) throws InterruptedException {
+		OrderCluster.await("replica 3 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 3
+				&& cluster.bean(2, LeaderElection.class).leaderId(0) == 3);
+	}
+}
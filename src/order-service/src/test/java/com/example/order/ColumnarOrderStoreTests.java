@@ -0,0 +1,170 @@
+package com.example.order;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class ColumnarOrderStoreTests {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@Test
+	void ordersAreReadBackFromTheColumns() {
+		ColumnarOrderStore store = new ColumnarOrderStore();
+		OrderLog log = new OrderLog(store);
+		log.append(new Order(0, "Stock1", "buy", 10), 1);
+		log.append(new Order(0, null, "sell", 5), 1);
+		// stored ahead of the applied log, until the orders before it arrive
+		log.apply(1, 200_000, 200_000, 1, Arrays.asList(new Order(200_000, "Stock1", null, 7)), false);
+
+		Order first = log.get(1);
+		assertEquals(1, first.getNumber());
+		assertEquals("Stock1", first.getName());
+		assertEquals("buy", first.getType());
+		assertEquals(10, first.getQuantity());
+		assertEquals(1, first.getTerm());
+		assertNull(log.get(2).getName());
+		assertEquals("sell", log.get(2).getType());
+		assertNull(log.get(200_000));
+		assertNull(store.get(200_000).getType());
+		// names are interned, every order of a stock shares one string
+		assertSame(first.getName(), store.get(200_000).getName());
+		assertNull(log.get(3));
+		assertNull(log.get(1 << 30));
+		assertEquals(3, log.size());
+	}
+
+	// a reader running alongside the writer never sees an order half written
+	@Test
+	void readersSeeWholeOrders() throws Exception {
+		ColumnarOrderStore store = new ColumnarOrderStore();
+		OrderLog log = new OrderLog(store);
+		int orders = 300_000;
+		AtomicBoolean done = new AtomicBoolean();
+		AtomicReference<String> torn = new AtomicReference<>();
+		Thread reader = new Thread(() -> {
+			while (!done.get() && torn.get() == null) {
+				int number = (int) log.appliedSeq();
+				Order order = store.get(number);
+				if (number > 0 && (order == null || order.getQuantity() != number || !order.getName().equals("Stock" + number % 7))) {
+					torn.set("order #" + number + ": " + order);
+				}
+			}
+		});
+		reader.start();
+		for (int i = 1; i <= orders; i++) {
+			log.append(new Order(0, "Stock" + i % 7, "buy", i), 1);
+		}
+		done.set(true);
+		reader.join();
+		assertNull(torn.get());
+		assertEquals(orders, log.size());
+	}
+
+	// heap per order, bytes allocated and GC work to take 10M orders from their request bodies,
+	// for a map of generic maps (the former store), a map of typed orders and the columns; then
+	// bytes allocated per GET /orders/{id} body. run with -Dbenchmark=true -DargLine=-Xmx5g,
+	// -Dorders=N for another count
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkFootprint() throws Exception {
+		int orders = Integer.getInteger("orders", 10_000_000);
+		byte[][] bodies = new byte[10][];
+		for (int i = 0; i < bodies.length; i++) {
+			bodies[i] = ("{\"name\":\"Stock" + i + "\",\"type\":\"" + (i % 2 == 0 ? "buy" : "sell") + "\",\"quantity\":" + (i + 1) + "}")
+					.getBytes(StandardCharsets.UTF_8);
+		}
+
+		TypeReference<Map<String, Object>> generic = new TypeReference<Map<String, Object>>() {};
+		Map<Integer, Map<String, Object>> maps = new ConcurrentHashMap<>();
+		measure("generic maps", orders, () -> {
+			for (int i = 1; i <= orders; i++) {
+				Map<String, Object> order = MAPPER.readValue(bodies[i % 10], generic);
+				order.put("number", i);
+				maps.put(i, order);
+			}
+		}, number -> MAPPER.writeValueAsBytes(maps.get(number)));
+		maps.clear();
+
+		for (OrderStore store : new OrderStore[]{new InMemoryOrderStore(), new ColumnarOrderStore()}) {
+			OrderLog log = new OrderLog(store);
+			measure(store instanceof ColumnarOrderStore ? "columnar" : "typed orders", orders, () -> {
+				for (int i = 1; i <= orders; i++) {
+					log.append(MAPPER.readValue(bodies[i % 10], Order.class), 1);
+				}
+			}, number -> MAPPER.writeValueAsBytes(log.get(number)));
+		}
+	}
+
+	interface Load {
+		void run() throws Exception;
+	}
+
+	interface Read {
+		byte[] body(int number) throws Exception;
+	}
+
+	private static void measure(String mode, int orders, Load load, Read read) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		System.gc();
+		long before = usedHeap();
+		long gcCount = gcCount();
+		long gcMillis = gcMillis();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		load.run();
+		long loadMillis = (System.nanoTime() - start) / 1_000_000;
+		allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+		gcCount = gcCount() - gcCount;
+		gcMillis = gcMillis() - gcMillis;
+		System.gc();
+		long retained = usedHeap() - before;
+
+		int reads = 1_000_000;
+		long readAllocated = threads.getThreadAllocatedBytes(thread);
+		long readStart = System.nanoTime();
+		for (int i = 0; i < reads; i++) {
+			read.body(1 + (int) ((i * 2654435761L) % orders));
+		}
+		long readNanos = System.nanoTime() - readStart;
+		readAllocated = threads.getThreadAllocatedBytes(thread) - readAllocated;
+		System.out.printf("%-13s orders=%d heap/order=%dB allocated/order=%dB load=%dms gcs=%d gcTime=%dms"
+						+ " | get: allocated=%dB %.2fus%n", mode, orders, retained / orders, allocated / orders, loadMillis,
+				gcCount, gcMillis, readAllocated / reads, readNanos / 1e3 / reads);
+	}
+
+	private static long usedHeap() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += gc.getCollectionCount();
+		}
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			millis += gc.getCollectionTime();
+		}
+		return millis;
+	}
+}
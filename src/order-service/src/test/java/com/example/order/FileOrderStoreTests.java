@@ -0,0 +1,256 @@
+package com.example.order;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FileOrderStoreTests {
+
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void ordersAndNumberingSurviveRestart() throws IOException {
+		FileOrderStore store = store(64, true);
+		OrderLog log = new OrderLog(store);
+		log.append(order("Stock1", 10), 1);
+		log.append(order("Stock2", 20), 1);
+		log.append(order("Stock3", 30), 1);
+		store.close();
+
+		OrderLog recovered = new OrderLog(store(64, true));
+		assertEquals(3, recovered.appliedSeq());
+		assertEquals(3, recovered.size());
+		assertEquals("Stock2", recovered.get(2).getName());
+		assertEquals(20, recovered.get(2).getQuantity());
+		// numbering continues where it stopped
+		assertEquals(4, recovered.append(order("Stock1", 1), 1));
+	}
+
+	// an order torn by a crash is dropped, along with the applied sequence it would have claimed
+	@Test
+	void tornRecordIsDroppedOnRecovery() throws IOException {
+		FileOrderStore store = store(64, true);
+		OrderLog log = new OrderLog(store);
+		for (int i = 1; i <= 3; i++) {
+			log.append(order("Stock" + i, i), 1);
+		}
+		store.close();
+
+		Path segment = segments().get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			ByteBuffer header = ByteBuffer.allocate(4);
+			long position = 0;
+			for (int record = 0; record < 2; record++) {
+				header.clear();
+				channel.read(header, position);
+				position += 20 + header.getInt(0);
+			}
+			// flip a byte in the json of the third order
+			channel.write(ByteBuffer.wrap(new byte[]{'#'}), position + 25);
+		}
+
+		OrderLog recovered = new OrderLog(store(64, true));
+		assertEquals(2, recovered.appliedSeq());
+		assertEquals(2, recovered.size());
+		assertNull(recovered.get(3));
+		assertEquals(3, recovered.append(order("Stock3", 3), 1));
+	}
+
+	// a follower dropping entries of a leader that never got a quorum writes no order, it still
+	// recovers with the shorter log rather than claim the dropped entries again
+	@Test
+	void truncationSurvivesRestart() throws IOException {
+		FileOrderStore store = store(64, true);
+		OrderLog log = new OrderLog(store);
+		for (int i = 1; i <= 3; i++) {
+			log.append(order("Stock" + i, i), 1);
+		}
+		// the leader of term 2 ends its log at entry 1
+		log.apply(2, 2, 1, 1, List.of(), true);
+		assertEquals(1, log.appliedSeq());
+		store.close();
+
+		store = store(64, true);
+		OrderLog recovered = new OrderLog(store);
+		assertEquals(1, recovered.appliedSeq());
+		assertNull(recovered.get(2));
+		assertEquals(2, recovered.append(order("Stock4", 4), 2));
+		store.close();
+
+		recovered = new OrderLog(store(64, true));
+		assertEquals(2, recovered.appliedSeq());
+		assertEquals("Stock4", recovered.get(2).getName());
+		assertNull(recovered.get(3));
+	}
+
+	// orders written again leave their first segment mostly dead, compaction rewrites it without
+	// losing any order, before or after a restart
+	@Test
+	void fullSegmentsRollAndAreCompacted() throws IOException {
+		FileOrderStore store = store(1, false);
+		OrderLog log = new OrderLog(store);
+		int orders = 30_000;
+		for (int i = 0; i < orders; i++) {
+			log.append(order("Stock" + (i % 10), i), 1);
+		}
+		List<Path> before = segments();
+		assertTrue(before.size() > 1, "segments " + before.size());
+		long firstSize = Files.size(before.get(0));
+
+		// catch-up delivering the first half again
+		log.apply(1, 1, orders / 2, 0, log.range(1, orders / 2), false);
+		store.compact();
+		assertTrue(!Files.exists(before.get(0)) || Files.size(before.get(0)) < firstSize / 2);
+		for (int number = 1; number <= orders; number++) {
+			assertEquals(number - 1, log.get(number).getQuantity());
+		}
+		store.close();
+
+		OrderLog recovered = new OrderLog(store(1, false));
+		assertEquals(orders, recovered.size());
+		assertEquals(orders, recovered.appliedSeq());
+		for (int number = 1; number <= orders; number++) {
+			assertEquals(number, recovered.get(number).getNumber());
+		}
+	}
+
+	// compacted segments give their slots to the next ones, and reads running meanwhile keep
+	// finding every order while the segments they read are unmapped
+	@Test
+	void compactionReusesSlotsUnderConcurrentReads() throws Exception {
+		FileOrderStore store = store(1, false);
+		OrderLog log = new OrderLog(store);
+		int orders = 10_000;
+		for (int i = 0; i < orders; i++) {
+			log.append(order("Stock" + (i % 10), i), 1);
+		}
+		ExecutorService readers = Executors.newFixedThreadPool(2);
+		List<Future<?>> reads = new ArrayList<>();
+		AtomicBoolean done = new AtomicBoolean();
+		for (int r = 0; r < 2; r++) {
+			reads.add(readers.submit(() -> {
+				while (!done.get()) {
+					for (int number = 1; number <= orders; number += 97) {
+						assertEquals(number - 1, log.get(number).getQuantity());
+					}
+				}
+				return null;
+			}));
+		}
+		int mostSegments = 0;
+		for (int round = 0; round < 10; round++) {
+			// catch-up delivering every order again leaves all but the active segment dead
+			log.apply(1, 1, orders, 0, log.range(1, orders), true);
+			mostSegments = Math.max(mostSegments, segments().size());
+			store.compact();
+		}
+		done.set(true);
+		for (Future<?> read : reads) {
+			read.get();
+		}
+		readers.shutdown();
+		// at most one more than there were segments, for the copy a compaction makes
+		assertTrue(store.slotCount() <= mostSegments + 1, store.slotCount() + " slots for " + mostSegments + " segments");
+		for (int number = 1; number <= orders; number++) {
+			assertEquals(number - 1, log.get(number).getQuantity());
+		}
+		store.close();
+	}
+
+	// orders/sec of 16 threads appending to the in-memory store and to the file store with and
+	// without fsync, then recovery time of the file store holding 1M orders; run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkStore() throws Exception {
+		int threads = 16;
+		int ordersPerThread = 5_000;
+		for (int round = 0; round < 2; round++) {
+			throughput("memory", new InMemoryOrderStore(), threads, ordersPerThread);
+			FileOrderStore noSync = new FileOrderStore(dir.resolve("nosync" + round).toString(), 64, false, 0, 0.5, MAPPER);
+			throughput("file", noSync, threads, ordersPerThread);
+			noSync.close();
+			FileOrderStore sync = new FileOrderStore(dir.resolve("sync" + round).toString(), 64, true, 0, 0.5, MAPPER);
+			throughput("file+fsync", sync, threads, ordersPerThread);
+			sync.close();
+		}
+
+		int orders = 1_000_000;
+		String recoveryDir = dir.resolve("recovery").toString();
+		FileOrderStore store = new FileOrderStore(recoveryDir, 64, false, 0, 0.5, MAPPER);
+		OrderLog log = new OrderLog(store);
+		for (int i = 0; i < orders; i++) {
+			log.append(order("Stock" + (i % 10), i % 100), 1);
+		}
+		store.close();
+		for (int round = 0; round < 3; round++) {
+			long start = System.nanoTime();
+			FileOrderStore recovered = new FileOrderStore(recoveryDir, 64, false, 0, 0.5, MAPPER);
+			long millis = (System.nanoTime() - start) / 1_000_000;
+			assertEquals(orders, recovered.size());
+			System.out.printf("recovery of %d orders from %d segments: %d ms%n", orders, segments(recoveryDir).size(), millis);
+			recovered.close();
+		}
+	}
+
+	private static void throughput(String mode, OrderStore store, int threads, int ordersPerThread) throws Exception {
+		OrderLog log = new OrderLog(store);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<>();
+		long start = System.nanoTime();
+		for (int t = 0; t < threads; t++) {
+			done.add(pool.submit(() -> {
+				for (int i = 0; i < ordersPerThread; i++) {
+					log.append(order("Stock" + (i % 10), i % 100), 1);
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : done) {
+			future.get();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+		System.out.printf("%-10s orders/sec=%.0f%n", mode, threads * ordersPerThread / seconds);
+	}
+
+	private FileOrderStore store(int segmentMb, boolean fsync) throws IOException {
+		return new FileOrderStore(dir.toString(), segmentMb, fsync, 0, 0.5, MAPPER);
+	}
+
+	private List<Path> segments() throws IOException {
+		return segments(dir.toString());
+	}
+
+	private static List<Path> segments(String dir) throws IOException {
+		try (Stream<Path> files = Files.list(Path.of(dir))) {
+			return files.filter(f -> f.toString().endsWith(".log")).sorted().collect(Collectors.toList());
+		}
+	}
+
+	private static Order order(String name, int quantity) {
+		return new Order(0, name, "buy", quantity);
+	}
+}
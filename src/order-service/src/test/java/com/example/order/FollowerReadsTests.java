@@ -0,0 +1,127 @@
+package com.example.order;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FollowerReadsTests {
+
+	private static final String ORDER = "{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":1}";
+
+	// a follower reading right after the write either has the order already or hands the read to
+	// the leader, it never answers without it
+	@Test
+	void readsWithTheWriteTokenSeeTheWrite() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "reads.max-wait-ms=0").startAll()) {
+			awaitLeader(cluster, 3);
+			for (int i = 0; i < 50; i++) {
+				HttpResponse<String> created = cluster.post(3, "/orders", ORDER);
+				assertEquals(200, created.statusCode());
+				String token = created.headers().firstValue("X-Order-Seq").get();
+				assertEquals(i + 1, Long.parseLong(token));
+
+				HttpResponse<String> read = cluster.get(1 + i % 2, "/orders/" + token, "X-Order-Seq", token);
+				assertEquals(200, read.statusCode(), read.body());
+				assertTrue(read.body().contains("\"number\":" + token), read.body());
+				assertTrue(Long.parseLong(read.headers().firstValue("X-Order-Seq").get()) >= i + 1);
+			}
+		}
+	}
+
+	@Test
+	void followersServeReadsTheyAreCaughtUpFor() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "reads.max-wait-ms=20").startAll()) {
+			awaitLeader(cluster, 3);
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			OrderLog follower = cluster.partition(1).log();
+			OrderCluster.await("replica 1 to apply the order", v -> follower.appliedSeq() == 1);
+
+			HttpResponse<String> read = cluster.get(1, "/orders/1", "X-Order-Seq", "1");
+			assertEquals(200, read.statusCode());
+			assertEquals("1", read.headers().firstValue("X-Order-Seq").get());
+			assertEquals(404, cluster.get(1, "/orders/2").statusCode());
+
+			// no replica has sequence 1000, the follower passes the read on and the leader turns it down
+			HttpResponse<String> ahead = cluster.get(1, "/orders/1", "X-Order-Seq", "1000");
+			assertEquals(503, ahead.statusCode());
+			assertTrue(ahead.body().contains("Replica 3 has not applied order #1000"), ahead.body());
+		}
+	}
+
+	// reads/sec and latency percentiles of GET /orders/{id} spread round-robin over every replica
+	// of a cluster of 1, 3 and 5, as the frontend does; run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkReads() throws Exception {
+		for (int replicas : new int[]{1, 3, 5}) {
+			try (OrderCluster cluster = new OrderCluster(replicas, "store.type=memory",
+					"logging.level.com.example.order=WARN").startAll()) {
+				awaitLeader(cluster, replicas);
+				int orders = 1000;
+				for (int i = 0; i < orders; i++) {
+					assertEquals(200, cluster.post(replicas, "/orders", ORDER).statusCode());
+				}
+				for (int id = 1; id <= replicas; id++) {
+					OrderLog log = cluster.partition(id).log();
+					OrderCluster.await("replica to apply every order", v -> log.appliedSeq() == orders);
+				}
+				int threads = 16;
+				// warm up
+				run(cluster, replicas, orders, threads, 500);
+				long start = System.nanoTime();
+				long[] latencies = run(cluster, replicas, orders, threads, 2000);
+				double seconds = (System.nanoTime() - start) / 1e9;
+				Arrays.sort(latencies);
+				System.out.printf("replicas=%d reads/sec=%.0f p50=%.2fms p99=%.2fms%n", replicas, latencies.length / seconds,
+						latencies[latencies.length / 2] / 1e6, latencies[(int) (latencies.length * 0.99)] / 1e6);
+			}
+		}
+	}
+
+	private static long[] run(OrderCluster cluster, int replicas, int orders, int threads, int readsPerThread) throws Exception {
+		long[] latencies = new long[threads * readsPerThread];
+		ExecutorService clients = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int offset = t * readsPerThread;
+			done.add(clients.submit(() -> {
+				for (int i = 0; i < readsPerThread; i++) {
+					int read = offset + i;
+					long begin = System.nanoTime();
+					HttpResponse<String> response = cluster.get(1 + read % replicas, "/orders/" + (1 + read % orders));
+					latencies[read] = System.nanoTime() - begin;
+					assertEquals(200, response.statusCode());
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : done) {
+			future.get();
+		}
+		clients.shutdown();
+		assertTrue(clients.awaitTermination(1, TimeUnit.MINUTES));
+		return latencies;
+	}
+
+	private static void awaitLeader(OrderCluster cluster, int leader) throws InterruptedException {
+		OrderCluster.await("every replica to follow " + leader, v -> {
+			for (int id = 1; id < leader; id++) {
+				if (cluster.bean(id, LeaderElection.class).leaderId(0) != leader) {
+					return false;
+				}
+			}
+			return cluster.bean(leader, LeaderElection.class).isLeader(0);
+		});
+	}
+}
@@ -0,0 +1,142 @@
+package com.example.order;
+
+import com.example.common.HttpClientProperties;
+import com.example.common.ServiceHttpClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaderElectionTests {
+
+	private static final String ORDER = "{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":1}";
+
+	@Test
+	void followersRedirectToTheLeader() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3).startAll()) {
+			OrderCluster.await("replica 3 to lead", v -> allFollow(cluster, 3));
+			assertTrue(cluster.bean(3, LeaderElection.class).isLeader(0));
+
+			HttpResponse<String> rejected = cluster.post(1, "/orders", ORDER);
+			assertEquals(409, rejected.statusCode());
+			assertEquals(cluster.url(3), rejected.headers().firstValue("X-Leader").orElse(null));
+
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			// acknowledged by a majority, replica 1 may still be catching up
+			OrderCluster.await("replica 1 to get the order", v -> cluster.partition(1).log().get(1) != null);
+		}
+	}
+
+	// the next leader gets a higher term, and the old one rejoins as a follower with all orders
+	@Test
+	void leaderFailoverAndRejoin() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3).startAll()) {
+			OrderCluster.await("replica 3 to lead", v -> allFollow(cluster, 3));
+			long firstTerm = cluster.bean(3, LeaderElection.class).term(0);
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+
+			cluster.stop(3);
+			long stopped = System.nanoTime();
+			OrderCluster.await("replica 2 to lead", v -> cluster.bean(2, LeaderElection.class).isLeader(0)
+					&& cluster.bean(1, LeaderElection.class).leaderId(0) == 2);
+			System.out.printf("new leader elected after %d ms%n", (System.nanoTime() - stopped) / 1_000_000);
+			assertTrue(cluster.bean(2, LeaderElection.class).term(0) > firstTerm);
+
+			// numbering continues where the old leader stopped
+			HttpResponse<String> created = cluster.post(2, "/orders", ORDER);
+			assertTrue(created.body().contains("\"number\":2"), created.body());
+
+			cluster.start(3);
+			OrderCluster.await("replica 3 to follow 2", v -> cluster.bean(3, LeaderElection.class).leaderId(0) == 2);
+			assertFalse(cluster.bean(3, LeaderElection.class).isLeader(0));
+			OrderCluster.await("replica 3 to catch up", v -> {
+				try {
+					return cluster.get(3, "/orders/2").statusCode() == 200;
+				} catch (Exception e) {
+					return false;
+				}
+			});
+		}
+	}
+
+	// candidates are compared by the term of their last order before its sequence, a replica with
+	// more orders of an older term holds some that were never committed
+	@Test
+	void mostUpToDateLogWinsTheElection() throws Exception {
+		// replica 2 outranks replica 1 on a tie
+		assertEquals(0, claimedTerm(new OrderLog.Position(12, 1), "\"lastOrder\":11,\"lastTerm\":2"));
+		assertEquals(2, claimedTerm(new OrderLog.Position(12, 1), "\"lastOrder\":11,\"lastTerm\":1"));
+		assertEquals(0, claimedTerm(new OrderLog.Position(11, 2), "\"lastOrder\":11,\"lastTerm\":2"));
+	}
+
+	// terms are forgotten on a restart, a claim is for a term after the last one in the log so
+	// orders of different leaders never share one
+	@Test
+	void claimsATermAfterItsLog() throws Exception {
+		long logTerm = LeaderElection.logTerm(5, 3);
+		assertEquals(6, claimedTerm(new OrderLog.Position(3, logTerm), "\"lastOrder\":1,\"lastTerm\":0"));
+		assertTrue(LeaderElection.logTerm(6, 1) > logTerm);
+		assertTrue(LeaderElection.logTerm(5, 3) > LeaderElection.logTerm(5, 2));
+	}
+
+	// replica 1 has more orders than replica 2, but may be behind the replicas that do not answer:
+	// the two are no majority of four or five, so replica 1 must not claim a term and cut the orders
+	// those acknowledged off; of three, every quorum includes one of them
+	@Test
+	void noClaimWithoutAMajority() throws Exception {
+		String peerLog = "\"lastOrder\":11,\"lastTerm\":2";
+		assertEquals(0, claimedTerm(new OrderLog.Position(12, 2), peerLog, "http://localhost:1", "http://localhost:2"));
+		assertEquals(0, claimedTerm(new OrderLog.Position(12, 2), peerLog,
+				"http://localhost:1", "http://localhost:2", "http://localhost:3"));
+		assertEquals(2, claimedTerm(new OrderLog.Position(12, 2), peerLog, "http://localhost:1"));
+	}
+
+	// the term replica 1 claims the partition for on its first round, 0 if it does not; its peers
+	// are replica 2, in term 1 without a leader and with the given log, and the unreachable ones
+	private static long claimedTerm(OrderLog.Position own, String peerLog, String... unreachable) throws IOException {
+		HttpServer peer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		byte[] ping = ("{\"replicaId\":2,\"partitions\":[{\"term\":1,\"leaderId\":-1," + peerLog + "}]}")
+				.getBytes(StandardCharsets.UTF_8);
+		peer.createContext("/orders/ping", exchange -> {
+			exchange.sendResponseHeaders(200, ping.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(ping);
+			}
+		});
+		peer.start();
+		List<String> replicas = new ArrayList<>(Arrays.asList("http://self:0", "http://localhost:" + peer.getAddress().getPort()));
+		replicas.addAll(Arrays.asList(unreachable));
+		LeaderElection election = new LeaderElection(1, replicas, 0, 1, 50, 3,
+				new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper()), new SimpleMeterRegistry());
+		election.setProgress(0, () -> own);
+		try {
+			election.start();
+			return election.isLeader(0) ? election.term(0) : 0;
+		} finally {
+			election.stop();
+			peer.stop(0);
+		}
+	}
+
+	private static boolean allFollow(OrderCluster cluster, int leaderId) {
+		for (int id = 1; id <= 3; id++) {
+			if (cluster.bean(id, LeaderElection.class).leaderId(0) != leaderId) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,141 @@
+package com.example.order;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// order replicas booted in-process on free ports, for tests and benchmarks
+// each replica keeps its orders in its own directory under a temporary one, so a replica that is
+// stopped and started again recovers them
+class OrderCluster implements AutoCloseable {
+
+	static {
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	final List<String> urls = new ArrayList<>();
+	private final List<Integer> ports = new ArrayList<>();
+	private final ConfigurableApplicationContext[] replicas;
+	private final String[] extraProperties;
+	private final Path dataDir;
+	private final HttpClient client = HttpClient.newHttpClient();
+
+	OrderCluster(int size, String... extraProperties) throws IOException {
+		this.replicas = new ConfigurableApplicationContext[size];
+		this.extraProperties = extraProperties;
+		this.dataDir = Files.createTempDirectory("order-cluster");
+		for (int i = 0; i < size; i++) {
+			try (ServerSocket socket = new ServerSocket(0)) {
+				ports.add(socket.getLocalPort());
+			}
+			urls.add("http://localhost:" + ports.get(i));
+		}
+	}
+
+	// starts every replica, highest id first, so that one becomes the leader as on a cold start
+	OrderCluster startAll() {
+		for (int id = replicas.length; id >= 1; id--) {
+			start(id);
+		}
+		return this;
+	}
+
+	void start(int id) {
+		// as command line arguments, so they win over application.yml
+		List<String> args = new ArrayList<>();
+		args.add("--server.port=" + ports.get(id - 1));
+		args.add("--replica.id=" + id);
+		args.add("--replica.all=" + String.join(",", urls));
+		args.add("--election.heartbeat-interval-ms=50");
+		args.add("--election.failure-threshold=3");
+		args.add("--http.client.routes.heartbeat.read-timeout-ms=200");
+		args.add("--store.dir=" + dataDir.resolve("replica-" + id));
+		// replicas keep their orders across restarts, unlike with the memory store of the test properties
+		String storeType = "--store.type=file";
+		for (String property : extraProperties) {
+			args.add("--" + property);
+			if (property.startsWith("store.type=")) {
+				storeType = null;
+			}
+		}
+		if (storeType != null) {
+			args.add(storeType);
+		}
+		replicas[id - 1] = new SpringApplicationBuilder(OrderServiceApplication.class)
+				.run(args.toArray(new String[0]));
+	}
+
+	void stop(int id) {
+		replicas[id - 1].close();
+		replicas[id - 1] = null;
+	}
+
+	<T> T bean(int id, Class<T> type) {
+		return replicas[id - 1].getBean(type);
+	}
+
+	// the only partition unless partitions.count is set
+	OrderPartition partition(int id) {
+		return partition(id, 0);
+	}
+
+	OrderPartition partition(int id, int partition) {
+		return bean(id, OrderPartitions.class).get(partition);
+	}
+
+	String url(int id) {
+		return urls.get(id - 1);
+	}
+
+	// headers as name, value pairs
+	HttpResponse<String> get(int id, String path, String... headers) throws Exception {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(url(id) + path));
+		if (headers.length > 0) {
+			request.headers(headers);
+		}
+		return client.send(request.GET().build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	HttpResponse<String> post(int id, String path, String json) throws Exception {
+		return client.send(HttpRequest.newBuilder(URI.create(url(id) + path))
+				.header("Content-Type", "application/json")
+				.POST(HttpRequest.BodyPublishers.ofString(json)).build(), HttpResponse.BodyHandlers.ofString());
+	}
+
+	// waits up to 10s for the condition, eg. a finished election
+	static void await(String what, Predicate<Void> condition) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 10_000;
+		while (!condition.test(null)) {
+			assertTrue(System.currentTimeMillis() < deadline, "timed out waiting for " + what);
+			Thread.sleep(10);
+		}
+	}
+
+	@Override
+	public void close() {
+		for (int id = replicas.length; id >= 1; id--) {
+			if (replicas[id - 1] != null) {
+				stop(id);
+			}
+		}
+		try {
+			FileSystemUtils.deleteRecursively(dataDir);
+		} catch (IOException e) {
+			// left to the OS to clean up
+		}
+	}
+}
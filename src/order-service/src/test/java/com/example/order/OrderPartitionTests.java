@@ -0,0 +1,116 @@
+package com.example.order;
+
+import com.example.common.OrderPartitioning;
+import org.junit.jupiter.api.Test;
+
+import java.net.http.HttpResponse;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OrderPartitionTests {
+
+	private static final Pattern NUMBER = Pattern.compile("\"number\":(\\d+)");
+
+	// with as many partitions as replicas every replica leads one, each numbers its orders on its
+	// own and the numbers interleave without clashing
+	@Test
+	void partitionsHaveTheirOwnLeadersAndNumbers() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "partitions.count=3").startAll()) {
+			// partition 0 is led by the highest id, the others rotate
+			int[] leaders = {3, 1, 2};
+			awaitLeaders(cluster, leaders);
+			Map<Integer, String> symbols = symbolPerPartition(3);
+
+			TreeSet<Integer> numbers = new TreeSet<>();
+			for (int round = 0; round < 2; round++) {
+				for (int partition = 0; partition < 3; partition++) {
+					HttpResponse<String> created = cluster.post(leaders[partition], "/orders", order(symbols.get(partition)));
+					assertEquals(200, created.statusCode(), created.body());
+					int number = number(created.body());
+					assertEquals(partition, OrderPartitioning.partitionOfNumber(number, 3));
+					assertEquals(Integer.toString(number), created.headers().firstValue("X-Order-Seq").get());
+					numbers.add(number);
+				}
+			}
+			assertEquals("[1, 2, 3, 4, 5, 6]", numbers.toString());
+
+			// another replica points at the leader of the stock's partition
+			HttpResponse<String> refused = cluster.post(leaders[0], "/orders", order(symbols.get(1)));
+			assertEquals(409, refused.statusCode());
+			assertEquals(cluster.url(leaders[1]), refused.headers().firstValue("X-Leader").get());
+
+			// every replica serves every order, at the token of its write
+			for (int number : numbers) {
+				for (int id = 1; id <= 3; id++) {
+					HttpResponse<String> read = cluster.get(id, "/orders/" + number, "X-Order-Seq", Integer.toString(number));
+					assertEquals(200, read.statusCode(), read.body());
+					assertEquals(number, number(read.body()));
+					assertTrue(read.body().contains(symbols.get(OrderPartitioning.partitionOfNumber(number, 3))), read.body());
+				}
+			}
+		}
+	}
+
+	// losing the leader of one partition leaves the others alone, the new leader goes on numbering
+	@Test
+	void failoverStaysWithinItsPartition() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "partitions.count=3").startAll()) {
+			awaitLeaders(cluster, new int[]{3, 1, 2});
+			Map<Integer, String> symbols = symbolPerPartition(3);
+			assertEquals(200, cluster.post(1, "/orders", order(symbols.get(1))).statusCode());
+			assertEquals(200, cluster.post(1, "/orders", order(symbols.get(1))).statusCode());
+			OrderCluster.await("both followers to hold them", v -> cluster.partition(2, 1).log().appliedSeq() == 2
+					&& cluster.partition(3, 1).log().appliedSeq() == 2);
+			long[] terms = {cluster.bean(2, LeaderElection.class).term(0), cluster.bean(2, LeaderElection.class).term(2)};
+
+			cluster.stop(1);
+			OrderCluster.await("partition 1 to fail over to replica 3", v -> cluster.bean(2, LeaderElection.class).leaderId(1) == 3
+					&& cluster.bean(3, LeaderElection.class).isLeader(1));
+			assertEquals(terms[0], cluster.bean(2, LeaderElection.class).term(0));
+			assertEquals(terms[1], cluster.bean(2, LeaderElection.class).term(2));
+			assertEquals(2, cluster.bean(2, LeaderElection.class).leaderId(2));
+
+			HttpResponse<String> created = cluster.post(3, "/orders", order(symbols.get(1)));
+			assertEquals(200, created.statusCode(), created.body());
+			// third order of partition 1
+			assertEquals(OrderPartitioning.numberOf(3, 1, 3), number(created.body()));
+		}
+	}
+
+	private static void awaitLeaders(OrderCluster cluster, int[] leaders) throws InterruptedException {
+		OrderCluster.await("every partition to have its leader", v -> {
+			for (int partition = 0; partition < leaders.length; partition++) {
+				for (int id = 1; id <= 3; id++) {
+					if (cluster.bean(id, LeaderElection.class).leaderId(partition) != leaders[partition]) {
+						return false;
+					}
+				}
+			}
+			return true;
+		});
+	}
+
+	private static Map<Integer, String> symbolPerPartition(int partitions) {
+		Map<Integer, String> symbols = new HashMap<>();
+		for (int i = 1; symbols.size() < partitions; i++) {
+			symbols.putIfAbsent(OrderPartitioning.partitionOf("Stock" + i, partitions), "Stock" + i);
+		}
+		return symbols;
+	}
+
+	private static String order(String symbol) {
+		return "{\"name\":\"" + symbol + "\",\"type\":\"buy\",\"quantity\":1}";
+	}
+
+	private static int number(String body) {
+		Matcher matcher = NUMBER.matcher(body);
+		assertTrue(matcher.find(), body);
+		return Integer.parseInt(matcher.group(1));
+	}
+}
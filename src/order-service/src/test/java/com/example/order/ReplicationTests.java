@@ -0,0 +1,193 @@
+package com.example.order;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReplicationTests {
+
+	private static final String ORDER = "{\"name\":\"Stock1\",\"type\":\"buy\",\"quantity\":1}";
+
+	@Test
+	void concurrentOrdersReachEveryFollower() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3).startAll()) {
+			OrderCluster.await("replica 3 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 3
+					&& cluster.bean(2, LeaderElection.class).leaderId(0) == 3);
+			int orders = 200;
+			ExecutorService clients = Executors.newFixedThreadPool(8);
+			List<Future<HttpResponse<String>>> responses = new ArrayList<>();
+			for (int i = 0; i < orders; i++) {
+				responses.add(clients.submit(() -> cluster.post(3, "/orders", ORDER)));
+			}
+			for (Future<HttpResponse<String>> response : responses) {
+				assertEquals(200, response.get(10, TimeUnit.SECONDS).statusCode());
+			}
+			clients.shutdown();
+
+			for (int id = 1; id <= 2; id++) {
+				OrderLog log = cluster.partition(id).log();
+				OrderCluster.await("follower to apply every order", v -> log.appliedSeq() == orders);
+				assertEquals(orders, log.size());
+			}
+		}
+	}
+
+	// with every replica in the quorum, an order is only acknowledged while all of them are up,
+	// and a follower that comes back is caught up in the background
+	@Test
+	void quorumOfAllNeedsEveryFollower() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3, "replication.quorum=3", "replication.ack-timeout-ms=300").startAll()) {
+			OrderCluster.await("replica 3 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 3
+					&& cluster.bean(2, LeaderElection.class).leaderId(0) == 3);
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+
+			cluster.stop(1);
+			assertEquals(503, cluster.post(3, "/orders", ORDER).statusCode());
+			assertEquals(503, cluster.post(3, "/orders", ORDER).statusCode());
+
+			cluster.start(1);
+			OrderLog log = cluster.partition(1).log();
+			OrderCluster.await("replica 1 to catch up", v -> log.appliedSeq() == 3);
+			// the leader hears about it on its next retry
+			OrderCluster.await("leader to see replica 1", v -> cluster.partition(3).replicator().status()
+					.get("followers").toString().contains("matchSeq=3"));
+			assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+		}
+	}
+
+	// orders are kept on disk, so after every replica restarted they are all there and new orders
+	// are numbered after them
+	@Test
+	void fullClusterRestartKeepsOrdersAndNumbering() throws Exception {
+		try (OrderCluster cluster = new OrderCluster(3).startAll()) {
+			OrderCluster.await("replica 3 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 3
+					&& cluster.bean(2, LeaderElection.class).leaderId(0) == 3);
+			for (int i = 0; i < 5; i++) {
+				assertEquals(200, cluster.post(3, "/orders", ORDER).statusCode());
+			}
+			OrderCluster.await("every replica to hold the orders", v -> cluster.partition(1).log().appliedSeq() == 5
+					&& cluster.partition(2).log().appliedSeq() == 5);
+			for (int id = 3; id >= 1; id--) {
+				cluster.stop(id);
+			}
+
+			cluster.startAll();
+			OrderCluster.await("replica 3 to lead", v -> cluster.bean(1, LeaderElection.class).leaderId(0) == 3
+					&& cluster.bean(2, LeaderElection.class).leaderId(0) == 3);
+			for (int id = 1; id <= 3; id++) {
+				assertEquals(200, cluster.get(id, "/orders/5").statusCode());
+			}
+			HttpResponse<String> created = cluster.post(3, "/orders", ORDER);
+			assertEquals(200, created.statusCode());
+			assertTrue(created.body().contains("\"number\":6"), created.body());
+		}
+	}
+
+	// a replica that led before and kept orders it never got a quorum for gives them up for the new
+	// leader's, from where their logs last match
+	@Test
+	void divergedFollowerTakesTheNewLeadersLog() {
+		OrderLog oldLeader = new OrderLog(new InMemoryOrderStore());
+		OrderLog newLeader = new OrderLog(new InMemoryOrderStore());
+		for (int i = 0; i < 9; i++) {
+			oldLeader.append(new Order(0, "Stock1", "buy", 1), 1);
+		}
+		newLeader.apply(1, 1, 9, 0, oldLeader.range(1, 9), false);
+		for (int i = 0; i < 3; i++) {
+			oldLeader.append(new Order(0, "Stock1", "buy", 2), 1);
+		}
+		for (int i = 0; i < 2; i++) {
+			newLeader.append(new Order(0, "Stock2", "sell", 3), 2);
+		}
+
+		// an empty probe does not move it, and what it answers is not on the new leader's log
+		OrderLog.Position probed = oldLeader.apply(2, 12, 11, newLeader.termAt(11), Collections.emptyList(), false);
+		assertEquals(12, probed.seq());
+		assertFalse(newLeader.holds(probed.seq(), probed.term()));
+		// nor does a batch after an order that is not the leader's
+		assertEquals(12, oldLeader.apply(2, 11, 11, newLeader.termAt(10), newLeader.range(11, 11), false).seq());
+
+		long match = newLeader.lastMatch(oldLeader.terms(), probed.seq());
+		assertEquals(9, match);
+		OrderLog.Position repaired = oldLeader.apply(2, match + 1, 11, newLeader.termAt(match),
+				newLeader.range(match + 1, 11), true);
+		assertEquals(11, repaired.seq());
+		assertTrue(newLeader.holds(repaired.seq(), repaired.term()));
+		assertEquals("Stock2", oldLeader.get(10).getName());
+		assertNull(oldLeader.get(12));
+	}
+
+	// orders/sec and latency percentiles of createOrder with 3 and 5 replicas, against one call
+	// per order and follower without pipelining; run with -Dbenchmark=true
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkReplication() throws Exception {
+		for (int replicas : new int[]{3, 5}) {
+			benchmark(replicas, "unbatched", "replication.max-batch=1", "replication.pipeline-depth=1");
+			benchmark(replicas, "batched+pipelined", "replication.max-batch=256", "replication.pipeline-depth=4");
+		}
+	}
+
+	private static void benchmark(int replicas, String mode, String... properties) throws Exception {
+		List<String> all = new ArrayList<>(Arrays.asList(properties));
+		all.add("logging.level.com.example.order=WARN");
+		try (OrderCluster cluster = new OrderCluster(replicas, all.toArray(new String[0])).startAll()) {
+			OrderCluster.await("every replica to follow " + replicas, v -> {
+				for (int id = 1; id < replicas; id++) {
+					if (cluster.bean(id, LeaderElection.class).leaderId(0) != replicas) {
+						return false;
+					}
+				}
+				return true;
+			});
+			int threads = 16;
+			int ordersPerThread = 300;
+			// warm up
+			run(cluster, replicas, threads, 50);
+			long start = System.nanoTime();
+			long[] latencies = run(cluster, replicas, threads, ordersPerThread);
+			double seconds = (System.nanoTime() - start) / 1e9;
+			Arrays.sort(latencies);
+			System.out.printf("replicas=%d %-18s orders/sec=%.0f p50=%.2fms p99=%.2fms%n", replicas, mode,
+					latencies.length / seconds, latencies[latencies.length / 2] / 1e6,
+					latencies[(int) (latencies.length * 0.99)] / 1e6);
+		}
+	}
+
+	private static long[] run(OrderCluster cluster, int leader, int threads, int ordersPerThread) throws Exception {
+		long[] latencies = new long[threads * ordersPerThread];
+		ExecutorService clients = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			int offset = t * ordersPerThread;
+			done.add(clients.submit(() -> {
+				for (int i = 0; i < ordersPerThread; i++) {
+					long begin = System.nanoTime();
+					assertEquals(200, cluster.post(leader, "/orders", ORDER).statusCode());
+					latencies[offset + i] = System.nanoTime() - begin;
+				}
+				return null;
+			}));
+		}
+		for (Future<?> future : done) {
+			future.get();
+		}
+		clients.shutdown();
+		assertTrue(clients.awaitTermination(1, TimeUnit.MINUTES));
+		return latencies;
+	}
+}
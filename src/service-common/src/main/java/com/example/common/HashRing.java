@@ -0,0 +1,77 @@
+package com.example.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+// consistent hashing of keys (stock names) onto nodes (catalog shards): each node takes
+// virtualNodes points on a 64-bit ring, hashed from its id, and a key belongs to the node of the
+// first point at or after the key's hash. a node joining or leaving only moves the keys between
+// its points and the ones before them, about 1/N of all keys, and every process that builds the
+// ring from the same ids puts each key on the same node. immutable, a membership change builds a
+// new ring
+public final class HashRing<N> {
+
+    private final List<N> nodes;
+    // ring points in ascending order and the node owning each
+    private final long[] points;
+    private final int[] owners;
+
+    public HashRing(List<N> nodes, Function<N, String> nodeId, int virtualNodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("A hash ring needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+        int count = nodes.size() * virtualNodes;
+        long[][] ring = new long[count][];
+        for (int n = 0; n < nodes.size(); n++) {
+            String id = nodeId.apply(nodes.get(n));
+            for (int v = 0; v < virtualNodes; v++) {
+                ring[n * virtualNodes + v] = new long[]{hash(id + "#" + v), n};
+            }
+        }
+        // ties (practically never) go to the node listed first, the same in every process
+        Arrays.sort(ring, (a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        this.points = new long[count];
+        this.owners = new int[count];
+        for (int i = 0; i < count; i++) {
+            points[i] = ring[i][0];
+            owners[i] = (int) ring[i][1];
+        }
+    }
+
+    // the node the key belongs to
+    public N nodeFor(String key) {
+        if (nodes.size() == 1) {
+            return nodes.get(0);
+        }
+        int i = Arrays.binarySearch(points, hash(key));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return nodes.get(owners[i == points.length ? 0 : i]);
+    }
+
+    public List<N> nodes() {
+        return nodes;
+    }
+
+    // 64-bit FNV-1a over the UTF-8 bytes, then murmur3's finalizer to spread nearby ids and names
+    // (Stock1, Stock2, ..) over the whole ring
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
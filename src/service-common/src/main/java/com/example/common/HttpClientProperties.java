@@ -0,0 +1,74 @@
+package com.example.common;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// settings of the shared inter-service HTTP client, bound from http.client.* in application.yml
+// routes are named targets (eg. catalog, frontend, order) that may override the read timeout
+@ConfigurationProperties(prefix = "http.client")
+public class HttpClientProperties {
+
+    // time allowed to open a TCP connection
+    private long connectTimeoutMs = 1000;
+
+    // time allowed for a response when the route does not set its own
+    private long readTimeoutMs = 5000;
+
+    // negotiate HTTP/2 (h2c upgrade) with servers that support it, HTTP/1.1 keep-alive otherwise
+    private boolean http2 = false;
+
+    private Map<String, Route> routes = new HashMap<>();
+
+    public static class Route {
+
+        private Long readTimeoutMs;
+
+        public Long getReadTimeoutMs() {
+            return readTimeoutMs;
+        }
+
+        public void setReadTimeoutMs(Long readTimeoutMs) {
+            this.readTimeoutMs = readTimeoutMs;
+        }
+    }
+
+    public long getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+
+    public void setConnectTimeoutMs(long connectTimeoutMs) {
+        this.connectTimeoutMs = connectTimeoutMs;
+    }
+
+    public long getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+
+    public void setReadTimeoutMs(long readTimeoutMs) {
+        this.readTimeoutMs = readTimeoutMs;
+    }
+
+    public boolean isHttp2() {
+        return http2;
+    }
+
+    public void setHttp2(boolean http2) {
+        this.http2 = http2;
+    }
+
+    public Map<String, Route> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(Map<String, Route> routes) {
+        this.routes = routes;
+    }
+
+    // read timeout of a route, falling back to the default
+    public long readTimeoutMs(String route) {
+        Route r = routes.get(route);
+        return r != null && r.getReadTimeoutMs() != null ? r.getReadTimeoutMs() : readTimeoutMs;
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+// picks one in every n calls, for per-request debug lines that would cost more than the request
+// itself if every one was written; check the level first so nothing is counted while it is off:
+// if (logger.isDebugEnabled() && sampler.sample()) logger.debug(...)
+public class LogSampler {
+
+    private final int every;
+    private final AtomicLong calls = new AtomicLong();
+
+    // every 1 logs every call
+    public LogSampler(int every) {
+        this.every = Math.max(1, every);
+    }
+
+    public boolean sample() {
+        return every == 1 || calls.getAndIncrement() % every == 0;
+    }
+}
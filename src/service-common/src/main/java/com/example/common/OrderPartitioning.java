@@ -0,0 +1,39 @@
+package com.example.common;
+
+// how the order keyspace is split into partitions by stock symbol, shared by the order replicas
+// and the frontend so both agree on the replication group an order belongs to
+//
+// every partition numbers its own orders 1, 2, 3, ... (its log sequence); the order number the
+// clients see interleaves them, the n-th order of partition p out of count gets number
+// (n - 1) * count + p + 1, so numbers are unique across partitions without any coordination and
+// the partition of an order follows from its number. with one partition the number is the sequence
+public final class OrderPartitioning {
+
+    private OrderPartitioning() {
+    }
+
+    // partition of the orders for a stock, orders without a name go to the first one
+    public static int partitionOf(String symbol, int partitions) {
+        if (symbol == null) {
+            return 0;
+        }
+        int hash = symbol.hashCode();
+        // spread the high bits, names of one family (Stock1, Stock2, ...) differ only at the end
+        return Math.floorMod(hash ^ (hash >>> 16), partitions);
+    }
+
+    // partition that numbered an order
+    public static int partitionOfNumber(long number, int partitions) {
+        return (int) Math.floorMod(number - 1, (long) partitions);
+    }
+
+    // sequence of an order number in the log of its partition
+    public static long sequenceOf(long number, int partitions) {
+        return number <= 0 ? 0 : (number - 1) / partitions + 1;
+    }
+
+    // order number of a sequence of a partition, 0 for sequence 0 (nothing yet)
+    public static long numberOf(long seq, int partition, int partitions) {
+        return seq <= 0 ? 0 : (seq - 1) * partitions + partition + 1;
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.jackson.JacksonAutoConfiguration;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.core.env.Environment;
+
+// registers the shared ServiceHttpClient, its threads and the log sampler in every service that
+// has service-common on its classpath
+@AutoConfiguration(after = JacksonAutoConfiguration.class)
+@EnableConfigurationProperties(HttpClientProperties.class)
+public class ServiceHttpAutoConfiguration {
+
+    private static final Logger logger = LoggerFactory.getLogger(ServiceHttpAutoConfiguration.class);
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ServiceThreads serviceThreads(Environment environment) {
+        // same switch and Java version check Spring Boot applies to Tomcat
+        boolean virtual = Threading.VIRTUAL.isActive(environment);
+        if (!virtual && environment.getProperty("spring.threads.virtual.enabled", Boolean.class, false)) {
+            logger.warn("Virtual threads requested but Java {} does not have them, using platform threads",
+                    Runtime.version().feature());
+        }
+        return new ServiceThreads(virtual);
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public ServiceHttpClient serviceHttpClient(HttpClientProperties properties, ObjectProvider<ObjectMapper> objectMapper,
+                                               ServiceThreads threads, ObjectProvider<MeterRegistry> registry) {
+        // the pool's size and keep-alive are the JDK's jdk.httpclient.connectionPoolSize and
+        // jdk.httpclient.keepalive.timeout, read once per JVM when the first client is built, so
+        // they are JVM options (see spring-boot-maven-plugin in the parent pom) rather than settings
+        return new ServiceHttpClient(properties, objectMapper.getIfAvailable(ObjectMapper::new),
+                threads.executor("http-client-"), registry.getIfAvailable());
+    }
+
+    @Bean
+    @ConditionalOnMissingBean
+    public LogSampler logSampler(@Value("${logging.sample-every:100}") int every) {
+        return new LogSampler(every);
+    }
+}
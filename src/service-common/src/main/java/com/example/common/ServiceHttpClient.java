@@ -0,0 +1,213 @@
+package com.example.common;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+// the one HTTP client every service uses to talk to the others
+// wraps a single java.net.http.HttpClient, so connections to each target are pooled and kept
+// alive across requests (optionally over HTTP/2), every request carries its route's read timeout
+// and bodies are read straight off the connection; RestTemplates handed out by restTemplate()
+// share the same pooled client. with a meter registry every call is timed in
+// http.client.requests by route, target and status
+public class ServiceHttpClient {
+
+    private final HttpClient client;
+    private final HttpClientProperties properties;
+    private final ObjectMapper objectMapper;
+    private final Map<String, RestTemplate> restTemplates = new ConcurrentHashMap<>();
+
+    // null when calls are not timed
+    private final MeterRegistry registry;
+    // timers by route, target and status, so a call does not build a meter id
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public ServiceHttpClient(HttpClientProperties properties, ObjectMapper objectMapper) {
+        this(properties, objectMapper, null, null);
+    }
+
+    // executor runs the client's internal tasks and async completions, null for the JDK default pool
+    public ServiceHttpClient(HttpClientProperties properties, ObjectMapper objectMapper, Executor executor) {
+        this(properties, objectMapper, executor, null);
+    }
+
+    public ServiceHttpClient(HttpClientProperties properties, ObjectMapper objectMapper, Executor executor,
+                             MeterRegistry registry) {
+        this.properties = properties;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(properties.isHttp2() ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofMillis(properties.getConnectTimeoutMs()))
+                .followRedirects(HttpClient.Redirect.NEVER);
+        if (executor != null) {
+            builder.executor(executor);
+        }
+        this.client = builder.build();
+    }
+
+    // GET url, returns status and body
+    public HttpResponse<String> get(String route, String url) throws IOException, InterruptedException {
+        return send(route, request(route, url).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // GET url with extra request headers given as name, value pairs
+    public HttpResponse<String> get(String route, String url, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = request(route, url);
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return send(route, request.GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // POST body as JSON, returns status and body
+    public HttpResponse<String> postJson(String route, String url, Object body) throws IOException, InterruptedException {
+        return send(route, jsonPost(route, url, body), HttpResponse.BodyHandlers.ofString());
+    }
+
+    // GET without blocking the caller
+    public CompletableFuture<HttpResponse<String>> getAsync(String route, String url) {
+        return sendAsync(route, request(route, url).GET().build());
+    }
+
+    // GET without blocking the caller, with extra request headers given as name, value pairs
+    public CompletableFuture<HttpResponse<String>> getAsync(String route, String url, String... headers) {
+        HttpRequest.Builder request = request(route, url);
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return sendAsync(route, request.GET().build());
+    }
+
+    // POST body as JSON without blocking the caller
+    public CompletableFuture<HttpResponse<String>> postJsonAsync(String route, String url, Object body) {
+        return sendAsync(route, jsonPost(route, url, body));
+    }
+
+    // GET url and hand back the body as a stream, for responses too large to buffer
+    // the caller must close the stream; the read timeout only covers the response headers
+    public HttpResponse<InputStream> stream(String route, String url) throws IOException, InterruptedException {
+        return send(route, request(route, url).GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    // stream() with extra request headers given as name, value pairs
+    public HttpResponse<InputStream> stream(String route, String url, String... headers) throws IOException, InterruptedException {
+        HttpRequest.Builder request = request(route, url);
+        if (headers.length > 0) {
+            request.headers(headers);
+        }
+        return send(route, request.GET().build(), HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    // parses a JSON response body
+    public <T> T readJson(String body, Class<T> type) throws JsonProcessingException {
+        return objectMapper.readValue(body, type);
+    }
+
+    // RestTemplate for a route, backed by the shared pooled client
+    public RestTemplate restTemplate(String route) {
+        return restTemplates.computeIfAbsent(route, r -> {
+            JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(client);
+            requestFactory.setReadTimeout(readTimeout(r));
+            RestTemplate restTemplate = new RestTemplate(requestFactory);
+            if (registry != null) {
+                restTemplate.getInterceptors().add((request, body, execution) -> {
+                    long start = System.nanoTime();
+                    try {
+                        ClientHttpResponse response = execution.execute(request, body);
+                        record(r, request.getURI(), response.getStatusCode().value(), start);
+                        return response;
+                    } catch (IOException e) {
+                        record(r, request.getURI(), -1, start);
+                        throw e;
+                    }
+                });
+            }
+            return restTemplate;
+        });
+    }
+
+    // read timeout of a route
+    public Duration readTimeout(String route) {
+        return Duration.ofMillis(properties.readTimeoutMs(route));
+    }
+
+    // the underlying JDK client
+    public HttpClient client() {
+        return client;
+    }
+
+    private <T> HttpResponse<T> send(String route, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+            throws IOException, InterruptedException {
+        if (registry == null) {
+            return client.send(request, handler);
+        }
+        long start = System.nanoTime();
+        try {
+            HttpResponse<T> response = client.send(request, handler);
+            record(route, request.uri(), response.statusCode(), start);
+            return response;
+        } catch (IOException e) {
+            record(route, request.uri(), -1, start);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<HttpResponse<String>> sendAsync(String route, HttpRequest request) {
+        CompletableFuture<HttpResponse<String>> response = client.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        if (registry == null) {
+            return response;
+        }
+        long start = System.nanoTime();
+        return response.whenComplete((r, e) -> record(route, request.uri(), r != null ? r.statusCode() : -1, start));
+    }
+
+    // status -1 for a call that got no answer (refused, reset or timed out)
+    private void record(String route, URI uri, int status, long start) {
+        String target = uri.getRawAuthority();
+        Timer timer = timers.computeIfAbsent(route + ' ' + target + ' ' + status, key -> Timer.builder("http.client.requests")
+                .description("Calls to other services")
+                .tag("route", route)
+                .tag("target", target)
+                .tag("status", status < 0 ? "none" : Integer.toString(status))
+                .tag("outcome", status < 0 ? "ERROR" : status < 400 ? "SUCCESS" : status < 500 ? "CLIENT_ERROR" : "SERVER_ERROR")
+                .publishPercentileHistogram()
+                .register(registry));
+        timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private HttpRequest.Builder request(String route, String url) {
+        return HttpRequest.newBuilder(URI.create(url)).timeout(readTimeout(route));
+    }
+
+    private HttpRequest jsonPost(String route, String url, Object body) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+        return request(route, url)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                .build();
+    }
+}
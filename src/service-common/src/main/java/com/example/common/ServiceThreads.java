@@ -0,0 +1,46 @@
+package com.example.common;
+
+import org.springframework.core.task.VirtualThreadTaskExecutor;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+
+// threads a service starts for blocking work of its own (outbound calls, replication streams)
+// virtual threads when spring.threads.virtual.enabled is set and the JVM has them (Java 21+), so
+// a call waiting on another service parks instead of holding a platform thread; daemon platform
+// threads otherwise. Tomcat follows the same switch through Spring Boot
+public class ServiceThreads {
+
+    private final boolean virtual;
+
+    public ServiceThreads(boolean virtual) {
+        this.virtual = virtual;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    // an unstarted thread running task
+    public Thread newThread(String name, Runnable task) {
+        Thread thread;
+        if (virtual) {
+            thread = new VirtualThreadTaskExecutor().getVirtualThreadFactory().newThread(task);
+            thread.setName(name);
+        } else {
+            thread = new Thread(task, name);
+            thread.setDaemon(true);
+        }
+        return thread;
+    }
+
+    // every thread named name
+    public ThreadFactory factory(String name) {
+        return task -> newThread(name, task);
+    }
+
+    // a thread per task in virtual mode, null to keep the caller's default executor otherwise
+    public Executor executor(String namePrefix) {
+        return virtual ? new VirtualThreadTaskExecutor(namePrefix) : null;
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTests {
+
+	private static final int KEYS = 10_000;
+
+	// every shard gets a fair share of the stocks
+	@Test
+	void keysSpreadEvenlyOverNodes() {
+		HashRing<String> ring = new HashRing<>(List.of("catalog-1", "catalog-2", "catalog-3", "catalog-4"),
+				Function.identity(), 100);
+		Map<String, Integer> counts = new HashMap<>();
+		for (int i = 0; i < KEYS; i++) {
+			counts.merge(ring.nodeFor("Stock" + i), 1, Integer::sum);
+		}
+		assertEquals(4, counts.size());
+		for (int count : counts.values()) {
+			assertTrue(count > KEYS / 4 * 0.75 && count < KEYS / 4 * 1.25, counts.toString());
+		}
+	}
+
+	// a shard joining only takes stocks over, nothing moves between the others, and leaving
+	// again puts every stock back where it was
+	@Test
+	void membershipChangesMoveFewKeys() {
+		HashRing<String> three = new HashRing<>(List.of("catalog-1", "catalog-2", "catalog-3"), Function.identity(), 100);
+		HashRing<String> four = new HashRing<>(List.of("catalog-1", "catalog-2", "catalog-3", "catalog-4"),
+				Function.identity(), 100);
+		// the order the members are listed in does not matter
+		HashRing<String> reordered = new HashRing<>(List.of("catalog-3", "catalog-1", "catalog-2"), Function.identity(), 100);
+		int moved = 0;
+		for (int i = 0; i < KEYS; i++) {
+			String key = "Stock" + i;
+			String before = three.nodeFor(key);
+			String after = four.nodeFor(key);
+			if (!before.equals(after)) {
+				assertEquals("catalog-4", after, key);
+				moved++;
+			}
+			assertEquals(before, reordered.nodeFor(key));
+		}
+		assertTrue(moved > KEYS / 4 * 0.75 && moved < KEYS / 4 * 1.25, "moved " + moved);
+	}
+}
@@ -0,0 +1,182 @@
+package com.example.common;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ServiceHttpClientTests {
+
+	private static final String STOCK = "{\"data\":{\"name\":\"Stock1\",\"volume\":100}}";
+
+	static {
+		// the JDK stub server writes headers and body separately, without this every response
+		// waits ~40ms for the client's delayed ACK
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private HttpServer server;
+	private String url;
+	// remote ports of the connections the stub has served requests on
+	private final Set<Integer> connections = ConcurrentHashMap.newKeySet();
+
+	// stub with a fast stock lookup, an echo endpoint and one that never answers in time
+	@BeforeEach
+	void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/stocks/", exchange -> {
+			connections.add(exchange.getRemoteAddress().getPort());
+			byte[] body = STOCK.getBytes(StandardCharsets.UTF_8);
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/echo", exchange -> {
+			byte[] body = exchange.getRequestBody().readAllBytes();
+			exchange.getResponseHeaders().add("Content-Type", exchange.getRequestHeaders().getFirst("Content-Type"));
+			exchange.sendResponseHeaders(200, body.length);
+			exchange.getResponseBody().write(body);
+			exchange.close();
+		});
+		server.createContext("/slow", exchange -> {
+			try {
+				Thread.sleep(2000);
+			} catch (InterruptedException ignored) {
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.start();
+		url = "http://localhost:" + server.getAddress().getPort();
+	}
+
+	@AfterEach
+	void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	void sequentialRequestsReuseOneConnection() throws Exception {
+		ServiceHttpClient client = client(new HttpClientProperties());
+		for (int i = 0; i < 20; i++) {
+			HttpResponse<String> response = client.get("catalog", url + "/stocks/Stock1");
+			assertEquals(200, response.statusCode());
+			assertEquals(STOCK, response.body());
+		}
+		assertEquals(1, connections.size());
+	}
+
+	@Test
+	void routeReadTimeoutApplies() {
+		HttpClientProperties properties = new HttpClientProperties();
+		HttpClientProperties.Route route = new HttpClientProperties.Route();
+		route.setReadTimeoutMs(100L);
+		properties.getRoutes().put("catalog", route);
+		ServiceHttpClient client = client(properties);
+
+		assertEquals(5000, client.readTimeout("order").toMillis());
+		assertThrows(HttpTimeoutException.class, () -> client.get("catalog", url + "/slow"));
+		assertThrows(Exception.class, () -> client.restTemplate("catalog").getForObject(url + "/slow", String.class));
+	}
+
+	@Test
+	void postsJsonAndSharesRestTemplates() throws Exception {
+		ServiceHttpClient client = client(new HttpClientProperties());
+		HttpResponse<String> response = client.postJson("frontend", url + "/echo", List.of("Stock1", "Stock2"));
+		assertEquals("[\"Stock1\",\"Stock2\"]", response.body());
+		assertEquals(List.of("Stock1", "Stock2"), client.readJson(response.body(), List.class));
+
+		Map<?, ?> echoed = client.restTemplate("order").postForObject(url + "/echo", Map.of("name", "Stock1"), Map.class);
+		assertEquals("Stock1", echoed.get("name"));
+		assertEquals(client.restTemplate("order"), client.restTemplate("order"));
+	}
+
+	// every call is timed under its route, target and status, sync, async and through RestTemplates
+	@Test
+	void callsAreTimedByRouteAndTarget() throws Exception {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ServiceHttpClient client = new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper(), null, registry);
+		client.get("catalog", url + "/stocks/Stock1");
+		client.getAsync("catalog", url + "/stocks/Stock1").join();
+		client.restTemplate("order").postForObject(url + "/echo", Map.of("name", "Stock1"), Map.class);
+		client.get("catalog", url + "/missing");
+
+		String target = url.substring("http://".length());
+		Timer found = registry.find("http.client.requests").tags("route", "catalog", "target", target, "status", "200").timer();
+		assertEquals(2, found.count());
+		assertEquals(1, registry.find("http.client.requests").tags("route", "order", "outcome", "SUCCESS").timer().count());
+		assertEquals(1, registry.find("http.client.requests").tags("status", "404", "outcome", "CLIENT_ERROR").timer().count());
+	}
+
+	// mean latency of a frontend cache miss against a local catalog stub, a new HttpURLConnection
+	// read with a Scanner per request against the pooled client; run with -Dbenchmark=true.
+	// the JDK client hands every exchange from the caller to its executor and selector thread and
+	// back, where HttpURLConnection does it all on the caller's, which is what the pooled client
+	// loses on a single CPU. the same client completing on the selector thread shows that cost; it
+	// is not what the services use, a slow completion there would hold every other connection
+	@Test
+	@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+	void benchmarkCatalogFetch() throws Exception {
+		ServiceHttpClient client = client(new HttpClientProperties());
+		ServiceHttpClient inline = new ServiceHttpClient(new HttpClientProperties(), new ObjectMapper(), Runnable::run);
+		int requests = 5_000;
+		for (int round = 0; round < 2; round++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				urlConnectionFetch(url + "/stocks/Stock1");
+			}
+			double legacy = (System.nanoTime() - start) / 1e3 / requests;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				client.get("catalog", url + "/stocks/Stock1");
+			}
+			double pooled = (System.nanoTime() - start) / 1e3 / requests;
+			start = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				inline.get("catalog", url + "/stocks/Stock1");
+			}
+			double handOffFree = (System.nanoTime() - start) / 1e3 / requests;
+			System.out.printf("HttpURLConnection+Scanner: %.0f us/request, pooled client: %.0f us/request, "
+					+ "completing on the selector thread: %.0f us/request%n", legacy, pooled, handOffFree);
+		}
+	}
+
+	// the fetch the frontend used before the shared client
+	private static String urlConnectionFetch(String target) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(target).openConnection();
+		conn.setRequestMethod("GET");
+		int status = conn.getResponseCode();
+		InputStream in = status == 200 ? conn.getInputStream() : conn.getErrorStream();
+		Scanner scanner = new Scanner(in).useDelimiter("\\A");
+		String response = scanner.hasNext() ? scanner.next() : "";
+		in.close();
+		return response;
+	}
+
+	private static ServiceHttpClient client(HttpClientProperties properties) {
+		return new ServiceHttpClient(properties, new ObjectMapper());
+	}
+}